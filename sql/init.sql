@@ -66,11 +66,13 @@ CREATE TABLE IF NOT EXISTS t_conversation (
     status VARCHAR(20) DEFAULT 'active' COMMENT '状态：active-活跃，archived-归档，deleted-删除',
     message_count INT DEFAULT 0 COMMENT '消息数量',
     token_count INT DEFAULT 0 COMMENT 'Token消耗',
+    summary TEXT COMMENT '滚动摘要',
+    summarized_message_id BIGINT COMMENT '摘要已覆盖到的最后一条消息ID',
     create_time DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     update_time DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
     INDEX idx_user_id (user_id),
     INDEX idx_thread_id (thread_id),
-    INDEX idx_status (status)
+    INDEX idx_status_update_time (status, update_time)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='会话表';
 
 -- ================================
@@ -86,7 +88,8 @@ CREATE TABLE IF NOT EXISTS t_message (
     token_count INT DEFAULT 0 COMMENT 'Token消耗',
     create_time DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     INDEX idx_conversation_id (conversation_id),
-    INDEX idx_role (role)
+    INDEX idx_role (role),
+    INDEX idx_create_time (create_time)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='消息表';
 
 -- ================================
@@ -147,6 +150,49 @@ CREATE TABLE IF NOT EXISTS t_token_usage_log (
     INDEX idx_request_time (request_time)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='Token使用日志表';
 
+-- Token用量汇总表（分钟/小时/天，由TokenUsageLogWriter增量累加）
+CREATE TABLE IF NOT EXISTS t_token_usage_rollup_minute (
+    bucket_time DATETIME NOT NULL COMMENT '时间桶起点（按分钟截断）',
+    user_id BIGINT NOT NULL COMMENT '用户ID',
+    model_name VARCHAR(100) NOT NULL DEFAULT '' COMMENT '模型名称',
+    operation_type VARCHAR(50) NOT NULL DEFAULT '' COMMENT '操作类型',
+    request_count BIGINT NOT NULL DEFAULT 0 COMMENT '调用次数',
+    input_tokens BIGINT NOT NULL DEFAULT 0 COMMENT '输入Token数',
+    output_tokens BIGINT NOT NULL DEFAULT 0 COMMENT '输出Token数',
+    total_tokens BIGINT NOT NULL DEFAULT 0 COMMENT '总Token数',
+    estimated_cost DOUBLE NOT NULL DEFAULT 0 COMMENT '预估成本',
+    PRIMARY KEY (bucket_time, user_id, model_name, operation_type),
+    INDEX idx_user_bucket (user_id, bucket_time)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='Token用量分钟汇总表';
+
+CREATE TABLE IF NOT EXISTS t_token_usage_rollup_hour (
+    bucket_time DATETIME NOT NULL COMMENT '时间桶起点（按小时截断）',
+    user_id BIGINT NOT NULL COMMENT '用户ID',
+    model_name VARCHAR(100) NOT NULL DEFAULT '' COMMENT '模型名称',
+    operation_type VARCHAR(50) NOT NULL DEFAULT '' COMMENT '操作类型',
+    request_count BIGINT NOT NULL DEFAULT 0 COMMENT '调用次数',
+    input_tokens BIGINT NOT NULL DEFAULT 0 COMMENT '输入Token数',
+    output_tokens BIGINT NOT NULL DEFAULT 0 COMMENT '输出Token数',
+    total_tokens BIGINT NOT NULL DEFAULT 0 COMMENT '总Token数',
+    estimated_cost DOUBLE NOT NULL DEFAULT 0 COMMENT '预估成本',
+    PRIMARY KEY (bucket_time, user_id, model_name, operation_type),
+    INDEX idx_user_bucket (user_id, bucket_time)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='Token用量小时汇总表';
+
+CREATE TABLE IF NOT EXISTS t_token_usage_rollup_day (
+    bucket_time DATETIME NOT NULL COMMENT '时间桶起点（按天截断）',
+    user_id BIGINT NOT NULL COMMENT '用户ID',
+    model_name VARCHAR(100) NOT NULL DEFAULT '' COMMENT '模型名称',
+    operation_type VARCHAR(50) NOT NULL DEFAULT '' COMMENT '操作类型',
+    request_count BIGINT NOT NULL DEFAULT 0 COMMENT '调用次数',
+    input_tokens BIGINT NOT NULL DEFAULT 0 COMMENT '输入Token数',
+    output_tokens BIGINT NOT NULL DEFAULT 0 COMMENT '输出Token数',
+    total_tokens BIGINT NOT NULL DEFAULT 0 COMMENT '总Token数',
+    estimated_cost DOUBLE NOT NULL DEFAULT 0 COMMENT '预估成本',
+    PRIMARY KEY (bucket_time, user_id, model_name, operation_type),
+    INDEX idx_user_bucket (user_id, bucket_time)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='Token用量天汇总表';
+
 -- ================================
 -- 7. 工作流执行记录表
 -- ================================
@@ -0,0 +1,276 @@
+package com.kinch.agent.audit;
+
+import com.kinch.agent.entity.AuditLog;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 审计日志异步管道
+ * 模型调用线程只把审计事件发布到AuditRingBuffer（无锁、不做I/O），
+ * 由单个后台线程按批取出并依次写入配置的输出端（jdbc、jsonl）。
+ * 缓冲区满时按backpressure策略丢弃或短暂等待，相关计数通过getStatistics暴露。
+ * 关闭后不再接收新事件；关闭时先排空缓冲区、等写入线程退出，再关闭输出端
+ *
+ * @author kinch
+ * @date 2026-01-12
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AuditPipeline {
+
+    /**
+     * 缓冲区满时的处理策略
+     */
+    public enum Backpressure {
+        /** 直接丢弃新事件 */
+        DROP,
+        /** 等待最多block-timeout-ms，仍满则丢弃 */
+        BLOCK
+    }
+
+    private final List<AuditSink> availableSinks;
+
+    @Value("${agent.audit.buffer-size:8192}")
+    private int bufferSize;
+
+    @Value("${agent.audit.batch-size:256}")
+    private int batchSize;
+
+    /**
+     * 最长攒批时间（毫秒）
+     */
+    @Value("${agent.audit.flush-interval-ms:500}")
+    private long flushIntervalMs;
+
+    @Value("${agent.audit.backpressure:DROP}")
+    private Backpressure backpressure;
+
+    @Value("${agent.audit.block-timeout-ms:5}")
+    private long blockTimeoutMs;
+
+    /**
+     * 启用的输出端名称
+     */
+    @Value("${agent.audit.sinks:jdbc}")
+    private Set<String> sinkNames;
+
+    @Value("${agent.audit.shutdown-timeout-ms:10000}")
+    private long shutdownTimeoutMs;
+
+    private AuditRingBuffer ringBuffer;
+    private List<AuditSink> sinks;
+    private volatile boolean running;
+    private Thread writerThread;
+
+    /**
+     * 正在发布的调用数，写入线程在关闭后等它归零再退出，避免最后几条事件留在缓冲区
+     */
+    private final AtomicInteger publishing = new AtomicInteger();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejectedAfterShutdown = new LongAdder();
+    private final LongAdder blockedPublishes = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder drained = new LongAdder();
+    private final AtomicInteger highWatermark = new AtomicInteger();
+    private final Map<String, LongAdder> sinkWritten = new HashMap<>();
+    private final Map<String, LongAdder> sinkFailed = new HashMap<>();
+
+    @PostConstruct
+    public void start() {
+        ringBuffer = new AuditRingBuffer(bufferSize);
+        sinks = availableSinks.stream().filter(sink -> sinkNames.contains(sink.getName())).toList();
+        for (AuditSink sink : sinks) {
+            sinkWritten.put(sink.getName(), new LongAdder());
+            sinkFailed.put(sink.getName(), new LongAdder());
+        }
+        running = true;
+        writerThread = new Thread(this::runLoop, "audit-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        log.info("📋 审计管道已启动 - 缓冲区: {}, 批大小: {}, 背压策略: {}, 输出端: {}",
+                ringBuffer.capacity(), batchSize, backpressure, sinks.stream().map(AuditSink::getName).toList());
+    }
+
+    /**
+     * 发布一条审计日志（不做I/O）
+     *
+     * @return 是否成功进入缓冲区，管道已关闭时返回false
+     */
+    public boolean publish(AuditLog auditLog) {
+        if (auditLog.getCreateTime() == null) {
+            auditLog.setCreateTime(LocalDateTime.now());
+        }
+
+        // 先登记再检查running，与关闭线程的 running=false → 检查publishing 构成顺序保证
+        publishing.incrementAndGet();
+        try {
+            if (!running) {
+                rejectedAfterShutdown.increment();
+                return false;
+            }
+            return offer(auditLog);
+        } finally {
+            publishing.decrementAndGet();
+        }
+    }
+
+    private boolean offer(AuditLog auditLog) {
+        boolean accepted = ringBuffer.tryPublish(auditLog);
+        if (!accepted && backpressure == Backpressure.BLOCK && running) {
+            long start = System.nanoTime();
+            accepted = ringBuffer.publish(auditLog, TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs));
+            blockedPublishes.increment();
+            blockedNanos.add(System.nanoTime() - start);
+        }
+        if (!accepted) {
+            dropped.increment();
+            return false;
+        }
+        published.increment();
+
+        int size = ringBuffer.size();
+        highWatermark.accumulateAndGet(size, Math::max);
+        if (size >= batchSize) {
+            LockSupport.unpark(writerThread);
+        }
+        return true;
+    }
+
+    private void runLoop() {
+        List<AuditLog> batch = new ArrayList<>(batchSize);
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        while (running || publishing.get() > 0 || ringBuffer.size() > 0) {
+            if (Thread.currentThread().isInterrupted()) {
+                // 关闭超时被中断，放弃剩余事件
+                break;
+            }
+            int count = ringBuffer.drainTo(batch, batchSize);
+            if (count > 0) {
+                writeBatch(batch);
+                batch.clear();
+            }
+            if (!running && count == 0) {
+                // 关闭阶段：剩余槽位可能仍在被生产者写入，稍等再取
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            } else if (running && ringBuffer.size() < batchSize) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+    }
+
+    /**
+     * 依次写入各输出端，单个输出端失败重试一次，不影响其它输出端
+     */
+    private void writeBatch(List<AuditLog> batch) {
+        drained.add(batch.size());
+        batches.increment();
+        for (AuditSink sink : sinks) {
+            for (int attempt = 1; attempt <= 2; attempt++) {
+                try {
+                    sink.write(batch);
+                    sinkWritten.get(sink.getName()).add(batch.size());
+                    break;
+                } catch (Exception e) {
+                    if (e instanceof InterruptedException) {
+                        Thread.currentThread().interrupt();
+                    }
+                    // 关闭超时被中断时不再重试
+                    if (attempt == 2 || Thread.currentThread().isInterrupted()) {
+                        sinkFailed.get(sink.getName()).add(batch.size());
+                        log.error("审计日志写入{}失败，丢弃{}条", sink.getName(), batch.size(), e);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        boolean interrupted = false;
+        try {
+            writerThread.join(shutdownTimeoutMs);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (writerThread.isAlive()) {
+            // 超时仍未排空：中断写入线程并再等一次，输出端必须在它退出后才能关闭
+            log.warn("⚠️ 审计管道关闭超时，中断写入线程 - 剩余: {}", ringBuffer.size());
+            writerThread.interrupt();
+            try {
+                writerThread.join(shutdownTimeoutMs);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (writerThread.isAlive()) {
+            log.error("审计写入线程未退出，跳过关闭输出端");
+        } else {
+            sinks.forEach(AuditSink::close);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("📋 审计管道已关闭 - 已写出: {}, 未写出: {}", drained.sum(), ringBuffer.size());
+    }
+
+    public int getQueueSize() {
+        return ringBuffer.size();
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("capacity", ringBuffer.capacity());
+        stats.put("size", ringBuffer.size());
+        stats.put("highWatermark", highWatermark.get());
+        stats.put("backpressure", backpressure);
+        stats.put("published", published.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("rejectedAfterShutdown", rejectedAfterShutdown.sum());
+        stats.put("blockedPublishes", blockedPublishes.sum());
+        long blocked = blockedPublishes.sum();
+        stats.put("avgBlockedMicros", blocked > 0 ? TimeUnit.NANOSECONDS.toMicros(blockedNanos.sum() / blocked) : 0);
+        stats.put("batches", batches.sum());
+        stats.put("drained", drained.sum());
+        long batchCount = batches.sum();
+        stats.put("avgBatchSize", batchCount > 0 ? drained.sum() / batchCount : 0);
+
+        Map<String, Object> sinkStats = new LinkedHashMap<>();
+        for (AuditSink sink : sinks) {
+            sinkStats.put(sink.getName(), Map.of(
+                    "written", sinkWritten.get(sink.getName()).sum(),
+                    "failed", sinkFailed.get(sink.getName()).sum()
+            ));
+        }
+        stats.put("sinks", sinkStats);
+        return stats;
+    }
+}
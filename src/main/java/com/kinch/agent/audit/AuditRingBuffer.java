@@ -0,0 +1,127 @@
+package com.kinch.agent.audit;
+
+import com.kinch.agent.entity.AuditLog;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 审计事件环形缓冲区 - 多生产者、单消费者，无锁（Disruptor风格）
+ * <p>
+ * 生产者以CAS推进cursor认领序号，写入槽位后把该槽的published置为序号完成发布；
+ * 消费者从consumed+1开始按序读取已发布的连续槽位，处理后推进consumed释放空间。
+ * cursor - consumed >= capacity 时缓冲区已满，由调用方决定丢弃还是等待
+ *
+ * @author kinch
+ * @date 2026-01-12
+ */
+public class AuditRingBuffer {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<AuditLog> entries;
+    private final AtomicLongArray published;
+
+    /**
+     * 最后一个被认领的序号
+     */
+    private final AtomicLong cursor = new AtomicLong(-1);
+
+    /**
+     * 最后一个被消费的序号
+     */
+    private final AtomicLong consumed = new AtomicLong(-1);
+
+    public AuditRingBuffer(int requestedCapacity) {
+        if (requestedCapacity <= 0) {
+            throw new IllegalArgumentException("缓冲区容量必须大于0");
+        }
+        // 向上取2的幂，用位与代替取模
+        this.capacity = Integer.bitCount(requestedCapacity) == 1
+                ? requestedCapacity : Integer.highestOneBit(requestedCapacity) << 1;
+        this.mask = capacity - 1;
+        this.entries = new AtomicReferenceArray<>(capacity);
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * 尝试发布，缓冲区满时立即返回false
+     */
+    public boolean tryPublish(AuditLog event) {
+        long sequence;
+        do {
+            long current = cursor.get();
+            sequence = current + 1;
+            if (sequence - capacity > consumed.get()) {
+                return false;
+            }
+            if (cursor.compareAndSet(current, sequence)) {
+                break;
+            }
+        } while (true);
+
+        int index = (int) (sequence & mask);
+        entries.lazySet(index, event);
+        published.lazySet(index, sequence);
+        return true;
+    }
+
+    /**
+     * 发布，缓冲区满时最多等待timeoutNanos
+     */
+    public boolean publish(AuditLog event, long timeoutNanos) {
+        if (tryPublish(event)) {
+            return true;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            if (tryPublish(event)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 取出最多max个已发布的连续事件（只允许单个消费线程调用）
+     *
+     * @return 取出的数量
+     */
+    public int drainTo(List<AuditLog> out, int max) {
+        long next = consumed.get() + 1;
+        int count = 0;
+        while (count < max) {
+            int index = (int) (next & mask);
+            if (published.get(index) != next) {
+                break;
+            }
+            out.add(entries.get(index));
+            entries.lazySet(index, null);
+            next++;
+            count++;
+        }
+        if (count > 0) {
+            consumed.lazySet(next - 1);
+        }
+        return count;
+    }
+
+    /**
+     * 已认领但未消费的事件数（包含正在写入的槽位）
+     */
+    public int size() {
+        return (int) (cursor.get() - consumed.get());
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,347 @@
+package com.kinch.agent.audit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 审计段：一个只追加的数据文件(.seg) + 封存时写出的索引文件(.idx)
+ * <p>
+ * 数据文件由若干压缩块组成，每块是一批JSONL记录经Deflate压缩后的结果，块头记录长度、条数和时间范围；
+ * 索引文件保存所有块头（稀疏时间索引）和段内用户ID的布隆过滤器。
+ * 写入只由单个线程进行；查询线程按块头定位后用位置读取，不与写入互斥。
+ * 段文件按引用计数删除：存储持有一个引用，查询期间再各持有一个，最后一个引用释放时才删除文件
+ *
+ * @author kinch
+ * @date 2026-01-13
+ */
+public final class AuditSegment {
+
+    static final String DATA_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final int BLOCK_HEADER_BYTES = 4 + 4 + 4 + 8 + 8;
+    private static final int INDEX_VERSION = 1;
+
+    /**
+     * 块头：offset为块数据（不含块头）在文件中的位置
+     */
+    public record Block(long offset, int compressedLength, int rawLength, int count, long minTime, long maxTime) {
+
+        boolean overlaps(long from, long to) {
+            return maxTime >= from && minTime <= to;
+        }
+    }
+
+    private final long id;
+    private final Path dataFile;
+    private final Path indexFile;
+    private final List<Block> blocks = new CopyOnWriteArrayList<>();
+    private final BloomFilter users;
+
+    private volatile long minTime = Long.MAX_VALUE;
+    private volatile long maxTime = Long.MIN_VALUE;
+    private volatile long count;
+    private volatile long sizeBytes;
+    private volatile boolean sealed;
+    private FileChannel writeChannel;
+
+    /**
+     * 引用数，初始的1由SegmentedAuditStore持有，归零后删除文件且不能再被引用
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private AuditSegment(long id, Path directory, BloomFilter users) {
+        this.id = id;
+        this.dataFile = directory.resolve(fileName(id, DATA_SUFFIX));
+        this.indexFile = directory.resolve(fileName(id, INDEX_SUFFIX));
+        this.users = users;
+    }
+
+    /**
+     * 创建新的活动段
+     */
+    static AuditSegment create(Path directory, long id, BloomFilter users) throws IOException {
+        AuditSegment segment = new AuditSegment(id, directory, users);
+        segment.writeChannel = FileChannel.open(segment.dataFile,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        return segment;
+    }
+
+    /**
+     * 从索引文件加载已封存的段
+     */
+    static AuditSegment load(Path directory, long id) throws IOException {
+        Path indexFile = directory.resolve(fileName(id, INDEX_SUFFIX));
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_VERSION) {
+                throw new IOException("不支持的索引版本: " + indexFile);
+            }
+            int blockCount = in.readInt();
+            Block[] loaded = new Block[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                loaded[i] = new Block(in.readLong(), in.readInt(), in.readInt(), in.readInt(), in.readLong(), in.readLong());
+            }
+            AuditSegment segment = new AuditSegment(id, directory, BloomFilter.readFrom(in));
+            for (Block block : loaded) {
+                segment.addBlock(block);
+            }
+            segment.sizeBytes = Files.size(segment.dataFile);
+            segment.sealed = true;
+            return segment;
+        }
+    }
+
+    /**
+     * 没有索引文件（进程异常退出）时扫描数据文件重建索引，截掉不完整的尾块后封存
+     *
+     * @param userIds 解压块并返回其中的用户ID，用于重建布隆过滤器
+     */
+    static AuditSegment recover(Path directory, long id, BloomFilter users, BlockUserReader userIds) throws IOException {
+        AuditSegment segment = new AuditSegment(id, directory, users);
+        try (FileChannel channel = FileChannel.open(segment.dataFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = 0;
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+            while (position + BLOCK_HEADER_BYTES <= size) {
+                header.clear();
+                readFully(channel, header, position);
+                header.flip();
+                int compressedLength = header.getInt();
+                int rawLength = header.getInt();
+                int blockCount = header.getInt();
+                long blockMin = header.getLong();
+                long blockMax = header.getLong();
+                long dataOffset = position + BLOCK_HEADER_BYTES;
+                if (compressedLength <= 0 || dataOffset + compressedLength > size) {
+                    break;
+                }
+                Block block = new Block(dataOffset, compressedLength, rawLength, blockCount, blockMin, blockMax);
+                userIds.read(segment, block, users::put);
+                segment.addBlock(block);
+                position = dataOffset + compressedLength;
+            }
+            channel.truncate(position);
+            segment.sizeBytes = position;
+        }
+        segment.seal();
+        return segment;
+    }
+
+    /**
+     * 追加一个压缩块（仅写入线程调用）
+     */
+    void append(byte[] raw, int count, long blockMin, long blockMax, Deflater deflater, long[] userIds) throws IOException {
+        byte[] compressed = deflate(raw, deflater);
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_BYTES + compressed.length);
+        buffer.putInt(compressed.length).putInt(raw.length).putInt(count).putLong(blockMin).putLong(blockMax);
+        buffer.put(compressed);
+        buffer.flip();
+        long position = sizeBytes;
+        while (buffer.hasRemaining()) {
+            position += writeChannel.write(buffer, position);
+        }
+        for (long userId : userIds) {
+            users.put(userId);
+        }
+        // 块数据写完后再发布块头，查询线程看到块头时数据一定已在文件中
+        addBlock(new Block(sizeBytes + BLOCK_HEADER_BYTES, compressed.length, raw.length, count, blockMin, blockMax));
+        sizeBytes = position;
+    }
+
+    /**
+     * 封存：刷盘并写出索引文件（先写临时文件再原子改名）
+     */
+    void seal() throws IOException {
+        if (writeChannel != null) {
+            writeChannel.force(false);
+            writeChannel.close();
+            writeChannel = null;
+        }
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(blocks.size());
+            for (Block block : blocks) {
+                out.writeLong(block.offset());
+                out.writeInt(block.compressedLength());
+                out.writeInt(block.rawLength());
+                out.writeInt(block.count());
+                out.writeLong(block.minTime());
+                out.writeLong(block.maxTime());
+            }
+            users.writeTo(out);
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sealed = true;
+    }
+
+    /**
+     * 读取并解压一个块，返回原始JSONL字节
+     */
+    byte[] readBlock(FileChannel channel, Block block, Inflater inflater) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(block.compressedLength());
+        readFully(channel, buffer, block.offset());
+        byte[] raw = new byte[block.rawLength()];
+        inflater.reset();
+        inflater.setInput(buffer.array());
+        try {
+            int n = 0;
+            while (n < raw.length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, n, raw.length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("审计块数据不完整: " + dataFile + "@" + block.offset());
+                }
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("审计块解压失败: " + dataFile + "@" + block.offset(), e);
+        }
+        return raw;
+    }
+
+    FileChannel openForRead() throws IOException {
+        return FileChannel.open(dataFile, StandardOpenOption.READ);
+    }
+
+    /**
+     * 查询前获取引用，段已被释放（文件已删除或即将删除）时返回false
+     */
+    boolean retain() {
+        int current;
+        do {
+            current = refs.get();
+            if (current <= 0) {
+                return false;
+            }
+        } while (!refs.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时删除段文件
+     *
+     * @return 是否删除了文件
+     */
+    boolean release() throws IOException {
+        int remaining = refs.decrementAndGet();
+        if (remaining < 0) {
+            throw new IllegalStateException("审计段引用计数错误: " + id);
+        }
+        if (remaining > 0) {
+            return false;
+        }
+        delete();
+        return true;
+    }
+
+    /**
+     * 删除段文件（只由release在引用归零后调用）
+     */
+    private void delete() throws IOException {
+        if (writeChannel != null) {
+            writeChannel.close();
+            writeChannel = null;
+        }
+        Files.deleteIfExists(indexFile);
+        Files.deleteIfExists(dataFile);
+    }
+
+    private void addBlock(Block block) {
+        blocks.add(block);
+        minTime = Math.min(minTime, block.minTime());
+        maxTime = Math.max(maxTime, block.maxTime());
+        count += block.count();
+    }
+
+    private static byte[] deflate(byte[] raw, Deflater deflater) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] buffer = new byte[Math.max(64, raw.length / 2)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+
+    static String fileName(long id, String suffix) {
+        return String.format("audit-%019d%s", id, suffix);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public boolean mightContainUser(long userId) {
+        return users.mightContain(userId);
+    }
+
+    public boolean overlaps(long from, long to) {
+        return count > 0 && maxTime >= from && minTime <= to;
+    }
+
+    public long getMinTime() {
+        return minTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * 恢复时读取块内用户ID
+     */
+    @FunctionalInterface
+    interface BlockUserReader {
+        void read(AuditSegment segment, Block block, LongConsumer userIds) throws IOException;
+    }
+}
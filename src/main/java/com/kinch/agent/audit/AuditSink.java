@@ -0,0 +1,30 @@
+package com.kinch.agent.audit;
+
+import com.kinch.agent.entity.AuditLog;
+
+import java.util.List;
+
+/**
+ * 审计日志输出端，由AuditPipeline的写入线程按批调用
+ *
+ * @author kinch
+ * @date 2026-01-12
+ */
+public interface AuditSink {
+
+    /**
+     * 输出端名称，与配置agent.audit.sinks中的名称对应
+     */
+    String getName();
+
+    /**
+     * 写入一批审计日志，失败时抛出异常
+     */
+    void write(List<AuditLog> batch) throws Exception;
+
+    /**
+     * 关闭输出端，释放文件等资源
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,63 @@
+package com.kinch.agent.audit;
+
+import com.kinch.agent.entity.AuditLog;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * 审计日志数据库输出端 - 多行INSERT写入t_audit_log
+ *
+ * @author kinch
+ * @date 2026-01-12
+ */
+@Component
+@RequiredArgsConstructor
+public class JdbcAuditSink implements AuditSink {
+
+    private static final String INSERT_PREFIX = "INSERT INTO t_audit_log (user_id, username, conversation_id, "
+            + "operation_type, agent_name, tool_name, input, output, token_cost, duration_ms, status, error_message, "
+            + "require_review, ip_address, create_time) VALUES ";
+    private static final String ROW_PLACEHOLDER = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final int COLUMNS = 15;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public String getName() {
+        return "jdbc";
+    }
+
+    @Override
+    public void write(List<AuditLog> batch) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + batch.size() * (ROW_PLACEHOLDER.length() + 1));
+        sql.append(INSERT_PREFIX);
+        Object[] args = new Object[batch.size() * COLUMNS];
+        int i = 0;
+        for (AuditLog auditLog : batch) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(ROW_PLACEHOLDER);
+            args[i++] = auditLog.getUserId();
+            args[i++] = auditLog.getUsername();
+            args[i++] = auditLog.getConversationId();
+            args[i++] = auditLog.getOperationType();
+            args[i++] = auditLog.getAgentName();
+            args[i++] = auditLog.getToolName();
+            args[i++] = auditLog.getInput();
+            args[i++] = auditLog.getOutput();
+            args[i++] = auditLog.getTokenCost();
+            args[i++] = auditLog.getDurationMs();
+            args[i++] = auditLog.getStatus();
+            args[i++] = auditLog.getErrorMessage();
+            args[i++] = auditLog.getRequireReview();
+            args[i++] = auditLog.getIpAddress();
+            args[i++] = Timestamp.valueOf(auditLog.getCreateTime());
+        }
+        jdbcTemplate.update(sql.toString(), args);
+    }
+}
@@ -0,0 +1,143 @@
+package com.kinch.agent.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kinch.agent.entity.AuditLog;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 审计日志文件输出端 - 只追加的JSONL文件（每行一条），按大小和日期滚动
+ * 文件名：audit-yyyyMMdd-序号.jsonl，只保留最近max-files个文件。
+ * 只由AuditPipeline的单个写入线程调用，无需加锁
+ *
+ * @author kinch
+ * @date 2026-01-12
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class JsonlFileAuditSink implements AuditSink {
+
+    private static final String FILE_PREFIX = "audit-";
+    private static final String FILE_SUFFIX = ".jsonl";
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${agent.audit.jsonl.dir:logs/audit}")
+    private String dir;
+
+    @Value("${agent.audit.jsonl.max-file-size-mb:100}")
+    private long maxFileSizeMb;
+
+    @Value("${agent.audit.jsonl.max-files:30}")
+    private int maxFiles;
+
+    private OutputStream out;
+    private Path currentFile;
+    private LocalDate currentDate;
+    private int currentIndex;
+    private long currentSize;
+
+    @Override
+    public String getName() {
+        return "jsonl";
+    }
+
+    @Override
+    public void write(List<AuditLog> batch) throws IOException {
+        rollIfNeeded();
+        for (AuditLog auditLog : batch) {
+            byte[] line = objectMapper.writeValueAsBytes(auditLog);
+            out.write(line);
+            out.write('\n');
+            currentSize += line.length + 1;
+        }
+        out.flush();
+    }
+
+    private void rollIfNeeded() throws IOException {
+        LocalDate today = LocalDate.now();
+        if (out != null && today.equals(currentDate) && currentSize < maxFileSizeMb * 1024 * 1024) {
+            return;
+        }
+        close();
+
+        Path directory = Paths.get(dir);
+        Files.createDirectories(directory);
+        if (!today.equals(currentDate)) {
+            // 新的一天（或刚启动）：接着当天最后一个文件追加
+            currentDate = today;
+            currentIndex = Math.max(lastIndex(directory, today), 1);
+        } else {
+            currentIndex++;
+        }
+        currentFile = directory.resolve(fileName(today, currentIndex));
+        if (Files.exists(currentFile) && Files.size(currentFile) >= maxFileSizeMb * 1024 * 1024) {
+            currentFile = directory.resolve(fileName(today, ++currentIndex));
+        }
+        out = new BufferedOutputStream(Files.newOutputStream(currentFile,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+        currentSize = Files.size(currentFile);
+        log.info("📁 审计日志文件: {}", currentFile);
+        deleteOldFiles(directory);
+    }
+
+    private int lastIndex(Path directory, LocalDate date) throws IOException {
+        String prefix = FILE_PREFIX + date.format(DATE_FORMAT) + "-";
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(FILE_SUFFIX))
+                    .mapToInt(name -> Integer.parseInt(name.substring(prefix.length(), name.length() - FILE_SUFFIX.length())))
+                    .max()
+                    .orElse(0);
+        }
+    }
+
+    private void deleteOldFiles(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> auditFiles = files
+                    .filter(path -> path.getFileName().toString().startsWith(FILE_PREFIX)
+                            && path.getFileName().toString().endsWith(FILE_SUFFIX))
+                    .sorted()
+                    .toList();
+            for (int i = 0; i < auditFiles.size() - maxFiles; i++) {
+                Files.deleteIfExists(auditFiles.get(i));
+                log.info("🗑️ 删除过期审计日志文件: {}", auditFiles.get(i));
+            }
+        } catch (IOException e) {
+            log.warn("清理审计日志文件失败", e);
+        }
+    }
+
+    private static String fileName(LocalDate date, int index) {
+        return String.format("%s%s-%03d%s", FILE_PREFIX, date.format(DATE_FORMAT), index, FILE_SUFFIX);
+    }
+
+    @Override
+    public void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.warn("关闭审计日志文件失败: {}", currentFile, e);
+        }
+        out = null;
+    }
+}
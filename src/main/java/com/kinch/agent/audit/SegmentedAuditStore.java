@@ -0,0 +1,365 @@
+package com.kinch.agent.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kinch.agent.entity.AuditLog;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 分段审计存储 - 可选的审计输出端（agent.audit.sinks 中加入 segment 启用）
+ * <p>
+ * 审计记录按批压缩追加到活动段，活动段按大小或时长滚动后封存为只读段。
+ * 查询时先按段的时间范围和用户布隆过滤器跳过无关段，再按块头时间范围跳过无关块，
+ * 只解压可能命中的块；过期清理直接删除整段文件，不做逐行删除。
+ * 查询期间持有段的引用，过期段先从段表移除，等正在读它的查询结束后才删除文件
+ *
+ * @author kinch
+ * @date 2026-01-13
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SegmentedAuditStore implements AuditSink {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${agent.audit.sinks:jdbc}")
+    private Set<String> sinkNames;
+
+    @Value("${agent.audit.segment.dir:data/audit-segments}")
+    private String dir;
+
+    /**
+     * 单段大小上限，超过后滚动
+     */
+    @Value("${agent.audit.segment.max-segment-mb:64}")
+    private long maxSegmentMb;
+
+    /**
+     * 单段最长时长（分钟），超过后滚动
+     */
+    @Value("${agent.audit.segment.max-segment-minutes:60}")
+    private long maxSegmentMinutes;
+
+    /**
+     * 每段预计的不同用户数（决定布隆过滤器大小）
+     */
+    @Value("${agent.audit.segment.expected-users:10000}")
+    private int expectedUsers;
+
+    @Value("${agent.audit.segment.bloom-fpp:0.01}")
+    private double bloomFpp;
+
+    /**
+     * 段保留天数，按段内最新记录判断，过期整段删除
+     */
+    @Value("${agent.audit.segment.retention-days:30}")
+    private int retentionDays;
+
+    private final NavigableMap<Long, AuditSegment> segments = new ConcurrentSkipListMap<>();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private Path directory;
+    private AuditSegment active;
+
+    private final LongAdder appendedBlocks = new LongAdder();
+    private final LongAdder appendedRecords = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder segmentsSkippedByTime = new LongAdder();
+    private final LongAdder segmentsSkippedByBloom = new LongAdder();
+    private final LongAdder blocksRead = new LongAdder();
+    private final LongAdder expiredSegments = new LongAdder();
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        directory = Paths.get(dir);
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Long> ids = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith("audit-") && name.endsWith(AuditSegment.DATA_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring("audit-".length(), name.length() - AuditSegment.DATA_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+            for (Long id : ids) {
+                try {
+                    AuditSegment segment = Files.exists(directory.resolve(AuditSegment.fileName(id, AuditSegment.INDEX_SUFFIX)))
+                            ? AuditSegment.load(directory, id)
+                            : AuditSegment.recover(directory, id, newBloomFilter(), this::readUserIds);
+                    segments.put(id, segment);
+                } catch (IOException e) {
+                    log.error("加载审计段失败，跳过: {}", id, e);
+                }
+            }
+        }
+        log.info("🗂️ 分段审计存储已加载 - 目录: {}, 段数: {}", directory, segments.size());
+    }
+
+    public boolean isEnabled() {
+        return sinkNames.contains(getName());
+    }
+
+    @Override
+    public String getName() {
+        return "segment";
+    }
+
+    /**
+     * 追加一批记录为一个压缩块（由AuditPipeline写入线程调用）
+     */
+    @Override
+    public void write(List<AuditLog> batch) throws IOException {
+        rollIfNeeded();
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(batch.size() * 256);
+        long[] userIds = new long[batch.size()];
+        long blockMin = Long.MAX_VALUE;
+        long blockMax = Long.MIN_VALUE;
+        for (int i = 0; i < batch.size(); i++) {
+            AuditLog auditLog = batch.get(i);
+            objectMapper.writeValue(raw, auditLog);
+            raw.write('\n');
+            userIds[i] = auditLog.getUserId() != null ? auditLog.getUserId() : 0L;
+            long time = toMillis(auditLog.getCreateTime());
+            blockMin = Math.min(blockMin, time);
+            blockMax = Math.max(blockMax, time);
+        }
+        active.append(raw.toByteArray(), batch.size(), blockMin, blockMax, deflater, userIds);
+        appendedBlocks.increment();
+        appendedRecords.add(batch.size());
+    }
+
+    private void rollIfNeeded() throws IOException {
+        long now = System.currentTimeMillis();
+        if (active != null
+                && active.getSizeBytes() < maxSegmentMb * 1024 * 1024
+                && now - active.getId() < TimeUnit.MINUTES.toMillis(maxSegmentMinutes)) {
+            return;
+        }
+        sealActive();
+        // 段ID取创建时间，同一毫秒内滚动时顺延
+        long id = segments.isEmpty() ? now : Math.max(now, segments.lastKey() + 1);
+        active = AuditSegment.create(directory, id, newBloomFilter());
+        segments.put(id, active);
+    }
+
+    private void sealActive() throws IOException {
+        if (active == null) {
+            return;
+        }
+        AuditSegment sealing = active;
+        active = null;
+        if (sealing.getCount() == 0) {
+            segments.remove(sealing.getId());
+            sealing.release();
+            return;
+        }
+        sealing.seal();
+        log.debug("审计段已封存 - {}, 记录数: {}, 大小: {}B", sealing.getId(), sealing.getCount(), sealing.getSizeBytes());
+    }
+
+    /**
+     * 查询审计记录，按时间倒序返回
+     *
+     * @param userId 用户过滤（可为空）
+     * @param from   开始时间（可为空）
+     * @param to     结束时间（可为空）
+     * @param limit  最多返回条数
+     */
+    public List<AuditLog> query(Long userId, LocalDateTime from, LocalDateTime to, int limit) {
+        queries.increment();
+        long fromMillis = from != null ? toMillis(from) : Long.MIN_VALUE;
+        long toMillis = to != null ? toMillis(to) : Long.MAX_VALUE;
+        List<AuditLog> result = new ArrayList<>(Math.min(limit, 1000));
+        if (!isEnabled() || limit <= 0) {
+            return result;
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            for (AuditSegment segment : segments.descendingMap().values()) {
+                if (!segment.overlaps(fromMillis, toMillis)) {
+                    segmentsSkippedByTime.increment();
+                    continue;
+                }
+                if (userId != null && !segment.mightContainUser(userId)) {
+                    segmentsSkippedByBloom.increment();
+                    continue;
+                }
+                if (!segment.retain()) {
+                    // 遍历期间已过期删除
+                    continue;
+                }
+                boolean full;
+                try {
+                    full = scanSegment(segment, userId, fromMillis, toMillis, limit, result, inflater);
+                } finally {
+                    releaseQuietly(segment);
+                }
+                if (full) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            log.error("查询分段审计存储失败", e);
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+
+    /**
+     * 倒序扫描段内可能命中的块，返回是否已达到limit
+     */
+    private boolean scanSegment(AuditSegment segment, Long userId, long fromMillis, long toMillis, int limit,
+                                List<AuditLog> result, Inflater inflater) throws IOException {
+        List<AuditSegment.Block> blocks = segment.getBlocks();
+        try (FileChannel channel = segment.openForRead()) {
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                AuditSegment.Block block = blocks.get(i);
+                if (!block.overlaps(fromMillis, toMillis)) {
+                    continue;
+                }
+                blocksRead.increment();
+                List<AuditLog> records = decode(segment.readBlock(channel, block, inflater));
+                for (int j = records.size() - 1; j >= 0; j--) {
+                    AuditLog auditLog = records.get(j);
+                    long time = toMillis(auditLog.getCreateTime());
+                    if (time < fromMillis || time > toMillis
+                            || (userId != null && !userId.equals(auditLog.getUserId()))) {
+                        continue;
+                    }
+                    result.add(auditLog);
+                    if (result.size() >= limit) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private List<AuditLog> decode(byte[] raw) throws IOException {
+        List<AuditLog> records = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] == '\n') {
+                if (i > start) {
+                    records.add(objectMapper.readValue(raw, start, i - start, AuditLog.class));
+                }
+                start = i + 1;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * 恢复段时解压块并取出用户ID
+     */
+    private void readUserIds(AuditSegment segment, AuditSegment.Block block, LongConsumer userIds) throws IOException {
+        Inflater inflater = new Inflater();
+        try (FileChannel channel = segment.openForRead()) {
+            for (AuditLog auditLog : decode(segment.readBlock(channel, block, inflater))) {
+                userIds.accept(auditLog.getUserId() != null ? auditLog.getUserId() : 0L);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 删除过期段（整段文件删除），仍在被查询读取的段等查询结束后再删文件
+     */
+    @Scheduled(fixedDelayString = "${agent.audit.segment.expire-interval-ms:3600000}")
+    public void expireSegments() {
+        if (!isEnabled() || retentionDays <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+        for (AuditSegment segment : segments.values()) {
+            if (segment.isSealed() && segment.getMaxTime() < cutoff && segments.remove(segment.getId(), segment)) {
+                expiredSegments.increment();
+                log.info("🗑️ 删除过期审计段: {}, 记录数: {}", segment.getId(), segment.getCount());
+                releaseQuietly(segment);
+            }
+        }
+    }
+
+    private void releaseQuietly(AuditSegment segment) {
+        try {
+            segment.release();
+        } catch (IOException e) {
+            log.warn("删除审计段失败: {}", segment.getId(), e);
+        }
+    }
+
+    /**
+     * 封存活动段（由AuditPipeline关闭时调用）
+     */
+    @Override
+    public void close() {
+        try {
+            sealActive();
+        } catch (IOException e) {
+            log.error("封存审计段失败", e);
+        }
+        deflater.end();
+    }
+
+    private BloomFilter newBloomFilter() {
+        return BloomFilter.create(expectedUsers, bloomFpp);
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time != null ? time.atZone(ZONE).toInstant().toEpochMilli() : 0L;
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("segments", segments.size());
+        stats.put("totalRecords", segments.values().stream().mapToLong(AuditSegment::getCount).sum());
+        stats.put("totalBytes", segments.values().stream().mapToLong(AuditSegment::getSizeBytes).sum());
+        stats.put("appendedBlocks", appendedBlocks.sum());
+        stats.put("appendedRecords", appendedRecords.sum());
+        stats.put("queries", queries.sum());
+        stats.put("segmentsSkippedByTime", segmentsSkippedByTime.sum());
+        stats.put("segmentsSkippedByBloom", segmentsSkippedByBloom.sum());
+        stats.put("blocksRead", blocksRead.sum());
+        stats.put("expiredSegments", expiredSegments.sum());
+        stats.put("retentionDays", retentionDays);
+        return stats;
+    }
+}
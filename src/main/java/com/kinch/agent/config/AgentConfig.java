@@ -14,6 +14,8 @@ import com.kinch.agent.hook.MessageTrimmingHook;
 import com.kinch.agent.interceptor.PerformanceInterceptor;
 import com.kinch.agent.interceptor.SafetyInterceptor;
 import com.kinch.agent.interceptor.ToolMonitorInterceptor;
+import com.kinch.agent.ratelimit.AdaptiveConcurrencyLimiter;
+import com.kinch.agent.ratelimit.LimitedChatModel;
 import com.kinch.agent.tool.NamingTool;
 import com.kinch.agent.tool.ScriptGenerationTool;
 import com.kinch.agent.tool.WeatherTool;
@@ -107,17 +109,18 @@ public class AgentConfig {
 
     /**
      * ChatModel配置
+     * 外层包装并发限制器，所有模型调用按优先级排队
      */
     @Bean
-    public ChatModel chatModel(DashScopeApi dashScopeApi) {
-        return DashScopeChatModel.builder()
+    public ChatModel chatModel(DashScopeApi dashScopeApi, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        return new LimitedChatModel(DashScopeChatModel.builder()
                 .dashScopeApi(dashScopeApi)
                 .defaultOptions(DashScopeChatOptions.builder()
                         .model("qwen-plus")  // 使用新API，不带with前缀
                         .temperature(0.7)
                         .maxToken(2000)
                         .build())
-                .build();
+                .build(), concurrencyLimiter);
     }
 
     /**
@@ -265,10 +268,18 @@ public class AgentConfig {
         
         /**
          * 创建指定名称的ReactAgent实例
+         * 每次都重新构建（图在第一次call时编译），请求路径上应通过AgentRegistry取复用的实例
          */
         public ReactAgent createAgent(String name) {
+            return createAgent(name, chatModel);
+        }
+
+        /**
+         * 使用指定模型创建ReactAgent（启动预热用本地替身模型走一遍Hooks和Interceptors）
+         */
+        public ReactAgent createAgent(String name, ChatModel model) {
             return ReactAgent.builder()
-                    .model(chatModel)
+                    .model(model)
                     .name(name)
                     .tools(weatherToolCallback, namingToolCallback, scriptToolCallback)
                     // ===== Hooks配置 =====
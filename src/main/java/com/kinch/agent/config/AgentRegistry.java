@@ -0,0 +1,105 @@
+package com.kinch.agent.config;
+
+import com.alibaba.cloud.ai.graph.agent.ReactAgent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Agent注册表 - 每个名称的ReactAgent只构建、编译一次，之后各请求复用同一实例
+ * <p>
+ * 复用是安全的：未配置checkpoint saver时ReactAgent不在实例上保存会话状态，
+ * 每次call的状态只在本次执行的OverAllState里，编译后的图只读；Hooks和Interceptors本身就是单例。
+ * 名称可能来自模型输出（MultiAgentService的专家名），缓存数量有上限，超出后按旧方式临时构建
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AgentRegistry {
+
+    private final AgentConfig.AgentFactory agentFactory;
+
+    /**
+     * 启动预热阶段预先构建并编译的Agent名称
+     */
+    @Value("${agent.registry.preload:chat_agent}")
+    private List<String> preload = List.of("chat_agent");
+
+    /**
+     * 最多缓存的Agent数
+     */
+    @Value("${agent.registry.max-agents:64}")
+    private int maxAgents = 64;
+
+    private final Map<String, ReactAgent> agents = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder builds = new LongAdder();
+    private final LongAdder uncachedBuilds = new LongAdder();
+    private final LongAdder buildNanos = new LongAdder();
+
+    /**
+     * 构建并编译预加载列表中的Agent（由WarmUpRunner在就绪前调用）
+     *
+     * @return 注册表中的Agent数
+     */
+    public int preload() {
+        for (String name : preload) {
+            if (!name.isBlank()) {
+                get(name.trim());
+            }
+        }
+        log.info("🤖 Agent注册表预构建完成 - {}, 上限: {}", agents.keySet(), maxAgents);
+        return agents.size();
+    }
+
+    /**
+     * 取指定名称的Agent（线程安全，可并发调用call）；首次访问时构建，同名并发首次访问只构建一次
+     */
+    public ReactAgent get(String name) {
+        ReactAgent agent = agents.get(name);
+        if (agent != null) {
+            hits.increment();
+            return agent;
+        }
+        if (agents.size() >= maxAgents) {
+            uncachedBuilds.increment();
+            log.debug("Agent注册表已满，临时构建 - name: {}", name);
+            return build(name);
+        }
+        return agents.computeIfAbsent(name, this::build);
+    }
+
+    private ReactAgent build(String name) {
+        long start = System.nanoTime();
+        ReactAgent agent = agentFactory.createAgent(name);
+        // 图编译原本发生在每次请求的第一次call里，这里提前做掉
+        agent.getAndCompileGraph();
+        buildNanos.add(System.nanoTime() - start);
+        builds.increment();
+        return agent;
+    }
+
+    public Map<String, Object> getStatistics() {
+        long buildCount = builds.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("cached", agents.size());
+        stats.put("names", new ArrayList<>(agents.keySet()));
+        stats.put("maxAgents", maxAgents);
+        stats.put("hits", hits.sum());
+        stats.put("builds", buildCount);
+        stats.put("uncachedBuilds", uncachedBuilds.sum());
+        stats.put("avgBuildMs", buildCount > 0 ? buildNanos.sum() / buildCount / 1_000_000.0 : 0);
+        return stats;
+    }
+}
@@ -0,0 +1,67 @@
+package com.kinch.agent.config;
+
+import com.kinch.agent.ratelimit.Deadline;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * 请求截止时间过滤器 - 为每个API请求在处理线程上声明Deadline
+ * <p>
+ * 客户端可通过请求头X-Request-Timeout-Ms给出自己愿意等待的毫秒数（例如网关或前端的超时），
+ * 不超过服务端的agent.timeout；未给出时使用agent.timeout。
+ * 到期后，本请求中还未发起的模型调用直接失败，进行中的同步模型调用被取消
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Slf4j
+@Component
+public class DeadlineFilter extends OncePerRequestFilter {
+
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+
+    @Value("${agent.deadline.enabled:true}")
+    private boolean enabled = true;
+
+    /**
+     * 服务端请求超时（毫秒），也是客户端可声明的上限
+     */
+    @Value("${agent.timeout:60000}")
+    private long timeoutMillis = 60000;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || !request.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        try (Deadline.Scope scope = Deadline.after(resolveTimeout(request)).enter()) {
+            chain.doFilter(request, response);
+        }
+    }
+
+    private long resolveTimeout(HttpServletRequest request) {
+        String header = request.getHeader(TIMEOUT_HEADER);
+        if (header != null && !header.isBlank()) {
+            try {
+                long requested = Long.parseLong(header.trim());
+                if (requested > 0) {
+                    return Math.min(requested, timeoutMillis);
+                }
+            } catch (NumberFormatException e) {
+                log.debug("无效的{}: {}", TIMEOUT_HEADER, header);
+            }
+        }
+        return timeoutMillis;
+    }
+}
@@ -1,14 +1,26 @@
 package com.kinch.agent.controller;
 
+import com.kinch.agent.entity.Conversation;
 import com.kinch.agent.entity.Message;
 import com.kinch.agent.service.AgentService;
+import com.kinch.agent.service.ConversationExportService;
+import com.kinch.agent.tracing.Span;
+import com.kinch.agent.tracing.Tracer;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Agent对话控制器
@@ -24,6 +36,10 @@ import java.util.Map;
 public class AgentController {
 
     private final AgentService agentService;
+    private final ConversationExportService conversationExportService;
+    private final Tracer tracer;
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson;charset=UTF-8");
 
     /**
      * 普通对话（非流式）
@@ -36,6 +52,7 @@ public class AgentController {
         log.info("接收到对话请求: {}", message);
 
         Map<String, Object> response = new HashMap<>();
+        Span trace = tracer.startTrace("POST /api/agent/chat");
 
         try {
             // 使用默认用户ID
@@ -65,13 +82,98 @@ public class AgentController {
 
         } catch (Exception e) {
             log.error("对话处理失败", e);
+            trace.error(e);
             response.put("success", false);
             response.put("message", "对话处理失败: " + e.getMessage());
+        } finally {
+            trace.close();
         }
 
         return response;
     }
 
+    /**
+     * 分页获取会话列表
+     */
+    @GetMapping("/conversations")
+    public Map<String, Object> listConversations(@RequestParam(defaultValue = "0") int page,
+                                                 @RequestParam(defaultValue = "20") int size) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            Long userId = 1L;
+            Slice<Conversation> slice = agentService.getUserConversations(userId, page, size);
+            response.put("success", true);
+            response.put("data", slice.getContent());
+            response.put("page", page);
+            response.put("hasNext", slice.hasNext());
+        } catch (Exception e) {
+            log.error("获取会话列表失败", e);
+            response.put("success", false);
+            response.put("message", "获取会话列表失败: " + e.getMessage());
+        }
+        return response;
+    }
+
+    /**
+     * 分页获取会话历史（游标为上一页最后一条消息的ID）
+     */
+    @GetMapping("/conversations/{conversationId}/messages")
+    public Map<String, Object> listMessages(@PathVariable Long conversationId,
+                                            @RequestParam(required = false) Long afterId,
+                                            @RequestParam(defaultValue = "50") int size) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            Long userId = 1L;
+            Slice<Message> slice = agentService.getConversationHistory(conversationId, userId, afterId, size);
+            List<Message> messages = slice.getContent();
+            response.put("success", true);
+            response.put("data", messages);
+            response.put("hasNext", slice.hasNext());
+            response.put("nextCursor", messages.isEmpty() ? afterId : messages.get(messages.size() - 1).getId());
+        } catch (Exception e) {
+            log.error("获取会话历史失败 - conversationId: {}", conversationId, e);
+            response.put("success", false);
+            response.put("message", "获取会话历史失败: " + e.getMessage());
+        }
+        return response;
+    }
+
+    /**
+     * 流式导出单个会话（NDJSON）
+     */
+    @GetMapping("/conversations/{conversationId}/export")
+    public ResponseEntity<?> exportConversation(@PathVariable Long conversationId) {
+        Long userId = 1L;
+        // 流式写出开始后无法再改状态码，存在性与权限在返回响应前校验
+        Conversation conversation;
+        try {
+            conversation = conversationExportService.checkExportable(conversationId, userId);
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("success", false, "message", e.getMessage()));
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("success", false, "message", e.getMessage()));
+        }
+        StreamingResponseBody body = out -> conversationExportService.exportConversation(conversation, out);
+        return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"conversation-" + conversationId + ".ndjson\"")
+                .body(body);
+    }
+
+    /**
+     * 流式导出当前用户的全部会话（NDJSON）
+     */
+    @GetMapping("/conversations/export")
+    public ResponseEntity<StreamingResponseBody> exportConversations() {
+        Long userId = 1L;
+        StreamingResponseBody body = out -> conversationExportService.exportUserConversations(userId, out);
+        return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"conversations.ndjson\"")
+                .body(body);
+    }
+
     /**
      * 获取客户端IP地址
      */
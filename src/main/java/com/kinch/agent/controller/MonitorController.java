@@ -1,11 +1,39 @@
 package com.kinch.agent.controller;
 
+import com.kinch.agent.audit.AuditPipeline;
+import com.kinch.agent.audit.SegmentedAuditStore;
+import com.kinch.agent.config.AgentRegistry;
 import com.kinch.agent.hook.*;
 import com.kinch.agent.interceptor.*;
+import com.kinch.agent.jfr.FlightRecordingService;
+import com.kinch.agent.metrics.AgentMetrics;
+import com.kinch.agent.metrics.MetricsTimeSeries;
+import com.kinch.agent.ratelimit.AdaptiveConcurrencyLimiter;
+import com.kinch.agent.ratelimit.DistributedRateLimiter;
+import com.kinch.agent.ratelimit.HedgedModelCaller;
+import com.kinch.agent.service.RetentionService;
+import com.kinch.agent.service.TokenQuotaLedger;
+import com.kinch.agent.service.TokenUsageLogWriter;
+import com.kinch.agent.service.TokenUsageRollupService;
+import com.kinch.agent.tracing.Trace;
+import com.kinch.agent.tracing.TraceStore;
+import com.kinch.agent.warmup.WarmUpRunner;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 
 /**
@@ -24,9 +52,25 @@ public class MonitorController {
     private final CustomAuditHook auditHook;
     private final CustomSecurityHook securityHook;
     private final CustomTokenLimitHook tokenLimitHook;
+    private final MessageTrimmingHook messageTrimmingHook;
     private final PerformanceInterceptor performanceInterceptor;
     private final SafetyInterceptor safetyInterceptor;
     private final ToolMonitorInterceptor toolMonitorInterceptor;
+    private final RetentionService retentionService;
+    private final TokenQuotaLedger quotaLedger;
+    private final DistributedRateLimiter rateLimiter;
+    private final TokenUsageLogWriter tokenUsageLogWriter;
+    private final TokenUsageRollupService tokenUsageRollupService;
+    private final AuditPipeline auditPipeline;
+    private final SegmentedAuditStore segmentedAuditStore;
+    private final AgentMetrics agentMetrics;
+    private final TraceStore traceStore;
+    private final FlightRecordingService flightRecordingService;
+    private final MetricsTimeSeries metricsTimeSeries;
+    private final AgentRegistry agentRegistry;
+    private final WarmUpRunner warmUpRunner;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final HedgedModelCaller hedgedModelCaller;
 
     /**
      * 获取审计日志
@@ -42,6 +86,39 @@ public class MonitorController {
         return response;
     }
 
+    /**
+     * 获取审计管道统计
+     */
+    @GetMapping("/audit/pipeline")
+    public Map<String, Object> getAuditPipelineStats() {
+        log.info("获取审计管道统计");
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", auditPipeline.getStatistics());
+        response.put("note", "CustomAuditHook发布到无锁环形缓冲区，后台线程批量写出");
+        return response;
+    }
+
+    /**
+     * 按用户、时间范围查询审计日志（分段存储）
+     */
+    @GetMapping("/audit/query")
+    public Map<String, Object> queryAuditLogs(
+            @RequestParam(required = false) Long userId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "50") int limit) {
+        log.info("查询审计日志 - 用户: {}, {} ~ {}", userId, from, to);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", segmentedAuditStore.query(userId, from, to, Math.min(limit, 1000)));
+        response.put("stats", segmentedAuditStore.getStatistics());
+        response.put("note", "按段时间范围和用户布隆过滤器跳过无关段，只解压可能命中的块");
+        return response;
+    }
+
     /**
      * 测试安全检查
      */
@@ -61,6 +138,149 @@ public class MonitorController {
         return response;
     }
 
+    /**
+     * 获取增量安全扫描统计
+     */
+    @GetMapping("/security")
+    public Map<String, Object> getSecurityStats() {
+        log.info("获取安全扫描统计");
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", securityHook.getStatistics());
+        response.put("note", "CustomSecurityHook按会话水位只扫描新增消息");
+        return response;
+    }
+
+    /**
+     * 获取运行时指标：缓存命中率、流式响应数、队列深度、写回延迟
+     */
+    @GetMapping("/runtime")
+    public Map<String, Object> getRuntimeStats() {
+        log.info("获取运行时指标");
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("caches", agentMetrics.cacheStatistics());
+        data.put("agents", agentRegistry.getStatistics());
+        data.put("warmup", warmUpRunner.getReport());
+        data.put("modelLimiter", concurrencyLimiter.getStatistics());
+        data.put("hedging", hedgedModelCaller.getStatistics());
+        data.put("streams", agentMetrics.streamStatistics());
+        data.put("queues", Map.of(
+                "audit", auditPipeline.getQueueSize(),
+                "usageLog", tokenUsageLogWriter.getQueueSize()
+        ));
+        data.put("writeBehind", Map.of(
+                "usageLogLagMillis", tokenUsageLogWriter.getLagMillis(),
+                "quotaLedgerLagMillis", quotaLedger.getFlushLagMillis(),
+                "quotaLedgerUnflushedTokens", quotaLedger.getUnflushedTokens()
+        ));
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", data);
+        response.put("note", "全部指标以Prometheus格式暴露在 /actuator/prometheus");
+        return response;
+    }
+
+    /**
+     * 运行指标时间序列（调用数、延迟分位数、Token、错误），按列返回供前端画图
+     * 不指定resolution时：区间在秒级环覆盖范围内用秒级，否则用分钟级；默认最近15分钟
+     */
+    @GetMapping("/timeseries")
+    public Map<String, Object> getTimeSeries(
+            @RequestParam(required = false) MetricsTimeSeries.Resolution resolution,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        long now = System.currentTimeMillis();
+        long toMillis = to != null ? to.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : now;
+        long fromMillis = from != null ? from.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : toMillis - 15 * 60_000L;
+        if (resolution == null) {
+            resolution = metricsTimeSeries.resolutionFor(fromMillis, now);
+        }
+        log.info("查询指标时间序列 - 粒度: {}, {} ~ {}", resolution, from, to);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", metricsTimeSeries.query(resolution, fromMillis, toMillis));
+        response.put("stats", metricsTimeSeries.getStatistics());
+        response.put("note", "堆外环形缓冲区中的秒级/分钟级采样，定时快照到磁盘，重启后恢复");
+        return response;
+    }
+
+    /**
+     * 最近请求中最慢的若干条追踪及各阶段耗时
+     */
+    @GetMapping("/traces")
+    public Map<String, Object> getSlowTraces(@RequestParam(defaultValue = "20") int limit,
+                                             @RequestParam(defaultValue = "15") int minutes,
+                                             @RequestParam(defaultValue = "false") boolean spans) {
+        log.info("获取慢请求追踪 - limit: {}, minutes: {}", limit, minutes);
+
+        long since = System.currentTimeMillis() - minutes * 60_000L;
+        List<Map<String, Object>> traces = new ArrayList<>();
+        for (Trace trace : traceStore.slowest(Math.min(Math.max(limit, 1), 200), since)) {
+            traces.add(spans ? trace.toDetail() : trace.toSummary());
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("traces", traces);
+        data.put("store", traceStore.getStatistics());
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", data);
+        response.put("note", "按总耗时降序，breakdown为同名阶段的耗时合计；spans=true返回完整区间");
+        return response;
+    }
+
+    /**
+     * 单条追踪的完整区间
+     */
+    @GetMapping("/traces/{traceId}")
+    public Map<String, Object> getTrace(@PathVariable String traceId) {
+        Trace trace = traceStore.find(traceId);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", trace != null);
+        if (trace != null) {
+            response.put("data", trace.toDetail());
+        } else {
+            response.put("message", "追踪不存在或已被覆盖");
+        }
+        return response;
+    }
+
+    /**
+     * 录制一段JFR并下载（请求会阻塞seconds秒），用JMC打开可对照GC、锁等待与模型/工具/Hook/工作流节点事件
+     */
+    @PostMapping("/jfr")
+    public ResponseEntity<?> recordFlight(@RequestParam(defaultValue = "30") int seconds,
+                                          @RequestParam(defaultValue = "default") String settings) {
+        log.info("JFR录制 - seconds: {}, settings: {}", seconds, settings);
+
+        try {
+            Path file = flightRecordingService.record(seconds, settings);
+            // 文件在下载流关闭时删除
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFileName() + "\"")
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .contentLength(Files.size(file))
+                    .body(new InputStreamResource(Files.newInputStream(file, StandardOpenOption.DELETE_ON_CLOSE)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("success", false, "message", e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("success", false, "message", "录制被中断"));
+        } catch (Exception e) {
+            log.error("JFR录制失败", e);
+            return ResponseEntity.internalServerError().body(Map.of("success", false, "message", "JFR录制失败: " + e.getMessage()));
+        }
+    }
+
     /**
      * 获取Token使用情况
      */
@@ -72,6 +292,8 @@ public class MonitorController {
         response.put("success", true);
         response.put("userId", userId);
         response.put("remaining", tokenLimitHook.getRemainingQuota(userId));
+        response.put("todayUsed", tokenUsageRollupService.sumUserTokens(userId,
+                LocalDate.now().atStartOfDay(), LocalDateTime.now().plusMinutes(1)));
         response.put("canProceed", tokenLimitHook.checkLimit(userId, 1000));
         response.put("note", "自动限流、配额管理");
         return response;
@@ -87,7 +309,7 @@ public class MonitorController {
         Map<String, Object> response = new HashMap<>();
         response.put("success", true);
         response.put("data", performanceInterceptor.getStatistics());
-        response.put("note", "PerformanceInterceptor监控模型调用性能");
+        response.put("note", "PerformanceInterceptor监控模型调用性能，latency为各滑动窗口的耗时分位数(ms)");
         return response;
     }
 
@@ -115,7 +337,118 @@ public class MonitorController {
         Map<String, Object> response = new HashMap<>();
         response.put("success", true);
         response.put("data", toolMonitorInterceptor.getStatistics());
-        response.put("note", "ToolMonitorInterceptor监控所有工具调用");
+        response.put("note", "ToolMonitorInterceptor按工具统计调用数、异常类型、耗时分位数(ms)和参数/结果字节数分布");
+        return response;
+    }
+
+    /**
+     * 获取消息修剪统计
+     */
+    @GetMapping("/trimming")
+    public Map<String, Object> getTrimmingStats() {
+        log.info("获取消息修剪统计");
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", messageTrimmingHook.getStatistics());
+        response.put("note", "MessageTrimmingHook按Token预算修剪上下文");
+        return response;
+    }
+
+    /**
+     * 获取Token配额账本统计
+     */
+    @GetMapping("/quota")
+    public Map<String, Object> getQuotaStats() {
+        log.info("获取Token配额账本统计");
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", quotaLedger.getStatistics());
+        response.put("note", "TokenQuotaLedger内存预留/结算，定时原子增量刷盘");
+        return response;
+    }
+
+    /**
+     * 获取Token使用日志写入统计
+     */
+    @GetMapping("/usage-log")
+    public Map<String, Object> getUsageLogStats() {
+        log.info("获取Token使用日志写入统计");
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", tokenUsageLogWriter.getStatistics());
+        response.put("note", "TokenUsageLogWriter异步攒批，多行INSERT写入");
+        return response;
+    }
+
+    /**
+     * 获取分布式限流统计
+     */
+    @GetMapping("/ratelimit")
+    public Map<String, Object> getRateLimitStats() {
+        log.info("获取限流统计");
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", rateLimiter.getStatistics());
+        response.put("note", "DistributedRateLimiter按用户/租户限制请求数和Token速率，本地租约减少Redis访问");
+        return response;
+    }
+
+    /**
+     * 获取数据保留（定时清理）统计
+     */
+    @GetMapping("/retention")
+    public Map<String, Object> getRetentionStats() {
+        log.info("获取数据清理统计");
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", retentionService.getStatistics());
+        response.put("note", "RetentionService定时分块删除过期消息和软删除会话");
+        return response;
+    }
+
+    /**
+     * 按区间汇总Token用量（基于分钟/小时/天汇总表）
+     */
+    @GetMapping("/usage/summary")
+    public Map<String, Object> getUsageSummary(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Long userId,
+            @RequestParam(required = false) String modelName,
+            @RequestParam(required = false) String operationType,
+            @RequestParam(required = false) Set<TokenUsageRollupService.Dimension> groupBy) {
+        log.info("汇总Token用量 - {} ~ {}, 用户: {}, 分组: {}", from, to, userId, groupBy);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", tokenUsageRollupService.summarize(from, to, userId, modelName, operationType, groupBy));
+        response.put("note", "区间拆分为分钟/小时/天段查询汇总表，不扫描明细");
+        return response;
+    }
+
+    /**
+     * 按粒度返回Token用量时间序列
+     */
+    @GetMapping("/usage/series")
+    public Map<String, Object> getUsageSeries(
+            @RequestParam(defaultValue = "HOUR") TokenUsageRollupService.Granularity granularity,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Long userId,
+            @RequestParam(required = false) String modelName,
+            @RequestParam(required = false) String operationType) {
+        log.info("查询Token用量序列 - 粒度: {}, {} ~ {}, 用户: {}", granularity, from, to, userId);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", tokenUsageRollupService.series(granularity, from, to, userId, modelName, operationType));
+        response.put("stats", tokenUsageRollupService.getStatistics());
+        response.put("note", "TokenUsageRollupService增量维护的分钟/小时/天汇总");
         return response;
     }
 
@@ -138,7 +471,7 @@ public class MonitorController {
         hooks.put("security", Map.of(
             "name", "安全检查Hook",
             "type", "ModelHook",
-            "status", "active"
+            "stats", securityHook.getStatistics()
         ));
         hooks.put("tokenLimit", Map.of(
             "name", "Token限流Hook",
@@ -148,7 +481,7 @@ public class MonitorController {
         hooks.put("messageTrimming", Map.of(
             "name", "消息修剪Hook",
             "type", "MessagesModelHook",
-            "status", "active"
+            "stats", messageTrimmingHook.getStatistics()
         ));
         
         // Interceptors
@@ -2,7 +2,7 @@ package com.kinch.agent.controller;
 
 import com.alibaba.cloud.ai.graph.RunnableConfig;
 import com.alibaba.cloud.ai.graph.agent.ReactAgent;
-import com.kinch.agent.config.AgentConfig;
+import com.kinch.agent.config.AgentRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.AssistantMessage;
@@ -25,7 +25,7 @@ import java.util.UUID;
 @CrossOrigin(origins = "*")
 public class TestController {
 
-    private final AgentConfig.AgentFactory agentFactory;
+    private final AgentRegistry agentRegistry;
 
     /**
      * 测试对话接口
@@ -37,8 +37,8 @@ public class TestController {
         try {
             log.info("收到测试请求: {}", message);
             
-            // 构建Agent
-            ReactAgent agent = agentFactory.createAgent("test_agent");
+            // 获取Agent（注册表中复用）
+            ReactAgent agent = agentRegistry.get("test_agent");
 
             // 配置
             RunnableConfig config = RunnableConfig.builder()
@@ -86,7 +86,7 @@ public class TestController {
             // 测试天气查询工具
             String weatherQuery = "北京今天天气怎么样？";
             
-            ReactAgent agent = agentFactory.createAgent("tool_test_agent");
+            ReactAgent agent = agentRegistry.get("tool_test_agent");
 
             RunnableConfig config = RunnableConfig.builder()
                     .threadId(UUID.randomUUID().toString())
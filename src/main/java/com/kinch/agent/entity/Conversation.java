@@ -61,7 +61,7 @@ public class Conversation {
     /**
      * Token使用量
      */
-    @Column(name = "token_usage")
+    @Column(name = "token_usage", updatable = false)
     private Long tokenUsage = 0L;
 
     /**
@@ -70,6 +70,18 @@ public class Conversation {
     @Column(name = "message_count")
     private Integer messageCount = 0;
 
+    /**
+     * 滚动摘要（由ConversationSummaryService后台增量维护，实体保存时不覆盖）
+     */
+    @Column(columnDefinition = "TEXT", insertable = false, updatable = false)
+    private String summary;
+
+    /**
+     * 摘要已覆盖到的最后一条消息ID
+     */
+    @Column(name = "summarized_message_id", insertable = false, updatable = false)
+    private Long summarizedMessageId;
+
     /**
      * 创建时间
      */
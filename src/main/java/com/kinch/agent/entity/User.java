@@ -71,9 +71,9 @@ public class User {
     private Integer tokenQuota = 100000;
 
     /**
-     * 已使用Token数
+     * 已使用Token数（只由TokenQuotaLedger原子累加，实体保存时不覆盖）
      */
-    @Column(name = "token_used")
+    @Column(name = "token_used", updatable = false)
     private Integer tokenUsed = 0;
 
     /**
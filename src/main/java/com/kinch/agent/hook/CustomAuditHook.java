@@ -5,8 +5,15 @@ import com.alibaba.cloud.ai.graph.RunnableConfig;
 import com.alibaba.cloud.ai.graph.agent.hook.ModelHook;
 import com.alibaba.cloud.ai.graph.agent.hook.HookPosition;
 import com.alibaba.cloud.ai.graph.agent.hook.HookPositions;
+import com.kinch.agent.audit.AuditPipeline;
+import com.kinch.agent.audit.SegmentedAuditStore;
 import com.kinch.agent.entity.AuditLog;
+import com.kinch.agent.jfr.HookEvent;
 import com.kinch.agent.repository.AuditLogRepository;
+import com.kinch.agent.service.TokenCounter;
+import com.kinch.agent.tracing.Span;
+import com.kinch.agent.tracing.Tracer;
+import com.kinch.agent.warmup.WarmUpRunner;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.Message;
@@ -21,6 +28,7 @@ import java.util.concurrent.CompletableFuture;
 /**
  * 审计日志Hook - 使用框架的Hook机制
  * 记录所有模型调用和工具调用
+ * 审计记录发布到AuditPipeline异步批量写出，模型调用路径上不做数据库I/O
  *
  * @author kinch
  * @date 2025-12-29
@@ -32,9 +40,13 @@ import java.util.concurrent.CompletableFuture;
 public class CustomAuditHook extends ModelHook {
 
     private final AuditLogRepository auditLogRepository;
+    private final AuditPipeline auditPipeline;
+    private final SegmentedAuditStore segmentedAuditStore;
+    private final TokenCounter tokenCounter;
+    private final Tracer tracer;
 
     private static final String START_TIME_KEY = "__audit_start_time__";
-    private static final String MESSAGE_COUNT_KEY = "__audit_message_count__";
+    private static final String TOKEN_COST_KEY = "__audit_token_cost__";
 
     @Override
     public String getName() {
@@ -43,73 +55,116 @@ public class CustomAuditHook extends ModelHook {
 
     @Override
     public CompletableFuture<Map<String, Object>> beforeModel(OverAllState state, RunnableConfig config) {
-        try {
-            log.debug("🔍 审计Hook - 模型调用前");
-
-            // 记录开始时间
-            config.context().put(START_TIME_KEY, System.currentTimeMillis());
-
-            // 获取消息列表
-            Optional<Object> messagesOpt = state.value("messages");
-            if (messagesOpt.isPresent()) {
-                @SuppressWarnings("unchecked")
-                List<Message> messages = (List<Message>) messagesOpt.get();
-                config.context().put(MESSAGE_COUNT_KEY, messages.size());
-
-                // 创建审计记录
-                AuditLog auditLog = new AuditLog();
-                auditLog.setUserId(1L); // TODO: 从context获取真实用户ID
-                auditLog.setOperationType("model_call");
-                auditLog.setAgentName("intelligent_agent"); // 使用固定名称
-                auditLog.setInput(messages.size() + " messages");
-                auditLog.setStatus("processing");
-
-                auditLogRepository.save(auditLog);
-                log.debug("✅ 审计记录已创建");
+        HookEvent event = HookEvent.start("audit", "beforeModel");
+        try (Span span = tracer.startSpan("hook.audit.beforeModel", config)) {
+            try {
+                log.debug("🔍 审计Hook - 模型调用前");
+
+                // 记录开始时间
+                config.context().put(START_TIME_KEY, System.currentTimeMillis());
+
+                // 获取消息列表
+                Optional<Object> messagesOpt = state.value("messages");
+                if (messagesOpt.isPresent()) {
+                    @SuppressWarnings("unchecked")
+                    List<Message> messages = (List<Message>) messagesOpt.get();
+                    config.context().put(TOKEN_COST_KEY, tokenCounter.count(messages));
+
+                    // 创建审计记录
+                    AuditLog auditLog = new AuditLog();
+                    fillContext(auditLog, config);
+                    auditLog.setOperationType("model_call");
+                    auditLog.setInput(messages.size() + " messages");
+                    auditLog.setStatus("processing");
+
+                    if (!WarmUpRunner.isWarmUp(config)) {
+                        auditPipeline.publish(auditLog);
+                        log.debug("✅ 审计记录已发布");
+                    }
+                }
+
+            } catch (Exception e) {
+                log.error("❌ 审计Hook执行失败", e);
             }
 
-        } catch (Exception e) {
-            log.error("❌ 审计Hook执行失败", e);
+            return CompletableFuture.completedFuture(new HashMap<>());
+        } finally {
+            event.finish();
         }
-
-        return CompletableFuture.completedFuture(new HashMap<>());
     }
 
     /**
-     * 获取最近的审计日志
+     * 获取最近的审计日志（启用分段存储时从段文件读取）
      */
     public List<AuditLog> getRecentLogs() {
+        if (segmentedAuditStore.isEnabled()) {
+            return segmentedAuditStore.query(null, null, null, 10);
+        }
         return auditLogRepository.findTop10ByOrderByCreateTimeDesc();
     }
 
+    /**
+     * 获取用户的审计日志（启用分段存储时只读取可能包含该用户的段）
+     */
+    public List<AuditLog> getUserLogs(Long userId, int limit) {
+        if (segmentedAuditStore.isEnabled()) {
+            return segmentedAuditStore.query(userId, null, null, limit);
+        }
+        List<AuditLog> logs = auditLogRepository.findByUserIdOrderByCreateTimeDesc(userId);
+        return logs.size() > limit ? logs.subList(0, limit) : logs;
+    }
+
     @Override
     public CompletableFuture<Map<String, Object>> afterModel(OverAllState state, RunnableConfig config) {
-        try {
-            log.debug("🔍 审计Hook - 模型调用后");
-
-            // 计算耗时
-            Long startTime = (Long) config.context().get(START_TIME_KEY);
-            long duration = startTime != null ? System.currentTimeMillis() - startTime : 0;
-
-            // 获取消息数量
-            Integer messageCount = (Integer) config.context().get(MESSAGE_COUNT_KEY);
-
-            // 创建完成审计记录
-            AuditLog auditLog = new AuditLog();
-            auditLog.setUserId(1L);
-            auditLog.setOperationType("model_response");
-            auditLog.setOutput("Response received");
-            auditLog.setDurationMs(duration);
-            auditLog.setStatus("success");
-            auditLog.setTokenCost(messageCount != null ? messageCount * 100 : 0); // 估算
-
-            auditLogRepository.save(auditLog);
-            log.info("✅ 模型调用完成 - 耗时: {}ms", duration);
-
-        } catch (Exception e) {
-            log.error("❌ 审计Hook执行失败", e);
+        HookEvent event = HookEvent.start("audit", "afterModel");
+        try (Span span = tracer.startSpan("hook.audit.afterModel", config)) {
+            try {
+                log.debug("🔍 审计Hook - 模型调用后");
+
+                // 计算耗时
+                Long startTime = (Long) config.context().get(START_TIME_KEY);
+                long duration = startTime != null ? System.currentTimeMillis() - startTime : 0;
+
+                // 获取输入Token数
+                Integer tokenCost = (Integer) config.context().get(TOKEN_COST_KEY);
+
+                // 创建完成审计记录
+                AuditLog auditLog = new AuditLog();
+                fillContext(auditLog, config);
+                auditLog.setOperationType("model_response");
+                auditLog.setOutput("Response received");
+                auditLog.setDurationMs(duration);
+                auditLog.setStatus("success");
+                auditLog.setTokenCost(tokenCost != null ? tokenCost : 0);
+
+                if (WarmUpRunner.isWarmUp(config)) {
+                    return CompletableFuture.completedFuture(new HashMap<>());
+                }
+                auditPipeline.publish(auditLog);
+                log.info("✅ 模型调用完成 - 耗时: {}ms", duration);
+
+            } catch (Exception e) {
+                log.error("❌ 审计Hook执行失败", e);
+            }
+
+            return CompletableFuture.completedFuture(new HashMap<>());
+        } finally {
+            event.finish();
         }
+    }
 
-        return CompletableFuture.completedFuture(new HashMap<>());
+    /**
+     * 从RunnableConfig元数据填充用户、会话和Agent信息
+     */
+    private void fillContext(AuditLog auditLog, RunnableConfig config) {
+        auditLog.setUserId(config.metadata("userId")
+                .map(value -> value instanceof Number number ? number.longValue() : Long.valueOf(value.toString()))
+                .orElse(0L));
+        auditLog.setUsername(config.metadata("username").map(String::valueOf).orElse(null));
+        auditLog.setConversationId(config.metadata("conversationId")
+                .map(value -> value instanceof Number number ? number.longValue() : Long.valueOf(value.toString()))
+                .orElse(null));
+        auditLog.setAgentName(config.metadata("agentName").map(String::valueOf).orElse("intelligent_agent"));
+        auditLog.setIpAddress(config.metadata("ipAddress").map(String::valueOf).orElse(null));
     }
 }
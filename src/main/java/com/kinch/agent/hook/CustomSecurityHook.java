@@ -6,20 +6,32 @@ import com.alibaba.cloud.ai.graph.agent.hook.ModelHook;
 import com.alibaba.cloud.ai.graph.agent.hook.HookPosition;
 import com.alibaba.cloud.ai.graph.agent.hook.HookPositions;
 import com.alibaba.cloud.ai.graph.agent.hook.JumpTo;
+import com.kinch.agent.jfr.HookEvent;
+import com.kinch.agent.security.PiiRedactor;
+import com.kinch.agent.security.SecurityScanner;
+import com.kinch.agent.tracing.Span;
+import com.kinch.agent.tracing.Tracer;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 安全检查Hook - 使用框架的Hook机制
  * 检测SQL注入、命令注入、敏感信息泄露等安全问题
+ * 规则匹配由SecurityScanner单遍完成。
+ * 每个会话线程记录一个扫描水位（已通过检查的消息数 + 水位前最后几条消息的窗口指纹），
+ * ReAct循环中每次模型调用只扫描水位之后新增的消息，系统提示和已通过的历史消息不再重复扫描；
+ * 指纹对不上（历史被改写、窗口被截断）时全量扫描
  *
  * @author kinch
  * @date 2025-12-29
@@ -30,22 +42,29 @@ import java.util.regex.Pattern;
 @HookPositions({HookPosition.BEFORE_MODEL})
 public class CustomSecurityHook extends ModelHook {
 
-    // SQL注入检测模式
-    private static final Pattern SQL_INJECTION_PATTERN = Pattern.compile(
-        ".*(union|select|insert|update|delete|drop|exec|script|<script).*",
-        Pattern.CASE_INSENSITIVE
-    );
+    private final SecurityScanner securityScanner;
+    private final PiiRedactor piiRedactor;
+    private final Tracer tracer;
 
-    // 命令注入检测模式
-    private static final Pattern COMMAND_INJECTION_PATTERN = Pattern.compile(
-        ".*[;&|`$].*",
-        Pattern.CASE_INSENSITIVE
-    );
+    private static final String WATERMARK_KEY = "__security_watermark__";
 
-    // 敏感词列表
-    private static final List<String> SENSITIVE_WORDS = Arrays.asList(
-        "密码", "password", "token", "秘钥", "secret", "apikey"
-    );
+    /**
+     * 水位指纹覆盖的消息数，单条消息文本相同（如"好的"）不足以让水位错位
+     */
+    static final int WATERMARK_WINDOW = 4;
+
+    /**
+     * 水位空闲多久后移除（毫秒）
+     */
+    @Value("${agent.security.watermark-idle-ms:1800000}")
+    private long watermarkIdleMs;
+
+    private final Map<String, Watermark> watermarks = new ConcurrentHashMap<>();
+
+    private final LongAdder scannedMessages = new LongAdder();
+    private final LongAdder skippedMessages = new LongAdder();
+    private final LongAdder watermarkHits = new LongAdder();
+    private final LongAdder watermarkMisses = new LongAdder();
 
     @Override
     public String getName() {
@@ -60,52 +79,134 @@ public class CustomSecurityHook extends ModelHook {
 
     @Override
     public CompletableFuture<Map<String, Object>> beforeModel(OverAllState state, RunnableConfig config) {
-        try {
-            log.debug("🛡️ 安全Hook - 检查开始");
+        HookEvent event = HookEvent.start("security", "beforeModel");
+        try (Span span = tracer.startSpan("hook.security.beforeModel", config)) {
+            try {
+                log.debug("🛡️ 安全Hook - 检查开始");
 
-            // 获取消息列表
-            Optional<Object> messagesOpt = state.value("messages");
-            if (messagesOpt.isEmpty()) {
-                return CompletableFuture.completedFuture(new HashMap<>());
-            }
+                // 获取消息列表
+                Optional<Object> messagesOpt = state.value("messages");
+                if (messagesOpt.isEmpty()) {
+                    return CompletableFuture.completedFuture(new HashMap<>());
+                }
 
-            @SuppressWarnings("unchecked")
-            List<Message> messages = (List<Message>) messagesOpt.get();
-
-            // 检查最后一条用户消息
-            for (int i = messages.size() - 1; i >= 0; i--) {
-                Message msg = messages.get(i);
-                if (msg.getText() != null) {
-                    String content = msg.getText();
-                    
-                    // 执行安全检查
-                    SecurityCheckResult result = checkSecurity(content);
-                    
-                    if (!result.isSafe()) {
-                        log.warn("🚨 安全检查失败: {}", result.getMessage());
-                        
-                        // 添加安全警告消息并终止执行
-                        List<Message> updatedMessages = new ArrayList<>(messages);
-                        updatedMessages.add(new AssistantMessage(
-                            "⚠️ 安全检查失败: " + result.getMessage() + "\n请修改您的输入后重试。"
-                        ));
+                @SuppressWarnings("unchecked")
+                List<Message> messages = (List<Message>) messagesOpt.get();
+
+                // 只检查水位之后的新消息
+                int start = resumeIndex(messages, getWatermark(config));
+                skippedMessages.add(start);
+                for (int i = messages.size() - 1; i >= start; i--) {
+                    Message msg = messages.get(i);
+                    if (msg.getText() != null) {
+                        String content = msg.getText();
+                        scannedMessages.increment();
                         
-                        Map<String, Object> updates = new HashMap<>();
-                        updates.put("messages", updatedMessages);
-                        // 注意：跳转控制需要配合RunnableConfig使用
+                        // 执行安全检查
+                        SecurityCheckResult result = checkSecurity(content);
                         
-                        return CompletableFuture.completedFuture(updates);
+                        if (!result.isSafe()) {
+                            log.warn("🚨 安全检查失败: {}", result.getMessage());
+                            
+                            // 添加安全警告消息并终止执行
+                            List<Message> updatedMessages = new ArrayList<>(messages);
+                            updatedMessages.add(new AssistantMessage(
+                                "⚠️ 安全检查失败: " + result.getMessage() + "\n请修改您的输入后重试。"
+                            ));
+                            
+                            Map<String, Object> updates = new HashMap<>();
+                            updates.put("messages", updatedMessages);
+                            // 注意：跳转控制需要配合RunnableConfig使用
+                            
+                            return CompletableFuture.completedFuture(updates);
+                        }
                     }
                 }
+
+                // 全部通过，推进水位
+                if (!messages.isEmpty()) {
+                    setWatermark(config, Watermark.of(messages));
+                }
+
+                log.debug("✅ 安全检查通过");
+
+            } catch (Exception e) {
+                log.error("❌ 安全Hook执行失败", e);
+            }
+
+            return CompletableFuture.completedFuture(new HashMap<>());
+        } finally {
+            event.finish();
+        }
+    }
+
+    /**
+     * 计算本次应从哪条消息开始扫描：水位前的窗口指纹一致则从水位继续；
+     * 消息被修剪或摘要替换导致位置变化时，从后往前找窗口指纹一致的位置；都找不到则全量扫描
+     */
+    int resumeIndex(List<Message> messages, Watermark watermark) {
+        if (watermark == null) {
+            return 0;
+        }
+        int count = watermark.count();
+        if (count <= messages.size() && watermark.matchesAt(messages, count)) {
+            watermarkHits.increment();
+            return count;
+        }
+        for (int end = Math.min(count - 1, messages.size()); end >= watermark.window(); end--) {
+            if (watermark.matchesAt(messages, end)) {
+                watermarkHits.increment();
+                return end;
             }
+        }
+        watermarkMisses.increment();
+        return 0;
+    }
 
-            log.debug("✅ 安全检查通过");
+    /**
+     * 有threadId时水位跨调用保存在本地，否则只在本次运行的context中有效
+     */
+    private Watermark getWatermark(RunnableConfig config) {
+        Optional<String> threadId = config.threadId();
+        if (threadId.isPresent()) {
+            Watermark watermark = watermarks.get(threadId.get());
+            if (watermark != null) {
+                watermark.touch();
+            }
+            return watermark;
+        }
+        return config.context().get(WATERMARK_KEY) instanceof Watermark watermark ? watermark : null;
+    }
 
-        } catch (Exception e) {
-            log.error("❌ 安全Hook执行失败", e);
+    private void setWatermark(RunnableConfig config, Watermark watermark) {
+        Optional<String> threadId = config.threadId();
+        if (threadId.isPresent()) {
+            watermarks.put(threadId.get(), watermark);
+        } else {
+            config.context().put(WATERMARK_KEY, watermark);
         }
+    }
+
+    /**
+     * 移除空闲水位
+     */
+    @Scheduled(fixedDelay = 300000)
+    public void evictIdleWatermarks() {
+        long deadline = System.currentTimeMillis() - watermarkIdleMs;
+        watermarks.values().removeIf(watermark -> watermark.lastAccess < deadline);
+    }
 
-        return CompletableFuture.completedFuture(new HashMap<>());
+    /**
+     * 获取统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("scannedMessages", scannedMessages.sum());
+        stats.put("skippedMessages", skippedMessages.sum());
+        stats.put("watermarkHits", watermarkHits.sum());
+        stats.put("watermarkMisses", watermarkMisses.sum());
+        stats.put("trackedThreads", watermarks.size());
+        return stats;
     }
 
     /**
@@ -116,50 +217,31 @@ public class CustomSecurityHook extends ModelHook {
             return new SecurityCheckResult(true, "输入为空");
         }
 
+        long hits = securityScanner.scan(input);
+
         // 1. 检查SQL注入
-        if (SQL_INJECTION_PATTERN.matcher(input).matches()) {
+        if (securityScanner.matches(hits, SecurityScanner.Category.SQL_INJECTION)) {
             return new SecurityCheckResult(false, "检测到可疑的SQL注入尝试");
         }
 
         // 2. 检查命令注入
-        if (COMMAND_INJECTION_PATTERN.matcher(input).matches()) {
+        if (securityScanner.matches(hits, SecurityScanner.Category.COMMAND_INJECTION)) {
             return new SecurityCheckResult(false, "检测到可疑的命令注入尝试");
         }
 
-        // 3. 检查敏感词（仅警告）
-        for (String word : SENSITIVE_WORDS) {
-            if (input.toLowerCase().contains(word.toLowerCase())) {
-                log.warn("⚠️ 检测到敏感词: {}", word);
-                // 敏感词不阻止执行，只记录日志
-            }
+        // 3. 检查敏感词（仅警告，不阻止执行）
+        if (securityScanner.matches(hits, SecurityScanner.Category.SENSITIVE_WORD)) {
+            log.warn("⚠️ 检测到敏感词: {}", securityScanner.keywords(hits, SecurityScanner.Category.SENSITIVE_WORD));
         }
 
         return new SecurityCheckResult(true, "安全检查通过");
     }
 
     /**
-     * 过滤敏感信息
+     * 过滤敏感信息（手机号、身份证号、邮箱、IP）
      */
     public String filterSensitiveInfo(String text) {
-        if (text == null || text.isEmpty()) {
-            return text;
-        }
-
-        String filtered = text;
-
-        // 过滤手机号
-        filtered = filtered.replaceAll("1[3-9]\\d{9}", "***********");
-
-        // 过滤身份证号
-        filtered = filtered.replaceAll("\\d{17}[\\dXx]", "******************");
-
-        // 过滤邮箱
-        filtered = filtered.replaceAll("[\\w.-]+@[\\w.-]+\\.\\w+", "***@***.***");
-
-        // 过滤IP地址
-        filtered = filtered.replaceAll("\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}", "***.***.***.***");
-
-        return filtered;
+        return piiRedactor.redact(text);
     }
 
     /**
@@ -175,6 +257,72 @@ public class CustomSecurityHook extends ModelHook {
             this.message = message;
         }
     }
-}
 
+    /**
+     * 扫描水位：已通过检查的消息数，以及水位前window条消息的指纹（类型、文本长度和哈希），不持有消息对象
+     */
+    static final class Watermark {
+        private final int count;
+        private final int window;
+        private final long fingerprint;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private Watermark(int count, int window, long fingerprint) {
+            this.count = count;
+            this.window = window;
+            this.fingerprint = fingerprint;
+        }
+
+        static Watermark of(List<Message> messages) {
+            int count = messages.size();
+            int window = Math.min(WATERMARK_WINDOW, count);
+            return new Watermark(count, window, fingerprint(messages, count, window));
+        }
+
+        int count() {
+            return count;
+        }
+
+        int window() {
+            return window;
+        }
+
+        /**
+         * messages[end - window, end) 的指纹是否与水位一致，前面不足window条时视为不一致
+         */
+        boolean matchesAt(List<Message> messages, int end) {
+            return end >= window && end <= messages.size() && fingerprint(messages, end, window) == fingerprint;
+        }
 
+        /**
+         * String缓存了hashCode，计算指纹不随文本长度增长
+         */
+        private static long fingerprint(List<Message> messages, int end, int window) {
+            long hash = window;
+            for (int i = end - window; i < end; i++) {
+                Message message = messages.get(i);
+                String text = message.getText();
+                hash = mix(hash ^ message.getMessageType().ordinal());
+                hash = mix(hash ^ (text != null ? ((long) text.length() << 32) | (text.hashCode() & 0xffffffffL) : -1L));
+            }
+            return hash;
+        }
+
+        /**
+         * MurmurHash3 fmix64
+         */
+        private static long mix(long value) {
+            long h = value;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+    }
+}
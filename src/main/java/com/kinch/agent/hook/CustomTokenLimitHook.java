@@ -7,13 +7,20 @@ import com.alibaba.cloud.ai.graph.agent.hook.HookPosition;
 import com.alibaba.cloud.ai.graph.agent.hook.HookPositions;
 import com.alibaba.cloud.ai.graph.agent.hook.JumpTo;
 import com.kinch.agent.entity.TokenUsageLog;
-import com.kinch.agent.entity.User;
-import com.kinch.agent.repository.TokenUsageLogRepository;
-import com.kinch.agent.repository.UserRepository;
+import com.kinch.agent.interceptor.PerformanceInterceptor;
+import com.kinch.agent.jfr.HookEvent;
+import com.kinch.agent.ratelimit.DistributedRateLimiter;
+import com.kinch.agent.service.TokenCounter;
+import com.kinch.agent.service.TokenQuotaLedger;
+import com.kinch.agent.service.TokenUsageLogWriter;
+import com.kinch.agent.tracing.Span;
+import com.kinch.agent.tracing.Tracer;
+import com.kinch.agent.warmup.WarmUpRunner;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
@@ -22,6 +29,10 @@ import java.util.concurrent.CompletableFuture;
 /**
  * Token限流Hook - 使用框架的Hook机制
  * 管理用户Token配额，防止过度消耗
+ * 调用前先经DistributedRateLimiter做请求数/Token速率限流，
+ * 再在TokenQuotaLedger中预留"输入估算 + 输出预留"的额度，调用后按实际用量结算。
+ * 实际用量优先取PerformanceInterceptor从模型响应中读到的prompt/completion Token数，
+ * 响应中没有用量信息时才退回本地估算
  *
  * @author kinch
  * @date 2025-12-29
@@ -32,12 +43,28 @@ import java.util.concurrent.CompletableFuture;
 @HookPositions({HookPosition.BEFORE_MODEL, HookPosition.AFTER_MODEL})
 public class CustomTokenLimitHook extends ModelHook {
 
-    private final UserRepository userRepository;
-    private final TokenUsageLogRepository tokenUsageLogRepository;
+    private final TokenUsageLogWriter tokenUsageLogWriter;
+    private final TokenCounter tokenCounter;
+    private final TokenQuotaLedger quotaLedger;
+    private final DistributedRateLimiter rateLimiter;
+    private final Tracer tracer;
+
+    /**
+     * 每次模型调用为输出预留的Token数
+     */
+    @Value("${agent.quota.reserve-output-tokens:1000}")
+    private int reserveOutputTokens;
+
+    /**
+     * 响应中没有模型名时记录的默认模型
+     */
+    @Value("${spring.ai.dashscope.chat.options.model:qwen-plus}")
+    private String defaultModel;
     
     private static final String TOKEN_COUNT_KEY = "__token_count__";
     private static final String USER_ID_KEY = "__user_id__";
     private static final String START_TIME_KEY = "__token_start_time__";
+    private static final String RESERVATION_KEY = "__token_reservation__";
 
     @Override
     public String getName() {
@@ -52,193 +79,209 @@ public class CustomTokenLimitHook extends ModelHook {
 
     @Override
     public CompletableFuture<Map<String, Object>> beforeModel(OverAllState state, RunnableConfig config) {
-        try {
-            log.debug("💰 Token限流Hook - 检查开始");
+        HookEvent event = HookEvent.start("tokenLimit", "beforeModel");
+        try (Span span = tracer.startSpan("hook.tokenLimit.beforeModel", config)) {
+            try {
+                log.debug("💰 Token限流Hook - 检查开始");
 
-            // 从context获取用户ID
-            Long userId = getUserIdFromContext(config);
-            config.context().put(USER_ID_KEY, userId);
-            config.context().put(START_TIME_KEY, System.currentTimeMillis());
+                // 从context获取用户ID
+                Long userId = getUserIdFromContext(config);
+                config.context().put(USER_ID_KEY, userId);
+                config.context().put(START_TIME_KEY, System.currentTimeMillis());
 
-            // 检查用户Token配额
-            if (!checkLimit(userId, 0)) { // 0表示只检查，不扣除
-                log.warn("⚠️ 用户{}的Token配额不足", userId);
-                
-                // 添加配额不足消息并终止执行
-                Optional<Object> messagesOpt = state.value("messages");
-                if (messagesOpt.isPresent()) {
-                    @SuppressWarnings("unchecked")
-                    List<Message> messages = (List<Message>) messagesOpt.get();
-                    List<Message> updatedMessages = new ArrayList<>(messages);
-                    updatedMessages.add(new AssistantMessage(
-                        "⚠️ Token配额不足，请联系管理员充值。\n当前剩余: " + getRemainingQuota(userId)
-                    ));
-                    
-                    Map<String, Object> updates = new HashMap<>();
-                    updates.put("messages", updatedMessages);
-                    
-                    return CompletableFuture.completedFuture(updates);
+                // 上一次调用未结算的预留（如模型调用异常）先释放
+                if (config.context().remove(RESERVATION_KEY) instanceof TokenQuotaLedger.Reservation stale) {
+                    quotaLedger.release(stale);
                 }
-            }
 
-            // 估算本次请求的Token数量
-            Optional<Object> messagesOpt = state.value("messages");
-            if (messagesOpt.isPresent()) {
+                // 估算本次请求的Token数量
+                Optional<Object> messagesOpt = state.value("messages");
                 @SuppressWarnings("unchecked")
-                List<Message> messages = (List<Message>) messagesOpt.get();
-                int estimatedTokens = estimateTokens(messages);
+                List<Message> messages = messagesOpt.isPresent() ? (List<Message>) messagesOpt.get() : List.of();
+                int estimatedTokens = tokenCounter.count(messages);
                 config.context().put(TOKEN_COUNT_KEY, estimatedTokens);
                 log.debug("📊 估算Token: {}", estimatedTokens);
+
+                // 启动预热的替身调用不限流、不占配额
+                if (WarmUpRunner.isWarmUp(config)) {
+                    return CompletableFuture.completedFuture(new HashMap<>());
+                }
+
+                // 先在内存账本中预留额度，配额不足的请求不消耗限流桶
+                long requestTokens = estimatedTokens + reserveOutputTokens;
+                TokenQuotaLedger.Reservation reservation = quotaLedger.reserve(userId, requestTokens);
+                if (reservation == null) {
+                    log.warn("⚠️ 用户{}的Token配额不足", userId);
+                    
+                    // 添加配额不足消息并终止执行
+                    return rejectWith(messagesOpt, messages,
+                            "⚠️ Token配额不足，请联系管理员充值。\n当前剩余: " + getRemainingQuota(userId));
+                }
+                config.context().put(RESERVATION_KEY, reservation);
+
+                // 分布式速率限流（用户/租户维度），被限流时归还刚才的预留
+                String tenantId = config.metadata("tenantId").map(String::valueOf).orElse(null);
+                String limitedBy = rateLimiter.tryAcquire(userId, tenantId, requestTokens);
+                if (limitedBy != null) {
+                    config.context().remove(RESERVATION_KEY);
+                    quotaLedger.release(reservation);
+                    return rejectWith(messagesOpt, messages, "⚠️ 请求过于频繁（" + limitedBy + "），请稍后再试。");
+                }
+
+            } catch (Exception e) {
+                log.error("❌ Token限流Hook执行失败", e);
             }
 
-        } catch (Exception e) {
-            log.error("❌ Token限流Hook执行失败", e);
+            return CompletableFuture.completedFuture(new HashMap<>());
+        } finally {
+            event.finish();
         }
-
-        return CompletableFuture.completedFuture(new HashMap<>());
     }
 
     @Override
     public CompletableFuture<Map<String, Object>> afterModel(OverAllState state, RunnableConfig config) {
-        try {
-            log.debug("💰 Token限流Hook - 记录使用");
+        HookEvent event = HookEvent.start("tokenLimit", "afterModel");
+        try (Span span = tracer.startSpan("hook.tokenLimit.afterModel", config)) {
+            try {
+                log.debug("💰 Token限流Hook - 记录使用");
 
-            // 获取用户ID和Token数量
-            Long userId = (Long) config.context().get(USER_ID_KEY);
-            Integer estimatedTokens = (Integer) config.context().get(TOKEN_COUNT_KEY);
-            Long startTime = (Long) config.context().get(START_TIME_KEY);
-            
-            if (userId == null || estimatedTokens == null) {
-                return CompletableFuture.completedFuture(new HashMap<>());
-            }
+                // 获取用户ID和Token数量
+                Long userId = (Long) config.context().get(USER_ID_KEY);
+                Integer estimatedTokens = (Integer) config.context().get(TOKEN_COUNT_KEY);
+                Long startTime = (Long) config.context().get(START_TIME_KEY);
+                
+                if (userId == null || estimatedTokens == null) {
+                    return CompletableFuture.completedFuture(new HashMap<>());
+                }
 
-            long duration = startTime != null ? System.currentTimeMillis() - startTime : 0;
+                long duration = startTime != null ? System.currentTimeMillis() - startTime : 0;
 
-            // 记录Token使用
-            recordTokenUsage(userId, estimatedTokens, duration);
-            
-            // 扣除用户配额
-            deductQuota(userId, estimatedTokens);
+                // 实际用量：优先使用模型返回的用量，缺失时按输入估算 + 本次回复估算
+                AssistantMessage reply = getLastReply(state);
+                Map<String, Object> replyMetadata = reply != null ? reply.getMetadata() : Map.of();
+                int inputTokens;
+                int outputTokens;
+                if (replyMetadata.get(PerformanceInterceptor.PROMPT_TOKENS_KEY) instanceof Integer prompt
+                        && replyMetadata.get(PerformanceInterceptor.COMPLETION_TOKENS_KEY) instanceof Integer completion) {
+                    inputTokens = prompt;
+                    outputTokens = completion;
+                } else {
+                    inputTokens = estimatedTokens;
+                    outputTokens = reply != null ? tokenCounter.count(reply) : 0;
+                }
+                int totalTokens = inputTokens + outputTokens;
+                String model = replyMetadata.get(PerformanceInterceptor.MODEL_KEY) instanceof String name ? name : defaultModel;
+                Long conversationId = config.metadata("conversationId")
+                        .map(value -> value instanceof Number number ? number.longValue() : Long.valueOf(value.toString()))
+                        .orElse(null);
 
-            log.info("✅ Token使用记录完成 - 用户: {}, Token: {}, 耗时: {}ms", 
-                userId, estimatedTokens, duration);
+                if (WarmUpRunner.isWarmUp(config)) {
+                    return CompletableFuture.completedFuture(new HashMap<>());
+                }
 
-        } catch (Exception e) {
-            log.error("❌ Token记录失败", e);
+                // 记录Token使用
+                recordTokenUsage(userId, conversationId, model, inputTokens, outputTokens, duration);
+                
+                // 结算预留额度；没有预留的调用（预留前异常放行）直接记入用量，不漏记
+                if (config.context().remove(RESERVATION_KEY) instanceof TokenQuotaLedger.Reservation reservation) {
+                    quotaLedger.settle(reservation, totalTokens);
+                } else {
+                    log.warn("⚠️ 模型调用没有对应的配额预留，直接记入用量 - 用户: {}, Token: {}", userId, totalTokens);
+                    quotaLedger.charge(userId, totalTokens);
+                }
+
+                log.info("✅ Token使用记录完成 - 用户: {}, Token: {}, 耗时: {}ms", 
+                    userId, totalTokens, duration);
+
+            } catch (Exception e) {
+                log.error("❌ Token记录失败", e);
+            }
+
+            return CompletableFuture.completedFuture(new HashMap<>());
+        } finally {
+            event.finish();
         }
+    }
 
-        return CompletableFuture.completedFuture(new HashMap<>());
+    /**
+     * 追加提示消息并跳转到结束，本次模型调用不会发生
+     * 框架只认返回值中的jump_to，仅在canJumpTo()中声明并不会终止执行
+     */
+    private CompletableFuture<Map<String, Object>> rejectWith(Optional<Object> messagesOpt, List<Message> messages,
+                                                             String notice) {
+        Map<String, Object> updates = new HashMap<>();
+        if (messagesOpt.isPresent()) {
+            List<Message> updatedMessages = new ArrayList<>(messages);
+            updatedMessages.add(new AssistantMessage(notice));
+            updates.put("messages", updatedMessages);
+        }
+        updates.put("jump_to", JumpTo.end);
+        return CompletableFuture.completedFuture(updates);
     }
 
     /**
      * 从Context获取用户ID
      */
     private Long getUserIdFromContext(RunnableConfig config) {
-        // TODO: 从RunnableConfig的metadata中获取用户ID
-        // 这里暂时返回默认用户ID
-        return 1L;
+        // AgentService构建RunnableConfig时写入userId，未传入时使用默认用户
+        return config.metadata("userId")
+                .filter(Number.class::isInstance)
+                .map(id -> ((Number) id).longValue())
+                .orElse(1L);
     }
 
     /**
-     * 检查用户Token配额
+     * 本次模型回复（最后一条AssistantMessage）
      */
-    public boolean checkLimit(Long userId, int requiredTokens) {
-        try {
-            Optional<User> userOpt = userRepository.findById(userId);
-            if (userOpt.isEmpty()) {
-                return false;
-            }
-
-            User user = userOpt.get();
-            long remaining = user.getTokenQuota() - user.getTokenUsed();
-            
-            return remaining >= requiredTokens;
-            
-        } catch (Exception e) {
-            log.error("检查Token配额失败", e);
-            return true; // 失败时允许通过
+    private AssistantMessage getLastReply(OverAllState state) {
+        Optional<Object> messagesOpt = state.value("messages");
+        if (messagesOpt.isEmpty()) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        List<Message> messages = (List<Message>) messagesOpt.get();
+        if (messages.isEmpty() || !(messages.get(messages.size() - 1) instanceof AssistantMessage reply)) {
+            return null;
         }
+        return reply;
     }
 
     /**
-     * 获取剩余配额
+     * 检查用户Token配额（只读内存账本）
      */
-    public long getRemainingQuota(Long userId) {
-        try {
-            Optional<User> userOpt = userRepository.findById(userId);
-            if (userOpt.isEmpty()) {
-                return 0;
-            }
-
-            User user = userOpt.get();
-            return user.getTokenQuota() - user.getTokenUsed();
-            
-        } catch (Exception e) {
-            log.error("获取剩余配额失败", e);
-            return 0;
-        }
+    public boolean checkLimit(Long userId, int requiredTokens) {
+        return quotaLedger.getRemaining(userId) >= requiredTokens;
     }
 
     /**
-     * 扣除用户配额
+     * 获取剩余配额
      */
-    private void deductQuota(Long userId, int tokens) {
-        try {
-            Optional<User> userOpt = userRepository.findById(userId);
-            if (userOpt.isEmpty()) {
-                return;
-            }
-
-            User user = userOpt.get();
-            long newUsed = user.getTokenUsed() + tokens;
-            user.setTokenUsed((int) newUsed);
-            userRepository.save(user);
-            
-            log.debug("💸 扣除配额 - 用户: {}, Token: {}, 剩余: {}", 
-                userId, tokens, user.getTokenQuota() - newUsed);
-            
-        } catch (Exception e) {
-            log.error("扣除配额失败", e);
-        }
+    public long getRemainingQuota(Long userId) {
+        return quotaLedger.getRemaining(userId);
     }
 
     /**
-     * 记录Token使用
+     * 记录Token使用（异步批量写入）
      */
-    private void recordTokenUsage(Long userId, int tokens, long duration) {
+    private void recordTokenUsage(Long userId, Long conversationId, String model,
+                                  int inputTokens, int outputTokens, long duration) {
         try {
+            int tokens = inputTokens + outputTokens;
             TokenUsageLog log = new TokenUsageLog();
             log.setUserId(userId);
-            log.setModelName("qwen-plus");
-            log.setInputTokens(tokens / 2);
-            log.setOutputTokens(tokens / 2);
+            log.setConversationId(conversationId);
+            log.setModelName(model);
+            log.setInputTokens(inputTokens);
+            log.setOutputTokens(outputTokens);
             log.setTotalTokens(tokens);
             log.setOperationType("chat");
             log.setEstimatedCost(tokens * 0.001); // 简单计费
             log.setDurationMs(duration);
             
-            tokenUsageLogRepository.save(log);
+            tokenUsageLogWriter.submit(log);
             
         } catch (Exception e) {
             log.error("记录Token使用失败", e);
         }
     }
-
-    /**
-     * 估算Token数量
-     */
-    private int estimateTokens(List<Message> messages) {
-        int total = 0;
-        for (Message msg : messages) {
-            if (msg.getText() != null) {
-                // 简单估算：中文1字约1.5 token，英文1词约0.75 token
-                String text = msg.getText();
-                int chineseCount = text.replaceAll("[^\\u4e00-\\u9fa5]", "").length();
-                int otherCount = text.length() - chineseCount;
-                total += (int) (chineseCount * 1.5 + otherCount * 0.25);
-            }
-        }
-        return Math.max(100, total); // 最少100 token
-    }
 }
-
@@ -6,17 +6,34 @@ import com.alibaba.cloud.ai.graph.agent.hook.HookPositions;
 import com.alibaba.cloud.ai.graph.agent.hook.messages.AgentCommand;
 import com.alibaba.cloud.ai.graph.agent.hook.messages.MessagesModelHook;
 import com.alibaba.cloud.ai.graph.agent.hook.messages.UpdatePolicy;
+import com.kinch.agent.jfr.HookEvent;
+import com.kinch.agent.service.ContextManager;
+import com.kinch.agent.service.ConversationSummaryService;
+import com.kinch.agent.service.TokenCounter;
+import com.kinch.agent.tracing.Span;
+import com.kinch.agent.tracing.Tracer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 消息修剪Hook - 使用框架的MessagesModelHook
- * 控制上下文窗口大小，避免Token超限
+ * 按Token预算控制上下文窗口大小，避免Token超限
+ * 系统消息始终保留，工具调用与其工具响应作为整体保留或丢弃，找不到工具调用的工具响应一律去掉，
+ * 被修剪掉的早期消息由会话的滚动摘要替代，避免信息丢失
  *
  * @author kinch
  * @date 2025-12-29
@@ -26,58 +43,228 @@ import java.util.List;
 @HookPositions({HookPosition.BEFORE_MODEL})
 public class MessageTrimmingHook extends MessagesModelHook {
 
-    private static final int MAX_MESSAGES = 20; // 最多保留20条消息
-    private static final int MIN_KEEP_MESSAGES = 5; // 至少保留5条最新消息
+    private static final String SUMMARY_METADATA_KEY = "rolling_summary";
+
+    /**
+     * 上下文Token预算（系统消息 + 摘要 + 保留的历史消息）
+     */
+    @Value("${agent.context.max-tokens:6000}")
+    private int maxTokens;
+
+    private final ConversationSummaryService summaryService;
+    private final TokenCounter tokenCounter;
+    private final Tracer tracer;
+
+    // 修剪统计
+    private final LongAdder totalChecks = new LongAdder();
+    private final LongAdder trimmedCount = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder droppedTokens = new LongAdder();
+    private final LongAdder overBudgetCount = new LongAdder();
+
+    // 使用@Lazy解决与AgentConfig之间的循环依赖
+    public MessageTrimmingHook(@Lazy ConversationSummaryService summaryService, TokenCounter tokenCounter,
+                               Tracer tracer) {
+        this.summaryService = summaryService;
+        this.tokenCounter = tokenCounter;
+        this.tracer = tracer;
+    }
 
     @Override
     public String getName() {
         return "message_trimming_hook";
     }
 
+    /**
+     * 获取修剪统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("maxTokens", maxTokens);
+        stats.put("totalChecks", totalChecks.sum());
+        stats.put("trimmedCount", trimmedCount.sum());
+        stats.put("droppedMessages", droppedMessages.sum());
+        stats.put("droppedTokens", droppedTokens.sum());
+        stats.put("overBudgetCount", overBudgetCount.sum());
+        return stats;
+    }
+
     @Override
-    public AgentCommand beforeModel(List<Message> previousMessages, RunnableConfig config) {
-        if (previousMessages == null || previousMessages.isEmpty()) {
-            return new AgentCommand(previousMessages);
-        }
+    public AgentCommand beforeModel(List<Message> originalMessages, RunnableConfig config) {
+        HookEvent event = HookEvent.start("trimming", "beforeModel");
+        try (Span span = tracer.startSpan("hook.trimming.beforeModel", config)) {
+            if (originalMessages == null || originalMessages.isEmpty()) {
+                return new AgentCommand(originalMessages);
+            }
+            totalChecks.increment();
 
-        int messageCount = previousMessages.size();
-        
-        // 如果消息数量在限制内，直接返回
-        if (messageCount <= MAX_MESSAGES) {
-            log.debug("📊 消息数量: {} (未超限)", messageCount);
-            return new AgentCommand(previousMessages);
-        }
+            // 先去掉历史中间的孤立工具响应（对应的工具调用已不在历史里），部分服务商会拒绝这样的历史
+            List<Message> previousMessages = dropOrphanToolResponses(originalMessages);
+            boolean orphansDropped = previousMessages != originalMessages;
+
+            // 单次倒序遍历：统计系统消息Token，同时记录每个完整消息单元的起点及其后缀Token和
+            int messageCount = previousMessages.size();
+            int systemTokens = 0;
+            int suffixTokens = 0;
+            int pendingToolTokens = 0;
+            int firstNonSystem = -1;
+            int boundaryCount = 0;
+            int[] boundaryIndex = new int[messageCount];
+            int[] boundarySuffix = new int[messageCount];
 
-        log.info("✂️ 消息修剪 - 当前: {}, 限制: {}", messageCount, MAX_MESSAGES);
+            for (int i = messageCount - 1; i >= 0; i--) {
+                Message msg = previousMessages.get(i);
+                if (msg instanceof SystemMessage) {
+                    if (!isSummaryMessage(msg)) {
+                        systemTokens += tokenCounter.count(msg);
+                    }
+                    continue;
+                }
 
-        // 保留系统消息和最新的N条消息
-        List<Message> trimmedMessages = new ArrayList<>();
-        
-        // 1. 先添加系统消息
-        for (Message msg : previousMessages) {
-            if (msg instanceof SystemMessage) {
-                trimmedMessages.add(msg);
+                firstNonSystem = i;
+                int tokens = tokenCounter.count(msg);
+                if (msg instanceof ToolResponseMessage) {
+                    // 工具响应需要和发起调用的助手消息一起保留
+                    pendingToolTokens += tokens;
+                    continue;
+                }
+                if (pendingToolTokens > 0 && !(msg instanceof AssistantMessage assistant && assistant.hasToolCalls())) {
+                    // 孤立的工具响应（对应的工具调用已被修剪），不能单独保留
+                    pendingToolTokens = 0;
+                }
+
+                suffixTokens += tokens + pendingToolTokens;
+                pendingToolTokens = 0;
+                boundaryIndex[boundaryCount] = i;
+                boundarySuffix[boundaryCount] = suffixTokens;
+                boundaryCount++;
             }
-        }
 
-        // 2. 添加最新的消息（保留最后N条）
-        int keepCount = Math.max(MIN_KEEP_MESSAGES, MAX_MESSAGES - trimmedMessages.size());
-        List<Message> recentMessages = previousMessages.subList(
-            Math.max(0, messageCount - keepCount),
-            messageCount
-        );
-        
-        for (Message msg : recentMessages) {
-            if (!(msg instanceof SystemMessage)) {
-                trimmedMessages.add(msg);
+            // 预算内且没有孤立工具响应，直接返回
+            boolean hasOrphans = firstNonSystem >= 0
+                    && (boundaryCount == 0 || boundaryIndex[boundaryCount - 1] != firstNonSystem);
+            if (systemTokens + suffixTokens <= maxTokens && !hasOrphans) {
+                log.debug("📊 上下文Token: {} / {} (未超限)", systemTokens + suffixTokens, maxTokens);
+                return orphansDropped
+                        ? new AgentCommand(previousMessages, UpdatePolicy.REPLACE)
+                        : new AgentCommand(originalMessages);
+            }
+
+            // 确定保留起点：至少保留最后一个单元，其余在剩余预算内尽量多保留
+            String summary = summaryService.getSummary(getConversationId(config));
+            Message summaryMessage = summary != null ? SystemMessage.builder()
+                    .text(ContextManager.SUMMARY_PREFIX + summary)
+                    .metadata(new HashMap<>(Map.of(SUMMARY_METADATA_KEY, true)))
+                    .build() : null;
+            int available = maxTokens - systemTokens - tokenCounter.count(summaryMessage);
+
+            int keepFrom = messageCount;
+            int keptTokens = 0;
+            for (int b = 0; b < boundaryCount; b++) {
+                if (b > 0 && boundarySuffix[b] > available) {
+                    break;
+                }
+                keepFrom = boundaryIndex[b];
+                keptTokens = boundarySuffix[b];
+            }
+            if (keptTokens > available) {
+                overBudgetCount.increment();
+                log.warn("⚠️ 最新消息单元已超出Token预算: {} > {}", keptTokens, available);
             }
+
+            // 组装结果：系统消息 + 摘要 + 保留的最近消息
+            List<Message> trimmedMessages = new ArrayList<>();
+            int dropped = 0;
+            for (int i = 0; i < messageCount; i++) {
+                Message msg = previousMessages.get(i);
+                if (msg instanceof SystemMessage) {
+                    if (!isSummaryMessage(msg)) {
+                        trimmedMessages.add(msg);
+                    }
+                } else if (i < keepFrom) {
+                    dropped++;
+                }
+            }
+            if (summaryMessage != null) {
+                trimmedMessages.add(summaryMessage);
+            }
+            List<Message> kept = new ArrayList<>();
+            for (int i = keepFrom; i < messageCount; i++) {
+                Message msg = previousMessages.get(i);
+                if (!(msg instanceof SystemMessage)) {
+                    kept.add(msg);
+                }
+            }
+            // 保留起点之前的工具调用被修剪后，其后不相邻的工具响应也会变成孤立的
+            trimmedMessages.addAll(dropOrphanToolResponses(kept));
+
+            int droppedTokenCount = suffixTokens - keptTokens;
+            trimmedCount.increment();
+            droppedMessages.add(dropped);
+            droppedTokens.add(droppedTokenCount);
+
+            log.info("✂️ 消息修剪完成 - 保留: {}/{}, 丢弃Token: {}, 预算: {}",
+                    trimmedMessages.size(), messageCount, droppedTokenCount, maxTokens);
+
+            // 使用REPLACE策略替换所有消息
+            return new AgentCommand(trimmedMessages, UpdatePolicy.REPLACE);
+        } finally {
+            event.finish();
         }
+    }
 
-        log.info("✅ 消息修剪完成 - 保留: {}/{}", trimmedMessages.size(), messageCount);
-        
-        // 使用REPLACE策略替换所有消息
-        return new AgentCommand(trimmedMessages, UpdatePolicy.REPLACE);
+    /**
+     * 去掉找不到对应工具调用的工具响应：一条消息中的部分响应孤立时只去掉那部分。
+     * 按工具调用ID匹配，ID为空时按工具名匹配；没有变化时返回原列表
+     */
+    static List<Message> dropOrphanToolResponses(List<Message> messages) {
+        Set<String> callIds = new HashSet<>();
+        Set<String> callNames = new HashSet<>();
+        List<Message> result = null;
+        for (int i = 0; i < messages.size(); i++) {
+            Message msg = messages.get(i);
+            Message kept = msg;
+            if (msg instanceof AssistantMessage assistant && assistant.hasToolCalls()) {
+                for (AssistantMessage.ToolCall call : assistant.getToolCalls()) {
+                    if (call.id() != null && !call.id().isBlank()) {
+                        callIds.add(call.id());
+                    }
+                    callNames.add(call.name());
+                }
+            } else if (msg instanceof ToolResponseMessage toolResponse) {
+                List<ToolResponseMessage.ToolResponse> matched = new ArrayList<>();
+                for (ToolResponseMessage.ToolResponse response : toolResponse.getResponses()) {
+                    boolean hasId = response.id() != null && !response.id().isBlank();
+                    if (hasId ? callIds.contains(response.id()) : callNames.contains(response.name())) {
+                        matched.add(response);
+                    }
+                }
+                if (matched.isEmpty()) {
+                    kept = null;
+                } else if (matched.size() < toolResponse.getResponses().size()) {
+                    kept = ToolResponseMessage.builder()
+                            .responses(matched)
+                            .metadata(toolResponse.getMetadata())
+                            .build();
+                }
+            }
+            if (kept != msg && result == null) {
+                result = new ArrayList<>(messages.subList(0, i));
+            }
+            if (result != null && kept != null) {
+                result.add(kept);
+            }
+        }
+        return result != null ? result : messages;
     }
-}
 
+    private boolean isSummaryMessage(Message msg) {
+        return Boolean.TRUE.equals(msg.getMetadata().get(SUMMARY_METADATA_KEY));
+    }
 
+    private Long getConversationId(RunnableConfig config) {
+        return config.metadata("conversationId")
+                .map(id -> id instanceof Number n ? n.longValue() : null)
+                .orElse(null);
+    }
+}
@@ -4,26 +4,84 @@ import com.alibaba.cloud.ai.graph.agent.interceptor.ModelCallHandler;
 import com.alibaba.cloud.ai.graph.agent.interceptor.ModelInterceptor;
 import com.alibaba.cloud.ai.graph.agent.interceptor.ModelRequest;
 import com.alibaba.cloud.ai.graph.agent.interceptor.ModelResponse;
+import com.kinch.agent.jfr.ModelCallEvent;
+import com.kinch.agent.metrics.AgentMetrics;
+import com.kinch.agent.metrics.LatencyHistogram;
+import com.kinch.agent.tracing.Span;
+import com.kinch.agent.tracing.Tracer;
+import com.kinch.agent.warmup.WarmUpRunner;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
 
 /**
  * 性能监控Interceptor - 使用框架的ModelInterceptor
  * 监控模型调用性能和Token使用情况
+ * 从ChatResponse元数据中读取模型返回的真实prompt/completion Token数，
+ * 写入AssistantMessage的metadata供CustomTokenLimitHook结算配额、记录TokenUsageLog，
+ * 同时按模型、按Agent汇总用量。
+ * 耗时记录到无锁的滑动窗口直方图（总体、按模型、按Agent），统计接口给出各窗口的p50/p90/p99/p999；
+ * 调用次数、耗时、Token用量记录到Micrometer（AgentMetrics），getStatistics()从注册表汇总读取；
+ * 每次调用同时发出JFR事件ModelCallEvent；启动预热的替身调用不计入耗时和用量统计
  *
  * @author kinch
  * @date 2025-12-29
  */
 @Slf4j
 @Component
+@RequiredArgsConstructor
 public class PerformanceInterceptor extends ModelInterceptor {
 
-    private long totalCalls = 0;
-    private long totalTime = 0;
-    private long maxTime = 0;
-    private long minTime = Long.MAX_VALUE;
+    /**
+     * AssistantMessage metadata中的真实用量键
+     */
+    public static final String PROMPT_TOKENS_KEY = "__usage_prompt_tokens__";
+    public static final String COMPLETION_TOKENS_KEY = "__usage_completion_tokens__";
+    public static final String MODEL_KEY = "__usage_model__";
+
+    /**
+     * 直方图时间切片长度
+     */
+    @Value("${agent.performance.histogram.slice-seconds:10}")
+    private long sliceSeconds = 10;
+
+    /**
+     * 统计窗口（秒），最大窗口决定保留的切片数
+     */
+    @Value("${agent.performance.histogram.windows-seconds:60,300}")
+    private long[] windowsSeconds = {60, 300};
+
+    private final AgentMetrics metrics;
+    private final Tracer tracer;
+
+    /**
+     * 注册表的Timer不记录最小值，单独累计
+     */
+    private final LongAccumulator minTime = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+    private LatencyHistogram latency;
+    private final Map<String, LatencyHistogram> latencyByModel = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> latencyByAgent = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        Arrays.sort(windowsSeconds);
+        latency = newHistogram();
+        log.info("📈 延迟直方图已启用 - 切片: {}s, 窗口: {}s", sliceSeconds, Arrays.toString(windowsSeconds));
+    }
 
     @Override
     public String getName() {
@@ -33,18 +91,33 @@ public class PerformanceInterceptor extends ModelInterceptor {
     /**
      * 获取统计信息
      */
-    public synchronized Map<String, Object> getStatistics() {
-        Map<String, Object> stats = new java.util.HashMap<>();
-        stats.put("totalCalls", totalCalls);
-        stats.put("totalTime", totalTime);
-        stats.put("avgTime", totalCalls > 0 ? totalTime / totalCalls : 0);
-        stats.put("maxTime", maxTime);
-        stats.put("minTime", minTime == Long.MAX_VALUE ? 0 : minTime);
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> totals = metrics.timerTotals(AgentMetrics.MODEL_CALLS);
+        Map<String, Object> failures = metrics.timerTotals(AgentMetrics.MODEL_CALLS, "outcome", AgentMetrics.FAILURE);
+        long min = minTime.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalCalls", totals.get("count"));
+        stats.put("failedCalls", failures.get("count"));
+        stats.put("totalTime", totals.get("totalTime"));
+        stats.put("avgTime", totals.get("avgTime"));
+        stats.put("maxTime", totals.get("max"));
+        stats.put("minTime", min == Long.MAX_VALUE ? 0 : min);
+        stats.put("latency", windows(latency));
+        stats.put("latencyByModel", windows(latencyByModel));
+        stats.put("latencyByAgent", windows(latencyByAgent));
+        stats.put("usageByModel", usage("model"));
+        stats.put("usageByAgent", usage("agent"));
         return stats;
     }
 
     @Override
     public ModelResponse interceptModel(ModelRequest request, ModelCallHandler handler) {
+        Span span = tracer.startSpan("model.call", request.getContext());
+        ModelCallEvent event = new ModelCallEvent();
+        event.begin();
+        event.agent = agentName(request);
+        event.messages = request.getMessages().size();
+        span.tag("messages", event.messages);
         long startTime = System.currentTimeMillis();
         int messageCount = request.getMessages().size();
 
@@ -55,15 +128,13 @@ public class PerformanceInterceptor extends ModelInterceptor {
             ModelResponse response = handler.call(request);
 
             long duration = System.currentTimeMillis() - startTime;
-            
+
             // 更新统计
-            synchronized (this) {
-                totalCalls++;
-                totalTime += duration;
-                maxTime = Math.max(maxTime, duration);
-                minTime = Math.min(minTime, duration);
-            }
-            
+            recordLatency(request, response, duration);
+
+            // 记录真实Token用量
+            recordUsage(request, response);
+
             // 记录性能指标
             log.info("✅ 模型调用成功 - 耗时: {}ms, 消息: {}", duration, messageCount);
 
@@ -72,14 +143,125 @@ public class PerformanceInterceptor extends ModelInterceptor {
                 log.warn("⚠️ 模型调用较慢: {}ms", duration);
             }
 
+            if (response.getMessage() instanceof AssistantMessage message) {
+                Map<String, Object> metadata = message.getMetadata();
+                span.tag("model", metadata.get(MODEL_KEY))
+                        .tag("promptTokens", metadata.get(PROMPT_TOKENS_KEY))
+                        .tag("completionTokens", metadata.get(COMPLETION_TOKENS_KEY));
+                event.model = (String) metadata.get(MODEL_KEY);
+                event.promptTokens = metadata.get(PROMPT_TOKENS_KEY) instanceof Integer tokens ? tokens : 0;
+                event.completionTokens = metadata.get(COMPLETION_TOKENS_KEY) instanceof Integer tokens ? tokens : 0;
+            }
+            event.success = true;
             return response;
 
         } catch (Exception e) {
             long duration = System.currentTimeMillis() - startTime;
+            recordLatency(request, null, duration);
+            span.error(e);
             log.error("❌ 模型调用失败 - 耗时: {}ms, 错误: {}", duration, e.getMessage());
             throw e;
+        } finally {
+            span.close();
+            event.commit();
         }
     }
-}
 
+    /**
+     * 记录耗时：累计计数 + 总体/按模型/按Agent直方图（失败调用也计入，模型名未知）
+     */
+    private void recordLatency(ModelRequest request, ModelResponse response, long duration) {
+        if (WarmUpRunner.isWarmUp(request.getContext())) {
+            return;
+        }
+        ChatResponse chatResponse = response != null ? response.getChatResponse() : null;
+        String model = chatResponse != null && chatResponse.getMetadata() != null
+                && chatResponse.getMetadata().getModel() != null && !chatResponse.getMetadata().getModel().isEmpty()
+                ? chatResponse.getMetadata().getModel() : "unknown";
+        String agentName = agentName(request);
 
+        metrics.recordModelCall(model, agentName, response != null, duration);
+        minTime.accumulate(duration);
+        latency.record(duration);
+        latencyByModel.computeIfAbsent(model, k -> newHistogram()).record(duration);
+        latencyByAgent.computeIfAbsent(agentName, k -> newHistogram()).record(duration);
+    }
+
+    private LatencyHistogram newHistogram() {
+        long sliceMillis = sliceSeconds * 1000;
+        int sliceCount = (int) Math.max(1, windowsSeconds[windowsSeconds.length - 1] * 1000 / sliceMillis);
+        return new LatencyHistogram(sliceMillis, sliceCount);
+    }
+
+    private Map<String, Object> windows(LatencyHistogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (long window : windowsSeconds) {
+            result.put(formatWindow(window), histogram.snapshot(window * 1000).toMap());
+        }
+        return result;
+    }
+
+    private Map<String, Object> windows(Map<String, LatencyHistogram> histograms) {
+        Map<String, Object> result = new HashMap<>();
+        histograms.forEach((key, histogram) -> result.put(key, windows(histogram)));
+        return result;
+    }
+
+    private static String formatWindow(long seconds) {
+        return seconds % 60 == 0 ? seconds / 60 + "m" : seconds + "s";
+    }
+
+    private static String agentName(ModelRequest request) {
+        Object agentName = request.getContext() != null ? request.getContext().get("agentName") : null;
+        return agentName != null ? agentName.toString() : "unknown";
+    }
+
+    /**
+     * 从ChatResponse读取真实用量，写入回复消息的metadata并按模型、Agent汇总
+     */
+    private void recordUsage(ModelRequest request, ModelResponse response) {
+        ChatResponse chatResponse = response.getChatResponse();
+        if (chatResponse == null || !(response.getMessage() instanceof AssistantMessage message)) {
+            return;
+        }
+        ChatResponseMetadata metadata = chatResponse.getMetadata();
+        Usage usage = metadata != null ? metadata.getUsage() : null;
+        if (usage == null || usage.getPromptTokens() == null || usage.getCompletionTokens() == null) {
+            return;
+        }
+
+        int promptTokens = usage.getPromptTokens();
+        int completionTokens = usage.getCompletionTokens();
+        String model = metadata.getModel() != null && !metadata.getModel().isEmpty() ? metadata.getModel() : "unknown";
+        String agentName = agentName(request);
+
+        try {
+            message.getMetadata().put(PROMPT_TOKENS_KEY, promptTokens);
+            message.getMetadata().put(COMPLETION_TOKENS_KEY, completionTokens);
+            message.getMetadata().put(MODEL_KEY, model);
+        } catch (UnsupportedOperationException e) {
+            log.debug("回复消息metadata不可写，跳过用量传递");
+        }
+
+        if (!WarmUpRunner.isWarmUp(request.getContext())) {
+            metrics.recordTokens(model, agentName, promptTokens, completionTokens);
+        }
+        log.debug("📊 模型用量 - 模型: {}, Agent: {}, prompt: {}, completion: {}",
+                model, agentName, promptTokens, completionTokens);
+    }
+
+    /**
+     * 按模型或Agent汇总调用数和Token用量
+     */
+    private Map<String, Object> usage(String tag) {
+        Map<String, Map<String, Object>> calls = metrics.timersBy(AgentMetrics.MODEL_CALLS, tag,
+                "outcome", AgentMetrics.SUCCESS);
+        Map<String, Object> result = new HashMap<>();
+        metrics.countersBy(AgentMetrics.MODEL_TOKENS, tag, "type").forEach((key, tokens) -> result.put(key, Map.of(
+                "calls", calls.getOrDefault(key, Map.of()).getOrDefault("count", 0L),
+                "promptTokens", tokens.getOrDefault("prompt", 0L),
+                "completionTokens", tokens.getOrDefault("completion", 0L)
+        )));
+        return result;
+    }
+}
@@ -4,34 +4,44 @@ import com.alibaba.cloud.ai.graph.agent.interceptor.ModelCallHandler;
 import com.alibaba.cloud.ai.graph.agent.interceptor.ModelInterceptor;
 import com.alibaba.cloud.ai.graph.agent.interceptor.ModelRequest;
 import com.alibaba.cloud.ai.graph.agent.interceptor.ModelResponse;
+import com.kinch.agent.security.PiiRedactor;
+import com.kinch.agent.security.SecurityScanner;
+import com.kinch.agent.service.TokenCounter;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
 import org.springframework.stereotype.Component;
 
-import java.util.Arrays;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 安全检查Interceptor - 使用框架的ModelInterceptor
  * 过滤敏感内容和恶意输入
+ * 规则匹配由SecurityScanner单遍完成；模型输出（阻塞和流式）经PiiRedactor脱敏后返回
  *
  * @author kinch
  * @date 2025-12-29
  */
 @Slf4j
 @Component
+@RequiredArgsConstructor
 public class SafetyInterceptor extends ModelInterceptor {
 
     private long totalChecks = 0;
     private long blockedCount = 0;
 
-    // 敏感词列表
-    private static final List<String> SENSITIVE_WORDS = Arrays.asList(
-        "密码", "password", "token", "秘钥", "secret"
-    );
+    private final SecurityScanner securityScanner;
+    private final PiiRedactor piiRedactor;
     
     public synchronized Map<String, Object> getStatistics() {
         Map<String, Object> stats = new java.util.HashMap<>();
@@ -41,12 +51,6 @@ public class SafetyInterceptor extends ModelInterceptor {
         return stats;
     }
 
-    // SQL注入模式
-    private static final Pattern SQL_INJECTION_PATTERN = Pattern.compile(
-        ".*(union|select|insert|update|delete|drop|exec|script).*",
-        Pattern.CASE_INSENSITIVE
-    );
-
     @Override
     public String getName() {
         return "safety_interceptor";
@@ -62,18 +66,16 @@ public class SafetyInterceptor extends ModelInterceptor {
 
         // 检查输入消息
         for (Message msg : request.getMessages()) {
-            String content = msg.getText();
-            
+            long hits = securityScanner.scan(msg.getText());
+
             // 检查敏感词
-            for (String word : SENSITIVE_WORDS) {
-                if (content.toLowerCase().contains(word.toLowerCase())) {
-                    log.warn("⚠️ 检测到敏感词: {}", word);
-                    // 可以选择拦截或继续
-                }
+            if (securityScanner.matches(hits, SecurityScanner.Category.SENSITIVE_WORD)) {
+                log.warn("⚠️ 检测到敏感词: {}", securityScanner.keywords(hits, SecurityScanner.Category.SENSITIVE_WORD));
+                // 可以选择拦截或继续
             }
 
             // 检查SQL注入
-            if (SQL_INJECTION_PATTERN.matcher(content).matches()) {
+            if (securityScanner.matches(hits, SecurityScanner.Category.SQL_INJECTION)) {
                 log.warn("🚨 检测到可疑SQL注入尝试");
                 synchronized (this) {
                     blockedCount++;
@@ -90,36 +92,123 @@ public class SafetyInterceptor extends ModelInterceptor {
         ModelResponse response = handler.call(request);
 
         // 检查输出（过滤敏感信息）
-        // 注意：ModelResponse可能没有getContent方法，暂时跳过输出过滤
         log.debug("✅ 安全检查通过");
-
-        log.debug("✅ 安全检查通过");
-        return response;
+        return redactResponse(response);
     }
 
     /**
-     * 过滤敏感信息
+     * 对模型输出脱敏：阻塞响应替换消息文本，流式响应逐块脱敏并跨块保留状态。
+     * 流式时脱敏器还缓冲着未结束的候选词就先扣住当前块，流结束时把剩余内容并入最后一块，
+     * 保留该块的元数据、用量和finishReason，不额外补发一块
      */
-    private String filterSensitiveInfo(String text) {
-        if (text == null || text.isEmpty()) {
-            return text;
+    @SuppressWarnings("unchecked")
+    private ModelResponse redactResponse(ModelResponse response) {
+        if (!piiRedactor.isEnabled()) {
+            return response;
         }
+        if (response.getMessage() instanceof AssistantMessage message) {
+            String text = message.getText();
+            String redacted = piiRedactor.redact(text);
+            if (redacted == null || redacted.equals(text)) {
+                return response;
+            }
+            AssistantMessage redactedMessage = withText(message, redacted);
+            return ModelResponse.of(redactedMessage, redactChatResponse(response.getChatResponse(), message, redactedMessage));
+        }
+        if (response.getMessage() instanceof Flux<?> flux) {
+            Flux<ChatResponse> chunks = (Flux<ChatResponse>) flux;
+            return ModelResponse.of(Flux.defer(() -> {
+                PiiRedactor.Session session = piiRedactor.newSession();
+                AtomicReference<ChatResponse> held = new AtomicReference<>();
+                return chunks.concatMap(chunk -> {
+                            ChatResponse redacted = redactChunk(chunk, session);
+                            boolean hold = session.hasPending();
+                            ChatResponse previous = held.getAndSet(hold ? redacted : null);
+                            if (hold) {
+                                return previous != null ? Flux.just(previous) : Flux.<ChatResponse>empty();
+                            }
+                            return previous != null ? Flux.just(previous, redacted) : Flux.just(redacted);
+                        })
+                        .concatWith(Mono.fromSupplier(() -> {
+                            ChatResponse last = held.getAndSet(null);
+                            return last != null ? appendTail(last, session.finish()) : null;
+                        }));
+            }));
+        }
+        return response;
+    }
 
-        String filtered = text;
-
-        // 过滤手机号
-        filtered = filtered.replaceAll("1[3-9]\\d{9}", "***********");
-
-        // 过滤身份证号
-        filtered = filtered.replaceAll("\\d{17}[\\dXx]", "******************");
+    private ChatResponse redactChunk(ChatResponse chunk, PiiRedactor.Session session) {
+        if (chunk == null || chunk.getResults() == null || chunk.getResults().isEmpty()) {
+            return chunk;
+        }
+        List<Generation> generations = new ArrayList<>(chunk.getResults().size());
+        for (Generation generation : chunk.getResults()) {
+            AssistantMessage output = generation.getOutput();
+            if (output == null || output.getText() == null) {
+                generations.add(generation);
+            } else {
+                generations.add(new Generation(withText(output, session.push(output.getText())), generation.getMetadata()));
+            }
+        }
+        return new ChatResponse(generations, chunk.getMetadata());
+    }
 
-        // 过滤邮箱
-        filtered = filtered.replaceAll("[\\w.-]+@[\\w.-]+\\.\\w+", "***@***.***");
+    /**
+     * 阻塞响应附带的ChatResponse同样脱敏，避免通过getChatResponse()读到原文
+     */
+    private ChatResponse redactChatResponse(ChatResponse chatResponse, AssistantMessage original,
+                                            AssistantMessage redacted) {
+        if (chatResponse == null || chatResponse.getResults() == null || chatResponse.getResults().isEmpty()) {
+            return chatResponse;
+        }
+        List<Generation> generations = new ArrayList<>(chatResponse.getResults().size());
+        for (Generation generation : chatResponse.getResults()) {
+            AssistantMessage output = generation.getOutput();
+            if (output == original) {
+                generations.add(new Generation(redacted, generation.getMetadata()));
+            } else if (output == null || output.getText() == null) {
+                generations.add(generation);
+            } else {
+                String text = piiRedactor.redact(output.getText());
+                generations.add(text == null || text.equals(output.getText()) ? generation
+                        : new Generation(withText(output, text), generation.getMetadata()));
+            }
+        }
+        return new ChatResponse(generations, chatResponse.getMetadata());
+    }
 
-        // 过滤IP地址
-        filtered = filtered.replaceAll("\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}", "***.***.***.***");
+    /**
+     * 把剩余内容追加到最后一个Generation的文本后，其余字段原样保留
+     */
+    private static ChatResponse appendTail(ChatResponse chunk, String tail) {
+        if (tail.isEmpty()) {
+            return chunk;
+        }
+        List<Generation> results = chunk.getResults();
+        if (results == null || results.isEmpty()) {
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(tail))), chunk.getMetadata());
+        }
+        List<Generation> generations = new ArrayList<>(results);
+        Generation last = generations.get(generations.size() - 1);
+        AssistantMessage output = last.getOutput();
+        String text = output != null && output.getText() != null ? output.getText() : "";
+        AssistantMessage merged = output != null ? withText(output, text + tail) : new AssistantMessage(tail);
+        generations.set(generations.size() - 1, new Generation(merged, last.getMetadata()));
+        return new ChatResponse(generations, chunk.getMetadata());
+    }
 
-        return filtered;
+    /**
+     * 替换文本后原消息上缓存的Token数不再有效，不复制
+     */
+    private static AssistantMessage withText(AssistantMessage message, String text) {
+        Map<String, Object> metadata = new HashMap<>(message.getMetadata());
+        metadata.remove(TokenCounter.TOKEN_COUNT_KEY);
+        return AssistantMessage.builder()
+                .content(text)
+                .properties(metadata)
+                .toolCalls(message.getToolCalls())
+                .media(message.getMedia())
+                .build();
     }
 }
-
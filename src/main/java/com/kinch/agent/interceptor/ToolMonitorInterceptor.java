@@ -4,78 +4,206 @@ import com.alibaba.cloud.ai.graph.agent.interceptor.ToolCallHandler;
 import com.alibaba.cloud.ai.graph.agent.interceptor.ToolCallRequest;
 import com.alibaba.cloud.ai.graph.agent.interceptor.ToolCallResponse;
 import com.alibaba.cloud.ai.graph.agent.interceptor.ToolInterceptor;
+import com.kinch.agent.jfr.ToolCallEvent;
+import com.kinch.agent.metrics.AgentMetrics;
+import com.kinch.agent.metrics.LatencyHistogram;
+import com.kinch.agent.tracing.Span;
+import com.kinch.agent.tracing.Tracer;
+import com.kinch.agent.warmup.WarmUpRunner;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * 工具监控Interceptor - 使用框架的ToolInterceptor
  * 监控工具调用性能和成功率
+ * 按工具名分别统计调用数、失败数、异常类型、耗时、参数/结果字节数分布，记录到Micrometer（AgentMetrics），
+ * getStatistics()从注册表汇总读取；另按工具保留滑动窗口耗时直方图给出近期分位数；
+ * 参数按采样率打印（失败时总是打印），不再每次调用都输出完整参数；每次调用发出JFR事件ToolCallEvent；
+ * 启动预热的调用不计入统计
  *
  * @author kinch
  * @date 2025-12-29
  */
 @Slf4j
 @Component
+@RequiredArgsConstructor
 public class ToolMonitorInterceptor extends ToolInterceptor {
 
-    private long totalCalls = 0;
-    private long successCalls = 0;
-    private long failedCalls = 0;
+    /**
+     * 参数日志采样率（0~1），失败调用不受采样限制
+     */
+    @Value("${agent.tools.monitor.arg-log-sample-rate:0.01}")
+    private double argLogSampleRate = 0.01;
+
+    /**
+     * 参数日志最大字符数，超出截断
+     */
+    @Value("${agent.tools.monitor.arg-log-max-chars:512}")
+    private int argLogMaxChars = 512;
+
+    @Value("${agent.performance.histogram.slice-seconds:10}")
+    private long sliceSeconds = 10;
+
+    /**
+     * 工具耗时统计窗口（秒）
+     */
+    @Value("${agent.tools.monitor.window-seconds:300}")
+    private long windowSeconds = 300;
+
+    private final AgentMetrics metrics;
+    private final Tracer tracer;
+
+    private final Map<String, LatencyHistogram> latencyByTool = new ConcurrentHashMap<>();
 
     @Override
     public String getName() {
         return "tool_monitor_interceptor";
     }
-    
-    public synchronized Map<String, Object> getStatistics() {
-        Map<String, Object> stats = new java.util.HashMap<>();
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Map<String, Object>> calls = metrics.timersBy(AgentMetrics.TOOL_CALLS, "tool");
+        Map<String, Map<String, Object>> failures = metrics.timersBy(AgentMetrics.TOOL_CALLS, "tool",
+                "outcome", AgentMetrics.FAILURE);
+        Map<String, Map<String, Long>> errors = metrics.countersBy(AgentMetrics.TOOL_ERRORS, "tool", "error");
+
+        long totalCalls = 0;
+        long failedCalls = 0;
+        Map<String, Object> tools = new HashMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry : calls.entrySet()) {
+            String tool = entry.getKey();
+            long count = (long) entry.getValue().get("count");
+            long failed = (long) failures.getOrDefault(tool, Map.of()).getOrDefault("count", 0L);
+            totalCalls += count;
+            failedCalls += failed;
+
+            Map<String, Object> toolMap = new LinkedHashMap<>();
+            toolMap.put("calls", count);
+            toolMap.put("failedCalls", failed);
+            toolMap.put("successRate", successRate(count, failed));
+            toolMap.put("errors", errors.getOrDefault(tool, Map.of()));
+            LatencyHistogram latency = latencyByTool.get(tool);
+            toolMap.put("latency", latency != null ? latency.snapshot(windowSeconds * 1000).toMap() : Map.of());
+            toolMap.put("argBytes", metrics.summaryTotals(AgentMetrics.TOOL_PAYLOAD, "tool", tool, "direction", "argument"));
+            toolMap.put("resultBytes", metrics.summaryTotals(AgentMetrics.TOOL_PAYLOAD, "tool", tool, "direction", "result"));
+            tools.put(tool, toolMap);
+        }
+        Map<String, Object> stats = new HashMap<>();
         stats.put("totalCalls", totalCalls);
-        stats.put("successCalls", successCalls);
+        stats.put("successCalls", totalCalls - failedCalls);
         stats.put("failedCalls", failedCalls);
-        stats.put("successRate", totalCalls > 0 ? (double)successCalls / totalCalls * 100 : 100);
+        stats.put("successRate", successRate(totalCalls, failedCalls));
+        stats.put("tools", tools);
         return stats;
     }
 
     @Override
     public ToolCallResponse interceptToolCall(ToolCallRequest request, ToolCallHandler handler) {
-        String toolName = request.getToolName();
-        String args = request.getArguments();
-        long startTime = System.currentTimeMillis();
+        try (Span span = tracer.startSpan("tool." + request.getToolName(), request.getContext())) {
+            String toolName = request.getToolName();
+            String args = request.getArguments();
+            String tool = toolName != null ? toolName : "unknown";
+            boolean warmUp = WarmUpRunner.isWarmUp(request.getContext());
+            LatencyHistogram latency = latencyByTool.computeIfAbsent(tool, k -> newHistogram());
+            ToolCallEvent event = new ToolCallEvent();
+            event.begin();
+            event.tool = tool;
+            event.argumentBytes = utf8Length(args);
+            if (!warmUp) {
+                metrics.recordToolPayload(tool, "argument", event.argumentBytes);
+            }
+            long startTime = System.currentTimeMillis();
 
-        log.info("🔧 工具调用开始 - 工具: {}, 参数: {}", toolName, args);
+            if (argLogSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < argLogSampleRate) {
+                log.info("🔧 工具调用开始(采样) - 工具: {}, 参数: {}", toolName, truncate(args));
+            } else {
+                log.debug("🔧 工具调用开始 - 工具: {}", toolName);
+            }
 
-        try {
-            // 执行工具调用
-            ToolCallResponse response = handler.call(request);
+            try {
+                // 执行工具调用
+                ToolCallResponse response = handler.call(request);
 
-            long duration = System.currentTimeMillis() - startTime;
-            synchronized (this) {
-                totalCalls++;
-                successCalls++;
-            }
-            log.info("✅ 工具调用成功 - 工具: {}, 耗时: {}ms", toolName, duration);
+                long duration = System.currentTimeMillis() - startTime;
+                event.resultBytes = utf8Length(response != null ? response.getResult() : null);
+                event.success = true;
+                event.commit();
+                if (!warmUp) {
+                    metrics.recordToolCall(tool, true, duration);
+                    metrics.recordToolPayload(tool, "result", event.resultBytes);
+                    latency.record(duration);
+                }
+                log.info("✅ 工具调用成功 - 工具: {}, 耗时: {}ms", toolName, duration);
+
+                return response;
 
-            return response;
+            } catch (Exception e) {
+                long duration = System.currentTimeMillis() - startTime;
+                event.commit();
+                if (!warmUp) {
+                    metrics.recordToolCall(tool, false, duration);
+                    metrics.recordToolError(tool, e.getClass().getSimpleName());
+                    latency.record(duration);
+                }
+                span.error(e);
+                log.error("❌ 工具调用失败 - 工具: {}, 耗时: {}ms, 参数: {}, 错误: {}",
+                    toolName, duration, truncate(args), e.getMessage());
 
-        } catch (Exception e) {
-            long duration = System.currentTimeMillis() - startTime;
-            synchronized (this) {
-                totalCalls++;
-                failedCalls++;
+                // 返回错误响应
+                return ToolCallResponse.of(
+                    request.getToolCallId(),
+                    toolName,
+                    "工具执行失败: " + e.getMessage()
+                );
             }
-            log.error("❌ 工具调用失败 - 工具: {}, 耗时: {}ms, 错误: {}", 
-                toolName, duration, e.getMessage());
-
-            // 返回错误响应
-            return ToolCallResponse.of(
-                request.getToolCallId(),
-                toolName,
-                "工具执行失败: " + e.getMessage()
-            );
         }
     }
-}
 
+    private LatencyHistogram newHistogram() {
+        long sliceMillis = sliceSeconds * 1000;
+        return new LatencyHistogram(sliceMillis, (int) Math.max(1, windowSeconds * 1000 / sliceMillis));
+    }
+
+    private String truncate(String args) {
+        if (args == null || args.length() <= argLogMaxChars) {
+            return args;
+        }
+        return args.substring(0, argLogMaxChars) + "...(" + args.length() + "字符)";
+    }
+
+    private static double successRate(long calls, long failed) {
+        return calls > 0 ? (double) (calls - failed) / calls * 100 : 100;
+    }
 
+    /**
+     * UTF-8编码后的字节数（不实际编码，不分配数组）
+     */
+    static long utf8Length(String text) {
+        if (text == null) {
+            return 0;
+        }
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,83 @@
+package com.kinch.agent.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * JFR录制服务 - 按需启动一段有界录制（时长、大小均有上限），结束后导出为.jfr文件
+ * 录制包含JDK自带的GC、锁、线程事件和本包定义的Agent事件，可在JMC中按时间轴对照
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Slf4j
+@Service
+public class FlightRecordingService {
+
+    private static final List<String> SETTINGS = List.of("default", "profile");
+
+    @Value("${agent.jfr.max-duration-seconds:300}")
+    private int maxDurationSeconds;
+
+    @Value("${agent.jfr.max-size-mb:100}")
+    private long maxSizeMb;
+
+    private final AtomicBoolean recording = new AtomicBoolean();
+
+    /**
+     * 录制指定秒数并导出到临时文件（调用方负责删除），同一时间只允许一个录制
+     *
+     * @param seconds  录制时长，超过上限按上限处理
+     * @param settings JFR预置配置：default（开销约1%）或profile（开销约2%，含更多采样）
+     */
+    public Path record(int seconds, String settings) throws IOException, InterruptedException {
+        if (!SETTINGS.contains(settings)) {
+            throw new IllegalArgumentException("不支持的录制配置: " + settings + "，可选: " + SETTINGS);
+        }
+        if (!recording.compareAndSet(false, true)) {
+            throw new IllegalStateException("已有JFR录制在进行中");
+        }
+        int duration = Math.max(1, Math.min(seconds, maxDurationSeconds));
+        try (Recording jfr = new Recording(Configuration.getConfiguration(settings))) {
+            jfr.setName("agent-" + System.currentTimeMillis());
+            jfr.setMaxSize(maxSizeMb * 1024 * 1024);
+            jfr.setToDisk(true);
+            jfr.enable(ModelCallEvent.class);
+            jfr.enable(ToolCallEvent.class);
+            jfr.enable(HookEvent.class);
+            jfr.enable(WorkflowNodeEvent.class);
+
+            log.info("🎥 JFR录制开始 - 时长: {}s, 配置: {}", duration, settings);
+            jfr.start();
+            try {
+                Thread.sleep(Duration.ofSeconds(duration).toMillis());
+            } finally {
+                jfr.stop();
+            }
+
+            Path file = Files.createTempFile("agent-", ".jfr");
+            jfr.dump(file);
+            log.info("🎥 JFR录制完成 - 文件: {}, 大小: {}KB", file, Files.size(file) / 1024);
+            return file;
+        } catch (ParseException e) {
+            throw new IllegalStateException("JFR配置解析失败: " + settings, e);
+        } finally {
+            recording.set(false);
+        }
+    }
+
+    public boolean isRecording() {
+        return recording.get();
+    }
+}
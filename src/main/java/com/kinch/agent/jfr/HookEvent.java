@@ -0,0 +1,46 @@
+package com.kinch.agent.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR事件：一次Hook执行（各ModelHook的beforeModel/afterModel发出）
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Name("com.kinch.agent.Hook")
+@Label("Agent Hook")
+@Category({"Agent", "Hook"})
+@Description("一次Hook执行的名称、阶段和耗时")
+@StackTrace(false)
+public class HookEvent extends Event {
+
+    @Label("Hook")
+    public String hook;
+
+    @Label("Phase")
+    public String phase;
+
+    /**
+     * 开始计时（未启用录制时只有一次对象分配）
+     */
+    public static HookEvent start(String hook, String phase) {
+        HookEvent event = new HookEvent();
+        event.hook = hook;
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+
+    public void finish() {
+        end();
+        if (shouldCommit()) {
+            commit();
+        }
+    }
+}
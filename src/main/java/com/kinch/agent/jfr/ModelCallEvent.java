@@ -0,0 +1,40 @@
+package com.kinch.agent.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR事件：一次模型调用（PerformanceInterceptor发出）
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Name("com.kinch.agent.ModelCall")
+@Label("Model Call")
+@Category({"Agent", "Model"})
+@Description("一次模型调用的模型、Token用量和耗时")
+@StackTrace(false)
+public class ModelCallEvent extends Event {
+
+    @Label("Model")
+    public String model;
+
+    @Label("Agent")
+    public String agent;
+
+    @Label("Messages")
+    public int messages;
+
+    @Label("Prompt Tokens")
+    public int promptTokens;
+
+    @Label("Completion Tokens")
+    public int completionTokens;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,37 @@
+package com.kinch.agent.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR事件：一次工具调用（ToolMonitorInterceptor发出）
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Name("com.kinch.agent.ToolCall")
+@Label("Tool Call")
+@Category({"Agent", "Tool"})
+@Description("一次工具调用的工具名、参数/结果字节数和耗时")
+@StackTrace(false)
+public class ToolCallEvent extends Event {
+
+    @Label("Tool")
+    public String tool;
+
+    @Label("Argument Size")
+    @DataAmount
+    public long argumentBytes;
+
+    @Label("Result Size")
+    @DataAmount
+    public long resultBytes;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,31 @@
+package com.kinch.agent.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR事件：一次StateGraph节点执行（RealStateGraphWorkflow发出）
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Name("com.kinch.agent.WorkflowNode")
+@Label("Workflow Node")
+@Category({"Agent", "Workflow"})
+@Description("一次工作流节点执行的工作流名、节点名和耗时")
+@StackTrace(false)
+public class WorkflowNodeEvent extends Event {
+
+    @Label("Workflow")
+    public String workflow;
+
+    @Label("Node")
+    public String node;
+
+    @Label("Success")
+    public boolean success;
+}
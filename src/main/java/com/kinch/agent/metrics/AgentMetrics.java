@@ -0,0 +1,304 @@
+package com.kinch.agent.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Agent运行时指标 - Micrometer注册表的统一入口
+ * <p>
+ * 所有指标注册到Spring Boot的MeterRegistry，经 /actuator/prometheus 抓取；
+ * 各组件的getStatistics()从这里按标签汇总读取，不再各自维护计数器。
+ * 热路径上按指标族、标签组合缓存Meter实例，记录时只有一次ConcurrentHashMap查找，
+ * 不走Meter.builder().register()的注册表查找（开销见MetricsOverheadBenchmark）
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Component
+public class AgentMetrics {
+
+    public static final String MODEL_CALLS = "agent.model.calls";
+    public static final String MODEL_TOKENS = "agent.model.tokens";
+    public static final String TOOL_CALLS = "agent.tool.calls";
+    public static final String TOOL_ERRORS = "agent.tool.errors";
+    public static final String TOOL_PAYLOAD = "agent.tool.payload";
+    public static final String STREAMS = "agent.streams";
+    public static final String STREAMS_ACTIVE = "agent.streams.active";
+    public static final String CACHE_GETS = "cache.gets";
+
+    public static final String SUCCESS = "success";
+    public static final String FAILURE = "failure";
+
+    /**
+     * 载荷大小分桶（字节）
+     */
+    private static final double[] PAYLOAD_BUCKETS = {64, 256, 1024, 4096, 16384, 65536, 262144, 1048576};
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> modelTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> tokenCounters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> toolTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> toolErrors = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> toolPayloads = new ConcurrentHashMap<>();
+    private final Map<String, Counter> cacheGets = new ConcurrentHashMap<>();
+    private final Map<String, Counter> streamCounters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> activeStreams = new ConcurrentHashMap<>();
+
+    /**
+     * 全部模型调用的秒级延迟直方图（保留64秒），供MetricsTimeSeries按秒/分钟取分位数
+     */
+    private final LatencyHistogram modelLatency = new LatencyHistogram(1000, 64);
+
+    public AgentMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    // ==================== 记录 ====================
+
+    public void recordModelCall(String model, String agent, boolean success, long millis) {
+        String outcome = success ? SUCCESS : FAILURE;
+        modelTimers.computeIfAbsent(model + '|' + agent + '|' + outcome, key -> Timer.builder(MODEL_CALLS)
+                .description("模型调用耗时")
+                .tags("model", model, "agent", agent, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry)).record(millis, TimeUnit.MILLISECONDS);
+        modelLatency.record(millis);
+    }
+
+    public void recordTokens(String model, String agent, long promptTokens, long completionTokens) {
+        tokenCounter(model, agent, "prompt").increment(promptTokens);
+        tokenCounter(model, agent, "completion").increment(completionTokens);
+    }
+
+    public void recordToolCall(String tool, boolean success, long millis) {
+        String outcome = success ? SUCCESS : FAILURE;
+        toolTimers.computeIfAbsent(tool + '|' + outcome, key -> Timer.builder(TOOL_CALLS)
+                .description("工具调用耗时")
+                .tags("tool", tool, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry)).record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    public void recordToolError(String tool, String errorType) {
+        toolErrors.computeIfAbsent(tool + '|' + errorType, key -> Counter.builder(TOOL_ERRORS)
+                .description("工具调用异常数")
+                .tags("tool", tool, "error", errorType)
+                .register(registry)).increment();
+    }
+
+    /**
+     * 工具参数/结果字节数，direction为argument或result
+     */
+    public void recordToolPayload(String tool, String direction, long bytes) {
+        toolPayloads.computeIfAbsent(tool + '|' + direction, key -> DistributionSummary.builder(TOOL_PAYLOAD)
+                .description("工具参数/结果字节数")
+                .baseUnit("bytes")
+                .tags("tool", tool, "direction", direction)
+                .serviceLevelObjectives(PAYLOAD_BUCKETS)
+                .register(registry)).record(bytes);
+    }
+
+    public void recordCacheGet(String cache, boolean hit) {
+        String result = hit ? "hit" : "miss";
+        cacheGets.computeIfAbsent(cache + '|' + result, key -> Counter.builder(CACHE_GETS)
+                .description("缓存访问次数")
+                .tags("cache", cache, "result", result)
+                .register(registry)).increment();
+    }
+
+    /**
+     * 统计流式响应：活跃流数（gauge）、结束的流按结果计数
+     */
+    public <T> Flux<T> trackStream(String type, Flux<T> stream) {
+        AtomicInteger active = activeStreams.computeIfAbsent(type, key ->
+                registry.gauge(STREAMS_ACTIVE, Tags.of("type", type), new AtomicInteger()));
+        return stream
+                .doOnSubscribe(subscription -> active.incrementAndGet())
+                .doFinally(signal -> {
+                    active.decrementAndGet();
+                    String outcome = signal == SignalType.ON_COMPLETE ? "complete"
+                            : signal == SignalType.CANCEL ? "cancel" : "error";
+                    streamCounters.computeIfAbsent(type + '|' + outcome, key -> Counter.builder(STREAMS)
+                            .description("已结束的流式响应数")
+                            .tags("type", type, "outcome", outcome)
+                            .register(registry)).increment();
+                });
+    }
+
+    // ==================== 查询（getStatistics视图） ====================
+
+    public LatencyHistogram getModelLatency() {
+        return modelLatency;
+    }
+
+    /**
+     * 某个计时器/计数器族的累计次数，可按标签过滤（filter为key,value交替）
+     */
+    public long total(String name, String... filter) {
+        double total = 0;
+        for (Meter meter : registry.find(name).tags(filter).meters()) {
+            if (meter instanceof Timer timer) {
+                total += timer.count();
+            } else if (meter instanceof Counter counter) {
+                total += counter.count();
+            }
+        }
+        return (long) total;
+    }
+
+    /**
+     * 按某个标签汇总计时器：{tagValue -> {count, totalTime, max}}，可按标签过滤（filter为key,value交替）
+     */
+    public Map<String, Map<String, Object>> timersBy(String name, String tag, String... filter) {
+        Map<String, TimerTotals> totals = new HashMap<>();
+        for (Timer timer : registry.find(name).tags(filter).timers()) {
+            totals.computeIfAbsent(timer.getId().getTag(tag), k -> new TimerTotals()).add(timer);
+        }
+        Map<String, Map<String, Object>> result = new HashMap<>();
+        totals.forEach((key, value) -> result.put(key, value.toMap()));
+        return result;
+    }
+
+    /**
+     * 计时器总计：{count, totalTime, max}，可按标签过滤
+     */
+    public Map<String, Object> timerTotals(String name, String... filter) {
+        TimerTotals totals = new TimerTotals();
+        registry.find(name).tags(filter).timers().forEach(totals::add);
+        return totals.toMap();
+    }
+
+    /**
+     * 按两个标签汇总计数器：{tag1Value -> {tag2Value -> count}}
+     */
+    public Map<String, Map<String, Long>> countersBy(String name, String tag1, String tag2, String... filter) {
+        Map<String, Map<String, Long>> result = new HashMap<>();
+        for (Counter counter : registry.find(name).tags(filter).counters()) {
+            result.computeIfAbsent(counter.getId().getTag(tag1), k -> new HashMap<>())
+                    .merge(counter.getId().getTag(tag2), (long) counter.count(), Long::sum);
+        }
+        return result;
+    }
+
+    /**
+     * 分布摘要：{count, totalBytes, mean, max, buckets}
+     */
+    public Map<String, Object> summaryTotals(String name, String... tags) {
+        long count = 0;
+        double total = 0;
+        double max = 0;
+        long[] buckets = new long[PAYLOAD_BUCKETS.length];
+        for (DistributionSummary summary : registry.find(name).tags(tags).summaries()) {
+            HistogramSnapshot snapshot = summary.takeSnapshot();
+            count += snapshot.count();
+            total += snapshot.total();
+            max = Math.max(max, snapshot.max());
+            for (int i = 0; i < snapshot.histogramCounts().length && i < buckets.length; i++) {
+                buckets[i] += (long) snapshot.histogramCounts()[i].count();
+            }
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", count);
+        map.put("totalBytes", (long) total);
+        map.put("mean", count > 0 ? (long) (total / count) : 0);
+        map.put("max", (long) max);
+        // 快照中的分桶计数是累计值（<=上界）
+        Map<String, Long> bucketMap = new LinkedHashMap<>();
+        for (int i = 0; i < buckets.length; i++) {
+            bucketMap.put("<=" + formatBytes((long) PAYLOAD_BUCKETS[i]), buckets[i]);
+        }
+        map.put("buckets", bucketMap);
+        return map;
+    }
+
+    /**
+     * 缓存命中统计：{cache -> {hits, misses, hitRatio}}
+     */
+    public Map<String, Object> cacheStatistics() {
+        Map<String, Object> result = new HashMap<>();
+        countersBy(CACHE_GETS, "cache", "result").forEach((cache, counts) -> {
+            long hits = counts.getOrDefault("hit", 0L);
+            long misses = counts.getOrDefault("miss", 0L);
+            result.put(cache, Map.of(
+                    "hits", hits,
+                    "misses", misses,
+                    "hitRatio", hits + misses > 0 ? (double) hits / (hits + misses) : 0
+            ));
+        });
+        return result;
+    }
+
+    public Map<String, Object> streamStatistics() {
+        Map<String, Object> result = new HashMap<>();
+        Map<String, Map<String, Long>> finished = countersBy(STREAMS, "type", "outcome");
+        activeStreams.forEach((type, active) -> {
+            Map<String, Object> entry = new HashMap<>(finished.getOrDefault(type, Map.of()));
+            entry.put("active", active.get());
+            result.put(type, entry);
+        });
+        return result;
+    }
+
+    // ==================== 内部 ====================
+
+    private Counter tokenCounter(String model, String agent, String type) {
+        return tokenCounters.computeIfAbsent(model + '|' + agent + '|' + type, key -> Counter.builder(MODEL_TOKENS)
+                .description("模型Token用量")
+                .baseUnit("tokens")
+                .tags("model", model, "agent", agent, "type", type)
+                .register(registry));
+    }
+
+    /**
+     * 计时器汇总（毫秒）；max为注册表的衰减窗口最大值
+     */
+    private static final class TimerTotals {
+        private long count;
+        private double totalTime;
+        private double max;
+
+        void add(Timer timer) {
+            count += timer.count();
+            totalTime += timer.totalTime(TimeUnit.MILLISECONDS);
+            max = Math.max(max, timer.max(TimeUnit.MILLISECONDS));
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", count);
+            map.put("totalTime", (long) totalTime);
+            map.put("avgTime", count > 0 ? (long) (totalTime / count) : 0);
+            map.put("max", (long) max);
+            return map;
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + "B";
+        }
+        if (bytes < 1024 * 1024) {
+            return bytes / 1024 + "KB";
+        }
+        return bytes / (1024 * 1024) + "MB";
+    }
+}
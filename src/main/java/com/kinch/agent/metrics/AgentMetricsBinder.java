@@ -0,0 +1,78 @@
+package com.kinch.agent.metrics;
+
+import com.kinch.agent.audit.AuditPipeline;
+import com.kinch.agent.ratelimit.AdaptiveConcurrencyLimiter;
+import com.kinch.agent.ratelimit.ModelPriority;
+import com.kinch.agent.service.TokenQuotaLedger;
+import com.kinch.agent.service.TokenUsageLogWriter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步管道的Gauge指标：队列深度、写回延迟；模型限流器的并发上限、在途数与按优先级的排队数
+ * 抓取时才读取各组件的当前值，不影响写入路径
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Component
+@RequiredArgsConstructor
+public class AgentMetricsBinder implements MeterBinder {
+
+    public static final String QUEUE_DEPTH = "agent.queue.depth";
+    public static final String WRITE_BEHIND_LAG = "agent.writebehind.lag";
+    public static final String WRITE_BEHIND_PENDING = "agent.writebehind.pending";
+    public static final String MODEL_CONCURRENCY_LIMIT = "agent.model.concurrency.limit";
+    public static final String MODEL_CONCURRENCY_INFLIGHT = "agent.model.concurrency.inflight";
+    public static final String MODEL_QUEUE_DEPTH = "agent.model.queue.depth";
+
+    private final AuditPipeline auditPipeline;
+    private final TokenUsageLogWriter tokenUsageLogWriter;
+    private final TokenQuotaLedger quotaLedger;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder(QUEUE_DEPTH, auditPipeline, AuditPipeline::getQueueSize)
+                .description("异步队列中待写出的条数")
+                .tag("queue", "audit")
+                .register(registry);
+        Gauge.builder(QUEUE_DEPTH, tokenUsageLogWriter, TokenUsageLogWriter::getQueueSize)
+                .description("异步队列中待写出的条数")
+                .tag("queue", "usage-log")
+                .register(registry);
+
+        TimeGauge.builder(WRITE_BEHIND_LAG, tokenUsageLogWriter, TimeUnit.MILLISECONDS, TokenUsageLogWriter::getLagMillis)
+                .description("最早未写入数据库的数据已等待的时长")
+                .tag("store", "usage-log")
+                .register(registry);
+        TimeGauge.builder(WRITE_BEHIND_LAG, quotaLedger, TimeUnit.MILLISECONDS, TokenQuotaLedger::getFlushLagMillis)
+                .description("最早未写入数据库的数据已等待的时长")
+                .tag("store", "quota-ledger")
+                .register(registry);
+        Gauge.builder(WRITE_BEHIND_PENDING, quotaLedger, TokenQuotaLedger::getUnflushedTokens)
+                .description("已扣减但尚未写回t_user的Token数")
+                .baseUnit("tokens")
+                .tag("store", "quota-ledger")
+                .register(registry);
+
+        Gauge.builder(MODEL_CONCURRENCY_LIMIT, concurrencyLimiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("模型调用的自适应并发上限")
+                .register(registry);
+        Gauge.builder(MODEL_CONCURRENCY_INFLIGHT, concurrencyLimiter, AdaptiveConcurrencyLimiter::getInflight)
+                .description("正在进行的模型调用数")
+                .register(registry);
+        for (ModelPriority priority : ModelPriority.values()) {
+            Gauge.builder(MODEL_QUEUE_DEPTH, concurrencyLimiter, limiter -> limiter.getQueueSize(priority))
+                    .description("等待并发许可的模型调用数")
+                    .tag("priority", priority.name().toLowerCase())
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.kinch.agent.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图 - 无锁、分条带、滑动窗口（HDR风格的对数线性分桶）
+ * <p>
+ * 分桶：小于2^SUB_BUCKET_BITS毫秒的值精确计数，之后每个2的幂区间再等分为2^SUB_BUCKET_BITS个子桶，
+ * 相对误差不超过 1/2^SUB_BUCKET_BITS（约3%）。
+ * 滑动窗口：时间按slice切片，环形保存sliceCount个切片，查询时合并窗口内的切片。
+ * 并发：每个切片按线程分成若干条带，记录只做一次无竞争的原子加，不加锁
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 可记录的最大值约 2^MAX_BITS 毫秒（约17分钟），更大的值计入最后一个桶
+     */
+    private static final int MAX_BITS = 20;
+    private static final int BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private static final double[] DEFAULT_PERCENTILES = {50, 90, 99, 99.9};
+
+    private final long sliceMillis;
+    private final Slice[] slices;
+    private final int stripes;
+
+    public LatencyHistogram(long sliceMillis, int sliceCount) {
+        this.sliceMillis = sliceMillis;
+        this.stripes = Integer.highestOneBit(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 8)));
+        this.slices = new Slice[sliceCount];
+        for (int i = 0; i < sliceCount; i++) {
+            slices[i] = new Slice(stripes);
+        }
+    }
+
+    /**
+     * 记录一次耗时（毫秒）
+     */
+    public void record(long millis) {
+        record(millis, System.currentTimeMillis());
+    }
+
+    void record(long millis, long now) {
+        millis = Math.max(0, millis);
+        long epoch = now / sliceMillis;
+        Slice slice = slices[(int) (epoch % slices.length)];
+        slice.rotateTo(epoch);
+        int stripe = (int) (Thread.currentThread().getId() & (stripes - 1));
+        slice.counts[stripe].incrementAndGet(bucketIndex(millis));
+        slice.sums[stripe].addAndGet(millis);
+        if (millis > slice.max.get()) {
+            slice.max.accumulateAndGet(millis, Math::max);
+        }
+    }
+
+    /**
+     * 最近windowMillis内的分位数快照
+     */
+    public Snapshot snapshot(long windowMillis) {
+        return snapshot(windowMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * 截至now的windowMillis内的快照；窗口不超过一个切片时即now所在切片
+     */
+    public Snapshot snapshot(long windowMillis, long now) {
+        long currentEpoch = now / sliceMillis;
+        long oldestEpoch = currentEpoch - Math.min(slices.length, Math.max(1, windowMillis / sliceMillis)) + 1;
+        long[] merged = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (Slice slice : slices) {
+            long epoch = slice.epoch.get();
+            if (epoch < oldestEpoch || epoch > currentEpoch) {
+                continue;
+            }
+            for (int s = 0; s < stripes; s++) {
+                AtomicLongArray counts = slice.counts[s];
+                for (int b = 0; b < BUCKETS; b++) {
+                    long c = counts.get(b);
+                    merged[b] += c;
+                    count += c;
+                }
+                sum += slice.sums[s].get();
+            }
+            max = Math.max(max, slice.max.get());
+        }
+        return new Snapshot(merged, count, sum, max);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_BITS) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * 桶的上界（该桶内的最大可能值）
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * 时间切片：epoch变化时由第一个写入的线程清零
+     */
+    private static final class Slice {
+        private final AtomicLong epoch = new AtomicLong(-1);
+        private final AtomicLongArray[] counts;
+        private final AtomicLong[] sums;
+        private final AtomicLong max = new AtomicLong();
+
+        private Slice(int stripes) {
+            counts = new AtomicLongArray[stripes];
+            sums = new AtomicLong[stripes];
+            for (int i = 0; i < stripes; i++) {
+                counts[i] = new AtomicLongArray(BUCKETS);
+                sums[i] = new AtomicLong();
+            }
+        }
+
+        void rotateTo(long newEpoch) {
+            long current = epoch.get();
+            if (current == newEpoch || current > newEpoch) {
+                return;
+            }
+            if (epoch.compareAndSet(current, newEpoch)) {
+                // 切片复用前清零；与并发写入存在极短的竞争窗口，只影响切换瞬间的个别样本
+                for (int s = 0; s < counts.length; s++) {
+                    for (int b = 0; b < BUCKETS; b++) {
+                        counts[s].set(b, 0);
+                    }
+                    sums[s].set(0);
+                }
+                max.set(0);
+            }
+        }
+    }
+
+    /**
+     * 直方图快照
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        /**
+         * 分位数（毫秒，返回所在桶的上界，不超过实际最大值；落在最后一个桶时返回最大值，超限的值也计在该桶）
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i == BUCKETS - 1 ? max : Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", count);
+            map.put("mean", Math.round(getMean()));
+            for (double p : DEFAULT_PERCENTILES) {
+                map.put("p" + (p == Math.floor(p) ? String.valueOf((long) p) : String.valueOf(p).replace(".", "")),
+                        percentile(p));
+            }
+            map.put("max", max);
+            return map;
+        }
+    }
+}
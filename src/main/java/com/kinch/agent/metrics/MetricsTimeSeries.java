@@ -0,0 +1,448 @@
+package com.kinch.agent.metrics;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 运行指标时间序列 - 固定内存的秒级/分钟级环形缓冲区
+ * <p>
+ * 每秒采样一次AgentMetrics：调用数、失败数、Token数取累计值的差，延迟分位数取秒级直方图中刚结束的那一秒；
+ * 每分钟汇总一条分钟记录。记录为定长二进制（时间戳 + 各列int），放在堆外的两个环形ByteBuffer中，
+ * 槽位按时间戳取模，内存只取决于槽位数，与运行时长无关。
+ * 定时和关闭时把两个环原样写到快照文件，启动时按记录的时间戳放回各自槽位（槽位数变化也能恢复）
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Slf4j
+@Component
+public class MetricsTimeSeries {
+
+    /**
+     * 快照文件头：魔数"ATSR"、版本
+     */
+    private static final int MAGIC = 0x41545352;
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 2 + 2 + 4 + 4 + 8;
+
+    /**
+     * 记录列（时间戳之外），顺序即二进制布局，新增列只能追加并升级VERSION
+     */
+    public enum Column {
+        MODEL_CALLS("modelCalls"),
+        MODEL_ERRORS("modelErrors"),
+        LATENCY_P50("latencyP50"),
+        LATENCY_P90("latencyP90"),
+        LATENCY_P99("latencyP99"),
+        LATENCY_MAX("latencyMax"),
+        PROMPT_TOKENS("promptTokens"),
+        COMPLETION_TOKENS("completionTokens"),
+        TOOL_CALLS("toolCalls"),
+        TOOL_ERRORS("toolErrors");
+
+        private final String key;
+
+        Column(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        boolean isLatency() {
+            return this == LATENCY_P50 || this == LATENCY_P90 || this == LATENCY_P99 || this == LATENCY_MAX;
+        }
+    }
+
+    private static final Column[] COLUMNS = Column.values();
+
+    /**
+     * 记录长度：8字节时间戳（epoch秒）+ 每列4字节
+     */
+    private static final int RECORD_BYTES = 8 + 4 * COLUMNS.length;
+
+    public enum Resolution {
+        SECOND(1), MINUTE(60);
+
+        private final long stepSeconds;
+
+        Resolution(long stepSeconds) {
+            this.stepSeconds = stepSeconds;
+        }
+
+        public long getStepSeconds() {
+            return stepSeconds;
+        }
+    }
+
+    private final AgentMetrics metrics;
+
+    @Value("${agent.metrics.timeseries.enabled:true}")
+    private boolean enabled = true;
+
+    /**
+     * 秒级槽位数（默认1小时）
+     */
+    @Value("${agent.metrics.timeseries.second-slots:3600}")
+    private int secondSlots = 3600;
+
+    /**
+     * 分钟级槽位数（默认7天）
+     */
+    @Value("${agent.metrics.timeseries.minute-slots:10080}")
+    private int minuteSlots = 10080;
+
+    @Value("${agent.metrics.timeseries.snapshot-path:data/metrics-timeseries.bin}")
+    private String snapshotPath = "data/metrics-timeseries.bin";
+
+    private ByteBuffer seconds;
+    private ByteBuffer minutes;
+
+    /**
+     * 上一次采样时的累计值，下标同Column（只用到计数列）
+     */
+    private final long[] lastTotals = new long[COLUMNS.length];
+    private boolean primed;
+
+    /**
+     * 当前分钟的累计
+     */
+    private long currentMinute = -1;
+    private final long[] minuteSums = new long[COLUMNS.length];
+
+    private long lastSampledSecond = -1;
+    private long lastSnapshotTime;
+    private long snapshotBytes;
+
+    public MetricsTimeSeries(AgentMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        seconds = ByteBuffer.allocateDirect(Math.max(1, secondSlots) * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        minutes = ByteBuffer.allocateDirect(Math.max(1, minuteSlots) * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        load();
+        log.info("📈 指标时间序列已启用 - 秒级槽位: {}, 分钟级槽位: {}, 堆外内存: {}KB",
+                secondSlots, minuteSlots, (seconds.capacity() + minutes.capacity()) / 1024);
+    }
+
+    // ==================== 采样 ====================
+
+    /**
+     * 每秒采样：把上一秒的增量和分位数写入秒级环，跨分钟时写出分钟记录
+     */
+    @Scheduled(fixedRate = 1000)
+    public synchronized void sample() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long second = now / 1000 - 1;
+        if (second <= lastSampledSecond) {
+            return;
+        }
+        lastSampledSecond = second;
+
+        long[] totals = readTotals();
+        if (!primed) {
+            // 第一次采样只记基线，否则启动前的累计值会全部算进这一秒
+            System.arraycopy(totals, 0, lastTotals, 0, totals.length);
+            primed = true;
+            currentMinute = second / 60;
+            return;
+        }
+
+        int[] values = new int[COLUMNS.length];
+        for (Column column : COLUMNS) {
+            if (!column.isLatency()) {
+                values[column.ordinal()] = saturate(totals[column.ordinal()] - lastTotals[column.ordinal()]);
+            }
+        }
+        System.arraycopy(totals, 0, lastTotals, 0, totals.length);
+        putLatency(values, metrics.getModelLatency().snapshot(1000, second * 1000));
+
+        long minute = second / 60;
+        if (minute != currentMinute) {
+            flushMinute(currentMinute);
+            currentMinute = minute;
+        }
+        for (Column column : COLUMNS) {
+            if (!column.isLatency()) {
+                minuteSums[column.ordinal()] += values[column.ordinal()];
+            }
+        }
+
+        write(seconds, second, values);
+    }
+
+    private long[] readTotals() {
+        long[] totals = new long[COLUMNS.length];
+        totals[Column.MODEL_CALLS.ordinal()] = metrics.total(AgentMetrics.MODEL_CALLS);
+        totals[Column.MODEL_ERRORS.ordinal()] = metrics.total(AgentMetrics.MODEL_CALLS, "outcome", AgentMetrics.FAILURE);
+        totals[Column.PROMPT_TOKENS.ordinal()] = metrics.total(AgentMetrics.MODEL_TOKENS, "type", "prompt");
+        totals[Column.COMPLETION_TOKENS.ordinal()] = metrics.total(AgentMetrics.MODEL_TOKENS, "type", "completion");
+        totals[Column.TOOL_CALLS.ordinal()] = metrics.total(AgentMetrics.TOOL_CALLS);
+        totals[Column.TOOL_ERRORS.ordinal()] = metrics.total(AgentMetrics.TOOL_CALLS, "outcome", AgentMetrics.FAILURE);
+        return totals;
+    }
+
+    /**
+     * 写出一分钟的汇总；分位数从秒级直方图合并这一分钟的60个切片
+     */
+    private void flushMinute(long minute) {
+        if (minute < 0) {
+            return;
+        }
+        int[] values = new int[COLUMNS.length];
+        for (Column column : COLUMNS) {
+            if (!column.isLatency()) {
+                values[column.ordinal()] = saturate(minuteSums[column.ordinal()]);
+            }
+            minuteSums[column.ordinal()] = 0;
+        }
+        putLatency(values, metrics.getModelLatency().snapshot(60_000, minute * 60_000 + 59_999));
+        int offset = slotOffset(minutes, minute);
+        if (minutes.getLong(offset) == minute) {
+            // 同一分钟已有记录（重启前写出的前半分钟）：计数相加，延迟取较大值
+            for (Column column : COLUMNS) {
+                int previous = minutes.getInt(offset + 8 + 4 * column.ordinal());
+                values[column.ordinal()] = column.isLatency()
+                        ? Math.max(previous, values[column.ordinal()])
+                        : saturate((long) previous + values[column.ordinal()]);
+            }
+        }
+        write(minutes, minute, values);
+    }
+
+    private static void putLatency(int[] values, LatencyHistogram.Snapshot snapshot) {
+        values[Column.LATENCY_P50.ordinal()] = saturate(snapshot.percentile(50));
+        values[Column.LATENCY_P90.ordinal()] = saturate(snapshot.percentile(90));
+        values[Column.LATENCY_P99.ordinal()] = saturate(snapshot.percentile(99));
+        values[Column.LATENCY_MAX.ordinal()] = saturate(snapshot.getMax());
+    }
+
+    // ==================== 查询 ====================
+
+    /**
+     * 区间查询（epoch毫秒，含两端），按列返回，便于前端直接画图：
+     * {resolution, stepSeconds, timestamps: [ms...], series: {column: [...]}}；停机期间没有记录的时间点不返回
+     */
+    public Map<String, Object> query(Resolution resolution, long fromMillis, long toMillis) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("resolution", resolution.name());
+        result.put("stepSeconds", resolution.getStepSeconds());
+        if (!enabled) {
+            result.put("timestamps", List.of());
+            result.put("series", Map.of());
+            return result;
+        }
+
+        ByteBuffer ring = resolution == Resolution.SECOND ? seconds : minutes;
+        int slots = ring.capacity() / RECORD_BYTES;
+        long step = resolution.getStepSeconds();
+        long to = Math.floorDiv(toMillis / 1000, step);
+        long from = Math.max(Math.floorDiv(fromMillis / 1000, step), to - slots + 1);
+
+        List<Long> timestamps = new ArrayList<>();
+        List<List<Integer>> columns = new ArrayList<>();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columns.add(new ArrayList<>());
+        }
+        synchronized (this) {
+            for (long key = from; key <= to; key++) {
+                int offset = slotOffset(ring, key);
+                if (ring.getLong(offset) != key) {
+                    continue;
+                }
+                timestamps.add(key * step * 1000);
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    columns.get(i).add(ring.getInt(offset + 8 + 4 * i));
+                }
+            }
+        }
+
+        Map<String, Object> series = new LinkedHashMap<>();
+        for (Column column : COLUMNS) {
+            series.put(column.getKey(), columns.get(column.ordinal()));
+        }
+        result.put("from", from * step * 1000);
+        result.put("to", to * step * 1000);
+        result.put("timestamps", timestamps);
+        result.put("series", series);
+        return result;
+    }
+
+    /**
+     * 区间在秒级环覆盖范围内时用秒级，否则用分钟级
+     */
+    public Resolution resolutionFor(long fromMillis, long nowMillis) {
+        return nowMillis - fromMillis <= (long) secondSlots * 1000 ? Resolution.SECOND : Resolution.MINUTE;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("secondSlots", secondSlots);
+        stats.put("minuteSlots", minuteSlots);
+        stats.put("recordBytes", RECORD_BYTES);
+        stats.put("offHeapBytes", enabled ? (long) seconds.capacity() + minutes.capacity() : 0);
+        stats.put("snapshotPath", snapshotPath);
+        stats.put("lastSnapshotTime", lastSnapshotTime);
+        stats.put("snapshotBytes", snapshotBytes);
+        return stats;
+    }
+
+    // ==================== 快照 ====================
+
+    @Scheduled(fixedDelayString = "${agent.metrics.timeseries.snapshot-interval-ms:60000}",
+            initialDelayString = "${agent.metrics.timeseries.snapshot-interval-ms:60000}")
+    public void snapshot() {
+        if (enabled) {
+            save();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        // 写出未满的当前分钟，重启后同一分钟的后半段会与之合并
+        flushMinute(currentMinute);
+        save();
+    }
+
+    /**
+     * 文件格式：魔数(4) 版本(2) 列数(2) 秒级槽位数(4) 分钟级槽位数(4) 保存时间(8)，随后是两个环的原始字节（小端）
+     */
+    synchronized void save() {
+        Path path = Paths.get(snapshotPath);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC)
+                    .putShort(VERSION)
+                    .putShort((short) COLUMNS.length)
+                    .putInt(seconds.capacity() / RECORD_BYTES)
+                    .putInt(minutes.capacity() / RECORD_BYTES)
+                    .putLong(System.currentTimeMillis())
+                    .flip();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer[] buffers = {header, seconds.duplicate().clear(), minutes.duplicate().clear()};
+                long remaining = HEADER_BYTES + (long) seconds.capacity() + minutes.capacity();
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lastSnapshotTime = System.currentTimeMillis();
+            snapshotBytes = Files.size(path);
+        } catch (IOException e) {
+            log.warn("⚠️ 指标时间序列快照写入失败 - {}: {}", path, e.getMessage());
+        }
+    }
+
+    private synchronized void load() {
+        Path path = Paths.get(snapshotPath);
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header);
+            header.flip();
+            int magic = header.getInt();
+            short version = header.getShort();
+            short columns = header.getShort();
+            if (magic != MAGIC || version != VERSION || columns != COLUMNS.length) {
+                log.warn("⚠️ 指标时间序列快照格式不匹配，忽略 - {}", path);
+                return;
+            }
+            int savedSeconds = header.getInt();
+            int savedMinutes = header.getInt();
+            long savedAt = header.getLong();
+            int restored = restore(channel, savedSeconds, seconds) + restore(channel, savedMinutes, minutes);
+            log.info("📈 已恢复指标时间序列快照 - 记录数: {}, 保存于: {}", restored, Instant.ofEpochMilli(savedAt));
+        } catch (IOException | RuntimeException e) {
+            log.warn("⚠️ 指标时间序列快照读取失败，从空序列开始 - {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * 逐条读回记录，按时间戳放入当前环的槽位（槽位数与保存时不同也能恢复，最旧的记录被覆盖）
+     */
+    private static int restore(FileChannel channel, int savedSlots, ByteBuffer ring) throws IOException {
+        ByteBuffer saved = ByteBuffer.allocate(savedSlots * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, saved);
+        int restored = 0;
+        for (int i = 0; i < savedSlots; i++) {
+            int from = i * RECORD_BYTES;
+            long key = saved.getLong(from);
+            if (key <= 0) {
+                continue;
+            }
+            int to = slotOffset(ring, key);
+            if (ring.getLong(to) >= key) {
+                continue;
+            }
+            ring.put(to, saved, from, RECORD_BYTES);
+            restored++;
+        }
+        return restored;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("快照文件不完整");
+            }
+        }
+    }
+
+    // ==================== 内部 ====================
+
+    private static int slotOffset(ByteBuffer ring, long key) {
+        return (int) Math.floorMod(key, (long) (ring.capacity() / RECORD_BYTES)) * RECORD_BYTES;
+    }
+
+    private static void write(ByteBuffer ring, long key, int[] values) {
+        int offset = slotOffset(ring, key);
+        for (int i = 0; i < values.length; i++) {
+            ring.putInt(offset + 8 + 4 * i, values[i]);
+        }
+        ring.putLong(offset, key);
+    }
+
+    private static int saturate(long value) {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, value));
+    }
+}
@@ -0,0 +1,506 @@
+package com.kinch.agent.ratelimit;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 模型调用自适应并发限制器
+ * <p>
+ * 并发上限随下游状态调整：
+ * <ul>
+ *     <li>梯度：比较短期平均耗时与基线耗时（均为EWMA），短期明显变慢说明下游在排队，按比例收缩；
+ *     耗时平稳且并发用满时每个耗时周期约增长sqrt(limit)。比较的是平均值而不是最小耗时，
+ *     大模型调用耗时随输出长度变化很大，单次慢调用不会触发收缩</li>
+ *     <li>AIMD：被限流（429）或超时时乘性减小，backoff-interval-ms内只减一次，避免一批同时失败的请求把上限打到底</li>
+ * </ul>
+ * 优先级：每个优先级只能使用上限的一定比例（交互100%、工作流80%、批处理50%），
+ * 低优先级满了也给交互请求留有余量；放行排队请求时高优先级先行，同优先级先进先出。
+ * 排队有长度上限和最长等待时间，超出时抛ModelOverloadedException快速失败
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Slf4j
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    private static final ModelPriority[] PRIORITIES = ModelPriority.values();
+
+    /**
+     * 短期平均耗时的平滑系数；基线耗时下降时同样用SHORT_ALPHA，上升时用LONG_ALPHA
+     */
+    private static final double SHORT_ALPHA = 0.1;
+    private static final double LONG_ALPHA = 0.002;
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Spring AI默认错误处理器抛出的TransientAiException/NonTransientAiException消息格式为"状态码 - 响应体"
+     */
+    private static final Pattern AI_EXCEPTION_STATUS = Pattern.compile("^(\\d{3}) - ");
+
+    /**
+     * DashScope限流错误码：Throttling、Throttling.RateQuota、Throttling.AllocationQuota等
+     */
+    private static final Pattern THROTTLING_CODE = Pattern.compile("\"code\"\\s*:\\s*\"Throttling[\".]");
+
+    @Value("${agent.model-limiter.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${agent.model-limiter.initial-limit:20}")
+    private int initialLimit = 20;
+
+    @Value("${agent.model-limiter.min-limit:2}")
+    private int minLimit = 2;
+
+    @Value("${agent.model-limiter.max-limit:200}")
+    private int maxLimit = 200;
+
+    /**
+     * 短期平均耗时超过长期平均的倍数后开始收缩
+     */
+    @Value("${agent.model-limiter.rtt-tolerance:2.0}")
+    private double rttTolerance = 2.0;
+
+    /**
+     * 每次调整向新值靠拢的比例
+     */
+    @Value("${agent.model-limiter.smoothing:0.2}")
+    private double smoothing = 0.2;
+
+    /**
+     * 被限流/超时时上限乘以的系数
+     */
+    @Value("${agent.model-limiter.backoff-ratio:0.5}")
+    private double backoffRatio = 0.5;
+
+    @Value("${agent.model-limiter.backoff-interval-ms:1000}")
+    private long backoffIntervalMs = 1000;
+
+    /**
+     * 未声明优先级的调用使用的优先级
+     */
+    @Value("${agent.model-limiter.default-priority:WORKFLOW}")
+    private ModelPriority defaultPriority = ModelPriority.WORKFLOW;
+
+    /**
+     * 以下按优先级顺序（INTERACTIVE, WORKFLOW, BATCH）配置：可用上限占比、排队上限、最长排队时间
+     */
+    @Value("${agent.model-limiter.shares:1.0,0.8,0.5}")
+    private List<Double> shares = List.of(1.0, 0.8, 0.5);
+
+    @Value("${agent.model-limiter.max-queue:200,500,1000}")
+    private List<Integer> maxQueue = List.of(200, 500, 1000);
+
+    @Value("${agent.model-limiter.max-wait-ms:10000,30000,60000}")
+    private List<Long> maxWaitMs = List.of(10000L, 30000L, 60000L);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Waiter>[] queues = newQueues();
+
+    /**
+     * 在锁内修改，volatile供Gauge无锁读取
+     */
+    private volatile double limit;
+    private volatile int inflight;
+    private double shortRttNanos;
+    private double longRttNanos;
+    private long lastBackoffNanos;
+
+    private final LongAdder[] admitted = newAdders();
+    private final LongAdder[] queued = newAdders();
+    private final LongAdder[] rejected = newAdders();
+    private final LongAdder[] timedOut = newAdders();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder backoffs = new LongAdder();
+
+    /**
+     * 许可耗时与退避间隔用的时钟（排队等待仍用Condition的真实时间）
+     */
+    private LongSupplier clock = System::nanoTime;
+
+    @PostConstruct
+    public void init() {
+        limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        log.info("🚦 模型并发限制器 - 启用: {}, 初始上限: {}, 范围: [{}, {}], 默认优先级: {}",
+                enabled, initialLimit, minLimit, maxLimit, defaultPriority);
+    }
+
+    /**
+     * 获取调用许可，必要时排队（最长等待该优先级的max-wait-ms）
+     *
+     * @param priority 为null时使用默认优先级
+     * @throws ModelOverloadedException 排队已满或排队超时
+     */
+    public Permit acquire(ModelPriority priority) {
+        return acquire(priority, Long.MAX_VALUE);
+    }
+
+    /**
+     * 获取调用许可，最长等待min(maxWaitMillis, 该优先级的max-wait-ms)
+     */
+    public Permit acquire(ModelPriority priority, long maxWaitMillis) {
+        ModelPriority effective = priority != null ? priority : defaultPriority;
+        if (!enabled) {
+            return new Permit(this, effective, clock.getAsLong(), false);
+        }
+        int p = effective.ordinal();
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            Permit permit = tryAdmit(effective);
+            if (permit != null) {
+                return permit;
+            }
+            if (queues[p].size() >= maxQueue.get(p)) {
+                rejected[p].increment();
+                throw new ModelOverloadedException("模型服务繁忙（排队已满），请稍后再试", effective);
+            }
+
+            Waiter waiter = new Waiter(lock.newCondition());
+            queues[p].addLast(waiter);
+            queued[p].increment();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(Math.min(maxWaitMillis, maxWaitMs.get(p)));
+            try {
+                while (!waiter.granted) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        queues[p].remove(waiter);
+                        timedOut[p].increment();
+                        throw new ModelOverloadedException("模型服务繁忙（排队超时），请稍后再试", effective);
+                    }
+                    waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (waiter.granted) {
+                    // 已分到许可但线程被中断：归还许可让给下一个
+                    inflight--;
+                    drain();
+                } else {
+                    queues[p].remove(waiter);
+                }
+                throw new ModelOverloadedException("模型调用排队被中断", effective);
+            }
+            admitted[p].increment();
+            // 耗时从拿到许可开始算，排队时间不计入下游耗时
+            return new Permit(this, effective, clock.getAsLong(), true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 不排队地获取许可：可以直接放行时返回许可，否则返回null（不计入拒绝数），
+     * 供不能阻塞的调用方（流式订阅）先试一次，拿不到再到可阻塞的线程上acquire
+     */
+    public Permit tryAcquire(ModelPriority priority) {
+        ModelPriority effective = priority != null ? priority : defaultPriority;
+        if (!enabled) {
+            return new Permit(this, effective, clock.getAsLong(), false);
+        }
+        lock.lock();
+        try {
+            return tryAdmit(effective);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 没有同级或更高优先级排队、且未达该优先级上限时直接放行（持锁调用）
+     */
+    private Permit tryAdmit(ModelPriority priority) {
+        int p = priority.ordinal();
+        if (hasWaitersUpTo(p) || inflight >= threshold(p)) {
+            return null;
+        }
+        inflight++;
+        admitted[p].increment();
+        return new Permit(this, priority, clock.getAsLong(), true);
+    }
+
+    private void release(Permit permit, Outcome outcome) {
+        if (!permit.limited) {
+            return;
+        }
+        long rtt = clock.getAsLong() - permit.startNanos;
+        lock.lock();
+        try {
+            inflight--;
+            if (outcome == Outcome.SUCCESS) {
+                onSample(rtt);
+            } else if (outcome == Outcome.OVERLOAD) {
+                onOverload();
+            }
+            drain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 梯度调整（持锁调用）
+     */
+    private void onSample(long rttNanos) {
+        if (longRttNanos == 0) {
+            shortRttNanos = rttNanos;
+            longRttNanos = rttNanos;
+            return;
+        }
+        shortRttNanos += (rttNanos - shortRttNanos) * SHORT_ALPHA;
+        // 基线耗时向下跟得快、向上跟得慢：负载下降后很快回到空闲水平，持续变慢要很久才被当成常态
+        double baselineAlpha = rttNanos < longRttNanos ? SHORT_ALPHA : LONG_ALPHA;
+        longRttNanos += (rttNanos - longRttNanos) * baselineAlpha;
+
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRttNanos / shortRttNanos));
+        // 这次调用结束前的并发不到上限一半时，说明上限不是瓶颈，不增长
+        boolean utilized = inflight + 1 >= limit / 2;
+        if (gradient >= 1.0 && !utilized) {
+            return;
+        }
+        // 每个样本只走一轮调整的1/limit，约一个耗时周期的样本合起来才是一轮，调整速度与吞吐无关
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = clamp(limit + (target - limit) * smoothing / limit);
+    }
+
+    /**
+     * 被限流/超时：乘性减小（持锁调用）
+     */
+    private void onOverload() {
+        throttled.increment();
+        long now = clock.getAsLong();
+        if (now - lastBackoffNanos < TimeUnit.MILLISECONDS.toNanos(backoffIntervalMs)) {
+            return;
+        }
+        lastBackoffNanos = now;
+        backoffs.increment();
+        double previous = limit;
+        limit = clamp(limit * backoffRatio);
+        log.warn("🚦 模型调用被限流/超时，并发上限 {} -> {}", Math.round(previous), Math.round(limit));
+    }
+
+    /**
+     * 按优先级放行排队请求（持锁调用）；高优先级还有人排队时不放行低优先级
+     */
+    private void drain() {
+        for (int p = 0; p < queues.length; p++) {
+            ArrayDeque<Waiter> queue = queues[p];
+            while (!queue.isEmpty() && inflight < threshold(p)) {
+                Waiter waiter = queue.pollFirst();
+                waiter.granted = true;
+                inflight++;
+                waiter.condition.signal();
+            }
+            if (!queue.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    private boolean hasWaitersUpTo(int priority) {
+        for (int p = 0; p <= priority; p++) {
+            if (!queues[p].isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int threshold(int priority) {
+        return Math.max(1, (int) (limit * shares.get(priority)));
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+
+    /**
+     * 是否为下游过载信号：超时，或HTTP 429 / DashScope限流错误码。
+     * 只看异常类型和其中的状态码、响应体，不在任意异常消息里找"429"（订单号、条数等数字会误判）：
+     * <ul>
+     *     <li>RestClient/RestTemplate：RestClientResponseException（含HttpClientErrorException.TooManyRequests）</li>
+     *     <li>WebClient（流式）：WebClientResponseException</li>
+     *     <li>Spring AI默认错误处理器：TransientAiException/NonTransientAiException，消息以"状态码 - "开头</li>
+     * </ul>
+     */
+    public static boolean isOverload(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof SocketTimeoutException || t instanceof TimeoutException) {
+                return true;
+            }
+            if (t instanceof RestClientResponseException e
+                    && (e.getStatusCode().value() == TOO_MANY_REQUESTS || isThrottling(e.getResponseBodyAsString()))) {
+                return true;
+            }
+            if (t instanceof WebClientResponseException e
+                    && (e.getStatusCode().value() == TOO_MANY_REQUESTS || isThrottling(e.getResponseBodyAsString()))) {
+                return true;
+            }
+            if ((t instanceof TransientAiException || t instanceof NonTransientAiException) && t.getMessage() != null) {
+                Matcher status = AI_EXCEPTION_STATUS.matcher(t.getMessage());
+                if (status.find() && (Integer.parseInt(status.group(1)) == TOO_MANY_REQUESTS
+                        || isThrottling(t.getMessage().substring(status.end())))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isThrottling(String body) {
+        return body != null && THROTTLING_CODE.matcher(body).find();
+    }
+
+    // ==================== 查询 ====================
+
+    public int getLimit() {
+        return (int) Math.round(limit);
+    }
+
+    public int getInflight() {
+        return inflight;
+    }
+
+    public int getQueueSize(ModelPriority priority) {
+        lock.lock();
+        try {
+            return queues[priority.ordinal()].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        Map<String, Object> byPriority = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            stats.put("enabled", enabled);
+            stats.put("limit", Math.round(limit * 10) / 10.0);
+            stats.put("inflight", inflight);
+            stats.put("shortRttMs", Math.round(shortRttNanos / 1_000_000));
+            stats.put("longRttMs", Math.round(longRttNanos / 1_000_000));
+            for (ModelPriority priority : PRIORITIES) {
+                int p = priority.ordinal();
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("maxConcurrency", threshold(p));
+                entry.put("queued", queues[p].size());
+                entry.put("admitted", admitted[p].sum());
+                entry.put("waited", queued[p].sum());
+                entry.put("rejected", rejected[p].sum());
+                entry.put("timedOut", timedOut[p].sum());
+                byPriority.put(priority.name(), entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+        stats.put("priorities", byPriority);
+        stats.put("overloadSignals", throttled.sum());
+        stats.put("backoffs", backoffs.sum());
+        stats.put("defaultPriority", defaultPriority);
+        return stats;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<Waiter>[] newQueues() {
+        ArrayDeque<Waiter>[] result = new ArrayDeque[PRIORITIES.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new ArrayDeque<>();
+        }
+        return result;
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] result = new LongAdder[PRIORITIES.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new LongAdder();
+        }
+        return result;
+    }
+
+    private enum Outcome {
+        SUCCESS, OVERLOAD, IGNORED
+    }
+
+    private static final class Waiter {
+        private final Condition condition;
+        private boolean granted;
+
+        private Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * 调用许可：调用结束后必须恰好归还一次
+     */
+    public static final class Permit {
+        private final AdaptiveConcurrencyLimiter limiter;
+        private final ModelPriority priority;
+        private final long startNanos;
+        private final boolean limited;
+        private boolean released;
+
+        private Permit(AdaptiveConcurrencyLimiter limiter, ModelPriority priority, long startNanos, boolean limited) {
+            this.limiter = limiter;
+            this.priority = priority;
+            this.startNanos = startNanos;
+            this.limited = limited;
+        }
+
+        public ModelPriority getPriority() {
+            return priority;
+        }
+
+        /**
+         * 调用成功，耗时作为一次样本
+         */
+        public void success() {
+            release(Outcome.SUCCESS);
+        }
+
+        /**
+         * 调用失败：过载信号（429、超时）收缩上限，其他错误只归还许可
+         */
+        public void failure(Throwable error) {
+            release(isOverload(error) ? Outcome.OVERLOAD : Outcome.IGNORED);
+        }
+
+        /**
+         * 只归还许可，不作为样本（如流被取消）
+         */
+        public void release() {
+            release(Outcome.IGNORED);
+        }
+
+        private synchronized void release(Outcome outcome) {
+            if (released) {
+                return;
+            }
+            released = true;
+            limiter.release(this, outcome);
+        }
+    }
+}
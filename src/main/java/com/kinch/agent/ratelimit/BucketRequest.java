@@ -0,0 +1,15 @@
+package com.kinch.agent.ratelimit;
+
+/**
+ * 单个令牌桶的申请参数
+ *
+ * @param key             桶key
+ * @param capacity        桶容量（允许的突发量）
+ * @param refillPerSecond 每秒补充的令牌数
+ * @param need            本次至少需要的令牌数
+ * @param want            希望发放的令牌数（多出need的部分作为本地租约）
+ * @author kinch
+ * @date 2026-01-09
+ */
+public record BucketRequest(String key, long capacity, double refillPerSecond, long need, long want) {
+}
@@ -0,0 +1,140 @@
+package com.kinch.agent.ratelimit;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 请求截止时间 - 由DeadlineFilter在请求入口声明，沿调用线程向下传递
+ * <p>
+ * 与ModelPriority一样用ThreadLocal保存，LimitedChatModel据此限制排队时间，并在调用进行中到期时中断调用线程；
+ * RestClient底层的JDK HttpClient在线程被中断时会取消正在进行的HTTP请求，下游不再白白生成。
+ * 提交到其他线程的任务需要自行enter()传递
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "deadline-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final int RUNNING = 0;
+    private static final int DONE = 1;
+    private static final int FIRED = 2;
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * 从现在起millis毫秒后到期
+     */
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * 当前线程声明的截止时间，未声明时为null
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 在当前线程上声明截止时间，close时恢复之前的值
+     */
+    public Scope enter() {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * 已到期时抛出DeadlineExceededException
+     */
+    public void check(String operation) {
+        if (isExpired()) {
+            throw new DeadlineExceededException(operation);
+        }
+    }
+
+    /**
+     * 在当前线程上执行阻塞调用，到期仍未返回时中断该线程；
+     * 因到期而失败时抛DeadlineExceededException，返回前清除本类设置的中断标记。
+     * 定时任务抢到FIRED后才调用interrupt()，两步之间调用线程可能已经走到finally：
+     * 先等定时任务执行完再清除标记，否则中断会在清除之后落到线程上，被后续无关的阻塞调用收到
+     */
+    public <T> T enforce(String operation, Supplier<T> action) {
+        check(operation);
+        Thread thread = Thread.currentThread();
+        AtomicInteger state = new AtomicInteger(RUNNING);
+        ScheduledFuture<?> timer = TIMER.schedule(() -> {
+            if (state.compareAndSet(RUNNING, FIRED)) {
+                thread.interrupt();
+            }
+        }, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        try {
+            return action.get();
+        } catch (RuntimeException e) {
+            if (state.get() == FIRED) {
+                throw new DeadlineExceededException(operation, e);
+            }
+            throw e;
+        } finally {
+            if (state.compareAndSet(RUNNING, DONE)) {
+                timer.cancel(false);
+            } else {
+                awaitTimer(timer);
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * 等待已触发的定时任务执行完（interrupt()已调用）；等待期间收到的正是它发出的中断，继续等
+     */
+    private static void awaitTimer(ScheduledFuture<?> timer) {
+        while (true) {
+            try {
+                timer.get();
+                return;
+            } catch (InterruptedException e) {
+                // 本次调用的定时任务发出的中断，稍后统一清除
+            } catch (ExecutionException | CancellationException e) {
+                return;
+            }
+        }
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,18 @@
+package com.kinch.agent.ratelimit;
+
+/**
+ * 请求已超过截止时间，下游调用不再发起或已被取消
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String operation) {
+        super("请求已超过截止时间 - " + operation);
+    }
+
+    public DeadlineExceededException(String operation, Throwable cause) {
+        super("请求已超过截止时间 - " + operation, cause);
+    }
+}
@@ -0,0 +1,238 @@
+package com.kinch.agent.ratelimit;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分布式限流器 - 按用户、按租户限制请求数/秒和Token数/分钟
+ * <p>
+ * 全局额度保存在TokenBucketStore（Redis）中，多节点共享。每个节点从全局桶中按
+ * lease-fraction批量租取令牌放在本地租约里，大部分请求只扣本地租约，不访问Redis；
+ * 本地不足时才执行一次Redis脚本，原子地检查所有维度并补充租约。
+ * 未用完的租约在lease-ttl-ms后作废，节点间的超额不超过"节点数 × 租约大小"
+ *
+ * @author kinch
+ * @date 2026-01-09
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DistributedRateLimiter {
+
+    private static final String KEY_PREFIX = "agent:ratelimit:";
+
+    private final TokenBucketStore store;
+
+    @Value("${agent.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${agent.rate-limit.user.requests-per-second:5}")
+    private double userRequestsPerSecond;
+
+    @Value("${agent.rate-limit.user.tokens-per-minute:60000}")
+    private long userTokensPerMinute;
+
+    @Value("${agent.rate-limit.tenant.requests-per-second:50}")
+    private double tenantRequestsPerSecond;
+
+    @Value("${agent.rate-limit.tenant.tokens-per-minute:600000}")
+    private long tenantTokensPerMinute;
+
+    /**
+     * 每次从全局桶租取的比例（相对桶容量）
+     */
+    @Value("${agent.rate-limit.lease-fraction:0.1}")
+    private double leaseFraction;
+
+    /**
+     * 本地租约有效期（毫秒）
+     */
+    @Value("${agent.rate-limit.lease-ttl-ms:1000}")
+    private long leaseTtlMs;
+
+    /**
+     * 存储不可用时是否放行
+     */
+    @Value("${agent.rate-limit.fail-open:true}")
+    private boolean failOpen;
+
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    private final LongAdder totalRequests = new LongAdder();
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder remoteCalls = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder storeErrors = new LongAdder();
+
+    /**
+     * 申请一次模型调用
+     *
+     * @param userId   用户ID
+     * @param tenantId 租户ID（为空时只做用户维度限流）
+     * @param tokens   本次调用预计消耗的Token
+     * @return 放行时返回null，否则返回触发限流的维度名称
+     */
+    public String tryAcquire(Long userId, String tenantId, long tokens) {
+        if (!enabled) {
+            return null;
+        }
+        totalRequests.increment();
+
+        List<Limit> limits = new ArrayList<>(4);
+        addLimit(limits, "user:" + userId + ":rps", "用户请求数/秒", userRequestsPerSecond, userRequestsPerSecond, 1);
+        addLimit(limits, "user:" + userId + ":tpm", "用户Token数/分钟", userTokensPerMinute, userTokensPerMinute / 60.0, tokens);
+        if (tenantId != null && !tenantId.isEmpty()) {
+            addLimit(limits, "tenant:" + tenantId + ":rps", "租户请求数/秒", tenantRequestsPerSecond, tenantRequestsPerSecond, 1);
+            addLimit(limits, "tenant:" + tenantId + ":tpm", "租户Token数/分钟", tenantTokensPerMinute, tenantTokensPerMinute / 60.0, tokens);
+        }
+        if (limits.isEmpty()) {
+            return null;
+        }
+
+        // 1. 本地租约足够则直接放行
+        long now = System.currentTimeMillis();
+        if (takeLocal(limits, now)) {
+            localHits.increment();
+            return null;
+        }
+
+        // 2. 向全局桶申请：至少满足本次所需，顺带租取一批放入本地
+        List<BucketRequest> requests = new ArrayList<>(limits.size());
+        for (Limit limit : limits) {
+            // 容量很小时按比例会截断为0，至少租1个，否则本地租约永远为空、每次都访问Redis
+            long leaseSize = leaseFraction > 0 ? Math.max(1, (long) (limit.capacity * leaseFraction)) : 0;
+            requests.add(new BucketRequest(KEY_PREFIX + limit.key, limit.capacity, limit.refillPerSecond,
+                    limit.permits, limit.permits + leaseSize));
+        }
+
+        TokenBucketStore.Result result;
+        try {
+            remoteCalls.increment();
+            result = store.acquire(requests);
+        } catch (Exception e) {
+            storeErrors.increment();
+            log.error("限流存储({})不可用，{}", store.getName(), failOpen ? "放行" : "拒绝", e);
+            return failOpen ? null : "限流服务不可用";
+        }
+
+        if (!result.allowed()) {
+            rejected.increment();
+            Limit limit = limits.get(result.rejectedIndex());
+            log.warn("🚦 触发限流 - 用户: {}, 租户: {}, 维度: {}", userId, tenantId, limit.name);
+            return limit.name;
+        }
+
+        long expireAt = System.currentTimeMillis() + leaseTtlMs;
+        long[] grants = result.grants();
+        for (int i = 0; i < limits.size(); i++) {
+            long surplus = grants[i] - limits.get(i).permits;
+            if (surplus > 0) {
+                leases.computeIfAbsent(limits.get(i).key, k -> new Lease()).add(surplus, expireAt);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 所有维度都从本地租约扣减；任一不足则回滚已扣部分
+     */
+    private boolean takeLocal(List<Limit> limits, long now) {
+        Lease[] taken = new Lease[limits.size()];
+        for (int i = 0; i < limits.size(); i++) {
+            Limit limit = limits.get(i);
+            Lease lease = leases.get(limit.key);
+            if (lease == null || !lease.take(limit.permits, now)) {
+                for (int j = 0; j < i; j++) {
+                    taken[j].giveBack(limits.get(j).permits);
+                }
+                return false;
+            }
+            taken[i] = lease;
+        }
+        return true;
+    }
+
+    private void addLimit(List<Limit> limits, String key, String name, double capacity, double refillPerSecond, long permits) {
+        if (capacity <= 0 || refillPerSecond <= 0) {
+            return;
+        }
+        // 单次申请超过桶容量时按容量计，避免大请求永远无法通过
+        long cap = Math.max(1, (long) Math.ceil(capacity));
+        limits.add(new Limit(key, name, cap, refillPerSecond, Math.min(Math.max(permits, 0), cap)));
+    }
+
+    /**
+     * 清理过期的本地租约
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpiredLeases() {
+        long now = System.currentTimeMillis();
+        leases.entrySet().removeIf(entry -> entry.getValue().isExpired(now));
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("store", store.getName());
+        stats.put("totalRequests", totalRequests.sum());
+        stats.put("localHits", localHits.sum());
+        stats.put("remoteCalls", remoteCalls.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("storeErrors", storeErrors.sum());
+        stats.put("activeLeases", leases.size());
+        long total = totalRequests.sum();
+        stats.put("localHitRate", total > 0 ? String.format("%.2f%%", localHits.sum() * 100.0 / total) : "0.00%");
+        return stats;
+    }
+
+    private record Limit(String key, String name, long capacity, double refillPerSecond, long permits) {
+    }
+
+    /**
+     * 本地租约：从全局桶预取、尚未使用的令牌
+     */
+    private static final class Lease {
+        private long available;
+        private long expireAt;
+
+        synchronized boolean take(long permits, long now) {
+            if (now >= expireAt) {
+                available = 0;
+            }
+            if (available < permits) {
+                return false;
+            }
+            available -= permits;
+            return true;
+        }
+
+        synchronized void giveBack(long permits) {
+            available += permits;
+        }
+
+        synchronized void add(long permits, long newExpireAt) {
+            if (System.currentTimeMillis() >= expireAt) {
+                available = 0;
+            }
+            available += permits;
+            expireAt = Math.max(expireAt, newExpireAt);
+        }
+
+        synchronized boolean isExpired(long now) {
+            return now >= expireAt;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.kinch.agent.ratelimit;
+
+import com.kinch.agent.metrics.LatencyHistogram;
+import com.kinch.agent.tracing.Tracer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 对冲请求 - 只用于幂等的短补全（分类、翻译），重复调用结果等价、不产生副作用
+ * <p>
+ * 第一次调用在调用方线程上执行，超过该操作最近耗时的p95仍未返回时，在对冲线程池上再发起一次相同调用，
+ * 先成功的结果胜出，另一次被取消（中断执行线程，JDK HttpClient随之取消HTTP请求）。延迟按操作分别统计，
+ * 样本不足时用initial-delay-ms。对冲会增加下游负载，因此：对冲次数不超过调用数的max-ratio；
+ * 该优先级在并发限制器里有排队时不对冲；同时进行的对冲不超过max-concurrent，线程池满时放弃对冲。
+ * 第一次调用在对冲发起前就失败时直接抛出，不再等到对冲延迟后重试；对冲已发起时，
+ * 第一次调用因过载失败同样立即失败并取消对冲，其他失败等对冲的结果。
+ * 调用方线程上的优先级、截止时间和追踪区间会带到对冲线程上
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HedgedModelCaller {
+
+    /**
+     * 一次调用中第一次调用（调用方线程）的状态
+     */
+    private static final int RUNNING = 0;
+    private static final int SETTLED = 1;
+    private static final int INTERRUPTING = 2;
+    private static final int INTERRUPTED = 3;
+
+    /**
+     * 耗时直方图的时间片；对冲延迟每个时间片最多重新计算一次
+     */
+    private static final long SLICE_MILLIS = 10_000;
+
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final Tracer tracer;
+
+    @Value("${agent.hedging.enabled:true}")
+    private boolean enabled = true;
+
+    /**
+     * 触发对冲的耗时分位
+     */
+    @Value("${agent.hedging.percentile:95}")
+    private double percentile = 95;
+
+    /**
+     * 统计耗时的窗口（毫秒，按10秒时间片滚动）
+     */
+    @Value("${agent.hedging.window-ms:300000}")
+    private long windowMs = 300000;
+
+    /**
+     * 窗口内样本少于此数时使用initial-delay-ms
+     */
+    @Value("${agent.hedging.min-samples:20}")
+    private int minSamples = 20;
+
+    @Value("${agent.hedging.initial-delay-ms:3000}")
+    private long initialDelayMs = 3000;
+
+    /**
+     * 对冲延迟下限，避免耗时很稳定时几乎每次都对冲
+     */
+    @Value("${agent.hedging.min-delay-ms:200}")
+    private long minDelayMs = 200;
+
+    /**
+     * 对冲次数占调用数的上限
+     */
+    @Value("${agent.hedging.max-ratio:0.1}")
+    private double maxRatio = 0.1;
+
+    /**
+     * 同时进行的对冲调用上限（对冲线程池大小）
+     */
+    @Value("${agent.hedging.max-concurrent:16}")
+    private int maxConcurrent = 16;
+
+    /**
+     * 对冲线程池：不排队，满了就放弃这次对冲（排队后才发起的对冲已经赶不上）
+     */
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 对冲发起定时器；大多数调用在延迟内返回，取消的定时任务立即移出队列
+     */
+    private ScheduledThreadPoolExecutor timer;
+
+    private final Map<String, OperationStats> operations = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(0, Math.max(1, maxConcurrent), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "model-hedge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "model-hedge-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * 执行一次幂等调用，必要时对冲
+     *
+     * @param operation 操作名，耗时按此分别统计
+     * @param attempt   一次完整调用，可能被并发执行两次
+     */
+    public <T> T call(String operation, Supplier<T> attempt) {
+        OperationStats stats = operations.computeIfAbsent(operation,
+                k -> new OperationStats((int) Math.max(1, windowMs / SLICE_MILLIS)));
+        stats.calls.increment();
+        if (!enabled) {
+            return timed(stats, attempt);
+        }
+
+        ModelPriority priority = ModelPriority.current();
+        Deadline deadline = Deadline.current();
+        Race<T> race = new Race<>(Thread.currentThread());
+        ScheduledFuture<?> launch = timer.schedule(
+                () -> launchHedge(operation, stats, attempt, priority, deadline, race),
+                boundedByDeadline(hedgeDelay(stats), deadline), TimeUnit.MILLISECONDS);
+
+        T result = null;
+        Throwable primaryError = null;
+        try {
+            result = timed(stats, attempt);
+        } catch (RuntimeException | Error e) {
+            primaryError = e;
+        }
+
+        boolean settled;
+        Future<?> hedge;
+        synchronized (race) {
+            settled = race.state.compareAndSet(RUNNING, SETTLED);
+            hedge = race.hedge;
+        }
+        if (!settled) {
+            // 对冲已胜出并中断了本线程：等中断发出后再清除标记，返回对冲的结果
+            while (race.state.get() != INTERRUPTED) {
+                Thread.onSpinWait();
+            }
+            Thread.interrupted();
+            return race.result.join();
+        }
+        launch.cancel(false);
+        if (primaryError == null) {
+            cancel(hedge);
+            return result;
+        }
+        if (hedge == null || AdaptiveConcurrencyLimiter.isOverload(primaryError)) {
+            // 对冲尚未发起（快速失败）或下游过载：直接失败，不再追加调用
+            cancel(hedge);
+            throw rethrow(primaryError);
+        }
+        return awaitHedge(operation, stats, race, hedge, deadline, primaryError);
+    }
+
+    /**
+     * 定时器线程上执行：第一次调用仍未结束且允许对冲时，在对冲线程池上发起第二次调用
+     */
+    private <T> void launchHedge(String operation, OperationStats stats, Supplier<T> attempt, ModelPriority priority,
+                                 Deadline deadline, Race<T> race) {
+        synchronized (race) {
+            if (race.state.get() != RUNNING) {
+                return;
+            }
+            if ((deadline != null && deadline.isExpired()) || !shouldHedge(stats, priority)) {
+                stats.skipped.increment();
+                return;
+            }
+            try {
+                race.hedge = executor.submit(tracer.wrap(() -> runHedge(stats, attempt, priority, deadline, race)));
+            } catch (RejectedExecutionException e) {
+                stats.rejected.increment();
+                return;
+            }
+            stats.hedges.increment();
+            log.debug("🪁 对冲请求 - 操作: {}", operation);
+        }
+    }
+
+    private <T> void runHedge(OperationStats stats, Supplier<T> attempt, ModelPriority priority, Deadline deadline,
+                              Race<T> race) {
+        try (ModelPriority.Scope p = priority != null ? priority.enter() : null;
+             Deadline.Scope d = deadline != null ? deadline.enter() : null) {
+            race.result.complete(timed(stats, attempt));
+        } catch (Throwable e) {
+            race.result.completeExceptionally(e);
+            return;
+        }
+        // 第一次调用仍在进行：中断调用方线程让它返回对冲的结果
+        if (race.state.compareAndSet(RUNNING, INTERRUPTING)) {
+            stats.hedgeWins.increment();
+            race.caller.interrupt();
+            race.state.set(INTERRUPTED);
+        }
+    }
+
+    /**
+     * 第一次调用已失败（非过载），等对冲的结果；对冲也失败时报第一次的错误
+     */
+    private <T> T awaitHedge(String operation, OperationStats stats, Race<T> race, Future<?> hedge, Deadline deadline,
+                             Throwable primaryError) {
+        try {
+            T result = deadline != null
+                    ? race.result.get(Math.max(1, deadline.remainingMillis()), TimeUnit.MILLISECONDS)
+                    : race.result.get();
+            stats.hedgeWins.increment();
+            return result;
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException(operation, primaryError);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("对冲请求等待被中断 - " + operation, e);
+        } catch (ExecutionException e) {
+            throw rethrow(primaryError);
+        } finally {
+            cancel(hedge);
+        }
+    }
+
+    private static void cancel(Future<?> hedge) {
+        if (hedge != null) {
+            hedge.cancel(true);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable error) {
+        if (error instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (error instanceof Error e) {
+            throw e;
+        }
+        return new IllegalStateException(error);
+    }
+
+    private <T> T timed(OperationStats stats, Supplier<T> attempt) {
+        long start = System.nanoTime();
+        T result = attempt.get();
+        stats.latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * 对冲延迟：直方图快照要扫描整个窗口，结果缓存一个时间片，不在每次调用时重新计算
+     */
+    private long hedgeDelay(OperationStats stats) {
+        long now = System.currentTimeMillis();
+        if (now - stats.delayComputedAt < SLICE_MILLIS) {
+            return stats.delay;
+        }
+        LatencyHistogram.Snapshot snapshot = stats.latency.snapshot(windowMs);
+        long delay = snapshot.getCount() < minSamples
+                ? initialDelayMs
+                : Math.max(minDelayMs, snapshot.percentile(percentile));
+        stats.delay = delay;
+        stats.delayComputedAt = now;
+        return delay;
+    }
+
+    private boolean shouldHedge(OperationStats stats, ModelPriority priority) {
+        if (stats.hedges.sum() >= stats.calls.sum() * maxRatio) {
+            return false;
+        }
+        return priority == null || concurrencyLimiter.getQueueSize(priority) == 0;
+    }
+
+    private static long boundedByDeadline(long delayMillis, Deadline deadline) {
+        return deadline != null ? Math.min(delayMillis, Math.max(1, deadline.remainingMillis())) : delayMillis;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> byOperation = new HashMap<>();
+        operations.forEach((name, stats) -> {
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("calls", stats.calls.sum());
+            entry.put("hedges", stats.hedges.sum());
+            entry.put("hedgeWins", stats.hedgeWins.sum());
+            entry.put("skipped", stats.skipped.sum());
+            entry.put("rejected", stats.rejected.sum());
+            entry.put("hedgeDelayMs", hedgeDelay(stats));
+            entry.put("latency", stats.latency.snapshot(windowMs).toMap());
+            byOperation.put(name, entry);
+        });
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("percentile", percentile);
+        stats.put("maxRatio", maxRatio);
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("activeHedges", executor.getActiveCount());
+        stats.put("operations", byOperation);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private static final class OperationStats {
+        final LatencyHistogram latency;
+        final LongAdder calls = new LongAdder();
+        final LongAdder hedges = new LongAdder();
+        final LongAdder hedgeWins = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        // 缓存的对冲延迟；并发刷新时重复计算一次无妨
+        volatile long delay;
+        volatile long delayComputedAt = Long.MIN_VALUE / 2;
+
+        OperationStats(int sliceCount) {
+            this.latency = new LatencyHistogram(SLICE_MILLIS, sliceCount);
+        }
+    }
+
+    /**
+     * 一次对冲调用的共享状态：第一次调用的状态、对冲的Future和结果
+     */
+    private static final class Race<T> {
+        final Thread caller;
+        final AtomicInteger state = new AtomicInteger(RUNNING);
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        /**
+         * 在race上加锁读写
+         */
+        Future<?> hedge;
+
+        Race(Thread caller) {
+            this.caller = caller;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.kinch.agent.ratelimit;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * 内存令牌桶存储 - 与token_bucket.lua语义一致的单机实现
+ * 用于单节点部署，以及在没有Redis的环境中替代Redis测试限流逻辑
+ *
+ * @author kinch
+ * @date 2026-01-09
+ */
+@Component
+@ConditionalOnProperty(name = "agent.rate-limit.store", havingValue = "local")
+public class InMemoryTokenBucketStore implements TokenBucketStore {
+
+    private final Map<String, double[]> buckets = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    public InMemoryTokenBucketStore() {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * 可注入时钟，便于测试
+     */
+    public InMemoryTokenBucketStore(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public synchronized Result acquire(List<BucketRequest> requests) {
+        long now = clock.getAsLong();
+        double[] available = new double[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            BucketRequest request = requests.get(i);
+            // state[0]: 令牌数, state[1]: 上次更新时间
+            double[] state = buckets.get(request.key());
+            double tokens = state == null
+                    ? request.capacity()
+                    : Math.min(request.capacity(), state[0] + Math.max(0, now - state[1]) * request.refillPerSecond() / 1000);
+            if (tokens < request.need()) {
+                return Result.rejected(i);
+            }
+            available[i] = tokens;
+        }
+
+        long[] grants = new long[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            BucketRequest request = requests.get(i);
+            long grant = Math.max(request.need(), Math.min(request.want(), (long) Math.floor(available[i])));
+            buckets.put(request.key(), new double[]{available[i] - grant, now});
+            grants[i] = grant;
+        }
+        return Result.granted(grants);
+    }
+
+    @Override
+    public String getName() {
+        return "local";
+    }
+}
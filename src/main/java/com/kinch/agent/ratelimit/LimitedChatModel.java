@@ -0,0 +1,102 @@
+package com.kinch.agent.ratelimit;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 带并发限制的ChatModel装饰器 - chatModel Bean的实际类型
+ * ReactAgent、ChatClient、工作流节点的模型调用都经过这里，按当前线程声明的优先级排队。
+ * 流式调用在订阅时获取许可、流结束时归还，整段流的耗时不作为梯度样本（与输出长度有关）；
+ * 订阅线程可能是Netty事件循环，不能阻塞：先不排队地试一次，需要排队时换到boundedElastic线程上等待；
+ * 未声明优先级的流式调用按交互式处理（流式接口都是用户在等待）。
+ * 当前线程有截止时间（Deadline）时，排队不超过剩余时间；同步调用到期未返回会被中断取消，
+ * 流式调用只在开始前检查，进行中的流由客户端断开时取消订阅
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+public class LimitedChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    public LimitedChatModel(ChatModel delegate, AdaptiveConcurrencyLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        Deadline deadline = Deadline.current();
+        AdaptiveConcurrencyLimiter.Permit permit = acquire(ModelPriority.current(), deadline);
+        try {
+            ChatResponse response = deadline != null
+                    ? deadline.enforce("model.call", () -> delegate.call(prompt))
+                    : delegate.call(prompt);
+            permit.success();
+            return response;
+        } catch (RuntimeException | Error e) {
+            permit.failure(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        ModelPriority declared = ModelPriority.current();
+        ModelPriority priority = declared != null ? declared : ModelPriority.INTERACTIVE;
+        Deadline deadline = Deadline.current();
+        return Flux.defer(() -> {
+            if (deadline != null) {
+                deadline.check("model.acquire");
+            }
+            AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire(priority);
+            if (permit != null) {
+                return stream(prompt, permit);
+            }
+            // 排队期间被取消时，拿到的许可随内层流的CANCEL归还
+            return Flux.defer(() -> stream(prompt, acquire(priority, deadline)))
+                    .subscribeOn(Schedulers.boundedElastic());
+        });
+    }
+
+    private Flux<ChatResponse> stream(Prompt prompt, AdaptiveConcurrencyLimiter.Permit permit) {
+        return delegate.stream(prompt)
+                .doOnError(permit::failure)
+                .doFinally(signal -> {
+                    if (signal != SignalType.ON_ERROR) {
+                        permit.release();
+                    }
+                });
+    }
+
+    /**
+     * 有截止时间时排队不超过剩余时间，已到期则不再发起
+     */
+    private AdaptiveConcurrencyLimiter.Permit acquire(ModelPriority priority, Deadline deadline) {
+        if (deadline == null) {
+            return limiter.acquire(priority);
+        }
+        deadline.check("model.acquire");
+        try {
+            return limiter.acquire(priority, deadline.remainingMillis());
+        } catch (ModelOverloadedException e) {
+            deadline.check("model.acquire");
+            throw e;
+        }
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    public ChatModel getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,21 @@
+package com.kinch.agent.ratelimit;
+
+/**
+ * 模型调用被并发限制器拒绝（排队已满或排队超时）
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+public class ModelOverloadedException extends RuntimeException {
+
+    private final ModelPriority priority;
+
+    public ModelOverloadedException(String message, ModelPriority priority) {
+        super(message);
+        this.priority = priority;
+    }
+
+    public ModelPriority getPriority() {
+        return priority;
+    }
+}
@@ -0,0 +1,57 @@
+package com.kinch.agent.ratelimit;
+
+/**
+ * 模型调用优先级（声明顺序即优先顺序）
+ * <p>
+ * 调用方在入口处用try-with-resources声明当前线程上模型调用的优先级，
+ * LimitedChatModel取当前值排队；未声明时使用配置的默认优先级
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+public enum ModelPriority {
+
+    /**
+     * 交互式对话（用户在等待）
+     */
+    INTERACTIVE,
+
+    /**
+     * 工作流、多Agent协作等
+     */
+    WORKFLOW,
+
+    /**
+     * 后台批处理（滚动摘要等），过载时最先被限制
+     */
+    BATCH;
+
+    private static final ThreadLocal<ModelPriority> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 当前线程声明的优先级，未声明时为null
+     */
+    public static ModelPriority current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 在当前线程上声明优先级，close时恢复之前的值
+     */
+    public Scope enter() {
+        ModelPriority previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
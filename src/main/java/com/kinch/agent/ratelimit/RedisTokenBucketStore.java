@@ -0,0 +1,68 @@
+package com.kinch.agent.ratelimit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Redis令牌桶存储 - 通过Lua脚本原子执行多桶检查和扣减，多节点共享同一组桶
+ * 时间取自Redis服务器（TIME命令），不受各节点时钟偏差影响。
+ * 注意：一次申请的多个key需位于同一节点（非Cluster部署或使用hash tag）
+ *
+ * @author kinch
+ * @date 2026-01-09
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "agent.rate-limit.store", havingValue = "redis", matchIfMissing = true)
+public class RedisTokenBucketStore implements TokenBucketStore {
+
+    private final StringRedisTemplate redisTemplate;
+    private final DefaultRedisScript<List> script;
+
+    public RedisTokenBucketStore(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+        this.script = new DefaultRedisScript<>();
+        this.script.setLocation(new ClassPathResource("lua/token_bucket.lua"));
+        this.script.setResultType(List.class);
+    }
+
+    @Override
+    public Result acquire(List<BucketRequest> requests) {
+        List<String> keys = new ArrayList<>(requests.size());
+        Object[] args = new Object[requests.size() * 4];
+        int i = 0;
+        for (BucketRequest request : requests) {
+            keys.add(request.key());
+            args[i++] = String.valueOf(request.capacity());
+            args[i++] = String.valueOf(request.refillPerSecond());
+            args[i++] = String.valueOf(request.need());
+            args[i++] = String.valueOf(request.want());
+        }
+
+        List<?> reply = redisTemplate.execute(script, keys, args);
+        if (reply == null || reply.isEmpty()) {
+            throw new IllegalStateException("令牌桶脚本返回为空");
+        }
+        int status = ((Number) reply.get(0)).intValue();
+        if (status != 0) {
+            return Result.rejected(status - 1);
+        }
+        long[] grants = new long[requests.size()];
+        for (int j = 0; j < grants.length; j++) {
+            grants[j] = ((Number) reply.get(j + 1)).longValue();
+        }
+        return Result.granted(grants);
+    }
+
+    @Override
+    public String getName() {
+        return "redis";
+    }
+}
@@ -0,0 +1,41 @@
+package com.kinch.agent.ratelimit;
+
+import java.util.List;
+
+/**
+ * 令牌桶存储 - 原子地对一组桶做检查和扣减
+ * 生产环境使用Redis脚本实现，单机部署或测试时可使用内存实现
+ *
+ * @author kinch
+ * @date 2026-01-09
+ */
+public interface TokenBucketStore {
+
+    /**
+     * 所有桶都满足need时一起扣减，否则都不扣减
+     */
+    Result acquire(List<BucketRequest> requests);
+
+    String getName();
+
+    /**
+     * 申请结果
+     *
+     * @param rejectedIndex 令牌不足的桶下标，放行时为-1
+     * @param grants        放行时每个桶实际发放的令牌数
+     */
+    record Result(int rejectedIndex, long[] grants) {
+
+        public static Result granted(long[] grants) {
+            return new Result(-1, grants);
+        }
+
+        public static Result rejected(int index) {
+            return new Result(index, null);
+        }
+
+        public boolean allowed() {
+            return rejectedIndex < 0;
+        }
+    }
+}
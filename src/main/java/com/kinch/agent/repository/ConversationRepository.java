@@ -1,9 +1,16 @@
 package com.kinch.agent.repository;
 
 import com.kinch.agent.entity.Conversation;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,4 +25,38 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
     Optional<Conversation> findByThreadId(String threadId);
     List<Conversation> findByUserIdAndStatusOrderByUpdateTimeDesc(Long userId, String status);
     List<Conversation> findByUserIdOrderByUpdateTimeDesc(Long userId);
+
+    /**
+     * 分页查询用户会话（Slice不做count查询）
+     */
+    Slice<Conversation> findByUserIdAndStatusOrderByUpdateTimeDesc(Long userId, String status, Pageable pageable);
+
+    /**
+     * 按会话ID游标分批查询（用于导出，避免与消息流式结果集共用连接）
+     */
+    List<Conversation> findByUserIdAndStatusAndIdGreaterThanOrderByIdAsc(Long userId, String status, Long id, Pageable pageable);
+
+    /**
+     * 更新滚动摘要（单独更新，避免与会话统计的保存相互覆盖）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Conversation c SET c.summary = :summary, c.summarizedMessageId = :messageId WHERE c.id = :id")
+    int updateSummary(@Param("id") Long id, @Param("summary") String summary, @Param("messageId") Long messageId);
+
+    /**
+     * 超过宽限期的软删除会话ID（分批）
+     */
+    @Query(value = "SELECT id FROM t_conversation WHERE status = 'deleted' AND update_time < :cutoff AND id > :afterId "
+            + "ORDER BY id LIMIT :limit", nativeQuery = true)
+    List<Long> findDeletedIdsBefore(@Param("cutoff") LocalDateTime cutoff, @Param("afterId") Long afterId,
+                                    @Param("limit") int limit);
+
+    /**
+     * 物理删除软删除的会话
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM t_conversation WHERE id = :id AND status = 'deleted'", nativeQuery = true)
+    int purgeDeleted(@Param("id") Long id);
 }
@@ -1,10 +1,21 @@
 package com.kinch.agent.repository;
 
 import com.kinch.agent.entity.Message;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * 消息Repository
@@ -16,4 +27,81 @@ import java.util.List;
 public interface MessageRepository extends JpaRepository<Message, Long> {
     List<Message> findByConversationIdOrderByCreateTimeAsc(Long conversationId);
     List<Message> findTop10ByConversationIdOrderByCreateTimeDesc(Long conversationId);
+
+    /**
+     * 查询指定消息ID之后的消息（用于增量摘要）
+     */
+    List<Message> findByConversationIdAndIdGreaterThanOrderByIdAsc(Long conversationId, Long id);
+
+    /**
+     * 查询最近的消息（倒序，配合分页取最近N条）
+     */
+    List<Message> findByConversationIdOrderByIdDesc(Long conversationId, Pageable pageable);
+
+    /**
+     * 按消息ID游标分页（afterId之后的下一页，不做count查询）
+     */
+    Slice<Message> findByConversationIdAndIdGreaterThanOrderByIdAsc(Long conversationId, Long id, Pageable pageable);
+
+    /**
+     * 流式读取会话的全部消息（用于导出）
+     * MySQL驱动在fetchSize=Integer.MIN_VALUE时逐行读取结果集，内存占用与消息总数无关；
+     * 必须在只读事务内消费并关闭Stream，且同一连接上不能同时打开第二个流式结果集
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT m FROM Message m WHERE m.conversationId = :conversationId ORDER BY m.id ASC")
+    Stream<Message> streamByConversationId(@Param("conversationId") Long conversationId);
+
+    // ===================== 数据保留（分块批量删除，每次调用一个短事务） =====================
+
+    /**
+     * 早于指定时间的最大消息ID（ID随时间递增，之后按主键范围删除）
+     */
+    @Query(value = "SELECT MAX(id) FROM t_message WHERE create_time < :cutoff", nativeQuery = true)
+    Long findMaxIdBefore(@Param("cutoff") LocalDateTime cutoff);
+
+    /**
+     * 按主键范围分块删除
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM t_message WHERE id <= :maxId ORDER BY id LIMIT :limit", nativeQuery = true)
+    int deleteChunkUpToId(@Param("maxId") Long maxId, @Param("limit") int limit);
+
+    /**
+     * 会话中第(offset+1)新的消息ID，用于按保留条数确定删除边界
+     */
+    @Query(value = "SELECT id FROM t_message WHERE conversation_id = :conversationId ORDER BY id DESC LIMIT 1 OFFSET :offset",
+            nativeQuery = true)
+    Long findIdByRecency(@Param("conversationId") Long conversationId, @Param("offset") int offset);
+
+    /**
+     * 消息数超过保留条数的会话（按会话ID游标分批）
+     */
+    @Query(value = "SELECT conversation_id FROM t_message WHERE conversation_id > :afterId "
+            + "GROUP BY conversation_id HAVING COUNT(*) > :keepCount ORDER BY conversation_id LIMIT :limit",
+            nativeQuery = true)
+    List<Long> findConversationIdsExceeding(@Param("afterId") Long afterId, @Param("keepCount") int keepCount,
+                                            @Param("limit") int limit);
+
+    /**
+     * 分块删除会话中不晚于指定ID的消息
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM t_message WHERE conversation_id = :conversationId AND id <= :maxId ORDER BY id LIMIT :limit",
+            nativeQuery = true)
+    int deleteChunkByConversationUpToId(@Param("conversationId") Long conversationId, @Param("maxId") Long maxId,
+                                        @Param("limit") int limit);
+
+    /**
+     * 分块删除会话的全部消息
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM t_message WHERE conversation_id = :conversationId LIMIT :limit", nativeQuery = true)
+    int deleteChunkByConversation(@Param("conversationId") Long conversationId, @Param("limit") int limit);
 }
@@ -30,6 +30,7 @@ public interface TokenUsageLogRepository extends JpaRepository<TokenUsageLog, Lo
 
     /**
      * 统计用户今日Token使用总量
+     * 扫描明细行，代价随日志量增长；仪表盘和配额查询请使用TokenUsageRollupService.sumUserTokens
      *
      * @param userId    用户ID
      * @param startTime 开始时间
@@ -2,7 +2,11 @@ package com.kinch.agent.repository;
 
 import com.kinch.agent.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
 
@@ -16,4 +20,12 @@ import java.util.Optional;
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
     boolean existsByUsername(String username);
+
+    /**
+     * 原子累加已使用Token数（由TokenQuotaLedger定时刷盘）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.tokenUsed = u.tokenUsed + :delta WHERE u.id = :id")
+    int incrementTokenUsed(@Param("id") Long id, @Param("delta") int delta);
 }
@@ -0,0 +1,287 @@
+package com.kinch.agent.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 敏感信息脱敏引擎 - 单遍扫描识别手机号、身份证号、邮箱、IPv4并打码
+ * <p>
+ * 文本按"词"切分：连续的 [A-Za-z0-9._%+-@] 字符构成一个候选词，其它字符（中文、空白、标点）是边界。
+ * 候选词完整后才能判断类别，所以流式处理时只缓冲当前未结束的候选词，边界字符和已判定的内容立即输出；
+ * 候选词超过max-token-length仍未结束时不可能是上述四类信息，直接原样输出，缓冲区大小因此有上界。
+ * 与原先四次replaceAll相比，这里要求数字串完整匹配（11位手机号、13位86前缀手机号、18位身份证号），
+ * 不再把更长数字串（订单号等）中的片段误打码；手机号、IP前后紧挨字母等词内字符（如host-10.0.0.1）时仍会打码
+ *
+ * @author kinch
+ * @date 2026-01-15
+ */
+@Component
+public class PiiRedactor {
+
+    static final String PHONE_MASK = "***********";
+    static final String ID_CARD_MASK = "******************";
+    static final String EMAIL_MASK = "***@***.***";
+    static final String IP_MASK = "***.***.***.***";
+
+    @Value("${agent.security.redaction.enabled:true}")
+    private boolean enabled = true;
+
+    /**
+     * 候选词最大缓冲长度（邮箱最长254）
+     */
+    @Value("${agent.security.redaction.max-token-length:320}")
+    private int maxTokenLength = 320;
+
+    private final LongAdder redactions = new LongAdder();
+
+    /**
+     * 脱敏完整文本；不含数字和@时原样返回，不分配对象
+     */
+    public String redact(String text) {
+        if (!enabled || text == null || !mayContainPii(text)) {
+            return text;
+        }
+        Session session = newSession();
+        String head = session.push(text);
+        String tail = session.finish();
+        return tail.isEmpty() ? head : head + tail;
+    }
+
+    /**
+     * 对流式文本片段逐段脱敏，跨片段的候选词会被缓冲到边界出现再输出
+     */
+    public Flux<String> redact(Flux<String> chunks) {
+        if (!enabled) {
+            return chunks;
+        }
+        return Flux.defer(() -> {
+            Session session = newSession();
+            return chunks.map(session::push)
+                    .concatWith(Mono.fromSupplier(session::finish))
+                    .filter(chunk -> !chunk.isEmpty());
+        });
+    }
+
+    public Session newSession() {
+        return new Session();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getRedactionCount() {
+        return redactions.sum();
+    }
+
+    private static boolean mayContainPii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c >= '0' && c <= '9') || c == '@') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isTokenChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '.' || c == '_' || c == '%' || c == '+' || c == '-' || c == '@';
+    }
+
+    /**
+     * 单个流的脱敏状态（非线程安全，一个流一个实例）
+     */
+    public final class Session {
+
+        private final StringBuilder token = new StringBuilder(32);
+
+        /**
+         * 当前候选词超长，直到下一个边界都原样输出
+         */
+        private boolean passthrough;
+
+        private Session() {
+        }
+
+        /**
+         * 输入一段文本，返回可以安全输出的部分
+         */
+        public String push(CharSequence chunk) {
+            if (chunk == null || chunk.isEmpty()) {
+                return "";
+            }
+            StringBuilder out = new StringBuilder(chunk.length() + 16);
+            for (int i = 0; i < chunk.length(); i++) {
+                char c = chunk.charAt(i);
+                if (!isTokenChar(c)) {
+                    flushToken(out);
+                    passthrough = false;
+                    out.append(c);
+                } else if (passthrough) {
+                    out.append(c);
+                } else {
+                    token.append(c);
+                    if (token.length() > maxTokenLength) {
+                        out.append(token);
+                        token.setLength(0);
+                        passthrough = true;
+                    }
+                }
+            }
+            return out.toString();
+        }
+
+        /**
+         * 是否有缓冲中未输出的内容（流结束时finish会返回非空）
+         */
+        public boolean hasPending() {
+            return !token.isEmpty();
+        }
+
+        /**
+         * 流结束，输出缓冲的剩余内容
+         */
+        public String finish() {
+            if (token.isEmpty()) {
+                return "";
+            }
+            StringBuilder out = new StringBuilder(token.length() + 16);
+            flushToken(out);
+            return out.toString();
+        }
+
+        private void flushToken(StringBuilder out) {
+            if (token.isEmpty()) {
+                return;
+            }
+            // 句末的点、连字符不属于邮箱/IP
+            int end = token.length();
+            while (end > 0 && (token.charAt(end - 1) == '.' || token.charAt(end - 1) == '-')) {
+                end--;
+            }
+            if (end > 0 && isEmail(token, end)) {
+                out.append(EMAIL_MASK);
+                redactions.increment();
+            } else {
+                redactNumbers(token, end, out);
+            }
+            out.append(token, end, token.length());
+            token.setLength(0);
+        }
+    }
+
+    /**
+     * local@domain.tld，local为[\w.%+-]，domain为[\w.-]且最后一段非空
+     */
+    private static boolean isEmail(CharSequence s, int end) {
+        int at = -1;
+        for (int i = 0; i < end; i++) {
+            if (s.charAt(i) == '@') {
+                if (at >= 0) {
+                    return false;
+                }
+                at = i;
+            }
+        }
+        if (at <= 0 || at >= end - 1) {
+            return false;
+        }
+        int lastDot = -1;
+        for (int i = at + 1; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                lastDot = i;
+            } else if (c == '%' || c == '+') {
+                return false;
+            }
+        }
+        return lastDot > at + 1 && lastDot < end - 1;
+    }
+
+    /**
+     * s[start, end) 是否为四段1-3位数字，以点分隔
+     */
+    private static boolean isIpv4(CharSequence s, int start, int end) {
+        int groups = 0;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 3) {
+                    return false;
+                }
+            } else if (c == '.' && digits > 0) {
+                groups++;
+                digits = 0;
+            } else {
+                return false;
+            }
+        }
+        return groups == 3 && digits > 0;
+    }
+
+    /**
+     * 逐个处理词内由数字和点组成的串：整串是IPv4时打码，否则按最长数字串判断手机号、身份证号
+     */
+    private void redactNumbers(CharSequence s, int end, StringBuilder out) {
+        int i = 0;
+        // 已判定过不是IPv4的数字点串终点，串内后续数字不再当作新串判断
+        int checkedUntil = 0;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                out.append(c);
+                i++;
+                continue;
+            }
+            int start = i;
+            if (start >= checkedUntil) {
+                int runEnd = i;
+                while (runEnd < end && (s.charAt(runEnd) == '.' || (s.charAt(runEnd) >= '0' && s.charAt(runEnd) <= '9'))) {
+                    runEnd++;
+                }
+                while (s.charAt(runEnd - 1) == '.') {
+                    runEnd--;
+                }
+                if (isIpv4(s, start, runEnd)) {
+                    out.append(IP_MASK);
+                    redactions.increment();
+                    i = runEnd;
+                    continue;
+                }
+                checkedUntil = runEnd;
+            }
+            while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                i++;
+            }
+            int length = i - start;
+            if (length == 17 && i < end && (s.charAt(i) == 'X' || s.charAt(i) == 'x')) {
+                // 末位为X的身份证号
+                out.append(ID_CARD_MASK);
+                redactions.increment();
+                i++;
+            } else if (length == 18) {
+                out.append(ID_CARD_MASK);
+                redactions.increment();
+            } else if (length == 11 && isMobile(s, start)) {
+                out.append(PHONE_MASK);
+                redactions.increment();
+            } else if (length == 13 && s.charAt(start) == '8' && s.charAt(start + 1) == '6' && isMobile(s, start + 2)) {
+                out.append("86").append(PHONE_MASK);
+                redactions.increment();
+            } else {
+                out.append(s, start, i);
+            }
+        }
+    }
+
+    private static boolean isMobile(CharSequence s, int start) {
+        char second = s.charAt(start + 1);
+        return s.charAt(start) == '1' && second >= '3' && second <= '9';
+    }
+}
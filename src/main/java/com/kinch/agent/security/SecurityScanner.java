@@ -0,0 +1,246 @@
+package com.kinch.agent.security;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * 安全扫描引擎 - CustomSecurityHook和SafetyInterceptor共用
+ * <p>
+ * 所有规则（SQL关键字、命令注入字符、敏感词）编译进同一个Aho-Corasick自动机，
+ * 再把goto/fail展开成稠密DFA转移表：字符先经大小写折叠映射到字符类，每个字符只查一次表。
+ * 一次扫描只遍历文本一遍，不做toLowerCase、不创建Matcher，不分配对象；
+ * 命中结果是一个long位图（每个关键字一位），按类别用掩码判断
+ *
+ * @author kinch
+ * @date 2026-01-14
+ */
+@Component
+public class SecurityScanner {
+
+    /**
+     * 规则类别
+     */
+    public enum Category {
+        /** SQL注入关键字（拦截） */
+        SQL_INJECTION,
+        /** 命令注入元字符（拦截） */
+        COMMAND_INJECTION,
+        /** 敏感词（仅告警） */
+        SENSITIVE_WORD
+    }
+
+    private static final Map<Category, List<String>> DEFAULT_RULES = new EnumMap<>(Map.of(
+            Category.SQL_INJECTION, List.of("union", "select", "insert", "update", "delete", "drop", "exec", "script"),
+            Category.COMMAND_INJECTION, List.of(";", "&", "|", "`", "$"),
+            Category.SENSITIVE_WORD, List.of("密码", "password", "token", "秘钥", "secret", "apikey")
+    ));
+
+    private final String[] keywords;
+    private final Category[] keywordCategories;
+    private final long[] categoryMasks = new long[Category.values().length];
+
+    /**
+     * 字符 -> 字符类（0表示不出现在任何规则中的字符）
+     */
+    private final byte[] charClass = new byte[Character.MAX_VALUE + 1];
+    private final int classCount;
+
+    /**
+     * 稠密转移表：transitions[state * classCount + class]
+     */
+    private final int[] transitions;
+
+    /**
+     * 到达每个状态时命中的关键字位图（已合并fail链上的输出）
+     */
+    private final long[] outputs;
+
+    public SecurityScanner() {
+        this(DEFAULT_RULES);
+    }
+
+    public SecurityScanner(Map<Category, List<String>> rules) {
+        List<String> words = new ArrayList<>();
+        List<Category> categories = new ArrayList<>();
+        rules.forEach((category, list) -> list.forEach(word -> {
+            words.add(fold(word));
+            categories.add(category);
+        }));
+        if (words.size() > Long.SIZE) {
+            throw new IllegalArgumentException("规则关键字最多" + Long.SIZE + "个");
+        }
+        keywords = words.toArray(new String[0]);
+        keywordCategories = categories.toArray(new Category[0]);
+        for (int i = 0; i < keywords.length; i++) {
+            categoryMasks[keywordCategories[i].ordinal()] |= 1L << i;
+        }
+
+        classCount = buildCharClasses();
+
+        // 1. 构建trie
+        List<Map<Integer, Integer>> gotoTable = new ArrayList<>();
+        List<Long> outputList = new ArrayList<>();
+        gotoTable.add(new HashMap<>());
+        outputList.add(0L);
+        for (int i = 0; i < keywords.length; i++) {
+            int state = 0;
+            for (char c : keywords[i].toCharArray()) {
+                int cls = charClass[c];
+                Integer next = gotoTable.get(state).get(cls);
+                if (next == null) {
+                    next = gotoTable.size();
+                    gotoTable.add(new HashMap<>());
+                    outputList.add(0L);
+                    gotoTable.get(state).put(cls, next);
+                }
+                state = next;
+            }
+            outputList.set(state, outputList.get(state) | (1L << i));
+        }
+
+        // 2. BFS计算fail并直接展开为稠密DFA
+        int stateCount = gotoTable.size();
+        transitions = new int[stateCount * classCount];
+        outputs = new long[stateCount];
+        int[] fail = new int[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            outputs[s] = outputList.get(s);
+        }
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int cls = 0; cls < classCount; cls++) {
+            Integer next = gotoTable.get(0).get(cls);
+            if (next != null) {
+                transitions[cls] = next;
+                fail[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            outputs[state] |= outputs[fail[state]];
+            for (int cls = 0; cls < classCount; cls++) {
+                Integer next = gotoTable.get(state).get(cls);
+                if (next != null) {
+                    transitions[state * classCount + cls] = next;
+                    fail[next] = transitions[fail[state] * classCount + cls];
+                    queue.add(next);
+                } else {
+                    transitions[state * classCount + cls] = transitions[fail[state] * classCount + cls];
+                }
+            }
+        }
+    }
+
+    /**
+     * 为规则中出现的字符分配字符类，ASCII字母大小写共用一个类
+     */
+    private int buildCharClasses() {
+        Map<Character, Integer> classes = new LinkedHashMap<>();
+        for (String word : keywords) {
+            for (char c : word.toCharArray()) {
+                classes.computeIfAbsent(c, k -> classes.size() + 1);
+            }
+        }
+        if (classes.size() >= Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("规则字符种类过多");
+        }
+        classes.forEach((c, cls) -> {
+            charClass[c] = cls.byteValue();
+            if (c >= 'a' && c <= 'z') {
+                charClass[c - 'a' + 'A'] = cls.byteValue();
+            }
+        });
+        return classes.size() + 1;
+    }
+
+    /**
+     * 单遍扫描，返回命中关键字位图
+     */
+    public long scan(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int state = 0;
+        long hits = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            state = transitions[state * classCount + charClass[text.charAt(i)]];
+            hits |= outputs[state];
+        }
+        return hits;
+    }
+
+    /**
+     * 扫描到stopMask中任一关键字即返回（只关心是否命中拦截类规则时使用）
+     */
+    public long scan(CharSequence text, long stopMask) {
+        if (text == null) {
+            return 0;
+        }
+        int state = 0;
+        long hits = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            state = transitions[state * classCount + charClass[text.charAt(i)]];
+            hits |= outputs[state];
+            if ((hits & stopMask) != 0) {
+                return hits;
+            }
+        }
+        return hits;
+    }
+
+    public long mask(Category category) {
+        return categoryMasks[category.ordinal()];
+    }
+
+    public boolean matches(long hits, Category category) {
+        return (hits & categoryMasks[category.ordinal()]) != 0;
+    }
+
+    /**
+     * 取出命中的某类关键字（仅在命中后用于日志）
+     */
+    public List<String> keywords(long hits, Category category) {
+        long selected = hits & categoryMasks[category.ordinal()];
+        if (selected == 0) {
+            return List.of();
+        }
+        List<String> result = new ArrayList<>(Long.bitCount(selected));
+        while (selected != 0) {
+            int index = Long.numberOfTrailingZeros(selected);
+            result.add(keywords[index]);
+            selected &= selected - 1;
+        }
+        return result;
+    }
+
+    public int getStateCount() {
+        return outputs.length;
+    }
+
+    private static String fold(String word) {
+        char[] chars = word.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] = (char) (chars[i] - 'A' + 'a');
+            }
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return "SecurityScanner{keywords=" + Arrays.toString(keywords) + ", states=" + outputs.length
+                + ", classes=" + classCount + "}";
+    }
+}
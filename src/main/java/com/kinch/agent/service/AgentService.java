@@ -2,16 +2,22 @@ package com.kinch.agent.service;
 
 import com.alibaba.cloud.ai.graph.RunnableConfig;
 import com.alibaba.cloud.ai.graph.agent.ReactAgent;
-import com.kinch.agent.config.AgentConfig;
+import com.kinch.agent.config.AgentRegistry;
 import com.kinch.agent.entity.Conversation;
 import com.kinch.agent.entity.Message;
 import com.kinch.agent.entity.User;
 import com.kinch.agent.repository.ConversationRepository;
 import com.kinch.agent.repository.MessageRepository;
 import com.kinch.agent.repository.UserRepository;
+import com.kinch.agent.ratelimit.ModelPriority;
+import com.kinch.agent.tracing.Span;
+import com.kinch.agent.tracing.Trace;
+import com.kinch.agent.tracing.Tracer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -29,10 +35,15 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class AgentService {
 
-    private final AgentConfig.AgentFactory agentFactory;
+    // 分页查询的最大页大小
+    private static final int MAX_PAGE_SIZE = 200;
+
+    private final AgentRegistry agentRegistry;
     private final ConversationRepository conversationRepository;
     private final MessageRepository messageRepository;
     private final UserRepository userRepository;
+    private final ConversationSummaryService conversationSummaryService;
+    private final Tracer tracer;
 
     /**
      * 对话接口 - 核心方法
@@ -58,20 +69,31 @@ public class AgentService {
         Message userMsg = saveMessage(conversation.getId(), userId, "user", userMessage);
 
         // 4. 构建RunnableConfig - 传入元数据供Hooks使用
-        RunnableConfig config = RunnableConfig.builder()
+        RunnableConfig.Builder configBuilder = RunnableConfig.builder()
                 .threadId(conversation.getThreadId())  // 用于记忆持久化
                 .addMetadata("userId", userId)
                 .addMetadata("username", user.getUsername())
                 .addMetadata("conversationId", conversation.getId())
-                .addMetadata("ipAddress", ipAddress != null ? ipAddress : "")
-                .build();
+                .addMetadata("agentName", "chat_agent")
+                .addMetadata("ipAddress", ipAddress != null ? ipAddress : "");
+        // 追踪随元数据传给Hooks和Interceptors，框架切换线程时也能挂到同一条追踪上
+        Trace trace = tracer.currentTrace();
+        if (trace != null) {
+            trace.tag("userId", userId).tag("conversationId", conversation.getId());
+            configBuilder.addMetadata(Tracer.TRACE_KEY, trace);
+        }
+        RunnableConfig config = configBuilder.build();
 
         try {
-            // 5. 构建并调用ReactAgent
-            ReactAgent agent = agentFactory.createAgent("chat_agent");
+            // 5. 获取（复用）并调用ReactAgent
+            ReactAgent agent = agentRegistry.get("chat_agent");
 
             // 调用Agent（会触发Hooks: onAgentStart -> onToolStart/End -> onAgentEnd）
-            AssistantMessage response = agent.call(userMessage, config);
+            AssistantMessage response;
+            try (Span span = tracer.startSpan("agent.call");
+                 ModelPriority.Scope priority = ModelPriority.INTERACTIVE.enter()) {
+                response = agent.call(userMessage, config);
+            }
 
             // 6. 保存助手消息
             String assistantReply = response.getText();
@@ -85,6 +107,9 @@ public class AgentService {
             // 7. 更新会话统计
             updateConversationStats(conversation);
 
+            // 8. 后台增量更新滚动摘要
+            conversationSummaryService.onTurnCompleted(conversation.getId());
+
             log.info("对话完成 - userId: {}, conversationId: {}", userId, conversation.getId());
             return assistantMsg;
 
@@ -107,71 +132,88 @@ public class AgentService {
      * 获取或创建会话
      */
     private Conversation getOrCreateConversation(Long userId, Long conversationId) {
-        if (conversationId != null) {
-            return conversationRepository.findById(conversationId)
-                    .orElseThrow(() -> new RuntimeException("会话不存在"));
-        }
+        try (Span span = tracer.startSpan("db.conversation")) {
+            if (conversationId != null) {
+                return conversationRepository.findById(conversationId)
+                        .orElseThrow(() -> new RuntimeException("会话不存在"));
+            }
 
-        // 创建新会话
-        Conversation conversation = new Conversation();
-        conversation.setUserId(userId);
-        conversation.setThreadId(UUID.randomUUID().toString());
-        conversation.setTitle("新对话");
-        conversation.setType("chat");
-        conversation.setAgentName("chat_agent");
-        conversation.setStatus("active");
-        
-        return conversationRepository.save(conversation);
+            // 创建新会话
+            Conversation conversation = new Conversation();
+            conversation.setUserId(userId);
+            conversation.setThreadId(UUID.randomUUID().toString());
+            conversation.setTitle("新对话");
+            conversation.setType("chat");
+            conversation.setAgentName("chat_agent");
+            conversation.setStatus("active");
+            
+            return conversationRepository.save(conversation);
+        }
     }
 
     /**
      * 保存消息
      */
     private Message saveMessage(Long conversationId, Long userId, String role, String content) {
-        Message message = new Message();
-        message.setConversationId(conversationId);
-        message.setUserId(userId);
-        message.setRole(role);
-        message.setContent(content);
-        message.setType("text");
-        
-        return messageRepository.save(message);
+        try (Span span = tracer.startSpan("db.saveMessage")) {
+            Message message = new Message();
+            message.setConversationId(conversationId);
+            message.setUserId(userId);
+            message.setRole(role);
+            message.setContent(content);
+            message.setType("text");
+            
+            return messageRepository.save(message);
+        }
     }
 
     /**
      * 更新会话统计
      */
     private void updateConversationStats(Conversation conversation) {
-        conversation.setMessageCount(conversation.getMessageCount() + 2);
-        
-        // 如果是新会话，根据第一条消息生成标题
-        if ("新对话".equals(conversation.getTitle())) {
-            java.util.List<Message> messages = messageRepository
-                    .findByConversationIdOrderByCreateTimeAsc(conversation.getId());
-            if (!messages.isEmpty()) {
-                String firstMessage = messages.get(0).getContent();
-                String title = firstMessage.length() > 20 
-                        ? firstMessage.substring(0, 20) + "..." 
-                        : firstMessage;
-                conversation.setTitle(title);
+        try (Span span = tracer.startSpan("db.updateConversation")) {
+            conversation.setMessageCount(conversation.getMessageCount() + 2);
+            
+            // 如果是新会话，根据第一条消息生成标题
+            if ("新对话".equals(conversation.getTitle())) {
+                java.util.List<Message> messages = messageRepository
+                        .findByConversationIdOrderByCreateTimeAsc(conversation.getId());
+                if (!messages.isEmpty()) {
+                    String firstMessage = messages.get(0).getContent();
+                    String title = firstMessage.length() > 20 
+                            ? firstMessage.substring(0, 20) + "..." 
+                            : firstMessage;
+                    conversation.setTitle(title);
+                }
             }
+            
+            conversationRepository.save(conversation);
         }
-        
-        conversationRepository.save(conversation);
     }
 
     /**
-     * 获取会话历史
+     * 分页获取会话历史（按消息ID游标，afterId为上一页最后一条消息ID，首页传null）
      */
-    public java.util.List<Message> getConversationHistory(Long conversationId) {
-        return messageRepository.findByConversationIdOrderByCreateTimeAsc(conversationId);
+    public Slice<Message> getConversationHistory(Long conversationId, Long userId, Long afterId, int size) {
+        Conversation conversation = conversationRepository.findById(conversationId)
+                .orElseThrow(() -> new RuntimeException("会话不存在"));
+        if (!conversation.getUserId().equals(userId)) {
+            throw new RuntimeException("无权限查看该会话");
+        }
+        return messageRepository.findByConversationIdAndIdGreaterThanOrderByIdAsc(
+                conversationId, afterId != null ? afterId : 0L, PageRequest.of(0, clampPageSize(size)));
     }
 
     /**
-     * 获取用户的所有会话
+     * 分页获取用户的活跃会话
      */
-    public java.util.List<Conversation> getUserConversations(Long userId) {
-        return conversationRepository.findByUserIdAndStatusOrderByUpdateTimeDesc(userId, "active");
+    public Slice<Conversation> getUserConversations(Long userId, int page, int size) {
+        return conversationRepository.findByUserIdAndStatusOrderByUpdateTimeDesc(
+                userId, "active", PageRequest.of(Math.max(page, 0), clampPageSize(size)));
+    }
+
+    private int clampPageSize(int size) {
+        return Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
     }
 
     /**
@@ -188,6 +230,7 @@ public class AgentService {
 
         conversation.setStatus("deleted");
         conversationRepository.save(conversation);
+        conversationSummaryService.evict(conversationId);
     }
 }
 
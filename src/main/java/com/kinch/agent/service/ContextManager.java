@@ -14,7 +14,6 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -32,14 +31,18 @@ public class ContextManager {
 
     private final ConversationRepository conversationRepository;
     private final MessageRepository messageRepository;
+    private final ConversationSummaryService summaryService;
+    private final TokenCounter tokenCounter;
+    private final RetentionService retentionService;
 
-    // 默认上下文窗口大小
-    private static final int DEFAULT_CONTEXT_WINDOW = 10;
     // 最大上下文窗口
     private static final int MAX_CONTEXT_WINDOW = 50;
+    // 摘要消息前缀
+    public static final String SUMMARY_PREFIX = "以下是此前对话的摘要：\n";
 
     /**
      * 获取对话历史上下文
+     * 组成：系统提示 + 滚动摘要（如有）+ 摘要之后的最近N轮对话
      *
      * @param conversationId 对话ID
      * @param windowSize 窗口大小（最近N轮对话）
@@ -49,14 +52,13 @@ public class ContextManager {
         log.info("获取上下文 - 对话ID: {}, 窗口大小: {}", conversationId, windowSize);
 
         int actualWindowSize = windowSize != null ? 
-                Math.min(windowSize, MAX_CONTEXT_WINDOW) : DEFAULT_CONTEXT_WINDOW;
+                Math.min(windowSize, MAX_CONTEXT_WINDOW) : summaryService.getRecentTurns();
 
-        // 获取最近的消息
-        List<Message> messages = messageRepository
-                .findByConversationIdOrderByCreateTimeAsc(conversationId)
-                .stream()
-                .limit(actualWindowSize * 2)  // 一轮对话包含用户和助手两条消息
-                .collect(Collectors.toList());
+        Conversation conversation = conversationRepository.findById(conversationId).orElse(null);
+        Long summarizedMessageId = conversation != null ? conversation.getSummarizedMessageId() : null;
+
+        // 获取摘要之后的最近消息（一轮对话包含用户和助手两条消息）
+        List<Message> messages = summaryService.getRecentMessages(conversationId, summarizedMessageId, actualWindowSize);
 
         // 转换为Spring AI的Message格式
         List<org.springframework.ai.chat.messages.Message> aiMessages = new ArrayList<>();
@@ -64,16 +66,19 @@ public class ContextManager {
         // 添加系统提示
         aiMessages.add(new SystemMessage("你是一个智能AI助手，可以帮助用户完成各种任务。"));
 
+        // 添加滚动摘要，替代更早的原始消息
+        if (conversation != null && conversation.getSummary() != null) {
+            aiMessages.add(new SystemMessage(SUMMARY_PREFIX + conversation.getSummary()));
+        }
+
         // 按时间顺序排列（从旧到新）
-        messages.stream()
-                .sorted(Comparator.comparing(Message::getCreateTime))
-                .forEach(msg -> {
-                    if ("user".equals(msg.getRole())) {
-                        aiMessages.add(new UserMessage(msg.getContent()));
-                    } else if ("assistant".equals(msg.getRole())) {
-                        aiMessages.add(new AssistantMessage(msg.getContent()));
-                    }
-                });
+        messages.forEach(msg -> {
+            if ("user".equals(msg.getRole())) {
+                aiMessages.add(new UserMessage(msg.getContent()));
+            } else if ("assistant".equals(msg.getRole())) {
+                aiMessages.add(new AssistantMessage(msg.getContent()));
+            }
+        });
 
         log.info("上下文消息数量: {}", aiMessages.size());
         return aiMessages;
@@ -88,7 +93,7 @@ public class ContextManager {
         message.setConversationId(conversationId);
         message.setRole(role);
         message.setContent(content);
-        message.setTokenCount(tokenCount != null ? tokenCount : estimateTokens(content));
+        message.setTokenCount(tokenCount != null ? tokenCount : tokenCounter.countTokens(content));
         message.setCreateTime(LocalDateTime.now());
         
         messageRepository.save(message);
@@ -97,32 +102,29 @@ public class ContextManager {
 
     /**
      * 清理旧上下文
-     * 保留最近N条消息，删除更早的消息以控制存储
+     * 保留最近N条消息，按主键范围分块删除更早的消息以控制存储
      */
-    @Transactional
     public int cleanOldContext(Long conversationId, int keepCount) {
         log.info("清理旧上下文 - 对话: {}, 保留数量: {}", conversationId, keepCount);
 
-        List<Message> allMessages = messageRepository
-                .findByConversationIdOrderByCreateTimeAsc(conversationId);
-
-        if (allMessages.size() <= keepCount) {
-            return 0;
-        }
-
-        List<Message> toDelete = allMessages.subList(keepCount, allMessages.size());
-        messageRepository.deleteAll(toDelete);
+        int deleted = retentionService.trimConversation(conversationId, keepCount);
 
-        log.info("已删除{}条旧消息", toDelete.size());
-        return toDelete.size();
+        log.info("已删除{}条旧消息", deleted);
+        return deleted;
     }
 
     /**
      * 获取上下文摘要（用于超长对话）
+     * 优先返回后台维护的滚动摘要，尚未生成时返回统计信息
      */
     public String getContextSummary(Long conversationId) {
         log.info("生成上下文摘要 - 对话: {}", conversationId);
 
+        String summary = summaryService.getSummary(conversationId);
+        if (summary != null) {
+            return summary;
+        }
+
         List<Message> messages = messageRepository
                 .findByConversationIdOrderByCreateTimeAsc(conversationId)
                 .stream()
@@ -169,20 +171,4 @@ public class ContextManager {
             conversationRepository.save(conv);
         });
     }
-
-    /**
-     * 简单的Token估算（1个中文字符约等于2个token，1个英文单词约等于1.3个token）
-     */
-    private int estimateTokens(String text) {
-        if (text == null || text.isEmpty()) {
-            return 0;
-        }
-        
-        int chineseCount = text.replaceAll("[^\u4e00-\u9fa5]", "").length();
-        int englishWordCount = text.split("\\s+").length;
-        
-        return (int) (chineseCount * 2 + englishWordCount * 1.3);
-    }
 }
-
-
@@ -0,0 +1,167 @@
+package com.kinch.agent.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kinch.agent.entity.Conversation;
+import com.kinch.agent.entity.Message;
+import com.kinch.agent.repository.ConversationRepository;
+import com.kinch.agent.repository.MessageRepository;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * 会话导出服务 - 以NDJSON（每行一个JSON）流式导出会话和消息
+ * 消息通过JPA Stream逐行读取，写出后立即从持久化上下文中分离，
+ * 会话按ID游标分批读取，因此导出过程的内存占用与会话数、消息数无关
+ *
+ * @author kinch
+ * @date 2026-01-08
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConversationExportService {
+
+    private final ConversationRepository conversationRepository;
+    private final MessageRepository messageRepository;
+    private final ObjectMapper objectMapper;
+    private final EntityManager entityManager;
+
+    /**
+     * 每批读取的会话数
+     */
+    @Value("${agent.export.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * 每写出多少行刷新一次输出流
+     */
+    @Value("${agent.export.flush-lines:500}")
+    private int flushLines;
+
+    /**
+     * 导出前校验会话存在且属于该用户
+     * 必须在开始写响应之前调用：流式响应一旦开始，状态码和响应头就已提交
+     *
+     * @throws NoSuchElementException 会话不存在
+     * @throws SecurityException      会话不属于该用户
+     */
+    @Transactional(readOnly = true)
+    public Conversation checkExportable(Long conversationId, Long userId) {
+        Conversation conversation = conversationRepository.findById(conversationId)
+                .orElseThrow(() -> new NoSuchElementException("会话不存在"));
+        if (!conversation.getUserId().equals(userId)) {
+            throw new SecurityException("无权限导出该会话");
+        }
+        return conversation;
+    }
+
+    /**
+     * 导出单个会话：第一行为会话，之后每行一条消息
+     * 会话需先经{@link #checkExportable}校验
+     *
+     * @return 写出的消息数
+     */
+    @Transactional(readOnly = true)
+    public long exportConversation(Conversation conversation, OutputStream out) throws IOException {
+        long startTime = System.currentTimeMillis();
+        try (JsonGenerator generator = createGenerator(out)) {
+            long count = writeConversation(generator, conversation);
+            log.info("📤 会话导出完成 - conversationId: {}, 消息数: {}, 耗时: {}ms",
+                    conversation.getId(), count, System.currentTimeMillis() - startTime);
+            return count;
+        }
+    }
+
+    /**
+     * 导出用户的全部活跃会话
+     *
+     * @return 写出的消息数
+     */
+    @Transactional(readOnly = true)
+    public long exportUserConversations(Long userId, OutputStream out) throws IOException {
+        long startTime = System.currentTimeMillis();
+        long conversations = 0;
+        long messages = 0;
+
+        try (JsonGenerator generator = createGenerator(out)) {
+            Long lastId = 0L;
+            while (true) {
+                List<Conversation> batch = conversationRepository.findByUserIdAndStatusAndIdGreaterThanOrderByIdAsc(
+                        userId, "active", lastId, PageRequest.of(0, batchSize));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (Conversation conversation : batch) {
+                    messages += writeConversation(generator, conversation);
+                    conversations++;
+                }
+                lastId = batch.get(batch.size() - 1).getId();
+                // 释放本批会话实体
+                entityManager.clear();
+                if (batch.size() < batchSize) {
+                    break;
+                }
+            }
+        }
+
+        log.info("📤 用户会话导出完成 - userId: {}, 会话数: {}, 消息数: {}, 耗时: {}ms",
+                userId, conversations, messages, System.currentTimeMillis() - startTime);
+        return messages;
+    }
+
+    /**
+     * 写出一个会话及其全部消息
+     */
+    private long writeConversation(JsonGenerator generator, Conversation conversation) throws IOException {
+        writeLine(generator, "conversation", conversation);
+
+        long count = 0;
+        try (Stream<Message> stream = messageRepository.streamByConversationId(conversation.getId())) {
+            Iterator<Message> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                Message message = iterator.next();
+                writeLine(generator, "message", message);
+                entityManager.detach(message);
+                if (++count % flushLines == 0) {
+                    generator.flush();
+                }
+            }
+        }
+        generator.flush();
+        return count;
+    }
+
+    private void writeLine(JsonGenerator generator, String type, Object data) throws IOException {
+        Map<String, Object> line = new LinkedHashMap<>(2);
+        line.put("type", type);
+        line.put("data", data);
+        generator.writeObject(line);
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * 创建不关闭底层输出流的生成器（输出流由Servlet容器管理）
+     */
+    private JsonGenerator createGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // 行之间由writeLine写换行，去掉默认的空格分隔
+        generator.setRootValueSeparator(null);
+        return generator;
+    }
+}
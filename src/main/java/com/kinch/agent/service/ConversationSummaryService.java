@@ -0,0 +1,260 @@
+package com.kinch.agent.service;
+
+import com.kinch.agent.entity.Conversation;
+import com.kinch.agent.entity.Message;
+import com.kinch.agent.metrics.AgentMetrics;
+import com.kinch.agent.repository.ConversationRepository;
+import com.kinch.agent.repository.MessageRepository;
+import com.kinch.agent.ratelimit.ModelPriority;
+import com.kinch.agent.tracing.Span;
+import com.kinch.agent.tracing.Tracer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话滚动摘要服务
+ * 每累计K轮对话，在低优先级后台线程中把"旧摘要 + 新增消息"增量压缩为新摘要，
+ * 构建上下文时只发送"摘要 + 最近N轮"，使每次调用的Prompt Token保持平稳
+ *
+ * @author kinch
+ * @date 2026-01-05
+ */
+@Slf4j
+@Service
+public class ConversationSummaryService {
+
+    private final ConversationRepository conversationRepository;
+    private final MessageRepository messageRepository;
+    private final ChatClient chatClient;
+    private final AgentMetrics metrics;
+    private final Tracer tracer;
+
+    /**
+     * 每累计多少轮未摘要的对话触发一次增量摘要
+     */
+    @Value("${agent.context.summary-interval:5}")
+    private int summaryInterval;
+
+    /**
+     * 上下文中保留的最近对话轮数（不参与摘要）
+     */
+    @Value("${agent.context.recent-turns:4}")
+    private int recentTurns;
+
+    /**
+     * 摘要最大字数
+     */
+    @Value("${agent.context.summary-max-chars:800}")
+    private int summaryMaxChars;
+
+    // 最多缓存的会话摘要数
+    private static final int MAX_CACHED_SUMMARIES = 1000;
+
+    // 单线程、低优先级的摘要执行器，避免与前台请求争抢资源
+    private final ExecutorService summaryExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "conversation-summarizer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // 正在摘要中的会话，防止同一会话重复排队
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    // 摘要缓存（LRU），供上下文构建和消息修剪时读取，避免每次调用都查库
+    private final Map<Long, String> summaryCache = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                    return size() > MAX_CACHED_SUMMARIES;
+                }
+            });
+
+    public ConversationSummaryService(ConversationRepository conversationRepository,
+                                      MessageRepository messageRepository,
+                                      ChatClient.Builder chatClientBuilder,
+                                      AgentMetrics metrics,
+                                      Tracer tracer) {
+        this.conversationRepository = conversationRepository;
+        this.messageRepository = messageRepository;
+        this.chatClient = chatClientBuilder.build();
+        this.metrics = metrics;
+        this.tracer = tracer;
+    }
+
+    /**
+     * 一轮对话完成后调用，按需异步触发增量摘要
+     * 在事务中调用时延迟到提交之后，保证后台线程能读到本轮消息
+     */
+    public void onTurnCompleted(Long conversationId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submitSummary(conversationId);
+                }
+            });
+        } else {
+            submitSummary(conversationId);
+        }
+    }
+
+    private void submitSummary(Long conversationId) {
+        if (conversationId == null || !inFlight.add(conversationId)) {
+            return;
+        }
+        try {
+            // 摘要在请求结束后才运行，发起请求的根区间此时已结束：开始一条关联到它的新追踪
+            String linkedTraceId = tracer.currentTraceId();
+            summaryExecutor.execute(tracer.wrap(() -> {
+                // 后台摘要按批处理优先级调用模型，过载时最先让路
+                try (Span span = tracer.startLinkedTrace("summary.update", linkedTraceId);
+                     ModelPriority.Scope priority = ModelPriority.BATCH.enter()) {
+                    summarizeIfNeeded(conversationId);
+                } catch (Exception e) {
+                    log.error("增量摘要失败 - 对话: {}", conversationId, e);
+                } finally {
+                    inFlight.remove(conversationId);
+                }
+            }));
+        } catch (Exception e) {
+            inFlight.remove(conversationId);
+            log.warn("摘要任务提交失败 - 对话: {}, 原因: {}", conversationId, e.getMessage());
+        }
+    }
+
+    /**
+     * 获取会话的滚动摘要（无摘要返回null）
+     */
+    public String getSummary(Long conversationId) {
+        if (conversationId == null) {
+            return null;
+        }
+        String cached = summaryCache.get(conversationId);
+        metrics.recordCacheGet("conversationSummary", cached != null);
+        if (cached != null) {
+            return cached.isEmpty() ? null : cached;
+        }
+        String summary = conversationRepository.findById(conversationId)
+                .map(Conversation::getSummary)
+                .orElse(null);
+        summaryCache.put(conversationId, summary != null ? summary : "");
+        return summary;
+    }
+
+    /**
+     * 上下文中保留的最近对话轮数
+     */
+    public int getRecentTurns() {
+        return recentTurns;
+    }
+
+    /**
+     * 获取摘要之后的最近N轮消息（按时间正序）
+     */
+    public List<Message> getRecentMessages(Long conversationId, Long summarizedMessageId, int turns) {
+        List<Message> recent = new ArrayList<>(messageRepository
+                .findByConversationIdOrderByIdDesc(conversationId, PageRequest.of(0, turns * 2)));
+        if (summarizedMessageId != null) {
+            recent.removeIf(m -> m.getId() <= summarizedMessageId);
+        }
+        Collections.reverse(recent);
+        return recent;
+    }
+
+    /**
+     * 清除会话摘要缓存
+     */
+    public void evict(Long conversationId) {
+        summaryCache.remove(conversationId);
+    }
+
+    /**
+     * 增量摘要：只把"上次摘要之后、最近N轮之前"的消息折叠进摘要
+     */
+    private void summarizeIfNeeded(Long conversationId) {
+        Optional<Conversation> conversationOpt = conversationRepository.findById(conversationId);
+        if (conversationOpt.isEmpty()) {
+            return;
+        }
+        Conversation conversation = conversationOpt.get();
+        Long watermark = conversation.getSummarizedMessageId() != null ? conversation.getSummarizedMessageId() : 0L;
+
+        List<Message> unsummarized = messageRepository
+                .findByConversationIdAndIdGreaterThanOrderByIdAsc(conversationId, watermark);
+
+        int keep = recentTurns * 2;
+        int foldCount = unsummarized.size() - keep;
+        if (foldCount < summaryInterval * 2) {
+            log.debug("未达到摘要阈值 - 对话: {}, 待摘要: {}", conversationId, Math.max(foldCount, 0));
+            return;
+        }
+
+        List<Message> toFold = unsummarized.subList(0, foldCount);
+        long startTime = System.currentTimeMillis();
+        String newSummary = foldIntoSummary(conversation.getSummary(), toFold);
+        Long newWatermark = toFold.get(toFold.size() - 1).getId();
+
+        conversationRepository.updateSummary(conversationId, newSummary, newWatermark);
+        summaryCache.put(conversationId, newSummary);
+
+        log.info("📝 增量摘要完成 - 对话: {}, 折叠消息: {}, 耗时: {}ms",
+                conversationId, toFold.size(), System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * 调用模型把新增消息合并进已有摘要
+     */
+    private String foldIntoSummary(String previousSummary, List<Message> messages) {
+        StringBuilder dialogue = new StringBuilder();
+        for (Message msg : messages) {
+            dialogue.append("user".equals(msg.getRole()) ? "用户" : "助手")
+                    .append("：")
+                    .append(msg.getContent())
+                    .append("\n");
+        }
+
+        String prompt = String.format("""
+                你负责维护一段对话的滚动摘要。请把"新增对话"中的关键信息合并进"已有摘要"，
+                保留用户的目标、约束、已确认的结论和未解决的问题，去掉寒暄与重复内容。
+                只输出更新后的摘要，不超过%d字。
+
+                已有摘要：
+                %s
+
+                新增对话：
+                %s
+                """, summaryMaxChars, previousSummary != null ? previousSummary : "（无）", dialogue);
+
+        String summary = chatClient.prompt()
+                .user(prompt)
+                .call()
+                .content();
+        return summary != null ? summary.trim() : previousSummary;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        summaryExecutor.shutdown();
+        try {
+            if (!summaryExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                summaryExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            summaryExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,7 +2,7 @@ package com.kinch.agent.service;
 
 import com.alibaba.cloud.ai.graph.RunnableConfig;
 import com.alibaba.cloud.ai.graph.agent.ReactAgent;
-import com.kinch.agent.config.AgentConfig;
+import com.kinch.agent.config.AgentRegistry;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -25,7 +25,7 @@ import java.util.concurrent.ConcurrentHashMap;
 @RequiredArgsConstructor
 public class HumanInLoopService {
 
-    private final AgentConfig.AgentFactory agentFactory;
+    private final AgentRegistry agentRegistry;
     
     // 存储待审批的工作流
     private final Map<String, PendingWorkflow> pendingWorkflows = new ConcurrentHashMap<>();
@@ -43,7 +43,7 @@ public class HumanInLoopService {
 
         try {
             // 1. Agent生成初步方案
-            ReactAgent agent = agentFactory.createAgent("proposal_agent");
+            ReactAgent agent = agentRegistry.get("proposal_agent");
             RunnableConfig config = RunnableConfig.builder().build();
 
             String proposalPrompt = String.format("""
@@ -110,7 +110,7 @@ public class HumanInLoopService {
 
             try {
                 // 执行方案
-                ReactAgent agent = agentFactory.createAgent("execution_agent");
+                ReactAgent agent = agentRegistry.get("execution_agent");
                 RunnableConfig config = RunnableConfig.builder().build();
 
                 String executionPrompt = String.format("""
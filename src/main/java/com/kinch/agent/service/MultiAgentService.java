@@ -2,7 +2,9 @@ package com.kinch.agent.service;
 
 import com.alibaba.cloud.ai.graph.RunnableConfig;
 import com.alibaba.cloud.ai.graph.agent.ReactAgent;
-import com.kinch.agent.config.AgentConfig;
+import com.kinch.agent.config.AgentRegistry;
+import com.kinch.agent.ratelimit.Deadline;
+import com.kinch.agent.ratelimit.ModelPriority;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -28,7 +30,7 @@ import java.util.concurrent.Executors;
 @RequiredArgsConstructor
 public class MultiAgentService {
 
-    private final AgentConfig.AgentFactory agentFactory;
+    private final AgentRegistry agentRegistry;
     private final ExecutorService executorService = Executors.newFixedThreadPool(5);
 
     /**
@@ -44,7 +46,7 @@ public class MultiAgentService {
 
         try {
             // 1. 监督者分析任务
-            ReactAgent supervisor = agentFactory.createAgent("supervisor");
+            ReactAgent supervisor = agentRegistry.get("supervisor");
             RunnableConfig config = RunnableConfig.builder().build();
 
             String analyzePrompt = String.format("""
@@ -67,7 +69,7 @@ public class MultiAgentService {
             // 3. 并行执行专家任务
             List<ExpertResult> expertResults = new ArrayList<>();
             for (ExpertTask expertTask : expertTasks) {
-                ReactAgent expert = agentFactory.createAgent(expertTask.getExpertName());
+                ReactAgent expert = agentRegistry.get(expertTask.getExpertName());
                 Message expertResponse = expert.call(new UserMessage(expertTask.getTask()), config);
                 
                 ExpertResult expertResult = new ExpertResult(
@@ -118,7 +120,9 @@ public class MultiAgentService {
         result.put("pattern", "parallel");
 
         try {
-            // 并行执行任务
+            // 并行执行任务：请求线程上的截止时间和优先级带到执行线程上，到期时进行中的模型调用同样被取消
+            Deadline deadline = Deadline.current();
+            ModelPriority priority = ModelPriority.current();
             List<CompletableFuture<TaskResult>> futures = new ArrayList<>();
 
             for (int i = 0; i < tasks.size(); i++) {
@@ -126,9 +130,10 @@ public class MultiAgentService {
                 final String task = tasks.get(i);
 
                 CompletableFuture<TaskResult> future = CompletableFuture.supplyAsync(() -> {
-                    try {
+                    try (Deadline.Scope d = deadline != null ? deadline.enter() : null;
+                         ModelPriority.Scope p = priority != null ? priority.enter() : null) {
                         String agentName = "agent_" + taskIndex;
-                        ReactAgent agent = agentFactory.createAgent(agentName);
+                        ReactAgent agent = agentRegistry.get(agentName);
                         RunnableConfig config = RunnableConfig.builder().build();
 
                         long startTime = System.currentTimeMillis();
@@ -198,7 +203,7 @@ public class MultiAgentService {
             List<CommunicationStep> steps = new ArrayList<>();
 
             // Agent A处理初始消息
-            ReactAgent agentA = agentFactory.createAgent("agent_a");
+            ReactAgent agentA = agentRegistry.get("agent_a");
             RunnableConfig config = RunnableConfig.builder().build();
 
             Message responseA = agentA.call(new UserMessage(initialMessage), config);
@@ -210,7 +215,7 @@ public class MultiAgentService {
             ));
 
             // Agent B基于A的输出继续处理
-            ReactAgent agentB = agentFactory.createAgent("agent_b");
+            ReactAgent agentB = agentRegistry.get("agent_b");
             String messageToB = "基于以下分析，请提供实施建议：\n\n" + responseA.getText();
             
             Message responseB = agentB.call(new UserMessage(messageToB), config);
@@ -222,7 +227,7 @@ public class MultiAgentService {
             ));
 
             // Agent C进行最终总结
-            ReactAgent agentC = agentFactory.createAgent("agent_c");
+            ReactAgent agentC = agentRegistry.get("agent_c");
             String messageToC = "请对以下内容进行总结：\n\n" + responseB.getText();
             
             Message responseC = agentC.call(new UserMessage(messageToC), config);
@@ -2,6 +2,7 @@ package com.kinch.agent.service;
 
 import com.google.gson.Gson;
 import com.kinch.agent.entity.PromptTemplate;
+import com.kinch.agent.metrics.AgentMetrics;
 import com.kinch.agent.repository.PromptTemplateRepository;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
@@ -43,6 +44,7 @@ public class PromptManagementServiceV2 {
     private final PromptTemplateRepository repository;
     private final RedisTemplate<String, String> redisTemplate;
     private final Gson gson;
+    private final AgentMetrics metrics;
     
     private static final String CACHE_PREFIX = "prompt:";
     private static final long CACHE_TTL = 3600; // 1小时
@@ -289,6 +291,7 @@ public class PromptManagementServiceV2 {
         // 1. 先查Redis缓存
         String cacheKey = CACHE_PREFIX + name;
         String cached = redisTemplate.opsForValue().get(cacheKey);
+        metrics.recordCacheGet("promptTemplate", cached != null);
         if (cached != null) {
             log.info("从Redis缓存命中: {}", name);
             return Optional.of(gson.fromJson(cached, PromptTemplate.class));
@@ -403,6 +406,19 @@ public class PromptManagementServiceV2 {
         return repository.findTop10ByStatusOrderByUsageCountDesc("active");
     }
 
+    /**
+     * 启动预热：把热门模板写入Redis缓存，不计入缓存命中统计
+     *
+     * @return 预热的模板数
+     */
+    public int preloadPopularTemplates() {
+        List<PromptTemplate> templates = repository.findTop10ByStatusOrderByUsageCountDesc("active");
+        for (PromptTemplate template : templates) {
+            redisTemplate.opsForValue().set(CACHE_PREFIX + template.getName(), gson.toJson(template), CACHE_TTL, TimeUnit.SECONDS);
+        }
+        return templates.size();
+    }
+
     /**
      * 删除模板（软删除）
      */
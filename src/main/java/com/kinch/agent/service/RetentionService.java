@@ -0,0 +1,269 @@
+package com.kinch.agent.service;
+
+import com.kinch.agent.repository.ConversationRepository;
+import com.kinch.agent.repository.MessageRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * 数据保留服务 - 定时清理消息和会话
+ * 三类策略：
+ * <ul>
+ *   <li>按时间：删除早于N天的消息</li>
+ *   <li>按条数：每个会话只保留最近N条消息</li>
+ *   <li>软删除：物理删除超过宽限期的已删除会话及其消息</li>
+ *   <li>用量汇总：删除超过保留期的分钟/小时级Token用量汇总</li>
+ * </ul>
+ * 所有删除都是按主键范围的分块DELETE，每块一个短事务，并按rows/sec限速，避免长时间锁表影响在线请求
+ *
+ * @author kinch
+ * @date 2026-01-08
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RetentionService {
+
+    private final MessageRepository messageRepository;
+    private final ConversationRepository conversationRepository;
+    private final ConversationSummaryService conversationSummaryService;
+    private final TokenUsageRollupService tokenUsageRollupService;
+
+    @Value("${agent.retention.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 消息最长保留天数（0表示不按时间清理）
+     */
+    @Value("${agent.retention.message-max-age-days:0}")
+    private int messageMaxAgeDays;
+
+    /**
+     * 每个会话保留的最近消息数（0表示不按条数清理）
+     */
+    @Value("${agent.retention.keep-per-conversation:0}")
+    private int keepPerConversation;
+
+    /**
+     * 软删除会话的宽限天数，之后物理删除（0表示不物理删除，需显式开启）
+     */
+    @Value("${agent.retention.deleted-grace-days:0}")
+    private int deletedGraceDays;
+
+    /**
+     * 每块删除的行数
+     */
+    @Value("${agent.retention.chunk-size:1000}")
+    private int chunkSize;
+
+    /**
+     * 删除限速（行/秒，0表示不限速）
+     */
+    @Value("${agent.retention.max-rows-per-second:5000}")
+    private int maxRowsPerSecond;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong totalRuns = new AtomicLong(0);
+    private final AtomicLong expiredMessagesDeleted = new AtomicLong(0);
+    private final AtomicLong trimmedMessagesDeleted = new AtomicLong(0);
+    private final AtomicLong purgedConversations = new AtomicLong(0);
+    private final AtomicLong purgedMessagesDeleted = new AtomicLong(0);
+    private final AtomicLong rollupRowsDeleted = new AtomicLong(0);
+    private volatile LocalDateTime lastRunTime;
+    private volatile long lastRunDurationMs;
+
+    // 限速：下一块允许开始的时间（纳秒）
+    private long nextAllowedNanos;
+
+    /**
+     * 定时执行全部保留策略
+     */
+    @Scheduled(cron = "${agent.retention.cron:0 30 3 * * ?}")
+    public void runScheduled() {
+        if (enabled) {
+            runAll();
+        }
+    }
+
+    /**
+     * 执行全部保留策略（同一时间只允许一个清理任务）
+     */
+    public boolean runAll() {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("数据清理任务正在执行，跳过本次");
+            return false;
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            nextAllowedNanos = System.nanoTime();
+            long expired = messageMaxAgeDays > 0 ? purgeExpiredMessages() : 0;
+            long trimmed = keepPerConversation > 0 ? trimAllConversations() : 0;
+            long purged = deletedGraceDays > 0 ? purgeDeletedConversations() : 0;
+            long rollups = purgeExpiredRollups();
+
+            totalRuns.incrementAndGet();
+            lastRunTime = LocalDateTime.now();
+            lastRunDurationMs = System.currentTimeMillis() - startTime;
+            log.info("🧹 数据清理完成 - 过期消息: {}, 超量消息: {}, 软删除会话: {}, 过期汇总: {}, 耗时: {}ms",
+                    expired, trimmed, purged, rollups, lastRunDurationMs);
+            return true;
+        } catch (Exception e) {
+            log.error("数据清理失败", e);
+            return false;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 只保留会话最近keepCount条消息，返回删除条数
+     */
+    public int trimConversation(Long conversationId, int keepCount) {
+        Long boundaryId = messageRepository.findIdByRecency(conversationId, Math.max(keepCount, 0));
+        if (boundaryId == null) {
+            return 0;
+        }
+        int deleted = (int) deleteInChunks(() ->
+                messageRepository.deleteChunkByConversationUpToId(conversationId, boundaryId, chunkSize));
+        trimmedMessagesDeleted.addAndGet(deleted);
+        return deleted;
+    }
+
+    /**
+     * 删除早于保留期的消息
+     */
+    private long purgeExpiredMessages() {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(messageMaxAgeDays);
+        Long maxId = messageRepository.findMaxIdBefore(cutoff);
+        if (maxId == null) {
+            return 0;
+        }
+        long deleted = deleteInChunks(() -> messageRepository.deleteChunkUpToId(maxId, chunkSize));
+        expiredMessagesDeleted.addAndGet(deleted);
+        return deleted;
+    }
+
+    /**
+     * 对所有超出保留条数的会话做修剪
+     */
+    private long trimAllConversations() {
+        long deleted = 0;
+        Long afterId = 0L;
+        while (true) {
+            List<Long> ids = messageRepository.findConversationIdsExceeding(afterId, keepPerConversation, chunkSize);
+            for (Long conversationId : ids) {
+                deleted += trimConversation(conversationId, keepPerConversation);
+            }
+            if (ids.size() < chunkSize) {
+                return deleted;
+            }
+            afterId = ids.get(ids.size() - 1);
+        }
+    }
+
+    /**
+     * 物理删除超过宽限期的软删除会话
+     */
+    private long purgeDeletedConversations() {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(deletedGraceDays);
+        long purged = 0;
+        Long afterId = 0L;
+        while (true) {
+            List<Long> ids = conversationRepository.findDeletedIdsBefore(cutoff, afterId, chunkSize);
+            for (Long conversationId : ids) {
+                long messages = deleteInChunks(() ->
+                        messageRepository.deleteChunkByConversation(conversationId, chunkSize));
+                purgedMessagesDeleted.addAndGet(messages);
+                int removed = conversationRepository.purgeDeleted(conversationId);
+                purgedConversations.addAndGet(removed);
+                purged += removed;
+                conversationSummaryService.evict(conversationId);
+            }
+            if (ids.size() < chunkSize) {
+                return purged;
+            }
+            afterId = ids.get(ids.size() - 1);
+        }
+    }
+
+    /**
+     * 删除过期的分钟/小时级用量汇总（天级汇总长期保留）
+     */
+    private long purgeExpiredRollups() {
+        long deleted = 0;
+        for (TokenUsageRollupService.Granularity granularity : TokenUsageRollupService.Granularity.values()) {
+            deleted += deleteInChunks(() -> tokenUsageRollupService.deleteExpiredChunk(granularity, chunkSize));
+        }
+        rollupRowsDeleted.addAndGet(deleted);
+        return deleted;
+    }
+
+    /**
+     * 循环执行分块删除直到删完，每块之后按限速等待
+     * （按会话删除时大多以不满一块结束，不满的块也要计入限速，否则逐会话删除等于不限速）
+     */
+    private long deleteInChunks(IntSupplier deleteChunk) {
+        long total = 0;
+        while (true) {
+            int deleted = deleteChunk.getAsInt();
+            total += deleted;
+            if (deleted > 0) {
+                throttle(deleted);
+            }
+            if (deleted < chunkSize) {
+                return total;
+            }
+        }
+    }
+
+    private synchronized void throttle(int rows) {
+        if (maxRowsPerSecond <= 0) {
+            return;
+        }
+        nextAllowedNanos = Math.max(nextAllowedNanos, System.nanoTime() - TimeUnit.SECONDS.toNanos(1))
+                + TimeUnit.SECONDS.toNanos(rows) / maxRowsPerSecond;
+        long waitNanos = nextAllowedNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("数据清理被中断", e);
+            }
+        }
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("running", running.get());
+        stats.put("totalRuns", totalRuns.get());
+        stats.put("lastRunTime", lastRunTime);
+        stats.put("lastRunDurationMs", lastRunDurationMs);
+        stats.put("expiredMessagesDeleted", expiredMessagesDeleted.get());
+        stats.put("trimmedMessagesDeleted", trimmedMessagesDeleted.get());
+        stats.put("purgedConversations", purgedConversations.get());
+        stats.put("purgedMessagesDeleted", purgedMessagesDeleted.get());
+        stats.put("rollupRowsDeleted", rollupRowsDeleted.get());
+        stats.put("messageMaxAgeDays", messageMaxAgeDays);
+        stats.put("keepPerConversation", keepPerConversation);
+        stats.put("deletedGraceDays", deletedGraceDays);
+        stats.put("maxRowsPerSecond", maxRowsPerSecond);
+        return stats;
+    }
+}
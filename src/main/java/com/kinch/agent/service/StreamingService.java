@@ -1,5 +1,7 @@
 package com.kinch.agent.service;
 
+import com.kinch.agent.metrics.AgentMetrics;
+import com.kinch.agent.security.PiiRedactor;
 import com.kinch.agent.tool.WeatherTool;
 import com.kinch.agent.tool.NamingTool;
 import com.kinch.agent.tool.ScriptGenerationTool;
@@ -14,6 +16,8 @@ import reactor.core.publisher.Flux;
 /**
  * 流式响应服务
  * 实现SSE (Server-Sent Events) 流式输出
+ * 输出片段经PiiRedactor流式脱敏，跨片段的手机号、邮箱等也能识别；
+ * 活跃流数和结束原因记录到AgentMetrics
  *
  * @author kinch
  * @date 2025-12-29
@@ -27,6 +31,8 @@ public class StreamingService {
     private final WeatherTool weatherTool;
     private final NamingTool namingTool;
     private final ScriptGenerationTool scriptGenerationTool;
+    private final PiiRedactor piiRedactor;
+    private final AgentMetrics metrics;
 
     /**
      * 流式聊天 - 带工具支持
@@ -55,10 +61,10 @@ public class StreamingService {
                 .defaultTools(weatherCallback, namingCallback, scriptCallback)
                 .build();
 
-        return chatClient.prompt()
+        return metrics.trackStream("chat", piiRedactor.redact(chatClient.prompt()
                 .user(message)
                 .stream()
-                .content();
+                .content()));
     }
 
     /**
@@ -74,10 +80,10 @@ public class StreamingService {
 
         ChatClient chatClient = chatClientBuilder.build();
 
-        return chatClient.prompt()
+        return metrics.trackStream("code", piiRedactor.redact(chatClient.prompt()
                 .user(prompt)
                 .stream()
-                .content();
+                .content()));
     }
 
     /**
@@ -98,10 +104,10 @@ public class StreamingService {
 
         ChatClient chatClient = chatClientBuilder.build();
 
-        return chatClient.prompt()
+        return metrics.trackStream("analysis", piiRedactor.redact(chatClient.prompt()
                 .user(prompt)
                 .stream()
-                .content();
+                .content()));
     }
 
     /**
@@ -117,10 +123,10 @@ public class StreamingService {
 
         ChatClient chatClient = chatClientBuilder.build();
 
-        return chatClient.prompt()
+        return metrics.trackStream("translate", piiRedactor.redact(chatClient.prompt()
                 .user(prompt)
                 .stream()
-                .content();
+                .content()));
     }
 }
 
@@ -0,0 +1,157 @@
+package com.kinch.agent.service;
+
+import com.kinch.agent.tokenizer.ApproximateTokenizer;
+import com.kinch.agent.tokenizer.BpeTokenizer;
+import com.kinch.agent.tokenizer.Tokenizer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token计数服务 - 所有需要Token数的组件共用
+ * 支持两种模式：
+ * <ul>
+ *   <li>bpe：加载本地BPE词表（tiktoken格式），结果与模型计费基本一致</li>
+ *   <li>approximate：按字符类别快速估算，不需要词表</li>
+ * </ul>
+ * auto模式下配置了词表则使用bpe，否则退化为approximate。
+ * 按消息计数的结果缓存在消息的metadata中，同一消息实例不会重复计算
+ *
+ * @author kinch
+ * @date 2026-01-06
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TokenCounter {
+
+    /**
+     * 消息metadata中缓存Token数的键
+     */
+    public static final String TOKEN_COUNT_KEY = "__token_count__";
+
+    // 每条消息的固定开销（角色标记、分隔符等）
+    private static final int MESSAGE_OVERHEAD = 4;
+
+    private final ResourceLoader resourceLoader;
+
+    /**
+     * 分词模式：auto / bpe / approximate
+     */
+    @Value("${agent.tokenizer.mode:auto}")
+    private String mode;
+
+    /**
+     * BPE词表路径（支持classpath:和file:前缀）
+     */
+    @Value("${agent.tokenizer.vocab-path:}")
+    private String vocabPath;
+
+    private volatile Tokenizer tokenizer = ApproximateTokenizer.INSTANCE;
+
+    @PostConstruct
+    public void init() {
+        if ("approximate".equalsIgnoreCase(mode) || vocabPath == null || vocabPath.isBlank()) {
+            if ("bpe".equalsIgnoreCase(mode)) {
+                log.warn("⚠️ 未配置BPE词表(agent.tokenizer.vocab-path)，使用近似分词");
+            }
+            log.info("📐 Token计数模式: {}", tokenizer.getName());
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        Resource resource = resourceLoader.getResource(vocabPath);
+        try (InputStream in = resource.getInputStream()) {
+            BpeTokenizer bpe = BpeTokenizer.load(in);
+            tokenizer = bpe;
+            log.info("📐 Token计数模式: bpe, 词表: {}, 词条数: {}, 加载耗时: {}ms",
+                    vocabPath, bpe.getVocabSize(), System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("加载BPE词表失败，使用近似分词 - 路径: {}", vocabPath, e);
+        }
+    }
+
+    /**
+     * 当前分词器名称
+     */
+    public String getTokenizerName() {
+        return tokenizer.getName();
+    }
+
+    /**
+     * 计算单条消息的Token数（带缓存）
+     */
+    public int count(Message message) {
+        if (message == null) {
+            return 0;
+        }
+        Map<String, Object> metadata = message.getMetadata();
+        Object cached = metadata.get(TOKEN_COUNT_KEY);
+        if (cached instanceof Integer tokens) {
+            return tokens;
+        }
+
+        int tokens = MESSAGE_OVERHEAD + countTokens(message.getText());
+        if (message instanceof AssistantMessage assistant && assistant.hasToolCalls()) {
+            for (AssistantMessage.ToolCall toolCall : assistant.getToolCalls()) {
+                tokens += countTokens(toolCall.name()) + countTokens(toolCall.arguments());
+            }
+        } else if (message instanceof ToolResponseMessage toolResponse) {
+            for (ToolResponseMessage.ToolResponse response : toolResponse.getResponses()) {
+                tokens += countTokens(response.name()) + countTokens(response.responseData());
+            }
+        }
+
+        try {
+            metadata.put(TOKEN_COUNT_KEY, tokens);
+        } catch (UnsupportedOperationException e) {
+            log.debug("消息metadata不可写，跳过Token缓存");
+        }
+        return tokens;
+    }
+
+    /**
+     * 计算消息列表的Token总数
+     */
+    public int count(List<? extends Message> messages) {
+        if (messages == null) {
+            return 0;
+        }
+        int total = 0;
+        for (Message message : messages) {
+            total += count(message);
+        }
+        return total;
+    }
+
+    /**
+     * 使用当前分词器计算文本Token数
+     */
+    public int countTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return tokenizer.countTokens(text);
+    }
+
+    /**
+     * 快速近似估算文本Token数（不依赖词表）
+     */
+    public int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return ApproximateTokenizer.INSTANCE.countTokens(text);
+    }
+}
@@ -0,0 +1,341 @@
+package com.kinch.agent.service;
+
+import com.kinch.agent.entity.User;
+import com.kinch.agent.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token配额账本 - 在内存中维护每个用户的配额余额
+ * <ul>
+ *   <li>预留：模型调用前按估算量CAS占用额度，额度不足直接拒绝</li>
+ *   <li>结算：调用后按实际用量结算并释放预留，差额记入待刷盘计数</li>
+ *   <li>刷盘：定时以 token_used = token_used + delta 原子增量写回t_user，并重新读取配额对账</li>
+ * </ul>
+ * 账户首次访问时从数据库加载一次，之后的检查、预留、结算都不访问数据库。
+ * 未结算的预留超过TTL后自动释放，避免调用异常导致额度泄漏
+ *
+ * @author kinch
+ * @date 2026-01-09
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TokenQuotaLedger {
+
+    private final UserRepository userRepository;
+
+    /**
+     * 未结算预留的过期时间（毫秒）
+     */
+    @Value("${agent.quota.reservation-ttl-ms:300000}")
+    private long reservationTtlMs;
+
+    /**
+     * 账户空闲多久后从内存移除（毫秒）
+     */
+    @Value("${agent.quota.idle-evict-ms:1800000}")
+    private long idleEvictMs;
+
+    private final Map<Long, Account> accounts = new ConcurrentHashMap<>();
+    private final Set<Reservation> outstanding = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder accountLoads = new LongAdder();
+    private final LongAdder reservations = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder expiredReservations = new LongAdder();
+    private final LongAdder unreservedCharges = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedTokens = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private volatile long lastFlushTime = System.currentTimeMillis();
+
+    /**
+     * 预留额度，额度不足时返回null
+     */
+    public Reservation reserve(Long userId, long tokens) {
+        Account account = getAccount(userId);
+        if (account == null) {
+            rejections.increment();
+            return null;
+        }
+        long amount = Math.max(tokens, 0);
+        while (true) {
+            long consumed = account.consumed.get();
+            if (consumed + amount > account.quota) {
+                rejections.increment();
+                return null;
+            }
+            if (account.consumed.compareAndSet(consumed, consumed + amount)) {
+                break;
+            }
+        }
+        account.lastAccess = System.currentTimeMillis();
+        Reservation reservation = new Reservation(userId, amount);
+        outstanding.add(reservation);
+        reservations.increment();
+        return reservation;
+    }
+
+    /**
+     * 按实际用量结算预留（幂等）
+     */
+    public void settle(Reservation reservation, long actualTokens) {
+        if (reservation == null || !reservation.done.compareAndSet(false, true)) {
+            return;
+        }
+        outstanding.remove(reservation);
+        Account account = accounts.get(reservation.userId);
+        if (account == null) {
+            // 账户已被移除，直接写入待刷盘
+            account = getAccount(reservation.userId);
+            if (account == null) {
+                return;
+            }
+            account.consumed.addAndGet(reservation.tokens);
+        }
+        long actual = Math.max(actualTokens, 0);
+        account.consumed.addAndGet(actual - reservation.tokens);
+        account.used.addAndGet(actual);
+        account.unflushed.add(actual);
+        account.lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * 直接记入用量，不检查配额
+     * 用于没有预留却仍发生了的模型调用（如预留前Hook异常放行），保证用量不被漏记
+     */
+    public void charge(Long userId, long actualTokens) {
+        Account account = getAccount(userId);
+        if (account == null) {
+            return;
+        }
+        long actual = Math.max(actualTokens, 0);
+        account.consumed.addAndGet(actual);
+        account.used.addAndGet(actual);
+        account.unflushed.add(actual);
+        account.lastAccess = System.currentTimeMillis();
+        unreservedCharges.increment();
+    }
+
+    /**
+     * 释放预留（调用失败时使用，幂等）
+     */
+    public void release(Reservation reservation) {
+        if (reservation == null || !reservation.done.compareAndSet(false, true)) {
+            return;
+        }
+        outstanding.remove(reservation);
+        Account account = accounts.get(reservation.userId);
+        if (account != null) {
+            account.consumed.addAndGet(-reservation.tokens);
+        }
+    }
+
+    /**
+     * 剩余可用额度（扣除未结算的预留）
+     */
+    public long getRemaining(Long userId) {
+        Account account = getAccount(userId);
+        return account != null ? account.quota - account.consumed.get() : 0;
+    }
+
+    /**
+     * 已使用额度（含未刷盘部分）
+     */
+    public long getUsed(Long userId) {
+        Account account = getAccount(userId);
+        return account != null ? account.used.get() : 0;
+    }
+
+    /**
+     * 移除账户缓存（配额被外部重置时调用），未刷盘的用量先写回
+     */
+    public void invalidate(Long userId) {
+        Account account = accounts.remove(userId);
+        if (account != null) {
+            flushAccount(userId, account);
+        }
+    }
+
+    /**
+     * 定时刷盘并对账
+     */
+    @Scheduled(fixedDelayString = "${agent.quota.flush-interval-ms:5000}")
+    public void flush() {
+        expireReservations();
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, Account> entry : accounts.entrySet()) {
+            Long userId = entry.getKey();
+            Account account = entry.getValue();
+            flushAccount(userId, account);
+            reconcile(userId, account);
+
+            if (now - account.lastAccess > idleEvictMs
+                    && account.consumed.get() == account.used.get()
+                    && account.unflushed.sum() == 0) {
+                accounts.remove(userId, account);
+            }
+        }
+        lastFlushTime = System.currentTimeMillis();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        accounts.forEach(this::flushAccount);
+        log.info("💰 Token配额账本已刷盘 - 账户数: {}", accounts.size());
+    }
+
+    private Account getAccount(Long userId) {
+        if (userId == null) {
+            return null;
+        }
+        Account account = accounts.get(userId);
+        if (account != null) {
+            return account;
+        }
+        return accounts.computeIfAbsent(userId, id -> userRepository.findById(id)
+                .map(this::load)
+                .orElse(null));
+    }
+
+    private Account load(User user) {
+        accountLoads.increment();
+        long quota = user.getTokenQuota() != null ? user.getTokenQuota() : 0;
+        long used = user.getTokenUsed() != null ? user.getTokenUsed() : 0;
+        return new Account(quota, used);
+    }
+
+    private void flushAccount(Long userId, Account account) {
+        long delta = account.unflushed.sumThenReset();
+        if (delta == 0) {
+            return;
+        }
+        try {
+            userRepository.incrementTokenUsed(userId, Math.toIntExact(delta));
+            flushes.increment();
+            flushedTokens.add(delta);
+        } catch (Exception e) {
+            // 写回失败，下次重试
+            account.unflushed.add(delta);
+            flushFailures.increment();
+            log.error("Token用量刷盘失败 - 用户: {}, delta: {}", userId, delta, e);
+        }
+    }
+
+    /**
+     * 以数据库为准校正配额和用量（配额调整、多实例部署时生效）
+     */
+    private void reconcile(Long userId, Account account) {
+        try {
+            userRepository.findById(userId).ifPresent(user -> {
+                account.quota = user.getTokenQuota() != null ? user.getTokenQuota() : 0;
+                long dbUsed = user.getTokenUsed() != null ? user.getTokenUsed() : 0;
+                long diff = dbUsed + account.unflushed.sum() - account.used.get();
+                if (diff != 0) {
+                    account.used.addAndGet(diff);
+                    account.consumed.addAndGet(diff);
+                }
+            });
+        } catch (Exception e) {
+            log.warn("Token配额对账失败 - 用户: {}", userId, e);
+        }
+    }
+
+    private void expireReservations() {
+        long deadline = System.currentTimeMillis() - reservationTtlMs;
+        for (Reservation reservation : outstanding) {
+            if (reservation.createTime < deadline) {
+                release(reservation);
+                expiredReservations.increment();
+                log.warn("⚠️ Token预留超时释放 - 用户: {}, Token: {}", reservation.userId, reservation.tokens);
+            }
+        }
+    }
+
+    /**
+     * 已扣减但尚未写回t_user的Token数
+     */
+    public long getUnflushedTokens() {
+        long total = 0;
+        for (Account account : accounts.values()) {
+            total += account.unflushed.sum();
+        }
+        return total;
+    }
+
+    /**
+     * 写回延迟：有未写回用量时距上次刷盘的时长，否则为0
+     */
+    public long getFlushLagMillis() {
+        return getUnflushedTokens() > 0 ? System.currentTimeMillis() - lastFlushTime : 0;
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("accounts", accounts.size());
+        stats.put("outstandingReservations", outstanding.size());
+        stats.put("accountLoads", accountLoads.sum());
+        stats.put("reservations", reservations.sum());
+        stats.put("rejections", rejections.sum());
+        stats.put("expiredReservations", expiredReservations.sum());
+        stats.put("unreservedCharges", unreservedCharges.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("flushedTokens", flushedTokens.sum());
+        stats.put("flushFailures", flushFailures.sum());
+        stats.put("unflushedTokens", getUnflushedTokens());
+        return stats;
+    }
+
+    /**
+     * 用户账户：consumed = used + 未结算预留
+     */
+    private static final class Account {
+        private volatile long quota;
+        private final AtomicLong used;
+        private final AtomicLong consumed;
+        private final LongAdder unflushed = new LongAdder();
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private Account(long quota, long used) {
+            this.quota = quota;
+            this.used = new AtomicLong(used);
+            this.consumed = new AtomicLong(used);
+        }
+    }
+
+    /**
+     * 额度预留凭证
+     */
+    public static final class Reservation {
+        private final Long userId;
+        private final long tokens;
+        private final long createTime = System.currentTimeMillis();
+        private final AtomicBoolean done = new AtomicBoolean(false);
+
+        private Reservation(Long userId, long tokens) {
+            this.userId = userId;
+            this.tokens = tokens;
+        }
+
+        public long getTokens() {
+            return tokens;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.kinch.agent.service;
+
+import com.kinch.agent.entity.TokenUsageLog;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token使用日志异步写入器
+ * 模型调用线程只把事件放入有界无锁队列（多生产者），由单个后台线程按批次
+ * 以多行INSERT写入t_token_usage_log（主键为IDENTITY，JPA无法批量插入，这里直接用JDBC）。
+ * 每批写入后按会话汇总用量，以 token_usage = token_usage + ? 原子累加到t_conversation，
+ * 并交给TokenUsageRollupService累加分钟/小时/天汇总表。
+ * 队列满时按overflow-policy处理；写入失败按指数退避重试；应用关闭时先把队列中剩余事件写完，
+ * 关闭之后提交的记录由调用线程同步写入
+ *
+ * @author kinch
+ * @date 2026-01-10
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TokenUsageLogWriter {
+
+    private static final String INSERT_PREFIX = "INSERT INTO t_token_usage_log (user_id, conversation_id, operation_type, "
+            + "model_name, input_tokens, output_tokens, total_tokens, estimated_cost, duration_ms, exceeded_limit, create_time) VALUES ";
+    private static final String ROW_PLACEHOLDER = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final int COLUMNS = 11;
+    private static final String UPDATE_CONVERSATION_USAGE =
+            "UPDATE t_conversation SET token_usage = token_usage + ? WHERE id = ?";
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /** 丢弃新事件 */
+        DROP_NEWEST,
+        /** 丢弃队列中最旧的事件 */
+        DROP_OLDEST,
+        /** 由调用线程同步写入 */
+        CALLER_RUNS
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TokenUsageRollupService rollupService;
+
+    @Value("${agent.usage-log.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${agent.usage-log.batch-size:200}")
+    private int batchSize;
+
+    /**
+     * 最长攒批时间（毫秒）
+     */
+    @Value("${agent.usage-log.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${agent.usage-log.overflow-policy:DROP_OLDEST}")
+    private OverflowPolicy overflowPolicy;
+
+    @Value("${agent.usage-log.shutdown-timeout-ms:10000}")
+    private long shutdownTimeoutMs;
+
+    /**
+     * 写入失败后的重试次数
+     */
+    @Value("${agent.usage-log.max-retries:3}")
+    private int maxRetries = 3;
+
+    /**
+     * 首次重试前的等待（毫秒），之后每次翻倍，不超过retry-max-backoff-ms
+     */
+    @Value("${agent.usage-log.retry-backoff-ms:100}")
+    private long retryBackoffMs = 100;
+
+    @Value("${agent.usage-log.retry-max-backoff-ms:2000}")
+    private long retryMaxBackoffMs = 2000;
+
+    private final Queue<TokenUsageLog> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile boolean running;
+    private Thread writerThread;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder lateWrites = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writerThread = new Thread(this::runLoop, "token-usage-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        log.info("📝 Token使用日志写入器已启动 - 队列容量: {}, 批大小: {}, 溢出策略: {}",
+                queueCapacity, batchSize, overflowPolicy);
+    }
+
+    /**
+     * 提交一条使用记录（不阻塞）；写入器关闭后由调用线程同步写入
+     */
+    public void submit(TokenUsageLog usage) {
+        if (usage.getCreateTime() == null) {
+            usage.setCreateTime(LocalDateTime.now());
+        }
+        submitted.increment();
+
+        if (!running) {
+            lateWrites.increment();
+            writeBatch(List.of(usage));
+            return;
+        }
+
+        if (size.incrementAndGet() > queueCapacity) {
+            size.decrementAndGet();
+            if (!handleOverflow(usage)) {
+                return;
+            }
+            size.incrementAndGet();
+        }
+        queue.offer(usage);
+
+        if (!running && !writerThread.isAlive()) {
+            // 入队时恰好关闭且写入线程已退出，没人再写这条，自己写掉
+            drainAfterShutdown();
+        } else if (size.get() >= batchSize) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * 写入线程退出后仍留在队列里的记录由调用线程写入
+     */
+    private synchronized void drainAfterShutdown() {
+        List<TokenUsageLog> batch = new ArrayList<>(batchSize);
+        drainTo(batch);
+        while (!batch.isEmpty()) {
+            lateWrites.add(batch.size());
+            writeBatch(batch);
+            batch.clear();
+            drainTo(batch);
+        }
+    }
+
+    /**
+     * 处理队列溢出，返回true表示仍需入队
+     */
+    private boolean handleOverflow(TokenUsageLog usage) {
+        switch (overflowPolicy) {
+            case DROP_OLDEST -> {
+                if (queue.poll() != null) {
+                    size.decrementAndGet();
+                    dropped.increment();
+                }
+                return true;
+            }
+            case CALLER_RUNS -> {
+                callerRuns.increment();
+                writeBatch(List.of(usage));
+                return false;
+            }
+            default -> {
+                dropped.increment();
+                return false;
+            }
+        }
+    }
+
+    private void runLoop() {
+        List<TokenUsageLog> batch = new ArrayList<>(batchSize);
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        while (running || size.get() > 0) {
+            drainTo(batch);
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+            if (running && size.get() < batchSize) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+    }
+
+    private void drainTo(List<TokenUsageLog> batch) {
+        TokenUsageLog usage;
+        while (batch.size() < batchSize && (usage = queue.poll()) != null) {
+            size.decrementAndGet();
+            batch.add(usage);
+        }
+    }
+
+    /**
+     * 多行INSERT写入一批记录，失败时按指数退避重试max-retries次
+     */
+    private void writeBatch(List<TokenUsageLog> batch) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + batch.size() * (ROW_PLACEHOLDER.length() + 1));
+        sql.append(INSERT_PREFIX);
+        Object[] args = new Object[batch.size() * COLUMNS];
+        int i = 0;
+        for (TokenUsageLog usage : batch) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(ROW_PLACEHOLDER);
+            args[i++] = usage.getUserId();
+            args[i++] = usage.getConversationId();
+            args[i++] = usage.getOperationType();
+            args[i++] = usage.getModelName();
+            args[i++] = usage.getInputTokens();
+            args[i++] = usage.getOutputTokens();
+            args[i++] = usage.getTotalTokens();
+            args[i++] = usage.getEstimatedCost();
+            args[i++] = usage.getDurationMs();
+            args[i++] = usage.getExceededLimit();
+            args[i++] = Timestamp.valueOf(usage.getCreateTime());
+        }
+
+        long backoffMs = retryBackoffMs;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                jdbcTemplate.update(sql.toString(), args);
+                written.add(batch.size());
+                batches.increment();
+                break;
+            } catch (Exception e) {
+                if (attempt >= maxRetries || !sleepBeforeRetry(backoffMs)) {
+                    failed.add(batch.size());
+                    log.error("写入Token使用日志失败，丢弃{}条", batch.size(), e);
+                    return;
+                }
+                retries.increment();
+                log.warn("写入Token使用日志失败，{}ms后重试 - 第{}次", backoffMs, attempt + 1);
+                backoffMs = Math.min(backoffMs * 2, retryMaxBackoffMs);
+            }
+        }
+        addConversationUsage(batch);
+        rollupService.addBatch(batch);
+    }
+
+    /**
+     * 重试前等待，被中断时返回false放弃重试
+     */
+    private boolean sleepBeforeRetry(long backoffMs) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(backoffMs);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 按会话汇总本批用量并累加到会话表
+     */
+    private void addConversationUsage(List<TokenUsageLog> batch) {
+        Map<Long, Long> usageByConversation = new HashMap<>();
+        for (TokenUsageLog usage : batch) {
+            if (usage.getConversationId() != null && usage.getTotalTokens() != null) {
+                usageByConversation.merge(usage.getConversationId(), (long) usage.getTotalTokens(), Long::sum);
+            }
+        }
+        if (usageByConversation.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(usageByConversation.size());
+        usageByConversation.forEach((conversationId, tokens) -> args.add(new Object[]{tokens, conversationId}));
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_CONVERSATION_USAGE, args);
+        } catch (Exception e) {
+            log.error("累加会话Token用量失败 - 会话数: {}", usageByConversation.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(shutdownTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!writerThread.isAlive()) {
+            drainAfterShutdown();
+        }
+        log.info("📝 Token使用日志写入器已关闭 - 已写入: {}, 未写入: {}", written.sum(), size.get());
+    }
+
+    public int getQueueSize() {
+        return size.get();
+    }
+
+    /**
+     * 写入延迟：队首（最早未写入）记录的等待时长，队列为空时为0
+     */
+    public long getLagMillis() {
+        TokenUsageLog head = queue.peek();
+        if (head == null || head.getCreateTime() == null) {
+            return 0;
+        }
+        return Math.max(0, Duration.between(head.getCreateTime(), LocalDateTime.now()).toMillis());
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queueSize", size.get());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("lagMillis", getLagMillis());
+        stats.put("overflowPolicy", overflowPolicy);
+        stats.put("submitted", submitted.sum());
+        stats.put("written", written.sum());
+        stats.put("batches", batches.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("callerRuns", callerRuns.sum());
+        stats.put("failed", failed.sum());
+        stats.put("retries", retries.sum());
+        stats.put("lateWrites", lateWrites.sum());
+        long batchCount = batches.sum();
+        stats.put("avgBatchSize", batchCount > 0 ? written.sum() / batchCount : 0);
+        return stats;
+    }
+}
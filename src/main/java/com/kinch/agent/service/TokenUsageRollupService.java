@@ -0,0 +1,432 @@
+package com.kinch.agent.service;
+
+import com.kinch.agent.entity.TokenUsageLog;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token用量汇总服务 - 维护分钟/小时/天三级预聚合表并提供区间查询
+ * <p>
+ * TokenUsageLogWriter每写入一批明细，就把这一批按(时间桶, 用户, 模型, 操作类型)聚合后
+ * 以 INSERT ... ON DUPLICATE KEY UPDATE 累加到三张汇总表，不再回读明细。
+ * 区间查询把 [from, to) 拆成"首尾不足一小时的分钟段 + 首尾不足一天的小时段 + 中间整天段"，
+ * 每段只扫对应粒度的桶，查询代价与桶数相关，与明细行数无关。
+ * 分钟/小时表超过保留期会被清理，落在清理范围内的首尾段改查更粗粒度的表
+ *
+ * @author kinch
+ * @date 2026-01-11
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TokenUsageRollupService {
+
+    /**
+     * 汇总粒度
+     */
+    public enum Granularity {
+        MINUTE("t_token_usage_rollup_minute", ChronoUnit.MINUTES),
+        HOUR("t_token_usage_rollup_hour", ChronoUnit.HOURS),
+        DAY("t_token_usage_rollup_day", ChronoUnit.DAYS);
+
+        private final String table;
+        private final ChronoUnit unit;
+
+        Granularity(String table, ChronoUnit unit) {
+            this.table = table;
+            this.unit = unit;
+        }
+
+        public LocalDateTime truncate(LocalDateTime time) {
+            return time.truncatedTo(unit);
+        }
+
+        /**
+         * 向上取整到桶边界
+         */
+        public LocalDateTime ceil(LocalDateTime time) {
+            LocalDateTime floor = truncate(time);
+            return floor.equals(time) ? floor : floor.plus(1, unit);
+        }
+    }
+
+    /**
+     * 分组维度
+     */
+    public enum Dimension {
+        USER("user_id"),
+        MODEL("model_name"),
+        OPERATION("operation_type");
+
+        private final String column;
+
+        Dimension(String column) {
+            this.column = column;
+        }
+    }
+
+    /**
+     * 汇总结果（未参与分组的维度为null）
+     */
+    public record UsageSummary(Long userId, String modelName, String operationType, LocalDateTime bucketTime,
+                               long requestCount, long inputTokens, long outputTokens, long totalTokens,
+                               double estimatedCost) {
+    }
+
+    private static final String UPSERT_COLUMNS = " (bucket_time, user_id, model_name, operation_type, "
+            + "request_count, input_tokens, output_tokens, total_tokens, estimated_cost) VALUES ";
+    private static final String ROW_PLACEHOLDER = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPSERT_SUFFIX = " ON DUPLICATE KEY UPDATE "
+            + "request_count = request_count + VALUES(request_count), "
+            + "input_tokens = input_tokens + VALUES(input_tokens), "
+            + "output_tokens = output_tokens + VALUES(output_tokens), "
+            + "total_tokens = total_tokens + VALUES(total_tokens), "
+            + "estimated_cost = estimated_cost + VALUES(estimated_cost)";
+    private static final String SUM_COLUMNS = "COALESCE(SUM(request_count), 0), COALESCE(SUM(input_tokens), 0), "
+            + "COALESCE(SUM(output_tokens), 0), COALESCE(SUM(total_tokens), 0), COALESCE(SUM(estimated_cost), 0)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${agent.usage-rollup.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 分钟汇总保留天数（超出部分由RetentionService清理）
+     */
+    @Value("${agent.usage-rollup.minute-retention-days:7}")
+    private int minuteRetentionDays;
+
+    /**
+     * 小时汇总保留天数
+     */
+    @Value("${agent.usage-rollup.hour-retention-days:90}")
+    private int hourRetentionDays;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder upsertedRows = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+
+    /**
+     * 把一批明细累加到三级汇总表（由写入线程调用）
+     */
+    public void addBatch(Collection<TokenUsageLog> batch) {
+        if (!enabled || batch.isEmpty()) {
+            return;
+        }
+        for (Granularity granularity : Granularity.values()) {
+            // 按键排序后写入，多个写入线程并发时加锁顺序一致，避免死锁
+            Map<RollupKey, long[]> rows = new TreeMap<>();
+            Map<RollupKey, Double> costs = new HashMap<>();
+            for (TokenUsageLog usage : batch) {
+                RollupKey key = new RollupKey(granularity.truncate(usage.getCreateTime()),
+                        usage.getUserId() != null ? usage.getUserId() : 0L,
+                        nullToEmpty(usage.getModelName()), nullToEmpty(usage.getOperationType()));
+                long[] sums = rows.computeIfAbsent(key, k -> new long[4]);
+                sums[0]++;
+                sums[1] += valueOf(usage.getInputTokens());
+                sums[2] += valueOf(usage.getOutputTokens());
+                sums[3] += valueOf(usage.getTotalTokens());
+                costs.merge(key, usage.getEstimatedCost() != null ? usage.getEstimatedCost() : 0.0, Double::sum);
+            }
+            upsert(granularity, rows, costs);
+        }
+        batches.increment();
+    }
+
+    private void upsert(Granularity granularity, Map<RollupKey, long[]> rows, Map<RollupKey, Double> costs) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(granularity.table).append(UPSERT_COLUMNS);
+        Object[] args = new Object[rows.size() * 9];
+        int i = 0;
+        for (Map.Entry<RollupKey, long[]> entry : rows.entrySet()) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(ROW_PLACEHOLDER);
+            RollupKey key = entry.getKey();
+            long[] sums = entry.getValue();
+            args[i++] = Timestamp.valueOf(key.bucketTime());
+            args[i++] = key.userId();
+            args[i++] = key.modelName();
+            args[i++] = key.operationType();
+            args[i++] = sums[0];
+            args[i++] = sums[1];
+            args[i++] = sums[2];
+            args[i++] = sums[3];
+            args[i++] = costs.get(key);
+        }
+        sql.append(UPSERT_SUFFIX);
+
+        for (int attempt = 1; attempt <= 2; attempt++) {
+            try {
+                jdbcTemplate.update(sql.toString(), args);
+                upsertedRows.add(rows.size());
+                return;
+            } catch (Exception e) {
+                if (attempt == 2) {
+                    failedBatches.increment();
+                    log.error("累加Token用量汇总失败 - 粒度: {}, 行数: {}", granularity, rows.size(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按维度汇总 [from, to) 区间内的用量，自动拆分为分钟/小时/天段查询
+     *
+     * @param userId        用户过滤（可为空）
+     * @param modelName     模型过滤（可为空）
+     * @param operationType 操作类型过滤（可为空）
+     * @param groupBy       分组维度（为空时返回一行总计）
+     */
+    public List<UsageSummary> summarize(LocalDateTime from, LocalDateTime to, Long userId, String modelName,
+                                        String operationType, Set<Dimension> groupBy) {
+        queries.increment();
+        Set<Dimension> dimensions = groupBy == null || groupBy.isEmpty()
+                ? EnumSet.noneOf(Dimension.class) : EnumSet.copyOf(groupBy);
+
+        Map<List<Object>, UsageSummary> merged = new LinkedHashMap<>();
+        for (Segment segment : split(from, to)) {
+            for (UsageSummary row : querySegment(segment, userId, modelName, operationType, dimensions, false)) {
+                List<Object> key = List.of(String.valueOf(row.userId()), String.valueOf(row.modelName()),
+                        String.valueOf(row.operationType()));
+                merged.merge(key, row, TokenUsageRollupService::add);
+            }
+        }
+        if (merged.isEmpty() && dimensions.isEmpty()) {
+            return List.of(new UsageSummary(null, null, null, null, 0, 0, 0, 0, 0));
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * 按指定粒度返回 [from, to) 区间内的时间序列（用于仪表盘）
+     */
+    public List<UsageSummary> series(Granularity granularity, LocalDateTime from, LocalDateTime to, Long userId,
+                                     String modelName, String operationType) {
+        queries.increment();
+        Segment segment = new Segment(granularity, granularity.truncate(from), granularity.ceil(to));
+        if (!segment.from().isBefore(segment.to())) {
+            return List.of();
+        }
+        return querySegment(segment, userId, modelName, operationType, EnumSet.noneOf(Dimension.class), true);
+    }
+
+    /**
+     * 用户在 [from, to) 区间内消耗的Token总量
+     */
+    public long sumUserTokens(Long userId, LocalDateTime from, LocalDateTime to) {
+        return summarize(from, to, userId, null, null, null).get(0).totalTokens();
+    }
+
+    /**
+     * 删除一块过期汇总（由RetentionService分块调用），返回删除行数
+     */
+    public int deleteExpiredChunk(Granularity granularity, int limit) {
+        int retentionDays = retentionDays(granularity);
+        if (retentionDays <= 0) {
+            return 0;
+        }
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays);
+        return jdbcTemplate.update("DELETE FROM " + granularity.table + " WHERE bucket_time < ? LIMIT ?",
+                Timestamp.valueOf(cutoff), limit);
+    }
+
+    /**
+     * 把 [from, to) 拆成分钟段、小时段、天段，边界向下取整到分钟
+     */
+    List<Segment> split(LocalDateTime from, LocalDateTime to) {
+        return split(from, to, LocalDateTime.now());
+    }
+
+    /**
+     * 同上，首尾段落在已被清理的时间范围时改用仍保留的更粗粒度：
+     * 早于分钟保留期的边界向外扩到整小时，早于小时保留期的扩到整天（天表不清理），结果可能多算边界外的部分桶
+     */
+    List<Segment> split(LocalDateTime from, LocalDateTime to, LocalDateTime now) {
+        List<Segment> segments = new ArrayList<>(5);
+        LocalDateTime start = Granularity.MINUTE.truncate(from);
+        LocalDateTime end = Granularity.MINUTE.truncate(to);
+        if (!start.isBefore(end)) {
+            return segments;
+        }
+
+        // 首段最早的桶就是start
+        if (!retained(Granularity.MINUTE, start, now)) {
+            start = Granularity.HOUR.truncate(start);
+        }
+        if (!retained(Granularity.HOUR, start, now)) {
+            start = Granularity.DAY.truncate(start);
+        }
+        // 尾段最早的桶是end所在小时（天）的起点，但不早于start
+        if (!retained(Granularity.MINUTE, later(start, Granularity.HOUR.truncate(end)), now)) {
+            end = Granularity.HOUR.ceil(end);
+        }
+        if (!retained(Granularity.HOUR, later(start, Granularity.DAY.truncate(end)), now)) {
+            end = Granularity.DAY.ceil(end);
+        }
+
+        LocalDateTime hourStart = Granularity.HOUR.ceil(start);
+        LocalDateTime hourEnd = Granularity.HOUR.truncate(end);
+        if (!hourStart.isBefore(hourEnd)) {
+            segments.add(new Segment(Granularity.MINUTE, start, end));
+            return segments;
+        }
+        addSegment(segments, Granularity.MINUTE, start, hourStart);
+        addSegment(segments, Granularity.MINUTE, hourEnd, end);
+
+        LocalDateTime dayStart = Granularity.DAY.ceil(hourStart);
+        LocalDateTime dayEnd = Granularity.DAY.truncate(hourEnd);
+        if (!dayStart.isBefore(dayEnd)) {
+            segments.add(new Segment(Granularity.HOUR, hourStart, hourEnd));
+            return segments;
+        }
+        addSegment(segments, Granularity.HOUR, hourStart, dayStart);
+        addSegment(segments, Granularity.HOUR, dayEnd, hourEnd);
+        segments.add(new Segment(Granularity.DAY, dayStart, dayEnd));
+        return segments;
+    }
+
+    /**
+     * 该粒度的汇总表在time处是否还有数据（与deleteExpiredChunk的清理截止时间一致）
+     */
+    private boolean retained(Granularity granularity, LocalDateTime time, LocalDateTime now) {
+        int retentionDays = retentionDays(granularity);
+        return retentionDays <= 0 || !time.isBefore(now.minusDays(retentionDays));
+    }
+
+    private int retentionDays(Granularity granularity) {
+        return switch (granularity) {
+            case MINUTE -> minuteRetentionDays;
+            case HOUR -> hourRetentionDays;
+            case DAY -> 0;
+        };
+    }
+
+    private static LocalDateTime later(LocalDateTime a, LocalDateTime b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static void addSegment(List<Segment> segments, Granularity granularity, LocalDateTime from, LocalDateTime to) {
+        if (from.isBefore(to)) {
+            segments.add(new Segment(granularity, from, to));
+        }
+    }
+
+    private List<UsageSummary> querySegment(Segment segment, Long userId, String modelName, String operationType,
+                                            Set<Dimension> dimensions, boolean byBucket) {
+        List<String> groupColumns = new ArrayList<>(4);
+        if (byBucket) {
+            groupColumns.add("bucket_time");
+        }
+        dimensions.forEach(dimension -> groupColumns.add(dimension.column));
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        groupColumns.forEach(column -> sql.append(column).append(", "));
+        sql.append(SUM_COLUMNS).append(" FROM ").append(segment.granularity().table)
+                .append(" WHERE bucket_time >= ? AND bucket_time < ?");
+        List<Object> args = new ArrayList<>(5);
+        args.add(Timestamp.valueOf(segment.from()));
+        args.add(Timestamp.valueOf(segment.to()));
+        if (userId != null) {
+            sql.append(" AND user_id = ?");
+            args.add(userId);
+        }
+        if (modelName != null) {
+            sql.append(" AND model_name = ?");
+            args.add(modelName);
+        }
+        if (operationType != null) {
+            sql.append(" AND operation_type = ?");
+            args.add(operationType);
+        }
+        if (!groupColumns.isEmpty()) {
+            String columns = String.join(", ", groupColumns);
+            sql.append(" GROUP BY ").append(columns).append(" ORDER BY ").append(columns);
+        }
+
+        return jdbcTemplate.query(sql.toString(), (rs, rowNum) -> {
+            int column = 1;
+            LocalDateTime bucketTime = byBucket ? rs.getTimestamp(column++).toLocalDateTime() : null;
+            Long user = null;
+            String model = null;
+            String operation = null;
+            if (dimensions.contains(Dimension.USER)) {
+                user = rs.getLong(column++);
+            }
+            if (dimensions.contains(Dimension.MODEL)) {
+                model = rs.getString(column++);
+            }
+            if (dimensions.contains(Dimension.OPERATION)) {
+                operation = rs.getString(column++);
+            }
+            return new UsageSummary(user, model, operation, bucketTime, rs.getLong(column), rs.getLong(column + 1),
+                    rs.getLong(column + 2), rs.getLong(column + 3), rs.getDouble(column + 4));
+        }, args.toArray());
+    }
+
+    private static UsageSummary add(UsageSummary a, UsageSummary b) {
+        return new UsageSummary(a.userId(), a.modelName(), a.operationType(), a.bucketTime(),
+                a.requestCount() + b.requestCount(), a.inputTokens() + b.inputTokens(),
+                a.outputTokens() + b.outputTokens(), a.totalTokens() + b.totalTokens(),
+                a.estimatedCost() + b.estimatedCost());
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static long valueOf(Integer value) {
+        return value != null ? value : 0;
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("batches", batches.sum());
+        stats.put("upsertedRows", upsertedRows.sum());
+        stats.put("failedBatches", failedBatches.sum());
+        stats.put("queries", queries.sum());
+        stats.put("minuteRetentionDays", minuteRetentionDays);
+        stats.put("hourRetentionDays", hourRetentionDays);
+        return stats;
+    }
+
+    record Segment(Granularity granularity, LocalDateTime from, LocalDateTime to) {
+    }
+
+    private record RollupKey(LocalDateTime bucketTime, Long userId, String modelName, String operationType)
+            implements Comparable<RollupKey> {
+
+        private static final Comparator<RollupKey> ORDER = Comparator.comparing(RollupKey::bucketTime)
+                .thenComparing(RollupKey::userId)
+                .thenComparing(RollupKey::modelName)
+                .thenComparing(RollupKey::operationType);
+
+        @Override
+        public int compareTo(RollupKey other) {
+            return ORDER.compare(this, other);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.kinch.agent.tokenizer;
+
+/**
+ * 快速近似分词器
+ * 复用预分词规则，按片段的字符构成估算Token数，不做BPE合并，也不分配对象
+ * <ul>
+ *   <li>英文字母：约5个字符1个Token</li>
+ *   <li>中文等非ASCII字母：1字1个Token</li>
+ *   <li>数字：每组（最多3位）1个Token</li>
+ *   <li>标点：约2个字符1个Token</li>
+ *   <li>空白：每段1个Token</li>
+ * </ul>
+ *
+ * @author kinch
+ * @date 2026-01-07
+ */
+public class ApproximateTokenizer implements Tokenizer {
+
+    public static final ApproximateTokenizer INSTANCE = new ApproximateTokenizer();
+
+    @Override
+    public int countTokens(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int length = text.length();
+        int tokens = 0;
+        int start = 0;
+        while (start < length) {
+            int end = PreTokenizer.nextPieceEnd(text, start);
+            tokens += estimatePiece(text, start, end);
+            start = end;
+        }
+        return tokens;
+    }
+
+    @Override
+    public String getName() {
+        return "approximate";
+    }
+
+    private int estimatePiece(CharSequence text, int start, int end) {
+        int asciiLetters = 0;
+        int otherLetters = 0;
+        int punctuation = 0;
+        boolean hasNumber = false;
+        for (int i = start; i < end; ) {
+            int cp = PreTokenizer.codePointAt(text, i);
+            i += Character.charCount(cp);
+            if (PreTokenizer.isLetter(cp)) {
+                if (cp < 0x80) {
+                    asciiLetters++;
+                } else {
+                    otherLetters++;
+                }
+            } else if (PreTokenizer.isNumber(cp)) {
+                hasNumber = true;
+            } else if (!PreTokenizer.isWhitespace(cp)) {
+                punctuation++;
+            }
+        }
+
+        int tokens = (asciiLetters + 4) / 5 + otherLetters + (punctuation + 1) / 2 + (hasNumber ? 1 : 0);
+        return Math.max(1, tokens);
+    }
+}
@@ -0,0 +1,253 @@
+package com.kinch.agent.tokenizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * 字节级BPE分词器
+ * 词表为tiktoken格式（每行"base64(token字节) rank"，Qwen的qwen.tiktoken即为此格式），
+ * 加载后以"字节池 + 开放寻址哈希表"存储，查询时直接比较字节区间，不创建key对象。
+ * 词表只读，临时缓冲区按线程复用，因此实例线程安全且计数过程基本不分配内存
+ *
+ * @author kinch
+ * @date 2026-01-07
+ */
+public class BpeTokenizer implements Tokenizer {
+
+    private static final int NO_RANK = Integer.MAX_VALUE;
+
+    // token i 的字节为 pool[offsets[i], offsets[i + 1])
+    private final byte[] pool;
+    private final int[] offsets;
+    private final int[] ranks;
+    // 开放寻址表：槽位存 token下标 + 1，0表示空
+    private final int[] table;
+    private final int mask;
+    private final int vocabSize;
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private BpeTokenizer(byte[] pool, int[] offsets, int[] ranks, int vocabSize) {
+        this.pool = pool;
+        this.offsets = offsets;
+        this.ranks = ranks;
+        this.vocabSize = vocabSize;
+
+        int capacity = Integer.highestOneBit(Math.max(16, vocabSize * 2 - 1)) << 1;
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < vocabSize; i++) {
+            int slot = hash(pool, offsets[i], offsets[i + 1]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * 从tiktoken格式的词表加载
+     */
+    public static BpeTokenizer load(InputStream in) throws IOException {
+        byte[] pool = new byte[1 << 16];
+        int[] offsets = new int[1 << 12];
+        int[] ranks = new int[1 << 12];
+        int size = 0;
+        int poolSize = 0;
+
+        Base64.Decoder decoder = Base64.getDecoder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                if (space <= 0) {
+                    throw new IOException("词表格式错误: " + line);
+                }
+                byte[] token = decoder.decode(line.substring(0, space));
+                int rank = Integer.parseInt(line.substring(space + 1).trim());
+
+                if (size + 2 > offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    ranks = Arrays.copyOf(ranks, ranks.length * 2);
+                }
+                if (poolSize + token.length > pool.length) {
+                    pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + token.length));
+                }
+                System.arraycopy(token, 0, pool, poolSize, token.length);
+                offsets[size] = poolSize;
+                ranks[size] = rank;
+                poolSize += token.length;
+                size++;
+                offsets[size] = poolSize;
+            }
+        }
+        if (size == 0) {
+            throw new IOException("词表为空");
+        }
+        return new BpeTokenizer(Arrays.copyOf(pool, poolSize), Arrays.copyOf(offsets, size + 1),
+                Arrays.copyOf(ranks, size), size);
+    }
+
+    public int getVocabSize() {
+        return vocabSize;
+    }
+
+    @Override
+    public String getName() {
+        return "bpe";
+    }
+
+    @Override
+    public int countTokens(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        Scratch s = scratch.get();
+        int length = text.length();
+        int tokens = 0;
+        int start = 0;
+        while (start < length) {
+            int end = PreTokenizer.nextPieceEnd(text, start);
+            int byteLength = s.encode(text, start, end);
+            tokens += countPiece(s, byteLength);
+            start = end;
+        }
+        return tokens;
+    }
+
+    /**
+     * 对单个片段做BPE合并，返回合并后的Token数
+     * 维护相邻对的rank数组，每次合并只更新受影响的两个位置
+     */
+    private int countPiece(Scratch s, int n) {
+        byte[] bytes = s.bytes;
+        if (n == 0) {
+            return 0;
+        }
+        if (n == 1 || rank(bytes, 0, n) != NO_RANK) {
+            return 1;
+        }
+
+        s.ensureParts(n + 1);
+        int[] parts = s.parts;
+        int[] pairRanks = s.pairRanks;
+        for (int i = 0; i <= n; i++) {
+            parts[i] = i;
+        }
+        int count = n + 1;
+        for (int i = 0; i + 2 < count; i++) {
+            pairRanks[i] = rank(bytes, parts[i], parts[i + 2]);
+        }
+
+        while (count > 2) {
+            int minRank = NO_RANK;
+            int minIndex = -1;
+            for (int i = 0; i + 2 < count; i++) {
+                if (pairRanks[i] < minRank) {
+                    minRank = pairRanks[i];
+                    minIndex = i;
+                }
+            }
+            if (minIndex < 0) {
+                break;
+            }
+
+            // 合并 minIndex 与 minIndex+1：删除边界 parts[minIndex + 1]
+            System.arraycopy(parts, minIndex + 2, parts, minIndex + 1, count - minIndex - 2);
+            System.arraycopy(pairRanks, minIndex + 2, pairRanks, minIndex + 1, Math.max(0, count - minIndex - 4));
+            count--;
+            if (minIndex + 2 < count) {
+                pairRanks[minIndex] = rank(bytes, parts[minIndex], parts[minIndex + 2]);
+            } else {
+                pairRanks[minIndex] = NO_RANK;
+            }
+            if (minIndex > 0) {
+                pairRanks[minIndex - 1] = rank(bytes, parts[minIndex - 1], parts[minIndex + 1]);
+            }
+        }
+        return count - 1;
+    }
+
+    private int rank(byte[] bytes, int from, int to) {
+        int slot = hash(bytes, from, to) & mask;
+        int len = to - from;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return NO_RANK;
+            }
+            int token = entry - 1;
+            int start = offsets[token];
+            if (offsets[token + 1] - start == len
+                    && Arrays.equals(pool, start, start + len, bytes, from, to)) {
+                return ranks[token];
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int h = 0x811c9dc5;
+        for (int i = from; i < to; i++) {
+            h ^= bytes[i];
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 线程私有的临时缓冲区
+     */
+    private static final class Scratch {
+        private byte[] bytes = new byte[256];
+        private int[] parts = new int[64];
+        private int[] pairRanks = new int[64];
+
+        /**
+         * 把text[start, end)编码为UTF-8写入bytes，返回字节数
+         */
+        int encode(CharSequence text, int start, int end) {
+            int required = (end - start) * 3;
+            if (bytes.length < required) {
+                bytes = new byte[Math.max(required, bytes.length * 2)];
+            }
+            int n = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    bytes[n++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[n++] = (byte) (0xC0 | (c >> 6));
+                    bytes[n++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, text.charAt(++i));
+                    bytes[n++] = (byte) (0xF0 | (cp >> 18));
+                    bytes[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    bytes[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    bytes[n++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    bytes[n++] = (byte) (0xE0 | (c >> 12));
+                    bytes[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[n++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return n;
+        }
+
+        void ensureParts(int size) {
+            if (parts.length < size) {
+                parts = new int[Math.max(size, parts.length * 2)];
+                pairRanks = new int[parts.length];
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.kinch.agent.tokenizer;
+
+/**
+ * 预分词器 - 按字符类别把文本切分为片段（不分配对象）
+ * 规则与tiktoken/Qwen使用的正则等价（近似）：
+ * <pre>
+ * 's|'t|'re|'ve|'m|'ll|'d | [^\r\n\p{L}\p{N}]?\p{L}+ | \p{N}{1,3}
+ * | ?[^\s\p{L}\p{N}]+[\r\n]* | \s*[\r\n]+ | \s+(?!\S) | \s+
+ * </pre>
+ * 调用方以 {@code end = nextPieceEnd(text, start)} 的方式迭代
+ *
+ * @author kinch
+ * @date 2026-01-07
+ */
+final class PreTokenizer {
+
+    private static final int MAX_DIGITS = 3;
+
+    private PreTokenizer() {
+    }
+
+    /**
+     * 返回从start开始的片段的结束位置（不含）
+     */
+    static int nextPieceEnd(CharSequence text, int start) {
+        int length = text.length();
+        int c = codePointAt(text, start);
+        int next = start + Character.charCount(c);
+
+        // 英文缩写：'s 't 're 've 'm 'll 'd
+        if (c == '\'' && next < length) {
+            int end = contractionEnd(text, next);
+            if (end > 0) {
+                return end;
+            }
+        }
+
+        // 字母串，允许一个非换行、非字母数字的前缀字符
+        if (isLetter(c)) {
+            return scanLetters(text, next);
+        }
+        if (!isNewline(c) && !isNumber(c) && next < length && isLetter(codePointAt(text, next))) {
+            return scanLetters(text, next);
+        }
+
+        // 数字，最多3位一组
+        if (isNumber(c)) {
+            int end = next;
+            int digits = 1;
+            while (end < length && digits < MAX_DIGITS) {
+                int cp = codePointAt(text, end);
+                if (!isNumber(cp)) {
+                    break;
+                }
+                end += Character.charCount(cp);
+                digits++;
+            }
+            return end;
+        }
+
+        // 标点串，允许一个空格前缀，吸收紧随的换行
+        if (isPunctuation(c) || (c == ' ' && next < length && isPunctuation(codePointAt(text, next)))) {
+            int end = c == ' ' ? next : start;
+            while (end < length) {
+                int cp = codePointAt(text, end);
+                if (!isPunctuation(cp)) {
+                    break;
+                }
+                end += Character.charCount(cp);
+            }
+            while (end < length && isNewline(text.charAt(end))) {
+                end++;
+            }
+            return end;
+        }
+
+        // 空白：包含换行时截止到最后一个换行；否则把最后一个空白留给后面的片段
+        int end = start;
+        int lastNewlineEnd = -1;
+        while (end < length) {
+            char ch = text.charAt(end);
+            if (!isWhitespace(ch)) {
+                break;
+            }
+            end++;
+            if (isNewline(ch)) {
+                lastNewlineEnd = end;
+            }
+        }
+        if (lastNewlineEnd > 0) {
+            return lastNewlineEnd;
+        }
+        if (end < length && end - start > 1) {
+            return end - 1;
+        }
+        return Math.max(end, next);
+    }
+
+    static int codePointAt(CharSequence text, int index) {
+        char high = text.charAt(index);
+        if (Character.isHighSurrogate(high) && index + 1 < text.length()) {
+            char low = text.charAt(index + 1);
+            if (Character.isLowSurrogate(low)) {
+                return Character.toCodePoint(high, low);
+            }
+        }
+        return high;
+    }
+
+    static boolean isLetter(int cp) {
+        if (cp < 0x80) {
+            int lower = cp | 0x20;
+            return lower >= 'a' && lower <= 'z';
+        }
+        if (cp >= 0x4E00 && cp <= 0x9FFF) {
+            return true;
+        }
+        return Character.isLetter(cp);
+    }
+
+    static boolean isNumber(int cp) {
+        if (cp < 0x80) {
+            return cp >= '0' && cp <= '9';
+        }
+        int type = Character.getType(cp);
+        return type == Character.DECIMAL_DIGIT_NUMBER
+                || type == Character.LETTER_NUMBER
+                || type == Character.OTHER_NUMBER;
+    }
+
+    static boolean isPunctuation(int cp) {
+        return !isWhitespace(cp) && !isLetter(cp) && !isNumber(cp);
+    }
+
+    static boolean isWhitespace(int cp) {
+        if (cp < 0x80) {
+            return cp == ' ' || (cp >= '\t' && cp <= '\r');
+        }
+        return Character.isWhitespace(cp);
+    }
+
+    static boolean isNewline(int cp) {
+        return cp == '\n' || cp == '\r';
+    }
+
+    private static int scanLetters(CharSequence text, int from) {
+        int length = text.length();
+        int end = from;
+        while (end < length) {
+            int cp = codePointAt(text, end);
+            if (!isLetter(cp)) {
+                break;
+            }
+            end += Character.charCount(cp);
+        }
+        return end;
+    }
+
+    private static int contractionEnd(CharSequence text, int from) {
+        int length = text.length();
+        char first = Character.toLowerCase(text.charAt(from));
+        if (first == 's' || first == 't' || first == 'm' || first == 'd') {
+            return from + 1;
+        }
+        if (from + 1 < length) {
+            char second = Character.toLowerCase(text.charAt(from + 1));
+            if ((first == 'r' || first == 'v') && second == 'e') {
+                return from + 2;
+            }
+            if (first == 'l' && second == 'l') {
+                return from + 2;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,24 @@
+package com.kinch.agent.tokenizer;
+
+/**
+ * 分词器接口 - 只负责统计Token数量
+ * 实现必须是线程安全的
+ *
+ * @author kinch
+ * @date 2026-01-07
+ */
+public interface Tokenizer {
+
+    /**
+     * 统计文本的Token数量
+     *
+     * @param text 文本
+     * @return Token数量
+     */
+    int countTokens(CharSequence text);
+
+    /**
+     * 分词器名称
+     */
+    String getName();
+}
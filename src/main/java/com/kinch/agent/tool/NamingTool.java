@@ -1,6 +1,7 @@
 package com.kinch.agent.tool;
 
 import com.google.gson.Gson;
+import com.kinch.agent.ratelimit.HedgedModelCaller;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
@@ -22,6 +23,7 @@ import java.util.function.Function;
 public class NamingTool implements Function<String, String> {
 
     private final ChatClient.Builder chatClientBuilder;
+    private final HedgedModelCaller hedgedModelCaller;
     private final Gson gson = new Gson();
 
     @Override
@@ -34,10 +36,11 @@ public class NamingTool implements Function<String, String> {
             ChatClient chatClient = chatClientBuilder.build();
             String prompt = "将以下中文翻译成简洁的英文（只返回英文单词或短语，多个单词用空格分隔）：" + chineseInput;
             
-            String english = chatClient.prompt()
+            // 翻译是幂等的短补全，长尾时对冲
+            String english = hedgedModelCaller.call("naming_translate", () -> chatClient.prompt()
                     .user(prompt)
                     .call()
-                    .content()
+                    .content())
                     .trim()
                     .replaceAll("[^a-zA-Z\\s]", "");
             
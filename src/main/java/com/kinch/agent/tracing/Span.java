@@ -0,0 +1,126 @@
+package com.kinch.agent.tracing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 追踪区间 - 一个阶段（Hook、模型调用、工具、数据库写入等）的起止时间
+ * 用try-with-resources包裹阶段代码，close时结束并恢复线程上的父区间；
+ * 没有所属追踪时是空操作（NOOP），调用方无需判断
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+public final class Span implements AutoCloseable {
+
+    static final Span NOOP = new Span(null, 0, -1, "noop", null);
+
+    private final Trace trace;
+    private final int id;
+    private final int parentId;
+    private final String name;
+    private final long startNanos;
+    private volatile long endNanos;
+    private volatile String error;
+    private Map<String, Object> attributes;
+
+    /**
+     * 开始前线程上的当前区间，close时恢复
+     */
+    private final Span previous;
+
+    Span(Trace trace, int id, int parentId, String name, Span previous) {
+        this.trace = trace;
+        this.id = id;
+        this.parentId = parentId;
+        this.name = name;
+        this.previous = previous;
+        this.startNanos = System.nanoTime();
+    }
+
+    public Span tag(String key, Object value) {
+        if (trace != null && value != null) {
+            synchronized (this) {
+                if (attributes == null) {
+                    attributes = new LinkedHashMap<>(4);
+                }
+                attributes.put(key, value);
+            }
+        }
+        return this;
+    }
+
+    public Span error(Throwable throwable) {
+        if (trace != null && throwable != null) {
+            error = throwable.getClass().getSimpleName() + ": " + throwable.getMessage();
+        }
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (trace == null || endNanos != 0) {
+            return;
+        }
+        endNanos = System.nanoTime();
+        Tracer.restore(this, previous);
+        if (parentId < 0) {
+            trace.finish();
+        }
+    }
+
+    public boolean isNoop() {
+        return trace == null;
+    }
+
+    Trace getTrace() {
+        return trace;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    boolean isFinished() {
+        return endNanos != 0;
+    }
+
+    long durationNanos() {
+        long end = endNanos;
+        return (end != 0 ? end : System.nanoTime()) - startNanos;
+    }
+
+    Map<String, Object> toMap(long traceStartNanos) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", id);
+        map.put("parentId", parentId);
+        map.put("name", name);
+        map.put("offsetMs", toMillis(startNanos - traceStartNanos));
+        map.put("durationMs", toMillis(durationNanos()));
+        if (endNanos == 0) {
+            map.put("unfinished", true);
+        }
+        if (error != null) {
+            map.put("error", error);
+        }
+        synchronized (this) {
+            if (attributes != null) {
+                map.put("attributes", new LinkedHashMap<>(attributes));
+            }
+        }
+        return map;
+    }
+
+    static double toMillis(long nanos) {
+        return Math.round(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1) * 100) / 100.0;
+    }
+}
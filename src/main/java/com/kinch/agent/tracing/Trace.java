@@ -0,0 +1,149 @@
+package com.kinch.agent.tracing;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 一次请求的追踪 - 根区间和各阶段区间
+ * 区间数有上限，超出后新区间不再记录（只计数），避免长对话的工具循环撑大内存
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+public final class Trace {
+
+    private final String traceId;
+    private final String name;
+    private final long startMillis;
+    private final int maxSpans;
+    private final Consumer<Trace> onFinish;
+
+    private final AtomicInteger spanIds = new AtomicInteger();
+    private final List<Span> spans = new ArrayList<>();
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private volatile Span root;
+    private volatile int droppedSpans;
+
+    Trace(String traceId, String name, int maxSpans, Consumer<Trace> onFinish) {
+        this.traceId = traceId;
+        this.name = name;
+        this.maxSpans = maxSpans;
+        this.onFinish = onFinish;
+        this.startMillis = System.currentTimeMillis();
+    }
+
+    Span newSpan(String spanName, Span parent, Span previous) {
+        Span span = new Span(this, spanIds.getAndIncrement(), parent != null ? parent.getId() : -1, spanName, previous);
+        synchronized (spans) {
+            if (spans.size() >= maxSpans) {
+                droppedSpans++;
+                return span;
+            }
+            spans.add(span);
+        }
+        if (parent == null) {
+            root = span;
+        }
+        return span;
+    }
+
+    void finish() {
+        onFinish.accept(this);
+    }
+
+    public Trace tag(String key, Object value) {
+        if (value != null) {
+            attributes.put(key, value);
+        }
+        return this;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    Span getRoot() {
+        return root;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long durationNanos() {
+        Span rootSpan = root;
+        return rootSpan != null ? rootSpan.durationNanos() : 0;
+    }
+
+    /**
+     * 摘要：总耗时 + 按区间名汇总的耗时
+     */
+    public Map<String, Object> toSummary() {
+        Map<String, Object> map = header();
+        map.put("breakdown", breakdown());
+        return map;
+    }
+
+    /**
+     * 完整信息：摘要 + 全部区间
+     */
+    public Map<String, Object> toDetail() {
+        Map<String, Object> map = toSummary();
+        Span rootSpan = root;
+        long traceStart = rootSpan != null ? rootSpan.getStartNanos() : 0;
+        List<Map<String, Object>> spanMaps = new ArrayList<>();
+        for (Span span : snapshot()) {
+            spanMaps.add(span.toMap(traceStart));
+        }
+        map.put("spans", spanMaps);
+        return map;
+    }
+
+    private Map<String, Object> header() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("traceId", traceId);
+        map.put("name", name);
+        map.put("startTime", startMillis);
+        map.put("durationMs", Span.toMillis(durationNanos()));
+        map.put("attributes", new LinkedHashMap<>(attributes));
+        if (droppedSpans > 0) {
+            map.put("droppedSpans", droppedSpans);
+        }
+        return map;
+    }
+
+    /**
+     * 同名区间合并：{name -> {count, totalMs}}，按总耗时降序（根区间除外）
+     */
+    private Map<String, Object> breakdown() {
+        Map<String, long[]> totals = new LinkedHashMap<>();
+        Span rootSpan = root;
+        for (Span span : snapshot()) {
+            if (span == rootSpan) {
+                continue;
+            }
+            long[] total = totals.computeIfAbsent(span.getName(), k -> new long[2]);
+            total[0]++;
+            total[1] += span.durationNanos();
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        totals.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]))
+                .forEach(e -> result.put(e.getKey(), Map.of(
+                        "count", e.getValue()[0],
+                        "totalMs", Span.toMillis(e.getValue()[1])
+                )));
+        return result;
+    }
+
+    private List<Span> snapshot() {
+        synchronized (spans) {
+            return new ArrayList<>(spans);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.kinch.agent.tracing;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 追踪存储 - 最近N条已完成追踪的环形缓冲区
+ * 写入只有一次原子自增和数组写；查询时拷贝快照再排序，慢请求超过阈值时打印阶段耗时
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Slf4j
+@Component
+public class TraceStore {
+
+    @Value("${agent.tracing.store-size:1000}")
+    private int storeSize = 1000;
+
+    /**
+     * 慢请求阈值（毫秒），超过时打印阶段耗时，0表示不打印
+     */
+    @Value("${agent.tracing.slow-threshold-ms:10000}")
+    private long slowThresholdMs = 10000;
+
+    private AtomicReferenceArray<Trace> traces;
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder slowTraces = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        traces = new AtomicReferenceArray<>(Math.max(1, storeSize));
+    }
+
+    void add(Trace trace) {
+        long index = sequence.getAndIncrement();
+        traces.set((int) (index % traces.length()), trace);
+        long durationMs = trace.durationNanos() / 1_000_000;
+        if (slowThresholdMs > 0 && durationMs >= slowThresholdMs) {
+            slowTraces.increment();
+            log.warn("🐢 慢请求 - traceId: {}, 耗时: {}ms, 阶段: {}",
+                    trace.getTraceId(), durationMs, trace.toSummary().get("breakdown"));
+        }
+    }
+
+    /**
+     * 最近sinceMillis之后开始的追踪中最慢的limit条
+     */
+    public List<Trace> slowest(int limit, long sinceMillis) {
+        List<Trace> result = new ArrayList<>();
+        for (int i = 0; i < traces.length(); i++) {
+            Trace trace = traces.get(i);
+            if (trace != null && trace.getStartMillis() >= sinceMillis) {
+                result.add(trace);
+            }
+        }
+        result.sort(Comparator.comparingLong(Trace::durationNanos).reversed());
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    public Trace find(String traceId) {
+        for (int i = 0; i < traces.length(); i++) {
+            Trace trace = traces.get(i);
+            if (trace != null && trace.getTraceId().equals(traceId)) {
+                return trace;
+            }
+        }
+        return null;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("recorded", sequence.get());
+        stats.put("retained", Math.min(sequence.get(), traces.length()));
+        stats.put("capacity", traces.length());
+        stats.put("slowTraces", slowTraces.sum());
+        stats.put("slowThresholdMs", slowThresholdMs);
+        return stats;
+    }
+}
@@ -0,0 +1,174 @@
+package com.kinch.agent.tracing;
+
+import com.alibaba.cloud.ai.graph.RunnableConfig;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 进程内请求追踪
+ * <p>
+ * 同一线程内用ThreadLocal记录当前区间，新区间自动挂到当前区间下；
+ * 跨线程时通过RunnableConfig元数据（Hook）或ModelRequest/ToolCallRequest上下文（Interceptor）
+ * 中的TRACE_KEY找到所属追踪，挂到根区间下；提交到线程池的任务用wrap()带上当前区间。
+ * 根区间结束时整条追踪进入TraceStore。发起请求结束后才运行的后台任务（如滚动摘要）
+ * 不挂到已结束的根区间下，而是用startLinkedTrace()开始一条新追踪，并记下发起方的traceId
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Component
+@RequiredArgsConstructor
+public class Tracer {
+
+    /**
+     * RunnableConfig元数据中的追踪键
+     */
+    public static final String TRACE_KEY = "__trace__";
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+
+    private final TraceStore traceStore;
+
+    @Value("${agent.tracing.enabled:true}")
+    private boolean enabled = true;
+
+    /**
+     * 采样率（0~1）
+     */
+    @Value("${agent.tracing.sample-rate:1.0}")
+    private double sampleRate = 1.0;
+
+    /**
+     * 单条追踪最多记录的区间数
+     */
+    @Value("${agent.tracing.max-spans:256}")
+    private int maxSpans = 256;
+
+    /**
+     * 开始一条新追踪，返回根区间（未启用或未采样时返回空操作区间）
+     */
+    public Span startTrace(String name) {
+        if (!enabled || (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return Span.NOOP;
+        }
+        Trace trace = new Trace(newTraceId(), name, maxSpans, traceStore::add);
+        Span root = trace.newSpan(name, null, CURRENT.get());
+        CURRENT.set(root);
+        return root;
+    }
+
+    /**
+     * 为后台任务开始一条关联追踪：独立的根区间，属性linkedTraceId指向发起任务的追踪
+     * （linkedTraceId在提交任务时用currentTraceId()取得，可为null）
+     */
+    public Span startLinkedTrace(String name, String linkedTraceId) {
+        Span root = startTrace(name);
+        if (linkedTraceId != null && !root.isNoop()) {
+            root.getTrace().tag("linkedTraceId", linkedTraceId);
+        }
+        return root;
+    }
+
+    /**
+     * 在当前线程的区间下开始子区间
+     */
+    public Span startSpan(String name) {
+        return startSpan(name, (Object) null);
+    }
+
+    /**
+     * Hook中使用：所属追踪从RunnableConfig元数据中取
+     */
+    public Span startSpan(String name, RunnableConfig config) {
+        return startSpan(name, config != null ? config.metadata(TRACE_KEY).orElse(null) : null);
+    }
+
+    /**
+     * Interceptor中使用：所属追踪从请求上下文中取
+     */
+    public Span startSpan(String name, Map<String, Object> context) {
+        return startSpan(name, context != null ? context.get(TRACE_KEY) : null);
+    }
+
+    private Span startSpan(String name, Object holder) {
+        Span current = CURRENT.get();
+        if (current != null && (holder == null || current.getTrace() == holder)) {
+            return child(current.getTrace(), name, current);
+        }
+        if (holder instanceof Trace trace && trace.getRoot() != null) {
+            return child(trace, name, trace.getRoot());
+        }
+        return Span.NOOP;
+    }
+
+    private Span child(Trace trace, String name, Span parent) {
+        Span span = trace.newSpan(name, parent, CURRENT.get());
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * 当前线程所属的追踪（放入RunnableConfig元数据向下传递）
+     */
+    public Trace currentTrace() {
+        Span current = CURRENT.get();
+        return current != null ? current.getTrace() : null;
+    }
+
+    /**
+     * 当前线程所属追踪的traceId（无追踪时为null）
+     */
+    public String currentTraceId() {
+        Trace trace = currentTrace();
+        return trace != null ? trace.getTraceId() : null;
+    }
+
+    /**
+     * 包装提交到线程池的任务，在执行线程上恢复提交时的当前区间。
+     * 任务结束后无论是否异常都重置线程上的区间：任务内因异常未关闭的区间不会留在池化线程上，
+     * 被后续任务误当作父区间（调用方线程直接执行时恢复其原来的未结束区间）
+     */
+    public Runnable wrap(Runnable task) {
+        Span captured = CURRENT.get();
+        return () -> {
+            Span previous = CURRENT.get();
+            if (captured != null) {
+                CURRENT.set(captured);
+            } else {
+                CURRENT.remove();
+            }
+            try {
+                task.run();
+            } finally {
+                if (previous != null && !previous.isFinished()) {
+                    CURRENT.set(previous);
+                } else {
+                    CURRENT.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * 区间结束时恢复线程上的父区间（只处理按嵌套顺序结束的情况）
+     */
+    static void restore(Span span, Span previous) {
+        if (CURRENT.get() != span) {
+            return;
+        }
+        if (previous != null && !previous.isFinished()) {
+            CURRENT.set(previous);
+        } else {
+            CURRENT.remove();
+        }
+    }
+
+    private static String newTraceId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return Long.toHexString(random.nextLong() | Long.MIN_VALUE);
+    }
+}
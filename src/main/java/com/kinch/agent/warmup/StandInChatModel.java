@@ -0,0 +1,42 @@
+package com.kinch.agent.warmup;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+/**
+ * 本地替身模型 - 启动预热时代替DashScope，不发网络请求
+ * 固定返回一条不带工具调用的回复，带模型名和Token用量，让Interceptor和Hook走完整的记录路径。
+ * 不注册为Bean，避免与chatModel冲突
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class StandInChatModel implements ChatModel {
+
+    static final String MODEL_NAME = "warmup-stand-in";
+
+    private static final String REPLY = "预热回复：北京今天晴，气温18~26℃，适合出行。";
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        int promptChars = prompt.getContents() != null ? prompt.getContents().length() : 0;
+        ChatResponseMetadata metadata = ChatResponseMetadata.builder()
+                .model(MODEL_NAME)
+                .usage(new DefaultUsage(Math.max(1, promptChars / 2), REPLY.length() / 2))
+                .build();
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(REPLY))), metadata);
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.just(call(prompt));
+    }
+}
@@ -0,0 +1,154 @@
+package com.kinch.agent.warmup;
+
+import com.alibaba.cloud.ai.graph.RunnableConfig;
+import com.alibaba.cloud.ai.graph.agent.ReactAgent;
+import com.kinch.agent.config.AgentConfig;
+import com.kinch.agent.config.AgentRegistry;
+import com.kinch.agent.service.PromptManagementServiceV2;
+import com.kinch.agent.workflow.RealStateGraphWorkflow;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * 启动预热 - 在就绪（ReadinessState.ACCEPTING_TRAFFIC）之前执行
+ * <p>
+ * Spring Boot在所有ApplicationRunner执行完后才发布就绪事件，所以这里的耗时计入启动，
+ * 就绪探针在预热完成前返回REFUSING_TRAFFIC。各阶段：
+ * <ul>
+ *     <li>agents - 在AgentRegistry中构建并编译常用Agent</li>
+ *     <li>graphs - 编译一遍RealStateGraphWorkflow的工作流（类加载、编译路径的JIT）</li>
+ *     <li>prompts - 把热门提示词模板写入Redis缓存</li>
+ *     <li>hooks - 用本地替身模型多次调用Agent，走完整的Hooks/Interceptors链</li>
+ * </ul>
+ * 替身调用在元数据中带WARMUP_KEY：审计不落库，不扣配额、不限流、不写Token日志；
+ * Interceptor照常走完记录路径，但不写入Micrometer、延迟直方图（MetricsTimeSeries同源），
+ * 就绪后的统计里不含预热调用。某阶段失败只记录错误，不影响启动
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class WarmUpRunner implements ApplicationRunner {
+
+    /**
+     * RunnableConfig元数据中的预热标记
+     */
+    public static final String WARMUP_KEY = "__warmup__";
+
+    private static final String WARMUP_AGENT = "warmup_agent";
+
+    private static final String WARMUP_MESSAGE = "预热请求：帮我查一下北京的天气，结果发到 warmup@example.com";
+
+    private final AgentRegistry agentRegistry;
+    private final AgentConfig.AgentFactory agentFactory;
+    private final RealStateGraphWorkflow realStateGraphWorkflow;
+    private final PromptManagementServiceV2 promptManagementService;
+
+    @Value("${agent.warmup.enabled:true}")
+    private boolean enabled = true;
+
+    /**
+     * 执行的阶段及顺序
+     */
+    @Value("${agent.warmup.stages:agents,graphs,prompts,hooks}")
+    private List<String> stages = List.of("agents", "graphs", "prompts", "hooks");
+
+    /**
+     * hooks阶段的替身调用次数
+     */
+    @Value("${agent.warmup.hook-iterations:50}")
+    private int hookIterations = 50;
+
+    private final Map<String, Object> report = new LinkedHashMap<>();
+    private volatile long totalMillis = -1;
+
+    /**
+     * 是否为预热调用（Hook中跳过落库、扣配额等副作用）
+     */
+    public static boolean isWarmUp(RunnableConfig config) {
+        return config != null && config.metadata(WARMUP_KEY).isPresent();
+    }
+
+    /**
+     * Interceptor中使用：ModelRequest/ToolCallRequest的上下文即RunnableConfig元数据
+     */
+    public static boolean isWarmUp(Map<String, Object> context) {
+        return context != null && context.containsKey(WARMUP_KEY);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            log.info("启动预热已关闭");
+            return;
+        }
+        log.info("🔥 启动预热开始 - 阶段: {}", stages);
+        long start = System.nanoTime();
+        for (String stage : stages) {
+            switch (stage.trim()) {
+                case "agents" -> runStage("agents", agentRegistry::preload);
+                case "graphs" -> runStage("graphs", this::compileGraphs);
+                case "prompts" -> runStage("prompts", promptManagementService::preloadPopularTemplates);
+                case "hooks" -> runStage("hooks", this::exerciseHooks);
+                default -> log.warn("⚠️ 未知的预热阶段: {}", stage);
+            }
+        }
+        totalMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("🔥 启动预热完成 - 总耗时: {}ms, 各阶段: {}", totalMillis, report);
+    }
+
+    private void runStage(String stage, Callable<Integer> action) {
+        long start = System.nanoTime();
+        Map<String, Object> result = new LinkedHashMap<>();
+        try {
+            result.put("items", action.call());
+        } catch (Exception e) {
+            log.warn("⚠️ 预热阶段失败 - {}: {}", stage, e.getMessage());
+            result.put("error", e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+        result.put("durationMs", (System.nanoTime() - start) / 1_000_000);
+        synchronized (report) {
+            report.put(stage, result);
+        }
+    }
+
+    private int compileGraphs() throws Exception {
+        realStateGraphWorkflow.createDevelopmentWorkflow();
+        realStateGraphWorkflow.createConditionalWorkflow();
+        return 2;
+    }
+
+    private int exerciseHooks() throws Exception {
+        ReactAgent agent = agentFactory.createAgent(WARMUP_AGENT, new StandInChatModel());
+        for (int i = 0; i < hookIterations; i++) {
+            RunnableConfig config = RunnableConfig.builder()
+                    .addMetadata(WARMUP_KEY, true)
+                    .addMetadata("agentName", WARMUP_AGENT)
+                    .build();
+            agent.call(WARMUP_MESSAGE, config);
+        }
+        return hookIterations;
+    }
+
+    public Map<String, Object> getReport() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", enabled);
+        result.put("completed", totalMillis >= 0);
+        result.put("totalMs", totalMillis);
+        synchronized (report) {
+            result.put("stages", new LinkedHashMap<>(report));
+        }
+        return result;
+    }
+}
@@ -5,6 +5,8 @@ import com.alibaba.cloud.ai.graph.action.NodeAction;
 import com.alibaba.cloud.ai.graph.checkpoint.config.SaverConfig;
 import com.alibaba.cloud.ai.graph.checkpoint.savers.MemorySaver;
 import com.alibaba.cloud.ai.graph.exception.GraphStateException;
+import com.kinch.agent.jfr.WorkflowNodeEvent;
+import com.kinch.agent.ratelimit.HedgedModelCaller;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
@@ -35,6 +37,7 @@ import static com.alibaba.cloud.ai.graph.action.AsyncNodeAction.node_async;
 public class RealStateGraphWorkflow {
 
     private final ChatModel chatModel;
+    private final HedgedModelCaller hedgedModelCaller;
 
     // ========== 状态定义 ==========
 
@@ -124,9 +127,11 @@ public class RealStateGraphWorkflow {
      */
     public static class ClassifyRequirementNode implements NodeAction {
         private final ChatClient chatClient;
+        private final HedgedModelCaller hedgedModelCaller;
 
-        public ClassifyRequirementNode(ChatClient.Builder chatClientBuilder) {
+        public ClassifyRequirementNode(ChatClient.Builder chatClientBuilder, HedgedModelCaller hedgedModelCaller) {
             this.chatClient = chatClientBuilder.build();
+            this.hedgedModelCaller = hedgedModelCaller;
         }
 
         @Override
@@ -150,10 +155,11 @@ public class RealStateGraphWorkflow {
                     返回JSON格式: {"type": "...", "complexity": "...", "category": "...", "summary": "..."}
                     """, requirement);
 
-            String response = chatClient.prompt()
+            // 分类是幂等的短补全，长尾时对冲
+            String response = hedgedModelCaller.call("classify_requirement", () -> chatClient.prompt()
                     .user(classificationPrompt)
                     .call()
-                    .content();
+                    .content());
 
             // 解析分类结果
             RequirementClassification classification = parseClassification(response);
@@ -454,6 +460,25 @@ public class RealStateGraphWorkflow {
 
     // ========== Graph 构建 ==========
 
+    /**
+     * 包装节点，每次执行发出JFR事件WorkflowNodeEvent
+     */
+    static NodeAction recorded(String workflow, String node, NodeAction action) {
+        return state -> {
+            WorkflowNodeEvent event = new WorkflowNodeEvent();
+            event.begin();
+            event.workflow = workflow;
+            event.node = node;
+            try {
+                Map<String, Object> result = action.apply(state);
+                event.success = true;
+                return result;
+            } finally {
+                event.commit();
+            }
+        };
+    }
+
     /**
      * 创建开发工作流 StateGraph
      */
@@ -463,14 +488,14 @@ public class RealStateGraphWorkflow {
         ChatClient.Builder chatClientBuilder = ChatClient.builder(chatModel);
 
         // 创建节点
-        var readRequirement = node_async(new ReadRequirementNode());
-        var classifyRequirement = node_async(new ClassifyRequirementNode(chatClientBuilder));
-        var quickAnalysis = node_async(new QuickAnalysisNode(chatClientBuilder));
-        var detailedAnalysis = node_async(new DetailedAnalysisNode(chatClientBuilder));
-        var generateSolution = node_async(new GenerateSolutionNode(chatClientBuilder));
-        var generateCode = node_async(new GenerateCodeNode(chatClientBuilder));
-        var generateTests = node_async(new GenerateTestsNode(chatClientBuilder));
-        var humanReview = node_async(new HumanReviewNode());
+        var readRequirement = node_async(recorded("development", "read_requirement", new ReadRequirementNode()));
+        var classifyRequirement = node_async(recorded("development", "classify_requirement", new ClassifyRequirementNode(chatClientBuilder, hedgedModelCaller)));
+        var quickAnalysis = node_async(recorded("development", "quick_analysis", new QuickAnalysisNode(chatClientBuilder)));
+        var detailedAnalysis = node_async(recorded("development", "detailed_analysis", new DetailedAnalysisNode(chatClientBuilder)));
+        var generateSolution = node_async(recorded("development", "generate_solution", new GenerateSolutionNode(chatClientBuilder)));
+        var generateCode = node_async(recorded("development", "generate_code", new GenerateCodeNode(chatClientBuilder)));
+        var generateTests = node_async(recorded("development", "generate_tests", new GenerateTestsNode(chatClientBuilder)));
+        var humanReview = node_async(recorded("development", "human_review", new HumanReviewNode()));
 
         // 创建 StateGraph
         StateGraph workflow = new StateGraph(createKeyStrategyFactory())
@@ -601,9 +626,11 @@ public class RealStateGraphWorkflow {
      */
     public static class ClassifyContentNode implements NodeAction {
         private final ChatClient chatClient;
+        private final HedgedModelCaller hedgedModelCaller;
 
-        public ClassifyContentNode(ChatClient.Builder chatClientBuilder) {
+        public ClassifyContentNode(ChatClient.Builder chatClientBuilder, HedgedModelCaller hedgedModelCaller) {
             this.chatClient = chatClientBuilder.build();
+            this.hedgedModelCaller = hedgedModelCaller;
         }
 
         @Override
@@ -627,10 +654,11 @@ public class RealStateGraphWorkflow {
                     只回答类型名称即可。
                     """, input);
 
-            String response = chatClient.prompt()
+            // 分类是幂等的短补全，长尾时对冲
+            String response = hedgedModelCaller.call("classify_content", () -> chatClient.prompt()
                     .user(classifyPrompt)
                     .call()
-                    .content()
+                    .content())
                     .toLowerCase();
 
             // 确定类型
@@ -796,10 +824,10 @@ public class RealStateGraphWorkflow {
         ChatClient.Builder chatClientBuilder = ChatClient.builder(chatModel);
 
         // 创建节点
-        var classifyContent = node_async(new ClassifyContentNode(chatClientBuilder));
-        var handleTechnical = node_async(new HandleTechnicalNode(chatClientBuilder));
-        var handleBusiness = node_async(new HandleBusinessNode(chatClientBuilder));
-        var handleGeneral = node_async(new HandleGeneralNode(chatClientBuilder));
+        var classifyContent = node_async(recorded("conditional", "classify", new ClassifyContentNode(chatClientBuilder, hedgedModelCaller)));
+        var handleTechnical = node_async(recorded("conditional", "technical", new HandleTechnicalNode(chatClientBuilder)));
+        var handleBusiness = node_async(recorded("conditional", "business", new HandleBusinessNode(chatClientBuilder)));
+        var handleGeneral = node_async(recorded("conditional", "general", new HandleGeneralNode(chatClientBuilder)));
 
         // 创建 StateGraph
         StateGraph workflow = new StateGraph(createConditionalKeyStrategyFactory())
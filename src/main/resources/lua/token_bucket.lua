@@ -0,0 +1,42 @@
+-- 多桶令牌桶：所有桶都满足need时才一起扣减（原子执行）
+-- KEYS[i]  : 桶key
+-- ARGV     : 每个桶4个参数 capacity, refillPerSecond, need, want
+-- 返回     : {0, grant1, grant2, ...} 放行，grant为实际发放的令牌数（need <= grant <= want）
+--            {i} 第i个桶令牌不足
+local t = redis.call('TIME')
+local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+local n = #KEYS
+local available = {}
+
+for i = 1, n do
+    local base = (i - 1) * 4
+    local capacity = tonumber(ARGV[base + 1])
+    local rate = tonumber(ARGV[base + 2])
+    local need = tonumber(ARGV[base + 3])
+    local state = redis.call('HMGET', KEYS[i], 'tokens', 'ts')
+    local tokens = tonumber(state[1])
+    local ts = tonumber(state[2])
+    if tokens == nil or ts == nil then
+        tokens = capacity
+    else
+        tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate / 1000)
+    end
+    if tokens < need then
+        return {i}
+    end
+    available[i] = tokens
+end
+
+local result = {0}
+for i = 1, n do
+    local base = (i - 1) * 4
+    local capacity = tonumber(ARGV[base + 1])
+    local rate = tonumber(ARGV[base + 2])
+    local need = tonumber(ARGV[base + 3])
+    local want = tonumber(ARGV[base + 4])
+    local grant = math.max(need, math.min(want, math.floor(available[i])))
+    redis.call('HSET', KEYS[i], 'tokens', tostring(available[i] - grant), 'ts', now)
+    redis.call('PEXPIRE', KEYS[i], math.ceil(capacity / rate * 1000) + 1000)
+    result[i + 1] = grant
+end
+return result
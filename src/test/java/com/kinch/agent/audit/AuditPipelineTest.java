@@ -0,0 +1,237 @@
+package com.kinch.agent.audit;
+
+import com.kinch.agent.entity.AuditLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.kinch.agent.audit.AuditRingBufferTest.event;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * AuditPipeline：关闭时排空、关闭后拒绝发布、背压策略、输出端失败重试、输出端在写入线程退出后才关闭
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class AuditPipelineTest {
+
+    private AuditPipeline pipeline;
+
+    @AfterEach
+    void tearDown() {
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    void shutdownDrainsEverythingBeforeClosingSinks() {
+        RecordingSink sink = new RecordingSink();
+        pipeline = pipeline(sink, 1024, AuditPipeline.Backpressure.DROP);
+        for (int i = 0; i < 500; i++) {
+            assertThat(pipeline.publish(event(i))).isTrue();
+        }
+
+        pipeline.shutdown();
+
+        assertThat(sink.written).hasSize(500);
+        assertThat(sink.events).last().isEqualTo("close");
+        assertThat(pipeline.getQueueSize()).isZero();
+    }
+
+    @Test
+    void publishAfterShutdownIsRejected() {
+        RecordingSink sink = new RecordingSink();
+        pipeline = pipeline(sink, 16, AuditPipeline.Backpressure.DROP);
+        pipeline.shutdown();
+
+        assertThat(pipeline.publish(event(1))).isFalse();
+
+        assertThat(pipeline.getQueueSize()).isZero();
+        assertThat(sink.written).isEmpty();
+        assertThat(pipeline.getStatistics().get("rejectedAfterShutdown")).isEqualTo(1L);
+    }
+
+    @Test
+    void concurrentPublishersDuringShutdownAreEitherWrittenOrRejected() throws InterruptedException {
+        RecordingSink sink = new RecordingSink();
+        pipeline = pipeline(sink, 4096, AuditPipeline.Backpressure.BLOCK);
+        AtomicInteger accepted = new AtomicInteger();
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    if (pipeline.publish(event(i))) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        Thread.sleep(5);
+
+        pipeline.shutdown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // 进入缓冲区的事件一条不少地写出，其余被拒绝或丢弃
+        assertThat(sink.written).hasSize(accepted.get());
+        assertThat(pipeline.getQueueSize()).isZero();
+    }
+
+    @Test
+    void dropPolicyDiscardsWhenBufferIsFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink sink = new RecordingSink(release);
+        pipeline = pipeline(sink, 4, AuditPipeline.Backpressure.DROP);
+
+        // 第一条被写入线程取走并卡在输出端，之后4条占满缓冲区
+        pipeline.publish(event(0));
+        assertThat(sink.entered.await(5, TimeUnit.SECONDS)).isTrue();
+        int accepted = 0;
+        for (int i = 1; i <= 10; i++) {
+            if (pipeline.publish(event(i))) {
+                accepted++;
+            }
+        }
+
+        assertThat(accepted).isEqualTo(4);
+        assertThat(pipeline.getStatistics().get("dropped")).isEqualTo(6L);
+        release.countDown();
+        pipeline.shutdown();
+        assertThat(sink.written).hasSize(5);
+    }
+
+    @Test
+    void blockPolicyWaitsForSpaceThenDrops() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink sink = new RecordingSink(release);
+        pipeline = pipeline(sink, 1, AuditPipeline.Backpressure.BLOCK);
+        ReflectionTestUtils.setField(pipeline, "blockTimeoutMs", 20L);
+        pipeline.publish(event(0));
+        assertThat(sink.entered.await(5, TimeUnit.SECONDS)).isTrue();
+        pipeline.publish(event(1));
+
+        long start = System.nanoTime();
+        assertThat(pipeline.publish(event(2))).isFalse();
+
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+        assertThat(pipeline.getStatistics().get("blockedPublishes")).isEqualTo(1L);
+        release.countDown();
+    }
+
+    @Test
+    void failingSinkIsRetriedOnceWithoutAffectingOthers() {
+        RecordingSink healthy = new RecordingSink();
+        AtomicInteger attempts = new AtomicInteger();
+        AuditSink flaky = new AuditSink() {
+            @Override
+            public String getName() {
+                return "flaky";
+            }
+
+            @Override
+            public void write(List<AuditLog> batch) {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new IllegalStateException("disk full");
+                }
+            }
+        };
+        pipeline = pipeline(List.of(healthy, flaky), 16, AuditPipeline.Backpressure.DROP);
+        pipeline.publish(event(1));
+
+        pipeline.shutdown();
+
+        assertThat(attempts.get()).isEqualTo(2);
+        assertThat(healthy.written).hasSize(1);
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Long>> sinks = (Map<String, Map<String, Long>>) pipeline.getStatistics().get("sinks");
+        assertThat(sinks.get("flaky").get("written")).isEqualTo(1L);
+        assertThat(sinks.get("flaky").get("failed")).isZero();
+    }
+
+    @Test
+    void sinksCloseOnlyAfterStuckWriterIsInterrupted() {
+        // 输出端一直阻塞，直到被中断
+        RecordingSink sink = new RecordingSink(new CountDownLatch(1));
+        pipeline = pipeline(sink, 16, AuditPipeline.Backpressure.DROP);
+        ReflectionTestUtils.setField(pipeline, "shutdownTimeoutMs", 50L);
+        pipeline.publish(event(1));
+        pipeline.publish(event(2));
+
+        pipeline.shutdown();
+
+        assertThat(sink.events).containsExactly("write-start", "write-interrupted", "close");
+    }
+
+    private static AuditPipeline pipeline(AuditSink sink, int bufferSize, AuditPipeline.Backpressure backpressure) {
+        return pipeline(List.of(sink), bufferSize, backpressure);
+    }
+
+    private static AuditPipeline pipeline(List<AuditSink> sinks, int bufferSize,
+                                          AuditPipeline.Backpressure backpressure) {
+        AuditPipeline pipeline = new AuditPipeline(sinks);
+        ReflectionTestUtils.setField(pipeline, "bufferSize", bufferSize);
+        ReflectionTestUtils.setField(pipeline, "batchSize", 64);
+        ReflectionTestUtils.setField(pipeline, "flushIntervalMs", 5L);
+        ReflectionTestUtils.setField(pipeline, "backpressure", backpressure);
+        ReflectionTestUtils.setField(pipeline, "blockTimeoutMs", 5L);
+        ReflectionTestUtils.setField(pipeline, "sinkNames",
+                Set.copyOf(sinks.stream().map(AuditSink::getName).toList()));
+        ReflectionTestUtils.setField(pipeline, "shutdownTimeoutMs", 5_000L);
+        pipeline.start();
+        return pipeline;
+    }
+
+    private static final class RecordingSink implements AuditSink {
+        final List<AuditLog> written = Collections.synchronizedList(new ArrayList<>());
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        RecordingSink() {
+            this(null);
+        }
+
+        RecordingSink(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public String getName() {
+            return "recording";
+        }
+
+        @Override
+        public void write(List<AuditLog> batch) throws InterruptedException {
+            if (release != null) {
+                events.add("write-start");
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    events.add("write-interrupted");
+                    throw e;
+                }
+            }
+            written.addAll(batch);
+        }
+
+        @Override
+        public void close() {
+            events.add("close");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.kinch.agent.audit;
+
+import com.kinch.agent.entity.AuditLog;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * AuditRingBuffer：容量取整、环绕后的顺序、满时拒绝与等待、多生产者不丢不重
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class AuditRingBufferTest {
+
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() {
+        assertThat(new AuditRingBuffer(8).capacity()).isEqualTo(8);
+        assertThat(new AuditRingBuffer(9).capacity()).isEqualTo(16);
+        assertThat(new AuditRingBuffer(1).capacity()).isEqualTo(1);
+        assertThatThrownBy(() -> new AuditRingBuffer(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void preservesOrderAcrossManyWraps() {
+        AuditRingBuffer buffer = new AuditRingBuffer(4);
+        List<AuditLog> out = new ArrayList<>();
+        long next = 0;
+        for (int round = 0; round < 50; round++) {
+            // 每轮发布3条、取出3条，槽位与序号错开，覆盖所有环绕位置
+            for (int i = 0; i < 3; i++) {
+                assertThat(buffer.tryPublish(event(next + i))).isTrue();
+            }
+            out.clear();
+            assertThat(buffer.drainTo(out, 10)).isEqualTo(3);
+            for (int i = 0; i < 3; i++) {
+                assertThat(out.get(i).getUserId()).isEqualTo(next + i);
+            }
+            next += 3;
+        }
+        assertThat(buffer.size()).isZero();
+    }
+
+    @Test
+    void rejectsWhenFullUntilConsumerFreesSlots() {
+        AuditRingBuffer buffer = new AuditRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.tryPublish(event(i))).isTrue();
+        }
+        assertThat(buffer.tryPublish(event(4))).isFalse();
+        assertThat(buffer.size()).isEqualTo(4);
+
+        List<AuditLog> out = new ArrayList<>();
+        assertThat(buffer.drainTo(out, 1)).isEqualTo(1);
+        assertThat(buffer.tryPublish(event(4))).isTrue();
+        assertThat(buffer.tryPublish(event(5))).isFalse();
+    }
+
+    @Test
+    void drainRespectsMax() {
+        AuditRingBuffer buffer = new AuditRingBuffer(8);
+        for (int i = 0; i < 5; i++) {
+            buffer.tryPublish(event(i));
+        }
+        List<AuditLog> out = new ArrayList<>();
+
+        assertThat(buffer.drainTo(out, 2)).isEqualTo(2);
+        assertThat(buffer.drainTo(out, 10)).isEqualTo(3);
+        assertThat(out).extracting(AuditLog::getUserId).containsExactly(0L, 1L, 2L, 3L, 4L);
+    }
+
+    @Test
+    void blockingPublishTimesOutWhenNobodyDrains() {
+        AuditRingBuffer buffer = new AuditRingBuffer(1);
+        buffer.tryPublish(event(0));
+
+        long start = System.nanoTime();
+        assertThat(buffer.publish(event(1), TimeUnit.MILLISECONDS.toNanos(20))).isFalse();
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    void blockingPublishSucceedsOnceConsumerDrains() throws InterruptedException {
+        AuditRingBuffer buffer = new AuditRingBuffer(1);
+        buffer.tryPublish(event(0));
+        Thread consumer = new Thread(() -> {
+            sleep(20);
+            buffer.drainTo(new ArrayList<>(), 1);
+        });
+        consumer.start();
+
+        assertThat(buffer.publish(event(1), TimeUnit.SECONDS.toNanos(5))).isTrue();
+        consumer.join();
+    }
+
+    @Test
+    void concurrentProducersLoseNothing() throws InterruptedException {
+        AuditRingBuffer buffer = new AuditRingBuffer(64);
+        int producers = 4;
+        int perProducer = 2_000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            long base = (long) p * perProducer;
+            executor.execute(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.tryPublish(event(base + i))) {
+                        Thread.onSpinWait();
+                    }
+                }
+                done.countDown();
+            });
+        }
+
+        Set<Long> seen = new HashSet<>();
+        List<AuditLog> out = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (seen.size() < producers * perProducer && System.nanoTime() < deadline) {
+            out.clear();
+            buffer.drainTo(out, 32);
+            out.forEach(e -> assertThat(seen.add(e.getUserId())).isTrue());
+        }
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        executor.shutdown();
+
+        assertThat(seen).hasSize(producers * perProducer);
+        assertThat(buffer.size()).isZero();
+    }
+
+    static AuditLog event(long id) {
+        AuditLog auditLog = new AuditLog();
+        auditLog.setUserId(id);
+        auditLog.setOperationType("model_call");
+        return auditLog;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
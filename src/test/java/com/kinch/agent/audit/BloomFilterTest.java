@@ -0,0 +1,82 @@
+package com.kinch.agent.audit;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * BloomFilter：放入过的值一定命中（不漏判），序列化往返后仍成立，误判率在配置附近
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class BloomFilterTest {
+
+    @Test
+    void neverReportsFalseNegatives() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01);
+        Random random = new Random(42);
+        long[] values = new long[20_000];
+        for (int i = 0; i < values.length; i++) {
+            // 超过预计元素数一倍，误判率变高但不能漏判
+            values[i] = random.nextLong();
+            filter.put(values[i]);
+        }
+
+        for (long value : values) {
+            assertThat(filter.mightContain(value)).isTrue();
+        }
+    }
+
+    @Test
+    void edgeValuesAreFound() {
+        BloomFilter filter = BloomFilter.create(100, 0.01);
+        long[] values = {0L, -1L, 1L, Long.MIN_VALUE, Long.MAX_VALUE};
+        for (long value : values) {
+            filter.put(value);
+        }
+
+        for (long value : values) {
+            assertThat(filter.mightContain(value)).isTrue();
+        }
+    }
+
+    @Test
+    void survivesSerializationRoundTrip() throws IOException {
+        BloomFilter filter = BloomFilter.create(1_000, 0.01);
+        for (long userId = 1; userId <= 1_000; userId++) {
+            filter.put(userId);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.writeTo(new DataOutputStream(bytes));
+
+        BloomFilter loaded = BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        for (long userId = 1; userId <= 1_000; userId++) {
+            assertThat(loaded.mightContain(userId)).isTrue();
+        }
+    }
+
+    @Test
+    void falsePositiveRateIsNearConfigured() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01);
+        for (long userId = 0; userId < 10_000; userId++) {
+            filter.put(userId);
+        }
+
+        int falsePositives = 0;
+        for (long userId = 1_000_000; userId < 1_100_000; userId++) {
+            if (filter.mightContain(userId)) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives / 100_000.0).isLessThan(0.02);
+    }
+}
@@ -0,0 +1,208 @@
+package com.kinch.agent.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kinch.agent.entity.AuditLog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SegmentedAuditStore：段滚动、异常退出后的恢复与残缺尾块截断、布隆过滤器跳段不漏查、过期段在查询结束后才删除
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class SegmentedAuditStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private SegmentedAuditStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = newStore();
+    }
+
+    @Test
+    void rollsOverToNewSegmentAndQueriesAcrossSegments() throws Exception {
+        // 大小上限为0：每批都滚动到新段
+        ReflectionTestUtils.setField(store, "maxSegmentMb", 0L);
+        LocalDateTime base = LocalDateTime.now().minusMinutes(10);
+        for (int i = 0; i < 3; i++) {
+            store.write(List.of(record(1L, base.plusMinutes(i)), record(2L, base.plusMinutes(i))));
+        }
+
+        assertThat(store.getStatistics().get("segments")).isEqualTo(3);
+        // 前两段已封存并写出索引
+        assertThat(files(".idx")).hasSize(2);
+        List<AuditLog> result = store.query(1L, null, null, 10);
+        assertThat(result).extracting(AuditLog::getCreateTime)
+                .containsExactly(base.plusMinutes(2), base.plusMinutes(1), base);
+    }
+
+    @Test
+    void sealedSegmentsReloadFromIndex() throws Exception {
+        store.write(List.of(record(1L, LocalDateTime.now()), record(2L, LocalDateTime.now())));
+        store.close();
+
+        SegmentedAuditStore reopened = newStore();
+
+        assertThat(reopened.query(null, null, null, 10)).hasSize(2);
+        assertThat(reopened.query(2L, null, null, 10)).hasSize(1);
+    }
+
+    @Test
+    void recoversActiveSegmentWithoutIndexAfterCrash() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            store.write(List.of(record(i, LocalDateTime.now())));
+        }
+        // 不调用close，模拟进程异常退出：活动段没有索引文件
+        assertThat(files(".idx")).isEmpty();
+
+        SegmentedAuditStore recovered = newStore();
+
+        assertThat(recovered.query(null, null, null, 100)).hasSize(5);
+        assertThat(files(".idx")).hasSize(1);
+        for (long userId = 0; userId < 5; userId++) {
+            assertThat(recovered.query(userId, null, null, 10)).hasSize(1);
+        }
+    }
+
+    @Test
+    void recoveryTruncatesTornTailBlock() throws Exception {
+        store.write(List.of(record(1L, LocalDateTime.now())));
+        store.write(List.of(record(2L, LocalDateTime.now())));
+        Path data = files(".seg").get(0);
+        long intact = Files.size(data);
+        // 追加一个块头声明1000字节、实际只写了10字节的残缺块
+        try (FileChannel channel = FileChannel.open(data, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(28 + 10);
+            torn.putInt(1000).putInt(2000).putInt(3).putLong(0).putLong(0);
+            torn.flip();
+            channel.write(torn);
+        }
+
+        SegmentedAuditStore recovered = newStore();
+
+        assertThat(Files.size(data)).isEqualTo(intact);
+        assertThat(recovered.query(null, null, null, 10)).extracting(AuditLog::getUserId).containsExactly(2L, 1L);
+    }
+
+    @Test
+    void recoveryDropsPartialBlockHeader() throws Exception {
+        store.write(List.of(record(1L, LocalDateTime.now())));
+        Path data = files(".seg").get(0);
+        long intact = Files.size(data);
+        Files.write(data, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+
+        SegmentedAuditStore recovered = newStore();
+
+        assertThat(Files.size(data)).isEqualTo(intact);
+        assertThat(recovered.query(null, null, null, 10)).hasSize(1);
+    }
+
+    @Test
+    void bloomFilterNeverSkipsSegmentContainingUser() throws Exception {
+        ReflectionTestUtils.setField(store, "maxSegmentMb", 0L);
+        // 预计用户数远小于实际，误判变多，但不能漏查
+        ReflectionTestUtils.setField(store, "expectedUsers", 8);
+        for (long segment = 0; segment < 4; segment++) {
+            List<AuditLog> batch = Stream.iterate(segment * 100, id -> id + 1).limit(100)
+                    .map(id -> record(id, LocalDateTime.now()))
+                    .toList();
+            store.write(batch);
+        }
+        store.close();
+        SegmentedAuditStore reopened = newStore();
+
+        for (long userId = 0; userId < 400; userId++) {
+            assertThat(reopened.query(userId, null, null, 10)).hasSize(1);
+        }
+        assertThat(reopened.query(10_000L, null, null, 10)).isEmpty();
+    }
+
+    @Test
+    void expiredSegmentIsDeletedOnlyAfterLastReaderReleases() throws Exception {
+        ReflectionTestUtils.setField(store, "maxSegmentMb", 0L);
+        store.write(List.of(record(1L, LocalDateTime.now().minusDays(40))));
+        store.write(List.of(record(2L, LocalDateTime.now())));
+        AuditSegment expired = segments(store).get(0);
+        Path data = files(".seg").get(0);
+
+        // 模拟正在读取该段的查询
+        assertThat(expired.retain()).isTrue();
+        store.expireSegments();
+
+        assertThat(store.getStatistics().get("expiredSegments")).isEqualTo(1L);
+        assertThat(store.query(null, null, null, 10)).extracting(AuditLog::getUserId).containsExactly(2L);
+        assertThat(data).exists();
+        try (FileChannel channel = expired.openForRead()) {
+            assertThat(channel.size()).isPositive();
+        }
+
+        assertThat(expired.release()).isTrue();
+        assertThat(data).doesNotExist();
+        assertThat(expired.retain()).isFalse();
+    }
+
+    @Test
+    void expireKeepsRecentAndActiveSegments() throws Exception {
+        store.write(List.of(record(1L, LocalDateTime.now().minusDays(40))));
+
+        // 唯一的段仍是活动段，不删除
+        store.expireSegments();
+
+        assertThat(store.getStatistics().get("segments")).isEqualTo(1);
+        assertThat(files(".seg")).hasSize(1);
+    }
+
+    private SegmentedAuditStore newStore() throws IOException {
+        SegmentedAuditStore segmentStore = new SegmentedAuditStore(new ObjectMapper().findAndRegisterModules());
+        ReflectionTestUtils.setField(segmentStore, "sinkNames", Set.of("segment"));
+        ReflectionTestUtils.setField(segmentStore, "dir", dir.toString());
+        ReflectionTestUtils.setField(segmentStore, "maxSegmentMb", 64L);
+        ReflectionTestUtils.setField(segmentStore, "maxSegmentMinutes", 60L);
+        ReflectionTestUtils.setField(segmentStore, "expectedUsers", 1000);
+        ReflectionTestUtils.setField(segmentStore, "bloomFpp", 0.01);
+        ReflectionTestUtils.setField(segmentStore, "retentionDays", 30);
+        segmentStore.init();
+        return segmentStore;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<AuditSegment> segments(SegmentedAuditStore segmentStore) {
+        return List.copyOf(((NavigableMap<Long, AuditSegment>) ReflectionTestUtils.getField(segmentStore, "segments"))
+                .values());
+    }
+
+    private List<Path> files(String suffix) throws IOException {
+        try (Stream<Path> stream = Files.list(dir)) {
+            return stream.filter(path -> path.toString().endsWith(suffix)).sorted().toList();
+        }
+    }
+
+    private static AuditLog record(long userId, LocalDateTime time) {
+        AuditLog auditLog = new AuditLog();
+        auditLog.setUserId(userId);
+        auditLog.setOperationType("model_call");
+        auditLog.setStatus("success");
+        auditLog.setCreateTime(time);
+        return auditLog;
+    }
+}
@@ -0,0 +1,90 @@
+package com.kinch.agent.benchmark;
+
+import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
+import com.alibaba.cloud.ai.graph.agent.ReactAgent;
+import com.alibaba.cloud.ai.graph.agent.hook.modelcalllimit.ModelCallLimitHook;
+import com.kinch.agent.config.AgentConfig;
+import com.kinch.agent.config.AgentRegistry;
+import com.kinch.agent.hook.CustomAuditHook;
+import com.kinch.agent.hook.CustomSecurityHook;
+import com.kinch.agent.hook.CustomTokenLimitHook;
+import com.kinch.agent.hook.MessageTrimmingHook;
+import com.kinch.agent.interceptor.PerformanceInterceptor;
+import com.kinch.agent.interceptor.SafetyInterceptor;
+import com.kinch.agent.interceptor.ToolMonitorInterceptor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.function.FunctionToolCallback;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Agent构建开销基准测试：每次请求createAgent并编译图 vs 从AgentRegistry取复用实例
+ * 与线上相同的工具、Hooks、Interceptors组合；只构建不调用模型，不需要网络和API Key
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.kinch.agent.benchmark.AgentConstructionBenchmark
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgentConstructionBenchmark {
+
+    private AgentConfig.AgentFactory factory;
+    private AgentRegistry registry;
+
+    @Setup
+    public void setup() {
+        DashScopeChatModel chatModel = DashScopeChatModel.builder()
+                .dashScopeApi(DashScopeApi.builder().apiKey("benchmark").build())
+                .build();
+        // Hooks和Interceptors只参与图的构建，不会被调用，依赖传null即可
+        factory = new AgentConfig.AgentFactory(chatModel,
+                tool("getWeather"), tool("generateNaming"), tool("generateScript"),
+                ModelCallLimitHook.builder().runLimit(10).build(),
+                new CustomAuditHook(null, null, null, null, null),
+                new CustomSecurityHook(null, null, null),
+                new CustomTokenLimitHook(null, null, null, null, null),
+                new MessageTrimmingHook(null, null, null),
+                new PerformanceInterceptor(null, null),
+                new SafetyInterceptor(null, null),
+                new ToolMonitorInterceptor(null, null));
+        registry = new AgentRegistry(factory);
+        registry.get("chat_agent");
+    }
+
+    private static ToolCallback tool(String name) {
+        return FunctionToolCallback.builder(name, (Function<String, String>) input -> input)
+                .description(name)
+                .inputType(String.class)
+                .build();
+    }
+
+    /**
+     * 原实现：每次请求构建Agent，第一次call时编译图
+     */
+    @Benchmark
+    public Object createPerRequest() {
+        ReactAgent agent = factory.createAgent("chat_agent");
+        return agent.getAndCompileGraph();
+    }
+
+    @Benchmark
+    public Object registryGet() {
+        return registry.get("chat_agent").getAndCompileGraph();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(AgentConstructionBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,110 @@
+package com.kinch.agent.benchmark;
+
+import com.kinch.agent.audit.AuditPipeline;
+import com.kinch.agent.audit.AuditSink;
+import com.kinch.agent.entity.AuditLog;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 审计写入基准测试：模型调用线程上同步写库 vs 发布到AuditPipeline
+ * 管道与环形缓冲区是真实实现（BLOCK背压、按批写出），只有输出端用忙等模拟一次数据库往返（sinkLatencyMicros），
+ * 4个线程并发模拟多个模型调用
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.kinch.agent.benchmark.AuditPipelineBenchmark
+ *
+ * @author kinch
+ * @date 2026-01-12
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class AuditPipelineBenchmark {
+
+    @Param({"50", "500"})
+    private long sinkLatencyMicros;
+
+    private AuditPipeline pipeline;
+
+    @Setup
+    public void setup() {
+        AuditSink sink = new AuditSink() {
+            @Override
+            public String getName() {
+                return "simulated";
+            }
+
+            @Override
+            public void write(List<AuditLog> batch) {
+                simulateWrite();
+            }
+        };
+        pipeline = new AuditPipeline(List.of(sink));
+        ReflectionTestUtils.setField(pipeline, "bufferSize", 8192);
+        ReflectionTestUtils.setField(pipeline, "batchSize", 256);
+        ReflectionTestUtils.setField(pipeline, "flushIntervalMs", 500L);
+        ReflectionTestUtils.setField(pipeline, "backpressure", AuditPipeline.Backpressure.BLOCK);
+        ReflectionTestUtils.setField(pipeline, "blockTimeoutMs", 5L);
+        ReflectionTestUtils.setField(pipeline, "sinkNames", Set.of(sink.getName()));
+        ReflectionTestUtils.setField(pipeline, "shutdownTimeoutMs", 10000L);
+        pipeline.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.shutdown();
+        System.out.println("\n" + pipeline.getStatistics());
+    }
+
+    /**
+     * 原实现：每次调用同步save一条
+     */
+    @Benchmark
+    public AuditLog synchronousSave() {
+        AuditLog auditLog = newAuditLog();
+        simulateWrite();
+        return auditLog;
+    }
+
+    /**
+     * 新实现：发布到AuditPipeline，后台线程按批写出
+     */
+    @Benchmark
+    public boolean pipelinePublish() {
+        return pipeline.publish(newAuditLog());
+    }
+
+    private AuditLog newAuditLog() {
+        AuditLog auditLog = new AuditLog();
+        auditLog.setUserId(1L);
+        auditLog.setOperationType("model_call");
+        auditLog.setAgentName("chat_agent");
+        auditLog.setInput("3 messages");
+        auditLog.setStatus("processing");
+        auditLog.setCreateTime(LocalDateTime.now());
+        return auditLog;
+    }
+
+    private void simulateWrite() {
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(sinkLatencyMicros);
+        while (System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(AuditPipelineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,99 @@
+package com.kinch.agent.benchmark;
+
+import com.kinch.agent.metrics.AgentMetrics;
+import com.kinch.agent.metrics.LatencyHistogram;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 指标埋点开销基准测试：模型调用路径上每次记录的成本
+ * 原实现的synchronized计数 vs AgentMetrics缓存Meter vs 每次builder().register() vs 滑动窗口直方图
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.kinch.agent.benchmark.MetricsOverheadBenchmark
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+
+    private static final String[] MODELS = {"qwen-plus", "qwen-max", "qwen-turbo"};
+
+    private PrometheusMeterRegistry registry;
+    private AgentMetrics metrics;
+    private LatencyHistogram histogram;
+
+    private final Object lock = new Object();
+    private long totalCalls;
+    private long totalTime;
+    private long maxTime;
+
+    @Setup
+    public void setup() {
+        registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        metrics = new AgentMetrics(registry);
+        histogram = new LatencyHistogram(10_000, 30);
+    }
+
+    @TearDown
+    public void tearDown() {
+        registry.close();
+    }
+
+    /**
+     * 原PerformanceInterceptor的实现（单线程下是下限，并发时锁竞争）
+     */
+    @Benchmark
+    public void synchronizedCounters() {
+        long duration = ThreadLocalRandom.current().nextLong(100, 5000);
+        synchronized (lock) {
+            totalCalls++;
+            totalTime += duration;
+            maxTime = Math.max(maxTime, duration);
+        }
+    }
+
+    @Benchmark
+    public void cachedTimer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        metrics.recordModelCall(MODELS[random.nextInt(MODELS.length)], "chat_agent", true, random.nextLong(100, 5000));
+    }
+
+    @Benchmark
+    public void cachedTokenCounters() {
+        metrics.recordTokens(MODELS[ThreadLocalRandom.current().nextInt(MODELS.length)], "chat_agent", 800, 200);
+    }
+
+    @Benchmark
+    public void registerEveryCall() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Timer.builder(AgentMetrics.MODEL_CALLS)
+                .tags("model", MODELS[random.nextInt(MODELS.length)], "agent", "chat_agent", "outcome", "success")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(random.nextLong(100, 5000), TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public void latencyHistogram() {
+        histogram.record(ThreadLocalRandom.current().nextLong(100, 5000));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(MetricsOverheadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,183 @@
+package com.kinch.agent.benchmark;
+
+import com.kinch.agent.metrics.LatencyHistogram;
+import com.kinch.agent.ratelimit.AdaptiveConcurrencyLimiter;
+import com.kinch.agent.ratelimit.LimitedChatModel;
+import com.kinch.agent.ratelimit.ModelOverloadedException;
+import com.kinch.agent.ratelimit.ModelPriority;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 模型并发限制器压测：本地假模型（可注入延迟和429），混合优先级的闭环客户端，
+ * 对比不限流直连与经过AdaptiveConcurrencyLimiter两种情况下的吞吐、各优先级耗时分位、429次数和拒绝数。
+ * 假模型在并发超过capacity后延迟线性上升，超过hardLimit直接返回429，模拟DashScope的排队和限流。
+ * 不需要网络和API Key；参数：[秒数] [capacity] [hardLimit] [基础延迟ms]
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.kinch.agent.benchmark.ModelLimiterLoadTest
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+public class ModelLimiterLoadTest {
+
+    /**
+     * 各优先级的客户端线程数：交互少、批处理多，批处理最容易把下游打满
+     */
+    private static final Map<ModelPriority, Integer> CLIENTS = Map.of(
+            ModelPriority.INTERACTIVE, 8,
+            ModelPriority.WORKFLOW, 16,
+            ModelPriority.BATCH, 40);
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 15;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int hardLimit = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+        long baseLatencyMs = args.length > 3 ? Long.parseLong(args[3]) : 50;
+
+        FakeModel unlimitedModel = new FakeModel(capacity, hardLimit, baseLatencyMs);
+        print("不限流", run(unlimitedModel, unlimitedModel, seconds), null);
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+        limiter.init();
+        FakeModel limitedModel = new FakeModel(capacity, hardLimit, baseLatencyMs);
+        print("自适应限流", run(new LimitedChatModel(limitedModel, limiter), limitedModel, seconds), limiter);
+    }
+
+    private static Result run(ChatModel model, FakeModel fake, int seconds) throws InterruptedException {
+        Result result = new Result();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> threads = new ArrayList<>();
+        for (ModelPriority priority : ModelPriority.values()) {
+            for (int i = 0; i < CLIENTS.get(priority); i++) {
+                Thread thread = new Thread(() -> client(model, priority, end, result), "load-" + priority + "-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+        }
+        for (Thread thread : threads) {
+            // 排队中的请求最长要等到max-wait-ms，压测结束后不再等它们
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()) + 1000));
+        }
+        result.seconds = seconds;
+        result.throttled = fake.throttled.sum();
+        result.peakConcurrency = fake.peak.get();
+        return result;
+    }
+
+    private static void client(ChatModel model, ModelPriority priority, long end, Result result) {
+        Prompt prompt = new Prompt("压测请求");
+        while (System.nanoTime() < end) {
+            long start = System.nanoTime();
+            try (ModelPriority.Scope scope = priority.enter()) {
+                model.call(prompt);
+                if (System.nanoTime() < end) {
+                    result.latency.get(priority).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    result.ok.get(priority).increment();
+                }
+            } catch (ModelOverloadedException e) {
+                result.rejected.get(priority).increment();
+            } catch (RuntimeException e) {
+                result.failed.get(priority).increment();
+                // 真实客户端收到429后会稍作退避再重试
+                sleep(20);
+            }
+        }
+    }
+
+    private static void print(String name, Result result, AdaptiveConcurrencyLimiter limiter) {
+        long total = result.ok.values().stream().mapToLong(LongAdder::sum).sum();
+        System.out.printf("%n== %s ==  吞吐: %.1f 次/秒, 下游429: %d, 下游峰值并发: %d%n",
+                name, (double) total / result.seconds, result.throttled, result.peakConcurrency);
+        for (ModelPriority priority : ModelPriority.values()) {
+            LatencyHistogram.Snapshot snapshot = result.latency.get(priority).snapshot(Long.MAX_VALUE / 4);
+            System.out.printf("  %-11s 成功: %6d, 失败: %6d, 拒绝: %6d, p50: %5dms, p99: %5dms%n",
+                    priority, result.ok.get(priority).sum(), result.failed.get(priority).sum(),
+                    result.rejected.get(priority).sum(), snapshot.percentile(50), snapshot.percentile(99));
+        }
+        if (limiter != null) {
+            System.out.println("  限制器: " + limiter.getStatistics());
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Result {
+        final Map<ModelPriority, LatencyHistogram> latency = new EnumMap<>(ModelPriority.class);
+        final Map<ModelPriority, LongAdder> ok = new EnumMap<>(ModelPriority.class);
+        final Map<ModelPriority, LongAdder> failed = new EnumMap<>(ModelPriority.class);
+        final Map<ModelPriority, LongAdder> rejected = new EnumMap<>(ModelPriority.class);
+        int seconds;
+        long throttled;
+        int peakConcurrency;
+
+        Result() {
+            for (ModelPriority priority : ModelPriority.values()) {
+                latency.put(priority, new LatencyHistogram(1000, 600));
+                ok.put(priority, new LongAdder());
+                failed.put(priority, new LongAdder());
+                rejected.put(priority, new LongAdder());
+            }
+        }
+    }
+
+    /**
+     * 假模型：并发不超过capacity时延迟为基础延迟，之后按超出比例线性变慢；超过hardLimit立即返回429
+     */
+    private static final class FakeModel implements ChatModel {
+
+        private final int capacity;
+        private final int hardLimit;
+        private final long baseLatencyMs;
+        private final AtomicInteger concurrency = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+        private final LongAdder throttled = new LongAdder();
+
+        FakeModel(int capacity, int hardLimit, long baseLatencyMs) {
+            this.capacity = capacity;
+            this.hardLimit = hardLimit;
+            this.baseLatencyMs = baseLatencyMs;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            int current = concurrency.incrementAndGet();
+            try {
+                peak.accumulateAndGet(current, Math::max);
+                if (current > hardLimit) {
+                    throttled.increment();
+                    sleep(5);
+                    throw new IllegalStateException("429 Too Many Requests: Throttling.RateQuota");
+                }
+                double overload = Math.max(0, current - capacity) / (double) capacity;
+                sleep((long) (baseLatencyMs * (1 + 2 * overload)));
+                return new ChatResponse(List.of(new Generation(new AssistantMessage("ok"))));
+            } finally {
+                concurrency.decrementAndGet();
+            }
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return Flux.just(call(prompt));
+        }
+    }
+}
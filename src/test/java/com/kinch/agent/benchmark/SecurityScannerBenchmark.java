@@ -0,0 +1,83 @@
+package com.kinch.agent.benchmark;
+
+import com.kinch.agent.security.SecurityScanner;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 安全检查基准测试：原正则 + toLowerCase实现 vs SecurityScanner单遍扫描
+ * 输入为不触发规则的正常文本（原实现在命中时会提前返回，正常文本才是常见路径）
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.kinch.agent.benchmark.SecurityScannerBenchmark
+ *
+ * @author kinch
+ * @date 2026-01-14
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecurityScannerBenchmark {
+
+    private static final String SAMPLE = "你好，请帮我查询一下北京今天的天气情况，顺便推荐几个适合周末去的景点。"
+            + "The quick brown fox jumps over the lazy dog, and we are testing the scanner with plain text. ";
+
+    private static final Pattern SQL_INJECTION_PATTERN = Pattern.compile(
+            ".*(union|select|insert|update|delete|drop|exec|script|<script).*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COMMAND_INJECTION_PATTERN = Pattern.compile(
+            ".*[;&|`$].*", Pattern.CASE_INSENSITIVE);
+    private static final List<String> SENSITIVE_WORDS = Arrays.asList(
+            "密码", "password", "token", "秘钥", "secret", "apikey");
+
+    @Param({"1024", "65536", "1048576"})
+    private int length;
+
+    private String text;
+    private SecurityScanner scanner;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder(length + SAMPLE.length());
+        while (sb.length() < length) {
+            sb.append(SAMPLE);
+        }
+        text = sb.substring(0, length);
+        scanner = new SecurityScanner();
+    }
+
+    /**
+     * 原CustomSecurityHook.checkSecurity的实现
+     */
+    @Benchmark
+    public boolean regexSecurityHook() {
+        if (SQL_INJECTION_PATTERN.matcher(text).matches()) {
+            return false;
+        }
+        if (COMMAND_INJECTION_PATTERN.matcher(text).matches()) {
+            return false;
+        }
+        boolean sensitive = false;
+        for (String word : SENSITIVE_WORDS) {
+            sensitive |= text.toLowerCase().contains(word.toLowerCase());
+        }
+        return sensitive;
+    }
+
+    @Benchmark
+    public long scanner() {
+        return scanner.scan(text);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(SecurityScannerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,122 @@
+package com.kinch.agent.benchmark;
+
+import com.kinch.agent.tokenizer.ApproximateTokenizer;
+import com.kinch.agent.tokenizer.BpeTokenizer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token计数基准测试：原正则估算 vs 近似分词 vs BPE分词
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.kinch.agent.benchmark.TokenizerBenchmark
+ * 使用真实词表：追加 -Dtokenizer.vocab=/path/to/qwen.tiktoken
+ *
+ * @author kinch
+ * @date 2026-01-07
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    private static final String SAMPLE = "你好，请帮我查询一下北京今天的天气情况，并生成一个Python脚本。"
+            + "The quick brown fox jumps over the lazy dog, it's 2026 and we're testing tokenizers! "
+            + "SELECT id, name FROM t_user WHERE status = 'active';\n";
+
+    @Param({"1024", "16384"})
+    private int length;
+
+    private String text;
+    private BpeTokenizer bpeTokenizer;
+
+    @Setup
+    public void setup() throws Exception {
+        StringBuilder sb = new StringBuilder(length + SAMPLE.length());
+        while (sb.length() < length) {
+            sb.append(SAMPLE);
+        }
+        text = sb.substring(0, length);
+
+        String vocab = System.getProperty("tokenizer.vocab");
+        try (InputStream in = vocab != null ? new FileInputStream(vocab) : syntheticVocab()) {
+            bpeTokenizer = BpeTokenizer.load(in);
+        }
+    }
+
+    /**
+     * 原ContextManager.estimateTokens的实现
+     */
+    @Benchmark
+    public int regexContextManager() {
+        int chineseCount = text.replaceAll("[^\u4e00-\u9fa5]", "").length();
+        int englishWordCount = text.split("\\s+").length;
+        return (int) (chineseCount * 2 + englishWordCount * 1.3);
+    }
+
+    /**
+     * 原CustomTokenLimitHook.estimateTokens的实现（单条消息）
+     */
+    @Benchmark
+    public int regexTokenLimitHook() {
+        int chineseCount = text.replaceAll("[^\\u4e00-\\u9fa5]", "").length();
+        int otherCount = text.length() - chineseCount;
+        return (int) (chineseCount * 1.5 + otherCount * 0.25);
+    }
+
+    @Benchmark
+    public int approximate() {
+        return ApproximateTokenizer.INSTANCE.countTokens(text);
+    }
+
+    @Benchmark
+    public int bpe() {
+        return bpeTokenizer.countTokens(text);
+    }
+
+    /**
+     * 合成词表：256个单字节 + 中文字符的双字节前缀 + 样例文本中的子串，按长度递增分配rank
+     */
+    private static InputStream syntheticVocab() {
+        Set<String> tokens = new LinkedHashSet<>();
+        Base64.Encoder encoder = Base64.getEncoder();
+        for (int b = 0; b < 256; b++) {
+            tokens.add(encoder.encodeToString(new byte[]{(byte) b}));
+        }
+        for (int len = 1; len <= 8; len++) {
+            for (String word : SAMPLE.split("[^A-Za-z\u4e00-\u9fa5]+")) {
+                for (int i = 0; i + len <= word.length(); i++) {
+                    byte[] utf8 = word.substring(i, i + 1).getBytes(StandardCharsets.UTF_8);
+                    if (utf8.length == 3) {
+                        tokens.add(encoder.encodeToString(new byte[]{utf8[0], utf8[1]}));
+                    }
+                    tokens.add(encoder.encodeToString(word.substring(i, i + len).getBytes(StandardCharsets.UTF_8)));
+                    tokens.add(encoder.encodeToString((" " + word.substring(i, i + len)).getBytes(StandardCharsets.UTF_8)));
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        int rank = 0;
+        for (String token : tokens) {
+            sb.append(token).append(' ').append(rank++).append('\n');
+        }
+        return new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(TokenizerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,74 @@
+package com.kinch.agent.controller;
+
+import com.kinch.agent.entity.Conversation;
+import com.kinch.agent.service.AgentService;
+import com.kinch.agent.service.ConversationExportService;
+import com.kinch.agent.tracing.Tracer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * AgentController导出接口：会话不存在/无权限在开始流式写出前返回404/403
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class AgentControllerTest {
+
+    private ConversationExportService exportService;
+    private AgentController controller;
+
+    @BeforeEach
+    void setUp() {
+        exportService = mock(ConversationExportService.class);
+        controller = new AgentController(mock(AgentService.class), exportService, new Tracer(null));
+    }
+
+    @Test
+    void unknownConversationIsNotFoundBeforeStreaming() throws Exception {
+        when(exportService.checkExportable(42L, 1L)).thenThrow(new NoSuchElementException("会话不存在"));
+
+        ResponseEntity<?> response = controller.exportConversation(42L);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(response.getBody()).isNotInstanceOf(StreamingResponseBody.class);
+        verify(exportService, never()).exportConversation(any(), any());
+    }
+
+    @Test
+    void foreignConversationIsForbiddenBeforeStreaming() throws Exception {
+        when(exportService.checkExportable(42L, 1L)).thenThrow(new SecurityException("无权限导出该会话"));
+
+        ResponseEntity<?> response = controller.exportConversation(42L);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+        verify(exportService, never()).exportConversation(any(), any());
+    }
+
+    @Test
+    void ownConversationStreamsTheCheckedConversation() throws Exception {
+        Conversation conversation = new Conversation();
+        conversation.setId(42L);
+        conversation.setUserId(1L);
+        when(exportService.checkExportable(42L, 1L)).thenReturn(conversation);
+
+        ResponseEntity<?> response = controller.exportConversation(42L);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        ((StreamingResponseBody) response.getBody()).writeTo(new ByteArrayOutputStream());
+        verify(exportService).exportConversation(any(Conversation.class), any());
+    }
+}
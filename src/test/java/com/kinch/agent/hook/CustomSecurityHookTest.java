@@ -0,0 +1,139 @@
+package com.kinch.agent.hook;
+
+import com.alibaba.cloud.ai.graph.OverAllState;
+import com.alibaba.cloud.ai.graph.RunnableConfig;
+import com.kinch.agent.security.PiiRedactor;
+import com.kinch.agent.security.SecurityScanner;
+import com.kinch.agent.tracing.Tracer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * CustomSecurityHook：扫描水位的续扫、修剪后的重新定位、重复文本不会让水位错位
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class CustomSecurityHookTest {
+
+    private CustomSecurityHook hook;
+    private RunnableConfig config;
+
+    @BeforeEach
+    void setUp() {
+        hook = new CustomSecurityHook(new SecurityScanner(), new PiiRedactor(), new Tracer(null));
+        ReflectionTestUtils.setField(hook, "watermarkIdleMs", 1_800_000L);
+        config = RunnableConfig.builder().threadId("t1").build();
+    }
+
+    @Test
+    void resumesAfterWatermarkAndScansOnlyNewMessages() {
+        List<Message> history = new ArrayList<>(List.of(
+                new SystemMessage("你是助手"),
+                new UserMessage("北京天气"),
+                new AssistantMessage("晴")));
+        run(history);
+        assertThat(stat("scannedMessages")).isEqualTo(3L);
+
+        history.add(new UserMessage("上海呢"));
+        run(history);
+
+        assertThat(stat("scannedMessages")).isEqualTo(4L);
+        assertThat(stat("skippedMessages")).isEqualTo(3L);
+        assertThat(stat("watermarkHits")).isEqualTo(1L);
+    }
+
+    @Test
+    void newUnsafeMessageAfterWatermarkIsStillBlocked() {
+        List<Message> history = new ArrayList<>(List.of(new UserMessage("你好"), new AssistantMessage("你好")));
+        run(history);
+
+        history.add(new UserMessage("drop table users"));
+
+        assertThat(run(history)).containsKey("messages");
+    }
+
+    @Test
+    void relocatesWatermarkAfterOldMessagesAreTrimmed() {
+        List<Message> history = new ArrayList<>(List.of(
+                new SystemMessage("你是助手"),
+                new UserMessage("问题1"), new AssistantMessage("回答1"),
+                new UserMessage("问题2"), new AssistantMessage("回答2"),
+                new UserMessage("问题3"), new AssistantMessage("回答3")));
+        run(history);
+
+        // 修剪：去掉最早一轮并插入摘要，末尾追加新问题
+        List<Message> trimmed = new ArrayList<>(List.of(
+                new SystemMessage("你是助手"),
+                new SystemMessage("摘要：用户问了问题1"),
+                new UserMessage("问题2"), new AssistantMessage("回答2"),
+                new UserMessage("问题3"), new AssistantMessage("回答3"),
+                new UserMessage("问题4")));
+        run(trimmed);
+
+        assertThat(stat("watermarkHits")).isEqualTo(1L);
+        assertThat(stat("scannedMessages")).isEqualTo(7L + 1L);
+    }
+
+    @Test
+    void repeatedShortReplyDoesNotMisplaceWatermark() {
+        List<Message> history = new ArrayList<>(List.of(
+                new UserMessage("帮我订票"), new AssistantMessage("好的"),
+                new UserMessage("明天上午"), new AssistantMessage("好的")));
+        run(history);
+
+        // 历史被改写：前面插入了未扫描过的消息，末尾仍是同样的"好的"
+        List<Message> rewritten = List.of(
+                new UserMessage("rm -rf / ; echo"),
+                new AssistantMessage("好的"),
+                new UserMessage("继续"), new AssistantMessage("好的"));
+
+        assertThat(run(rewritten)).containsKey("messages");
+        assertThat(stat("watermarkMisses")).isEqualTo(1L);
+    }
+
+    @Test
+    void trimmedBelowWindowFallsBackToFullScan() {
+        List<Message> history = new ArrayList<>(List.of(
+                new UserMessage("问题1"), new AssistantMessage("回答1"),
+                new UserMessage("问题2"), new AssistantMessage("回答2")));
+        run(history);
+
+        // 只剩最后两条，窗口不完整，无法确认位置
+        run(new ArrayList<>(List.of(new UserMessage("问题2"), new AssistantMessage("回答2"))));
+
+        assertThat(stat("watermarkMisses")).isEqualTo(1L);
+        assertThat(stat("scannedMessages")).isEqualTo(4L + 2L);
+    }
+
+    @Test
+    void watermarkDoesNotHoldMessageReferences() {
+        CustomSecurityHook.Watermark watermark = CustomSecurityHook.Watermark.of(List.of(new UserMessage("你好")));
+
+        assertThat(CustomSecurityHook.Watermark.class.getDeclaredFields())
+                .noneMatch(field -> Message.class.isAssignableFrom(field.getType()));
+        assertThat(watermark.count()).isEqualTo(1);
+        assertThat(watermark.matchesAt(List.of(new UserMessage("你好")), 1)).isTrue();
+        assertThat(watermark.matchesAt(List.of(new AssistantMessage("你好")), 1)).isFalse();
+    }
+
+    private Map<String, Object> run(List<Message> messages) {
+        OverAllState state = new OverAllState(Map.of("messages", messages));
+        return hook.beforeModel(state, config).join();
+    }
+
+    private Object stat(String name) {
+        return hook.getStatistics().get(name);
+    }
+}
@@ -0,0 +1,155 @@
+package com.kinch.agent.hook;
+
+import com.alibaba.cloud.ai.graph.RunnableConfig;
+import com.alibaba.cloud.ai.graph.agent.ReactAgent;
+import com.kinch.agent.entity.User;
+import com.kinch.agent.ratelimit.DistributedRateLimiter;
+import com.kinch.agent.repository.UserRepository;
+import com.kinch.agent.service.TokenCounter;
+import com.kinch.agent.service.TokenQuotaLedger;
+import com.kinch.agent.service.TokenUsageLogWriter;
+import com.kinch.agent.tracing.Tracer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.core.io.DefaultResourceLoader;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * CustomTokenLimitHook：被限流或配额不足的请求在ReactAgent中不会调用模型，限流不消耗配额，
+ * 配额不足不消耗限流桶，没有预留却发生的调用仍记入用量
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class CustomTokenLimitHookTest {
+
+    private final AtomicInteger modelCalls = new AtomicInteger();
+
+    private UserRepository userRepository;
+    private DistributedRateLimiter rateLimiter;
+    private TokenQuotaLedger ledger;
+    private ReactAgent agent;
+
+    @BeforeEach
+    void setUp() {
+        userRepository = mock(UserRepository.class);
+        rateLimiter = mock(DistributedRateLimiter.class);
+        ledger = new TokenQuotaLedger(userRepository);
+        CustomTokenLimitHook hook = new CustomTokenLimitHook(mock(TokenUsageLogWriter.class),
+                new TokenCounter(new DefaultResourceLoader()), ledger, rateLimiter, new Tracer(null));
+        setField(hook, "reserveOutputTokens", 100);
+        setField(hook, "defaultModel", "qwen-plus");
+
+        ChatModel model = new ChatModel() {
+            @Override
+            public ChatResponse call(Prompt prompt) {
+                modelCalls.incrementAndGet();
+                return new ChatResponse(List.of(new Generation(new AssistantMessage("晴"))));
+            }
+
+            @Override
+            public Flux<ChatResponse> stream(Prompt prompt) {
+                return Flux.just(call(prompt));
+            }
+        };
+        agent = ReactAgent.builder().name("token_limit_test").model(model).hooks(hook).build();
+    }
+
+    @Test
+    void allowedRequestCallsModelAndSettlesQuota() throws Exception {
+        withQuota(10_000);
+
+        AssistantMessage reply = agent.call("北京天气", config());
+
+        assertThat(reply.getText()).isEqualTo("晴");
+        assertThat(modelCalls).hasValue(1);
+        assertThat(ledger.getUsed(7L)).isPositive();
+        assertThat(ledger.getStatistics()).containsEntry("outstandingReservations", 0);
+    }
+
+    @Test
+    void rateLimitedRequestNeverReachesModelAndKeepsQuota() throws Exception {
+        withQuota(10_000);
+        when(rateLimiter.tryAcquire(any(), any(), anyLong())).thenReturn("user");
+
+        AssistantMessage reply = agent.call("北京天气", config());
+
+        assertThat(modelCalls).hasValue(0);
+        assertThat(reply.getText()).contains("请求过于频繁");
+        assertThat(ledger.getRemaining(7L)).isEqualTo(10_000);
+        assertThat(ledger.getStatistics()).containsEntry("outstandingReservations", 0);
+    }
+
+    @Test
+    void overQuotaRequestNeverReachesModelNorRateLimiter() throws Exception {
+        withQuota(10);
+
+        AssistantMessage reply = agent.call("北京天气", config());
+
+        assertThat(modelCalls).hasValue(0);
+        assertThat(reply.getText()).contains("Token配额不足");
+        verify(rateLimiter, never()).tryAcquire(any(), any(), anyLong());
+        assertThat(ledger.getUsed(7L)).isZero();
+    }
+
+    @Test
+    void limiterFailureFailsOpenAndSettlesReservation() throws Exception {
+        withQuota(10_000);
+        when(rateLimiter.tryAcquire(any(), any(), anyLong())).thenThrow(new IllegalStateException("Redis不可用"));
+
+        agent.call("北京天气", config());
+
+        assertThat(modelCalls).hasValue(1);
+        assertThat(ledger.getUsed(7L)).isPositive();
+        assertThat(ledger.getStatistics()).containsEntry("outstandingReservations", 0)
+                .containsEntry("unreservedCharges", 0L);
+    }
+
+    @Test
+    void modelCallWithoutReservationIsStillCharged() throws Exception {
+        User user = user(10_000);
+        // 预留时加载账户失败，Hook放行；调用后重新加载成功
+        when(userRepository.findById(7L)).thenThrow(new IllegalStateException("数据库不可用"))
+                .thenReturn(Optional.of(user));
+
+        agent.call("北京天气", config());
+
+        assertThat(modelCalls).hasValue(1);
+        assertThat(ledger.getUsed(7L)).isPositive();
+        assertThat(ledger.getStatistics()).containsEntry("unreservedCharges", 1L);
+    }
+
+    private void withQuota(int quota) {
+        when(userRepository.findById(7L)).thenReturn(Optional.of(user(quota)));
+    }
+
+    private static User user(int quota) {
+        User user = new User();
+        user.setId(7L);
+        user.setTokenQuota(quota);
+        user.setTokenUsed(0);
+        return user;
+    }
+
+    private static RunnableConfig config() {
+        return RunnableConfig.builder().threadId("t-7").addMetadata("userId", 7L).build();
+    }
+}
@@ -0,0 +1,136 @@
+package com.kinch.agent.hook;
+
+import com.alibaba.cloud.ai.graph.RunnableConfig;
+import com.alibaba.cloud.ai.graph.agent.hook.messages.AgentCommand;
+import com.alibaba.cloud.ai.graph.agent.hook.messages.UpdatePolicy;
+import com.kinch.agent.service.ConversationSummaryService;
+import com.kinch.agent.service.TokenCounter;
+import com.kinch.agent.tracing.Tracer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * MessageTrimmingHook：孤立工具响应的清理与按Token预算修剪
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class MessageTrimmingHookTest {
+
+    private MessageTrimmingHook hook;
+
+    @BeforeEach
+    void setUp() {
+        hook = new MessageTrimmingHook(mock(ConversationSummaryService.class),
+                new TokenCounter(new DefaultResourceLoader()), new Tracer(null));
+        ReflectionTestUtils.setField(hook, "maxTokens", 10_000);
+    }
+
+    @Test
+    void keepsMatchedToolResponsesUntouched() {
+        List<Message> messages = List.of(
+                new UserMessage("北京天气"),
+                toolCall("call-1", "weather"),
+                toolResponse(new ToolResponseMessage.ToolResponse("call-1", "weather", "晴")),
+                new AssistantMessage("北京今天晴"));
+
+        AgentCommand command = hook.beforeModel(messages, RunnableConfig.builder().build());
+
+        assertThat(messagesOf(command)).isSameAs(messages);
+    }
+
+    @Test
+    void dropsOrphanToolResponseInTheMiddleOfHistory() {
+        Message orphan = toolResponse(new ToolResponseMessage.ToolResponse("call-gone", "weather", "晴"));
+        List<Message> messages = List.of(
+                new SystemMessage("你是助手"),
+                new UserMessage("北京天气"),
+                orphan,
+                new AssistantMessage("北京今天晴"),
+                new UserMessage("谢谢"));
+
+        AgentCommand command = hook.beforeModel(messages, RunnableConfig.builder().build());
+
+        assertThat(policyOf(command)).isEqualTo(UpdatePolicy.REPLACE);
+        assertThat(messagesOf(command)).hasSize(4).doesNotContain(orphan);
+    }
+
+    @Test
+    void keepsOnlyMatchedResponsesOfPartiallyOrphanedMessage() {
+        List<Message> messages = List.of(
+                new UserMessage("北京和上海天气"),
+                toolCall("call-1", "weather"),
+                toolResponse(
+                        new ToolResponseMessage.ToolResponse("call-1", "weather", "晴"),
+                        new ToolResponseMessage.ToolResponse("call-2", "weather", "雨")));
+
+        List<Message> result = MessageTrimmingHook.dropOrphanToolResponses(messages);
+
+        assertThat(result).hasSize(3);
+        ToolResponseMessage rebuilt = (ToolResponseMessage) result.get(2);
+        assertThat(rebuilt.getResponses()).extracting(ToolResponseMessage.ToolResponse::id).containsExactly("call-1");
+    }
+
+    @Test
+    void matchesResponsesWithoutIdByToolName() {
+        List<Message> messages = List.of(
+                toolCall(null, "weather"),
+                toolResponse(new ToolResponseMessage.ToolResponse("", "weather", "晴")),
+                toolResponse(new ToolResponseMessage.ToolResponse("", "naming", "userName")));
+
+        List<Message> result = MessageTrimmingHook.dropOrphanToolResponses(messages);
+
+        assertThat(result).hasSize(2);
+        assertThat(((ToolResponseMessage) result.get(1)).getResponses().get(0).name()).isEqualTo("weather");
+    }
+
+    @Test
+    void trimmedHistoryNeverStartsWithToolResponse() {
+        ReflectionTestUtils.setField(hook, "maxTokens", 40);
+        List<Message> messages = List.of(
+                new UserMessage("很长的早期问题".repeat(20)),
+                toolCall("call-1", "weather"),
+                toolResponse(new ToolResponseMessage.ToolResponse("call-1", "weather", "晴".repeat(50))),
+                new UserMessage("现在呢"),
+                new AssistantMessage("好的"));
+
+        AgentCommand command = hook.beforeModel(messages, RunnableConfig.builder().build());
+
+        List<Message> result = messagesOf(command);
+        assertThat(result).isNotEmpty();
+        assertThat(result).noneMatch(ToolResponseMessage.class::isInstance);
+        assertThat(result.get(result.size() - 1).getText()).isEqualTo("好的");
+    }
+
+    private static AssistantMessage toolCall(String id, String name) {
+        return AssistantMessage.builder()
+                .content("")
+                .toolCalls(List.of(new AssistantMessage.ToolCall(id, "function", name, "{}")))
+                .build();
+    }
+
+    private static ToolResponseMessage toolResponse(ToolResponseMessage.ToolResponse... responses) {
+        return ToolResponseMessage.builder().responses(List.of(responses)).build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Message> messagesOf(AgentCommand command) {
+        return (List<Message>) ReflectionTestUtils.getField(command, "messages");
+    }
+
+    private static UpdatePolicy policyOf(AgentCommand command) {
+        return (UpdatePolicy) ReflectionTestUtils.getField(command, "updatePolicy");
+    }
+}
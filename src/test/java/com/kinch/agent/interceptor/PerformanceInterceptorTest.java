@@ -0,0 +1,78 @@
+package com.kinch.agent.interceptor;
+
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelRequest;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelResponse;
+import com.kinch.agent.metrics.AgentMetrics;
+import com.kinch.agent.tracing.Tracer;
+import com.kinch.agent.warmup.WarmUpRunner;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * PerformanceInterceptor：调用耗时与Token用量写入AgentMetrics和直方图，启动预热的替身调用不计入
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class PerformanceInterceptorTest {
+
+    private AgentMetrics metrics;
+    private PerformanceInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new AgentMetrics(new SimpleMeterRegistry());
+        interceptor = new PerformanceInterceptor(metrics, new Tracer(null));
+        interceptor.init();
+    }
+
+    @Test
+    void recordsCallsTokensAndLatency() {
+        call(Map.of("agentName", "weather_agent"));
+
+        assertThat(metrics.total(AgentMetrics.MODEL_CALLS)).isEqualTo(1L);
+        assertThat(metrics.total(AgentMetrics.MODEL_TOKENS, "type", "prompt")).isEqualTo(10L);
+        assertThat(metrics.getModelLatency().snapshot(60_000).getCount()).isEqualTo(1L);
+        assertThat(((Map<?, ?>) interceptor.getStatistics().get("latencyByAgent")).containsKey("weather_agent")).isTrue();
+    }
+
+    @Test
+    void warmUpCallsAreNotRecorded() {
+        AssistantMessage reply = call(Map.of(WarmUpRunner.WARMUP_KEY, true, "agentName", "warmup_agent"));
+
+        assertThat(metrics.total(AgentMetrics.MODEL_CALLS)).isZero();
+        assertThat(metrics.total(AgentMetrics.MODEL_TOKENS)).isZero();
+        assertThat(metrics.getModelLatency().snapshot(60_000).getCount()).isZero();
+        Map<String, Object> stats = interceptor.getStatistics();
+        assertThat(stats).containsEntry("totalCalls", 0L).containsEntry("minTime", 0L);
+        assertThat((Map<?, ?>) stats.get("latencyByAgent")).isEmpty();
+        assertThat((Map<?, ?>) stats.get("latencyByModel")).isEmpty();
+        // 用量仍写入回复metadata，记录路径照常执行
+        assertThat(reply.getMetadata()).containsEntry(PerformanceInterceptor.PROMPT_TOKENS_KEY, 10);
+    }
+
+    private AssistantMessage call(Map<String, Object> context) {
+        ModelRequest request = ModelRequest.builder()
+                .messages(List.of(new UserMessage("北京天气")))
+                .context(context)
+                .build();
+        AssistantMessage message = AssistantMessage.builder().content("晴").properties(new HashMap<>()).build();
+        ChatResponse chatResponse = new ChatResponse(List.of(new Generation(message)),
+                ChatResponseMetadata.builder().model("qwen-plus").usage(new DefaultUsage(10, 5)).build());
+        ModelResponse response = interceptor.interceptModel(request, r -> ModelResponse.of(message, chatResponse));
+        return (AssistantMessage) response.getMessage();
+    }
+}
@@ -0,0 +1,147 @@
+package com.kinch.agent.interceptor;
+
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelRequest;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelResponse;
+import com.kinch.agent.security.PiiRedactor;
+import com.kinch.agent.security.SecurityScanner;
+import com.kinch.agent.service.TokenCounter;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SafetyInterceptor：流式输出在任意位置切块时的脱敏结果，末尾缓冲内容并入最后一块且保留其元数据，
+ * 阻塞响应附带的ChatResponse同样脱敏
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class SafetyInterceptorTest {
+
+    private static final String PHONE_MASK = "***********";
+    private static final String EMAIL_MASK = "***@***.***";
+
+    private final SafetyInterceptor interceptor = new SafetyInterceptor(new SecurityScanner(), new PiiRedactor());
+
+    @Test
+    void piiSplitAtEveryBoundaryIsRedactedAndChunkCountIsPreserved() {
+        String text = "请拨打13800138000或访问host-10.0.0.1";
+        String expected = new PiiRedactor().redact(text);
+        for (int i = 0; i <= text.length(); i++) {
+            for (int j = i; j <= text.length(); j++) {
+                List<ChatResponse> out = stream(text.substring(0, i), text.substring(i, j), text.substring(j));
+
+                assertThat(out).as("切分位置 %d,%d", i, j).hasSize(3);
+                assertThat(join(out)).as("切分位置 %d,%d", i, j).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    void tailIsFoldedIntoLastChunkKeepingMetadataUsageAndFinishReason() {
+        List<ChatResponse> out = stream("号码是1380", "0138000");
+
+        assertThat(out).hasSize(2);
+        ChatResponse last = out.get(1);
+        assertThat(last.getResult().getOutput().getText()).isEqualTo(PHONE_MASK);
+        assertThat(last.getResult().getMetadata().getFinishReason()).isEqualTo("STOP");
+        assertThat(last.getMetadata().getId()).isEqualTo("resp-1");
+        assertThat(last.getMetadata().getUsage().getTotalTokens()).isEqualTo(15);
+        assertThat(last.getResult().getOutput().getMetadata()).containsEntry("chunk", 1);
+    }
+
+    @Test
+    void pendingTailIsAppendedToUsageOnlyFinalChunk() {
+        ChatResponse text = chunk("邮箱a@b.com", 0, false);
+        ChatResponse usageOnly = new ChatResponse(List.of(), metadata());
+
+        List<ChatResponse> out = intercept(Flux.just(text, usageOnly));
+
+        assertThat(out).hasSize(2);
+        assertThat(join(out)).isEqualTo("邮箱" + EMAIL_MASK);
+        assertThat(out.get(1).getMetadata().getUsage().getTotalTokens()).isEqualTo(15);
+    }
+
+    @Test
+    void chunksWithoutPendingCandidatesAreNotDelayed() {
+        List<ChatResponse> out = stream("你好，", "今天晴。");
+
+        assertThat(out).extracting(response -> response.getResult().getOutput().getText())
+                .containsExactly("你好，", "今天晴。");
+    }
+
+    @Test
+    void blockingResponseRedactsAttachedChatResponseAndDropsCachedTokenCount() {
+        AssistantMessage message = AssistantMessage.builder()
+                .content("请拨打13800138000")
+                .properties(new HashMap<>(Map.of(TokenCounter.TOKEN_COUNT_KEY, 12, "id", "m1")))
+                .build();
+        ChatResponse chatResponse = new ChatResponse(List.of(new Generation(message,
+                ChatGenerationMetadata.builder().finishReason("STOP").build())), metadata());
+        ModelRequest request = ModelRequest.builder().messages(List.of(new UserMessage("你好"))).build();
+
+        ModelResponse response = interceptor.interceptModel(request, r -> ModelResponse.of(message, chatResponse));
+
+        AssistantMessage redacted = (AssistantMessage) response.getMessage();
+        assertThat(redacted.getText()).isEqualTo("请拨打" + PHONE_MASK);
+        assertThat(redacted.getMetadata()).containsEntry("id", "m1").doesNotContainKey(TokenCounter.TOKEN_COUNT_KEY);
+        Generation generation = response.getChatResponse().getResult();
+        assertThat(generation.getOutput().getText()).isEqualTo("请拨打" + PHONE_MASK);
+        assertThat(generation.getMetadata().getFinishReason()).isEqualTo("STOP");
+        assertThat(response.getChatResponse().getMetadata().getId()).isEqualTo("resp-1");
+    }
+
+    private List<ChatResponse> stream(String... texts) {
+        List<ChatResponse> chunks = new ArrayList<>();
+        for (int i = 0; i < texts.length; i++) {
+            chunks.add(chunk(texts[i], i, i == texts.length - 1));
+        }
+        return intercept(Flux.fromIterable(chunks));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ChatResponse> intercept(Flux<ChatResponse> upstream) {
+        ModelRequest request = ModelRequest.builder().messages(List.of(new UserMessage("你好"))).build();
+        ModelResponse response = interceptor.interceptModel(request, r -> ModelResponse.of(upstream));
+        return ((Flux<ChatResponse>) response.getMessage()).collectList().block();
+    }
+
+    private static ChatResponse chunk(String text, int index, boolean last) {
+        AssistantMessage message = AssistantMessage.builder()
+                .content(text)
+                .properties(Map.of("chunk", index))
+                .build();
+        ChatGenerationMetadata generationMetadata = last
+                ? ChatGenerationMetadata.builder().finishReason("STOP").build()
+                : ChatGenerationMetadata.NULL;
+        return new ChatResponse(List.of(new Generation(message, generationMetadata)),
+                last ? metadata() : new ChatResponseMetadata());
+    }
+
+    private static ChatResponseMetadata metadata() {
+        return ChatResponseMetadata.builder().id("resp-1").usage(new DefaultUsage(10, 5)).build();
+    }
+
+    private static String join(List<ChatResponse> responses) {
+        StringBuilder text = new StringBuilder();
+        for (ChatResponse response : responses) {
+            for (Generation generation : response.getResults()) {
+                text.append(generation.getOutput().getText());
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package com.kinch.agent.interceptor;
+
+import com.alibaba.cloud.ai.graph.agent.interceptor.ToolCallRequest;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ToolCallResponse;
+import com.kinch.agent.metrics.AgentMetrics;
+import com.kinch.agent.tracing.Tracer;
+import com.kinch.agent.warmup.WarmUpRunner;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ToolMonitorInterceptor：按工具的调用/失败/异常类型统计与参数、结果字节数都记在AgentMetrics上，
+ * getStatistics()从注册表读回
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class ToolMonitorInterceptorTest {
+
+    private AgentMetrics metrics;
+    private ToolMonitorInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new AgentMetrics(new SimpleMeterRegistry());
+        interceptor = new ToolMonitorInterceptor(metrics, new Tracer(null));
+    }
+
+    @Test
+    void perToolCallsFailuresAndErrorTypesComeFromTheRegistry() {
+        call("weather", "{\"city\":\"北京\"}", "晴");
+        call("weather", "{\"city\":\"上海\"}", "雨");
+        fail("weather", new IllegalStateException("超时"));
+        fail("search", new IllegalArgumentException("参数错误"));
+
+        Map<String, Object> stats = interceptor.getStatistics();
+        assertThat(stats).containsEntry("totalCalls", 4L)
+                .containsEntry("successCalls", 2L)
+                .containsEntry("failedCalls", 2L);
+
+        Map<String, Object> weather = tool(stats, "weather");
+        assertThat(weather).containsEntry("calls", 3L).containsEntry("failedCalls", 1L);
+        assertThat(weather.get("errors")).isEqualTo(Map.of("IllegalStateException", 1L));
+        assertThat(tool(stats, "search").get("errors")).isEqualTo(Map.of("IllegalArgumentException", 1L));
+        assertThat(metrics.total(AgentMetrics.TOOL_CALLS, "tool", "weather", "outcome", AgentMetrics.FAILURE))
+                .isEqualTo(1L);
+    }
+
+    @Test
+    void payloadSizesAreRecordedAsUtf8Bytes() {
+        // "北京"是6个UTF-8字节
+        call("weather", "北京", "a".repeat(300));
+
+        Map<String, Object> weather = tool(interceptor.getStatistics(), "weather");
+        Map<String, Object> argBytes = map(weather.get("argBytes"));
+        Map<String, Object> resultBytes = map(weather.get("resultBytes"));
+        assertThat(argBytes).containsEntry("count", 1L).containsEntry("totalBytes", 6L);
+        assertThat(resultBytes).containsEntry("count", 1L).containsEntry("max", 300L);
+        Map<String, Object> buckets = map(resultBytes.get("buckets"));
+        assertThat(buckets).containsEntry("<=256B", 0L).containsEntry("<=1KB", 1L);
+    }
+
+    @Test
+    void failedCallReturnsErrorResponseAndRecordsNoResultPayload() {
+        ToolCallResponse response = fail("search", new RuntimeException("boom"));
+
+        assertThat(response.getResult()).contains("boom");
+        Map<String, Object> search = tool(interceptor.getStatistics(), "search");
+        assertThat(map(search.get("argBytes"))).containsEntry("count", 1L);
+        assertThat(map(search.get("resultBytes"))).containsEntry("count", 0L);
+    }
+
+    @Test
+    void warmUpCallsAreNotRecorded() {
+        ToolCallRequest request = ToolCallRequest.builder().toolName("weather").arguments("{}").toolCallId("id")
+                .context(Map.of(WarmUpRunner.WARMUP_KEY, true)).build();
+        interceptor.interceptToolCall(request, r -> ToolCallResponse.of("id", "weather", "晴"));
+        interceptor.interceptToolCall(request, r -> {
+            throw new IllegalStateException("超时");
+        });
+
+        assertThat(interceptor.getStatistics()).containsEntry("totalCalls", 0L);
+        assertThat(metrics.total(AgentMetrics.TOOL_ERRORS)).isZero();
+        assertThat(metrics.summaryTotals(AgentMetrics.TOOL_PAYLOAD)).containsEntry("count", 0L);
+    }
+
+    @Test
+    void utf8LengthCountsSurrogatePairsOnce() {
+        assertThat(ToolMonitorInterceptor.utf8Length(null)).isZero();
+        assertThat(ToolMonitorInterceptor.utf8Length("abc")).isEqualTo(3);
+        assertThat(ToolMonitorInterceptor.utf8Length("é")).isEqualTo(2);
+        assertThat(ToolMonitorInterceptor.utf8Length("中")).isEqualTo(3);
+        assertThat(ToolMonitorInterceptor.utf8Length("😀")).isEqualTo(4);
+    }
+
+    private void call(String tool, String args, String result) {
+        interceptor.interceptToolCall(request(tool, args), r -> ToolCallResponse.of("id", tool, result));
+    }
+
+    private ToolCallResponse fail(String tool, RuntimeException error) {
+        return interceptor.interceptToolCall(request(tool, "{}"), r -> {
+            throw error;
+        });
+    }
+
+    private static ToolCallRequest request(String tool, String args) {
+        return ToolCallRequest.builder().toolName(tool).arguments(args).toolCallId("id").context(Map.of()).build();
+    }
+
+    private static Map<String, Object> tool(Map<String, Object> stats, String tool) {
+        Map<String, Object> tools = map(stats.get("tools"));
+        return map(tools.get(tool));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object value) {
+        return (Map<String, Object>) value;
+    }
+}
@@ -0,0 +1,147 @@
+package com.kinch.agent.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * LatencyHistogram：分桶边界（0、精确区、子桶边、最大可记录值、超限值）、分位数取值与滑动窗口
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class LatencyHistogramTest {
+
+    /**
+     * 最大可精确分桶的值 2^21 - 1
+     */
+    private static final long MAX_TRACKED = (1L << 21) - 1;
+    private static final int LAST_BUCKET = LatencyHistogram.bucketIndex(MAX_TRACKED);
+
+    @Test
+    void valuesBelowSubBucketCountHaveTheirOwnBucket() {
+        for (long value = 0; value < 32; value++) {
+            assertThat(LatencyHistogram.bucketIndex(value)).isEqualTo((int) value);
+            assertThat(LatencyHistogram.bucketUpperBound((int) value)).isEqualTo(value);
+        }
+    }
+
+    @Test
+    void subBucketEdges() {
+        // 32..63 仍是每毫秒一个桶
+        assertThat(LatencyHistogram.bucketIndex(32)).isEqualTo(32);
+        assertThat(LatencyHistogram.bucketIndex(63)).isEqualTo(63);
+        // 64起每桶2毫秒
+        assertThat(LatencyHistogram.bucketIndex(64)).isEqualTo(64);
+        assertThat(LatencyHistogram.bucketIndex(65)).isEqualTo(64);
+        assertThat(LatencyHistogram.bucketIndex(66)).isEqualTo(65);
+        assertThat(LatencyHistogram.bucketUpperBound(64)).isEqualTo(65);
+        // 2的幂处换到下一组
+        assertThat(LatencyHistogram.bucketIndex(127)).isEqualTo(95);
+        assertThat(LatencyHistogram.bucketIndex(128)).isEqualTo(96);
+        assertThat(LatencyHistogram.bucketUpperBound(95)).isEqualTo(127);
+    }
+
+    @Test
+    void everyTrackedValueFallsInsideItsBucketAndBucketsAreContiguous() {
+        int previousIndex = 0;
+        for (long value = 1; value <= MAX_TRACKED; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertThat(index).isBetween(previousIndex, previousIndex + 1);
+            long upper = LatencyHistogram.bucketUpperBound(index);
+            assertThat(upper).isGreaterThanOrEqualTo(value);
+            if (index > previousIndex) {
+                // 新桶的第一个值紧接上一个桶的上界
+                assertThat(LatencyHistogram.bucketUpperBound(previousIndex)).isEqualTo(value - 1);
+            }
+            // 相对误差不超过1/32
+            assertThat((double) (upper - value) / value).isLessThanOrEqualTo(1.0 / 32);
+            previousIndex = index;
+        }
+    }
+
+    @Test
+    void maxTrackedValueUsesLastBucketAndOverflowSharesIt() {
+        assertThat(LatencyHistogram.bucketUpperBound(LAST_BUCKET)).isEqualTo(MAX_TRACKED);
+        assertThat(LatencyHistogram.bucketIndex(MAX_TRACKED + 1)).isEqualTo(LAST_BUCKET);
+        assertThat(LatencyHistogram.bucketIndex(Long.MAX_VALUE)).isEqualTo(LAST_BUCKET);
+    }
+
+    @Test
+    void emptySnapshotReportsZero() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram(1000, 10).snapshot(10_000, 0);
+
+        assertThat(snapshot.getCount()).isZero();
+        assertThat(snapshot.percentile(50)).isZero();
+        assertThat(snapshot.getMean()).isZero();
+    }
+
+    @Test
+    void zeroAndNegativeValuesAreRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram(1000, 10);
+        histogram.record(0, 0);
+        histogram.record(-5, 0);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(1000, 0);
+        assertThat(snapshot.getCount()).isEqualTo(2);
+        assertThat(snapshot.percentile(100)).isZero();
+        assertThat(snapshot.getMax()).isZero();
+    }
+
+    @Test
+    void percentileReturnsBucketUpperBoundCappedAtMax() {
+        LatencyHistogram histogram = new LatencyHistogram(1000, 10);
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value, 0);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(1000, 0);
+
+        // 精确区内的分位数是准确值
+        assertThat(snapshot.percentile(1)).isEqualTo(10);
+        // 其余分位数不低于真实值，且误差在一个子桶内
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            long exact = (long) Math.ceil(p / 100 * 1000);
+            assertThat(snapshot.percentile(p)).isBetween(exact, exact + exact / 32);
+        }
+        assertThat(snapshot.percentile(100)).isEqualTo(1000);
+        assertThat(snapshot.percentile(0)).isEqualTo(1);
+        assertThat(snapshot.getMean()).isEqualTo(500.5);
+    }
+
+    @Test
+    void singleValueInWideBucketReportsTheValueNotTheBucketBound() {
+        LatencyHistogram histogram = new LatencyHistogram(1000, 10);
+        histogram.record(1000, 0);
+
+        // 1000所在桶上界为1023，但不超过实际最大值
+        assertThat(histogram.snapshot(1000, 0).percentile(50)).isEqualTo(1000);
+    }
+
+    @Test
+    void overflowValuesReportActualMax() {
+        LatencyHistogram histogram = new LatencyHistogram(1000, 10);
+        histogram.record(10, 0);
+        histogram.record(5_000_000, 0);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(1000, 0);
+        assertThat(snapshot.percentile(99)).isEqualTo(5_000_000);
+        assertThat(snapshot.getMax()).isEqualTo(5_000_000);
+    }
+
+    @Test
+    void windowExcludesExpiredSlices() {
+        LatencyHistogram histogram = new LatencyHistogram(1000, 5);
+        histogram.record(100, 0);
+        histogram.record(200, 2_000);
+        histogram.record(300, 4_000);
+
+        assertThat(histogram.snapshot(5_000, 4_500).getCount()).isEqualTo(3);
+        assertThat(histogram.snapshot(1_000, 4_500).getCount()).isEqualTo(1);
+        assertThat(histogram.snapshot(3_000, 4_500).getMax()).isEqualTo(300);
+        // 切片环形复用：第5秒的写入清掉第0秒的切片
+        histogram.record(400, 5_000);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(5_000, 5_000);
+        assertThat(snapshot.getCount()).isEqualTo(3);
+        assertThat(snapshot.percentile(0)).isGreaterThanOrEqualTo(200);
+    }
+}
@@ -0,0 +1,263 @@
+package com.kinch.agent.ratelimit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * AdaptiveConcurrencyLimiter：梯度增长与收缩、过载退避、优先级份额与放行顺序、失败归还许可、过载信号识别。
+ * 许可耗时用可控时钟，样本耗时是确定的
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLong now = new AtomicLong(1_000_000 * MILLIS);
+    private AdaptiveConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = newLimiter(10, 2);
+    }
+
+    @Test
+    void limitGrowsWhenFullyUsedAndLatencyIsSteady() {
+        for (int round = 0; round < 100; round++) {
+            completeBatch(Integer.MAX_VALUE, 100);
+        }
+
+        assertThat(limiter.getLimit()).isGreaterThan(10);
+        assertThat(limiter.getInflight()).isZero();
+    }
+
+    @Test
+    void limitStaysWhenConcurrencyIsFarBelowIt() {
+        for (int round = 0; round < 200; round++) {
+            completeBatch(2, 100);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    void limitShrinksWhenLatencyRisesAboveBaseline() {
+        for (int round = 0; round < 50; round++) {
+            completeBatch(10, 100);
+        }
+        int grown = limiter.getLimit();
+
+        // 短期平均很快升到基线的2倍以上，随后几轮持续收缩
+        for (int round = 0; round < 10; round++) {
+            completeBatch(Integer.MAX_VALUE, 1_000);
+        }
+
+        assertThat(limiter.getLimit()).isLessThanOrEqualTo(grown * 3 / 4);
+    }
+
+    @Test
+    void overloadHalvesLimitOncePerBackoffInterval() {
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire(ModelPriority.INTERACTIVE);
+        AdaptiveConcurrencyLimiter.Permit second = limiter.acquire(ModelPriority.INTERACTIVE);
+        AdaptiveConcurrencyLimiter.Permit third = limiter.acquire(ModelPriority.INTERACTIVE);
+        AdaptiveConcurrencyLimiter.Permit fourth = limiter.acquire(ModelPriority.INTERACTIVE);
+
+        first.failure(tooManyRequests());
+        second.failure(tooManyRequests());
+        assertThat(limiter.getLimit()).isEqualTo(5);
+
+        now.addAndGet(1_001 * MILLIS);
+        third.failure(new SocketTimeoutException("read timed out"));
+        assertThat(limiter.getStatistics()).containsEntry("limit", 2.5);
+
+        // 不低于min-limit
+        now.addAndGet(1_001 * MILLIS);
+        fourth.failure(tooManyRequests());
+        assertThat(limiter.getLimit()).isEqualTo(2);
+        assertThat(limiter.getStatistics()).containsEntry("overloadSignals", 4L).containsEntry("backoffs", 3L);
+    }
+
+    @Test
+    void nonOverloadFailureReleasesPermitWithoutShrinking() {
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire(ModelPriority.INTERACTIVE);
+
+        permit.failure(new IllegalArgumentException("处理了429条记录后失败"));
+        permit.failure(new IllegalArgumentException("重复归还"));
+
+        assertThat(limiter.getInflight()).isZero();
+        assertThat(limiter.getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    void lowerPrioritiesOnlyUseTheirShareOfTheLimit() {
+        List<AdaptiveConcurrencyLimiter.Permit> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            batch.add(limiter.acquire(ModelPriority.BATCH));
+        }
+
+        assertThat(limiter.tryAcquire(ModelPriority.BATCH)).isNull();
+        assertThatThrownBy(() -> limiter.acquire(ModelPriority.BATCH, 0))
+                .isInstanceOf(ModelOverloadedException.class);
+        // 工作流可用到8，交互可用到10
+        List<AdaptiveConcurrencyLimiter.Permit> others = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            others.add(limiter.acquire(ModelPriority.WORKFLOW, 0));
+        }
+        assertThat(limiter.tryAcquire(ModelPriority.WORKFLOW)).isNull();
+        others.add(limiter.acquire(ModelPriority.INTERACTIVE, 0));
+        others.add(limiter.acquire(ModelPriority.INTERACTIVE, 0));
+        assertThat(limiter.tryAcquire(ModelPriority.INTERACTIVE)).isNull();
+
+        batch.forEach(AdaptiveConcurrencyLimiter.Permit::release);
+        others.forEach(AdaptiveConcurrencyLimiter.Permit::release);
+        assertThat(limiter.getInflight()).isZero();
+    }
+
+    @Test
+    void fullQueueIsShedImmediately() {
+        setField(limiter, "maxQueue", List.of(200, 500, 0));
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire(ModelPriority.BATCH);
+        }
+
+        assertThatThrownBy(() -> limiter.acquire(ModelPriority.BATCH))
+                .isInstanceOf(ModelOverloadedException.class)
+                .hasMessageContaining("排队已满");
+        assertThat(stat(ModelPriority.BATCH, "rejected")).isEqualTo(1L);
+    }
+
+    @Test
+    void releasedPermitGoesToHigherPriorityWaiterFirst() throws Exception {
+        AdaptiveConcurrencyLimiter small = newLimiter(2, 1);
+        AdaptiveConcurrencyLimiter.Permit a = small.acquire(ModelPriority.INTERACTIVE);
+        AdaptiveConcurrencyLimiter.Permit b = small.acquire(ModelPriority.INTERACTIVE);
+
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> batch =
+                CompletableFuture.supplyAsync(() -> small.acquire(ModelPriority.BATCH));
+        awaitQueued(small, ModelPriority.BATCH);
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> interactive =
+                CompletableFuture.supplyAsync(() -> small.acquire(ModelPriority.INTERACTIVE));
+        awaitQueued(small, ModelPriority.INTERACTIVE);
+
+        a.release();
+        AdaptiveConcurrencyLimiter.Permit granted = interactive.get(5, TimeUnit.SECONDS);
+        assertThat(batch).isNotDone();
+
+        // 批处理只能用1个并发：交互请求全部结束后才轮到它
+        b.release();
+        assertThat(small.getQueueSize(ModelPriority.BATCH)).isEqualTo(1);
+        granted.release();
+        batch.get(5, TimeUnit.SECONDS).release();
+        assertThat(small.getInflight()).isZero();
+    }
+
+    @Test
+    void interruptedWaiterLeavesTheQueue() throws Exception {
+        AdaptiveConcurrencyLimiter small = newLimiter(2, 1);
+        small.acquire(ModelPriority.BATCH);
+        Thread waiter = new Thread(() -> {
+            try {
+                small.acquire(ModelPriority.BATCH);
+            } catch (ModelOverloadedException ignored) {
+                // 预期：排队被中断
+            }
+        });
+        waiter.start();
+        awaitQueued(small, ModelPriority.BATCH);
+
+        waiter.interrupt();
+        waiter.join(5_000);
+
+        assertThat(small.getQueueSize(ModelPriority.BATCH)).isZero();
+        assertThat(small.getInflight()).isEqualTo(1);
+    }
+
+    @Test
+    void overloadIsRecognizedByStatusAndTypeNotByDigitsInMessages() {
+        assertThat(AdaptiveConcurrencyLimiter.isOverload(tooManyRequests())).isTrue();
+        assertThat(AdaptiveConcurrencyLimiter.isOverload(WebClientResponseException.create(
+                429, "Too Many Requests", null, null, null))).isTrue();
+        assertThat(AdaptiveConcurrencyLimiter.isOverload(new NonTransientAiException(
+                "429 - {\"code\":\"Throttling.RateQuota\",\"message\":\"Requests rate limit exceeded\"}"))).isTrue();
+        assertThat(AdaptiveConcurrencyLimiter.isOverload(new TransientAiException(
+                "503 - {\"code\": \"Throttling\", \"message\": \"Too many requests in route\"}"))).isTrue();
+        assertThat(AdaptiveConcurrencyLimiter.isOverload(HttpServerErrorException.create(
+                HttpStatus.SERVICE_UNAVAILABLE, "Service Unavailable", null,
+                "{\"code\":\"Throttling.AllocationQuota\"}".getBytes(StandardCharsets.UTF_8),
+                StandardCharsets.UTF_8))).isTrue();
+        assertThat(AdaptiveConcurrencyLimiter.isOverload(
+                new IllegalStateException("调用失败", new TimeoutException()))).isTrue();
+
+        assertThat(AdaptiveConcurrencyLimiter.isOverload(new RuntimeException("订单4291处理失败"))).isFalse();
+        assertThat(AdaptiveConcurrencyLimiter.isOverload(new RuntimeException("Too many requests"))).isFalse();
+        assertThat(AdaptiveConcurrencyLimiter.isOverload(new NonTransientAiException(
+                "400 - {\"code\":\"InvalidParameter\",\"message\":\"max_tokens 4290 too large\"}"))).isFalse();
+        assertThat(AdaptiveConcurrencyLimiter.isOverload(HttpClientErrorException.create(
+                HttpStatus.BAD_REQUEST, "Bad Request", null, null, null))).isFalse();
+        assertThat(AdaptiveConcurrencyLimiter.isOverload(null)).isFalse();
+    }
+
+    private AdaptiveConcurrencyLimiter newLimiter(int initialLimit, int minLimit) {
+        AdaptiveConcurrencyLimiter result = new AdaptiveConcurrencyLimiter();
+        setField(result, "initialLimit", initialLimit);
+        setField(result, "minLimit", minLimit);
+        setField(result, "clock", (LongSupplier) now::get);
+        result.init();
+        return result;
+    }
+
+    /**
+     * 同时拿最多concurrency个许可（不超过当前上限），经过rttMillis后全部成功归还
+     */
+    private void completeBatch(int concurrency, long rttMillis) {
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        AdaptiveConcurrencyLimiter.Permit permit;
+        while (permits.size() < concurrency && (permit = limiter.tryAcquire(ModelPriority.INTERACTIVE)) != null) {
+            permits.add(permit);
+        }
+        now.addAndGet(rttMillis * MILLIS);
+        permits.forEach(AdaptiveConcurrencyLimiter.Permit::success);
+    }
+
+    private static void awaitQueued(AdaptiveConcurrencyLimiter limiter, ModelPriority priority)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.getQueueSize(priority) == 0) {
+            assertThat(System.nanoTime()).as("等待排队").isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object stat(ModelPriority priority, String name) {
+        Map<String, Map<String, Object>> priorities =
+                (Map<String, Map<String, Object>>) limiter.getStatistics().get("priorities");
+        return priorities.get(priority.name()).get(name);
+    }
+
+    private static HttpClientErrorException tooManyRequests() {
+        return HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", null, null, null);
+    }
+}
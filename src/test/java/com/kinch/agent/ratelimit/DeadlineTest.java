@@ -0,0 +1,91 @@
+package com.kinch.agent.ratelimit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Deadline：到期中断阻塞调用并转换异常，返回后线程上不残留（也不会迟到）本类发出的中断
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class DeadlineTest {
+
+    @AfterEach
+    void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    @Test
+    void callWithinDeadlineReturnsNormally() {
+        assertThat(Deadline.after(5_000).enforce("model.call", () -> "晴")).isEqualTo("晴");
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+    }
+
+    @Test
+    void expiredBeforeStartIsNotAttempted() {
+        Deadline deadline = Deadline.after(0);
+
+        assertThatThrownBy(() -> deadline.enforce("model.call", () -> {
+            throw new AssertionError("不应执行");
+        })).isInstanceOf(DeadlineExceededException.class);
+    }
+
+    @Test
+    void blockingCallIsInterruptedAtDeadlineAndFlagIsCleared() {
+        long start = System.nanoTime();
+
+        assertThatThrownBy(() -> Deadline.after(50).enforce("model.call", () -> {
+            try {
+                Thread.sleep(10_000);
+                return "晴";
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("被中断", e);
+            }
+        })).isInstanceOf(DeadlineExceededException.class).hasCauseInstanceOf(IllegalStateException.class);
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(5_000);
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+    }
+
+    @Test
+    void callFinishingAsTimerFiresNeverLeavesALateInterrupt() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            Deadline deadline = Deadline.after(1);
+            long spinMicros = 900 + (i % 5) * 50;
+            try {
+                deadline.enforce("model.call", () -> {
+                    long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(spinMicros);
+                    while (System.nanoTime() < end) {
+                        Thread.onSpinWait();
+                    }
+                    return "晴";
+                });
+            } catch (DeadlineExceededException ignored) {
+                // 与定时器竞争，两种结果都可能
+            }
+            // 迟到的中断会让这里抛InterruptedException
+            Thread.sleep(0, 100_000);
+            assertThat(Thread.currentThread().isInterrupted()).as("第%d次", i).isFalse();
+        }
+    }
+
+    @Test
+    void scopeRestoresPreviousDeadline() {
+        Deadline outer = Deadline.after(10_000);
+        Deadline inner = Deadline.after(1_000);
+
+        try (Deadline.Scope o = outer.enter()) {
+            try (Deadline.Scope i = inner.enter()) {
+                assertThat(Deadline.current()).isSameAs(inner);
+            }
+            assertThat(Deadline.current()).isSameAs(outer);
+        }
+        assertThat(Deadline.current()).isNull();
+    }
+}
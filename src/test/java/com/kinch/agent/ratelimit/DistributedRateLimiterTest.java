@@ -0,0 +1,122 @@
+package com.kinch.agent.ratelimit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * DistributedRateLimiter：本地租约的租取与消耗、限流结果、存储不可用时的降级
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class DistributedRateLimiterTest {
+
+    @Test
+    void smallCapacityStillLeasesAtLeastOnePermit() {
+        CountingStore store = new CountingStore(new InMemoryTokenBucketStore());
+        // 5 × 0.1 按比例租约为0
+        DistributedRateLimiter limiter = limiter(store, 5, 0.1);
+
+        assertThat(limiter.tryAcquire(1L, null, 10)).isNull();
+        assertThat(limiter.tryAcquire(1L, null, 10)).isNull();
+
+        assertThat(store.calls.get()).isEqualTo(1);
+        assertThat(limiter.getStatistics().get("localHits")).isEqualTo(1L);
+    }
+
+    @Test
+    void leaseIsConsumedLocallyBeforeGoingBackToStore() {
+        CountingStore store = new CountingStore(new InMemoryTokenBucketStore());
+        // 容量100，每次租10个：第一次远程调用后接着10次走本地
+        DistributedRateLimiter limiter = limiter(store, 100, 0.1);
+
+        for (int i = 0; i < 11; i++) {
+            assertThat(limiter.tryAcquire(1L, "t1", 10)).isNull();
+        }
+        assertThat(store.calls.get()).isEqualTo(1);
+
+        assertThat(limiter.tryAcquire(1L, "t1", 10)).isNull();
+        assertThat(store.calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    void expiredLeaseIsNotUsed() {
+        CountingStore store = new CountingStore(new InMemoryTokenBucketStore());
+        DistributedRateLimiter limiter = limiter(store, 100, 0.1);
+        ReflectionTestUtils.setField(limiter, "leaseTtlMs", 0L);
+
+        limiter.tryAcquire(1L, null, 10);
+        limiter.tryAcquire(1L, null, 10);
+
+        assertThat(store.calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    void rejectsWithDimensionNameWhenBucketIsEmpty() {
+        DistributedRateLimiter limiter = limiter(new InMemoryTokenBucketStore(() -> 0L), 1, 0);
+
+        assertThat(limiter.tryAcquire(1L, null, 10)).isNull();
+        assertThat(limiter.tryAcquire(1L, null, 10)).isEqualTo("用户请求数/秒");
+        assertThat(limiter.getStatistics().get("rejected")).isEqualTo(1L);
+    }
+
+    @Test
+    void storeFailureFailsOpenOrClosedByConfiguration() {
+        TokenBucketStore broken = new TokenBucketStore() {
+            @Override
+            public Result acquire(List<BucketRequest> requests) {
+                throw new IllegalStateException("connection refused");
+            }
+
+            @Override
+            public String getName() {
+                return "broken";
+            }
+        };
+        DistributedRateLimiter limiter = limiter(broken, 100, 0.1);
+
+        assertThat(limiter.tryAcquire(1L, null, 10)).isNull();
+
+        ReflectionTestUtils.setField(limiter, "failOpen", false);
+        assertThat(limiter.tryAcquire(1L, null, 10)).isEqualTo("限流服务不可用");
+        assertThat(limiter.getStatistics().get("storeErrors")).isEqualTo(2L);
+    }
+
+    static DistributedRateLimiter limiter(TokenBucketStore store, double requestsPerSecond, double leaseFraction) {
+        DistributedRateLimiter limiter = new DistributedRateLimiter(store);
+        ReflectionTestUtils.setField(limiter, "enabled", true);
+        ReflectionTestUtils.setField(limiter, "userRequestsPerSecond", requestsPerSecond);
+        ReflectionTestUtils.setField(limiter, "userTokensPerMinute", 60000L);
+        ReflectionTestUtils.setField(limiter, "tenantRequestsPerSecond", requestsPerSecond * 10);
+        ReflectionTestUtils.setField(limiter, "tenantTokensPerMinute", 600000L);
+        ReflectionTestUtils.setField(limiter, "leaseFraction", leaseFraction);
+        ReflectionTestUtils.setField(limiter, "leaseTtlMs", 60000L);
+        ReflectionTestUtils.setField(limiter, "failOpen", true);
+        return limiter;
+    }
+
+    private static final class CountingStore implements TokenBucketStore {
+        private final TokenBucketStore delegate;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        CountingStore(TokenBucketStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Result acquire(List<BucketRequest> requests) {
+            calls.incrementAndGet();
+            return delegate.acquire(requests);
+        }
+
+        @Override
+        public String getName() {
+            return delegate.getName();
+        }
+    }
+}
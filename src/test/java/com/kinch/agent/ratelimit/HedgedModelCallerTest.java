@@ -0,0 +1,233 @@
+package com.kinch.agent.ratelimit;
+
+import com.kinch.agent.tracing.Tracer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * HedgedModelCaller：第一次调用在调用方线程执行；快速失败不等对冲延迟；慢调用被对冲且胜出时
+ * 调用方线程不残留中断标记；对冲线程带上截止时间和优先级
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class HedgedModelCallerTest {
+
+    private HedgedModelCaller caller;
+
+    @BeforeEach
+    void setUp() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+        limiter.init();
+        caller = new HedgedModelCaller(limiter, new Tracer(null));
+        setField(caller, "initialDelayMs", 50L);
+        setField(caller, "maxRatio", 1.0);
+        caller.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        caller.shutdown();
+    }
+
+    @Test
+    void fastPrimaryRunsOnCallerThreadWithoutHedging() {
+        Thread test = Thread.currentThread();
+
+        String result = caller.call("translate", () -> {
+            assertThat(Thread.currentThread()).isSameAs(test);
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(stat("translate", "hedges")).isEqualTo(0L);
+    }
+
+    @Test
+    void primaryFailingBeforeHedgeDelayFailsFastAndIsNotRetried() {
+        setField(caller, "initialDelayMs", 1_000L);
+        AtomicInteger attempts = new AtomicInteger();
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> caller.call("translate", () -> {
+            attempts.incrementAndGet();
+            throw tooManyRequests();
+        })).isInstanceOf(HttpClientErrorException.TooManyRequests.class);
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(500);
+        assertThat(attempts).hasValue(1);
+        assertThat(stat("translate", "hedges")).isEqualTo(0L);
+    }
+
+    @Test
+    void slowPrimaryIsHedgedAndHedgeWins() {
+        AtomicInteger attempts = new AtomicInteger();
+        List<Boolean> primaryInterrupted = new CopyOnWriteArrayList<>();
+
+        String result = caller.call("classify", () -> {
+            if (attempts.getAndIncrement() == 0) {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    primaryInterrupted.add(true);
+                    throw new IllegalStateException("被取消", e);
+                }
+                return "primary";
+            }
+            return "hedge";
+        });
+
+        assertThat(result).isEqualTo("hedge");
+        assertThat(primaryInterrupted).containsExactly(true);
+        assertThat(Thread.interrupted()).as("调用方线程不残留中断标记").isFalse();
+        assertThat(stat("classify", "hedgeWins")).isEqualTo(1L);
+    }
+
+    @Test
+    void primaryFailingAfterHedgeStartedWaitsForHedge() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = caller.call("classify", () -> {
+            if (attempts.getAndIncrement() == 0) {
+                sleep(200);
+                throw new IllegalStateException("解析失败");
+            }
+            sleep(200);
+            return "hedge";
+        });
+
+        assertThat(result).isEqualTo("hedge");
+        assertThat(attempts).hasValue(2);
+    }
+
+    @Test
+    void overloadedPrimaryAfterHedgeStartedFailsFastAndCancelsHedge() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch hedgeCancelled = new CountDownLatch(1);
+
+        assertThatThrownBy(() -> caller.call("classify", () -> {
+            if (attempts.getAndIncrement() == 0) {
+                sleep(200);
+                throw tooManyRequests();
+            }
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                hedgeCancelled.countDown();
+            }
+            return "hedge";
+        })).isInstanceOf(HttpClientErrorException.TooManyRequests.class);
+
+        assertThat(hedgeCancelled.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void hedgeCarriesDeadlineAndPriority() {
+        Deadline deadline = Deadline.after(10_000);
+        List<Object> seen = new CopyOnWriteArrayList<>();
+        AtomicInteger attempts = new AtomicInteger();
+
+        try (Deadline.Scope d = deadline.enter();
+             ModelPriority.Scope p = ModelPriority.BATCH.enter()) {
+            caller.call("classify", () -> {
+                if (attempts.getAndIncrement() == 0) {
+                    sleep(10_000);
+                    return "primary";
+                }
+                seen.add(Deadline.current());
+                seen.add(ModelPriority.current());
+                return "hedge";
+            });
+        }
+        Thread.interrupted();
+
+        assertThat(seen).containsExactly(deadline, ModelPriority.BATCH);
+    }
+
+    @Test
+    void hedgeIsSkippedWhenPoolIsFull() throws Exception {
+        caller.shutdown();
+        setField(caller, "maxConcurrent", 1);
+        caller.init();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger firstAttempts = new AtomicInteger();
+        Thread first = new Thread(() -> caller.call("classify", slowThenBlockingHedge(firstAttempts, release)));
+        first.start();
+        awaitStat("classify", "hedges", 1L);
+
+        AtomicInteger attempts = new AtomicInteger();
+        String result = caller.call("classify", () -> {
+            attempts.incrementAndGet();
+            sleep(200);
+            return "primary";
+        });
+
+        assertThat(result).isEqualTo("primary");
+        assertThat(attempts).hasValue(1);
+        assertThat(stat("classify", "rejected")).isEqualTo(1L);
+        release.countDown();
+        first.join(5_000);
+    }
+
+    private static Supplier<String> slowThenBlockingHedge(AtomicInteger attempts, CountDownLatch release) {
+        return () -> {
+            if (attempts.getAndIncrement() == 0) {
+                await(release);
+                return "primary";
+            }
+            await(release);
+            return "hedge";
+        };
+    }
+
+    private void awaitStat(String operation, String name, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Long.valueOf(expected).equals(stat(operation, name))) {
+            assertThat(System.nanoTime()).as("等待%s=%d", name, expected).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object stat(String operation, String name) {
+        Map<String, Map<String, Object>> operations =
+                (Map<String, Map<String, Object>>) caller.getStatistics().get("operations");
+        Map<String, Object> entry = operations.get(operation);
+        return entry != null ? entry.get(name) : null;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("被取消", e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("被取消", e);
+        }
+    }
+
+    private static HttpClientErrorException tooManyRequests() {
+        return HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", null, null, null);
+    }
+}
@@ -0,0 +1,163 @@
+package com.kinch.agent.ratelimit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * LimitedChatModel：同步/流式调用在成功、失败、取消时都归还许可，过载错误收缩上限，
+ * 流式订阅在需要排队时不阻塞订阅线程
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class LimitedChatModelTest {
+
+    private static final Prompt PROMPT = new Prompt("你好");
+
+    private AdaptiveConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new AdaptiveConcurrencyLimiter();
+        setField(limiter, "initialLimit", 4);
+        setField(limiter, "minLimit", 1);
+        limiter.init();
+    }
+
+    @Test
+    void callReleasesPermitOnSuccessAndOnError() {
+        assertThat(model(prompt -> reply("晴"), null).call(PROMPT).getResult().getOutput().getText()).isEqualTo("晴");
+        assertThat(limiter.getInflight()).isZero();
+
+        LimitedChatModel failing = model(prompt -> {
+            throw new IllegalStateException("boom");
+        }, null);
+        assertThatThrownBy(() -> failing.call(PROMPT)).hasMessage("boom");
+        assertThat(limiter.getInflight()).isZero();
+        assertThat(limiter.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void callThrottledByDownstreamShrinksLimit() {
+        LimitedChatModel throttled = model(prompt -> {
+            throw WebClientResponseException.create(HttpStatus.TOO_MANY_REQUESTS.value(), "Too Many Requests",
+                    null, null, null);
+        }, null);
+
+        assertThatThrownBy(() -> throttled.call(PROMPT)).isInstanceOf(WebClientResponseException.class);
+        assertThat(limiter.getInflight()).isZero();
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void streamReleasesPermitOnCompleteErrorAndCancel() {
+        assertThat(model(null, prompt -> Flux.just(reply("a"), reply("b"))).stream(PROMPT).collectList().block())
+                .hasSize(2);
+        assertThat(limiter.getInflight()).isZero();
+
+        Flux<ChatResponse> error = model(null, prompt -> Flux.concat(Flux.just(reply("a")),
+                Flux.error(new IllegalStateException("断流")))).stream(PROMPT);
+        assertThatThrownBy(error::blockLast).hasMessage("断流");
+        assertThat(limiter.getInflight()).isZero();
+
+        Sinks.Many<ChatResponse> endless = Sinks.many().unicast().onBackpressureBuffer();
+        Disposable subscription = model(null, prompt -> endless.asFlux()).stream(PROMPT).subscribe();
+        assertThat(limiter.getInflight()).isEqualTo(1);
+        subscription.dispose();
+        assertThat(limiter.getInflight()).isZero();
+    }
+
+    @Test
+    void streamWaitingForPermitDoesNotBlockSubscriber() throws Exception {
+        AdaptiveConcurrencyLimiter.Permit[] held = new AdaptiveConcurrencyLimiter.Permit[4];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = limiter.acquire(ModelPriority.INTERACTIVE);
+        }
+        List<ChatResponse> received = new CopyOnWriteArrayList<>();
+
+        long start = System.nanoTime();
+        Disposable subscription = model(null, prompt -> Flux.just(reply("晴"))).stream(PROMPT)
+                .subscribe(received::add);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1_000);
+        awaitQueued();
+        assertThat(received).isEmpty();
+
+        held[0].release();
+        // 许可在doFinally中归还，晚于onNext，需要等到归还后再断言在途数
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((received.isEmpty() || limiter.getInflight() != 3) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(received).hasSize(1);
+        assertThat(limiter.getInflight()).isEqualTo(3);
+        subscription.dispose();
+    }
+
+    @Test
+    void streamCancelledWhileQueuedGivesUpItsPlace() throws Exception {
+        AdaptiveConcurrencyLimiter.Permit[] held = new AdaptiveConcurrencyLimiter.Permit[4];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = limiter.acquire(ModelPriority.INTERACTIVE);
+        }
+        Disposable subscription = model(null, prompt -> Flux.never()).stream(PROMPT).subscribe();
+        awaitQueued();
+
+        subscription.dispose();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.getQueueSize(ModelPriority.INTERACTIVE) > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        for (AdaptiveConcurrencyLimiter.Permit permit : held) {
+            permit.release();
+        }
+
+        assertThat(limiter.getQueueSize(ModelPriority.INTERACTIVE)).isZero();
+        assertThat(limiter.getInflight()).isZero();
+    }
+
+    private void awaitQueued() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.getQueueSize(ModelPriority.INTERACTIVE) == 0) {
+            assertThat(System.nanoTime()).as("等待排队").isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private LimitedChatModel model(Function<Prompt, ChatResponse> call, Function<Prompt, Flux<ChatResponse>> stream) {
+        ChatModel delegate = new ChatModel() {
+            @Override
+            public ChatResponse call(Prompt prompt) {
+                return call.apply(prompt);
+            }
+
+            @Override
+            public Flux<ChatResponse> stream(Prompt prompt) {
+                return stream.apply(prompt);
+            }
+        };
+        return new LimitedChatModel(delegate, limiter);
+    }
+
+    private static ChatResponse reply(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+}
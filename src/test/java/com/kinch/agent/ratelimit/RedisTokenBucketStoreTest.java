@@ -0,0 +1,149 @@
+package com.kinch.agent.ratelimit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * token_bucket.lua在真实Redis（内嵌）上的行为：发放、拒绝、多桶原子性、按时间补充，以及Redis不可用时限流器的降级
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class RedisTokenBucketStoreTest {
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static RedisTokenBucketStore store;
+    private static StringRedisTemplate redisTemplate;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port = freePort();
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = connect(port);
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        store = new RedisTokenBucketStore(redisTemplate);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    @BeforeEach
+    void flush() {
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+    }
+
+    @Test
+    void grantsUpToWantAndAtLeastNeed() {
+        TokenBucketStore.Result first = store.acquire(List.of(new BucketRequest("b", 10, 0.001, 1, 4)));
+        assertThat(first.allowed()).isTrue();
+        assertThat(first.grants()).containsExactly(4);
+
+        // 剩6个，want超过剩余时只发剩余的
+        TokenBucketStore.Result second = store.acquire(List.of(new BucketRequest("b", 10, 0.001, 1, 100)));
+        assertThat(second.grants()).containsExactly(6);
+    }
+
+    @Test
+    void deniesWhenBucketHasFewerThanNeed() {
+        store.acquire(List.of(new BucketRequest("b", 3, 0.001, 3, 3)));
+
+        TokenBucketStore.Result denied = store.acquire(List.of(new BucketRequest("b", 3, 0.001, 1, 1)));
+
+        assertThat(denied.allowed()).isFalse();
+        assertThat(denied.rejectedIndex()).isZero();
+    }
+
+    @Test
+    void deniesAllBucketsAtomicallyAndReportsTheEmptyOne() {
+        store.acquire(List.of(new BucketRequest("empty", 2, 0.001, 2, 2)));
+
+        TokenBucketStore.Result denied = store.acquire(List.of(
+                new BucketRequest("full", 5, 0.001, 1, 1),
+                new BucketRequest("empty", 2, 0.001, 1, 1)));
+
+        assertThat(denied.rejectedIndex()).isEqualTo(1);
+        // 被拒绝时前面的桶不扣减
+        assertThat(store.acquire(List.of(new BucketRequest("full", 5, 0.001, 5, 5))).allowed()).isTrue();
+    }
+
+    @Test
+    void refillsByElapsedServerTimeCappedAtCapacity() throws InterruptedException {
+        store.acquire(List.of(new BucketRequest("r", 10, 100, 10, 10)));
+        assertThat(store.acquire(List.of(new BucketRequest("r", 10, 100, 5, 5))).allowed()).isFalse();
+
+        // 100个/秒，80ms后约补充8个
+        Thread.sleep(80);
+        assertThat(store.acquire(List.of(new BucketRequest("r", 10, 100, 5, 5))).allowed()).isTrue();
+
+        // 长时间空闲也不超过容量
+        Thread.sleep(300);
+        TokenBucketStore.Result capped = store.acquire(List.of(new BucketRequest("r", 10, 100, 1, 100)));
+        assertThat(capped.grants()[0]).isEqualTo(10);
+    }
+
+    @Test
+    void bucketKeyExpiresAfterFullRefillTime() {
+        store.acquire(List.of(new BucketRequest("ttl", 10, 5, 1, 1)));
+
+        Long ttl = redisTemplate.getExpire("ttl", TimeUnit.MILLISECONDS);
+        // capacity / rate = 2秒，另加1秒余量
+        assertThat(ttl).isBetween(2000L, 3000L);
+    }
+
+    @Test
+    void limiterFallsBackWhenRedisIsDown() throws IOException {
+        LettuceConnectionFactory downFactory = connect(freePort());
+        try {
+            RedisTokenBucketStore downStore = new RedisTokenBucketStore(new StringRedisTemplate(downFactory));
+            assertThatThrownBy(() -> downStore.acquire(List.of(new BucketRequest("b", 1, 1, 1, 1))))
+                    .isInstanceOf(RuntimeException.class);
+
+            DistributedRateLimiter limiter = DistributedRateLimiterTest.limiter(downStore, 5, 0.1);
+            assertThat(limiter.tryAcquire(1L, null, 10)).isNull();
+            ReflectionTestUtils.setField(limiter, "failOpen", false);
+            assertThat(limiter.tryAcquire(1L, null, 10)).isEqualTo("限流服务不可用");
+        } finally {
+            downFactory.destroy();
+        }
+    }
+
+    private static LettuceConnectionFactory connect(int port) {
+        LettuceConnectionFactory factory = new LettuceConnectionFactory("localhost", port);
+        factory.afterPropertiesSet();
+        factory.start();
+        return factory;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
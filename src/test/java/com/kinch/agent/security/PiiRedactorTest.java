@@ -0,0 +1,109 @@
+package com.kinch.agent.security;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * PiiRedactor：各类信息的识别边界，以及流式输入在任意位置切块时与整段脱敏结果一致
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class PiiRedactorTest {
+
+    private static final List<String> CORPUS = List.of(
+            "请联系13800138000或发邮件到zhang.san@example.com",
+            "身份证11010519491231002X，备用110105194912310021。",
+            "服务器host-10.0.0.1宕机了，备机ip=192.168.1.100.",
+            "电话tel13912345678，国际格式8613912345678",
+            "订单号202601161234567890123不是身份证，版本1.2.3.4.5不是IP",
+            "无敏感信息的中文句子，只有数字42");
+
+    private final PiiRedactor redactor = new PiiRedactor();
+
+    @Test
+    void masksEachCategory() {
+        assertThat(redactor.redact("手机13800138000")).isEqualTo("手机" + PiiRedactor.PHONE_MASK);
+        assertThat(redactor.redact("身份证11010519491231002X")).isEqualTo("身份证" + PiiRedactor.ID_CARD_MASK);
+        assertThat(redactor.redact("邮箱 a.b-c@mail.example.com。")).isEqualTo("邮箱 " + PiiRedactor.EMAIL_MASK + "。");
+        assertThat(redactor.redact("地址10.0.0.1.")).isEqualTo("地址" + PiiRedactor.IP_MASK + ".");
+    }
+
+    @Test
+    void masksIpAndPhoneFollowingWordCharacters() {
+        assertThat(redactor.redact("host-10.0.0.1")).isEqualTo("host-" + PiiRedactor.IP_MASK);
+        assertThat(redactor.redact("node10.0.0.1a")).isEqualTo("node" + PiiRedactor.IP_MASK + "a");
+        assertThat(redactor.redact("ip_192.168.1.1_port")).isEqualTo("ip_" + PiiRedactor.IP_MASK + "_port");
+        assertThat(redactor.redact("tel13800138000")).isEqualTo("tel" + PiiRedactor.PHONE_MASK);
+        assertThat(redactor.redact("user-13800138000x")).isEqualTo("user-" + PiiRedactor.PHONE_MASK + "x");
+    }
+
+    @Test
+    void leavesLongerNumbersAndDottedVersionsAlone() {
+        assertThat(redactor.redact("订单202601161234567890123")).isEqualTo("订单202601161234567890123");
+        assertThat(redactor.redact("138001380001")).isEqualTo("138001380001");
+        assertThat(redactor.redact("v1.2.3.4.5")).isEqualTo("v1.2.3.4.5");
+        assertThat(redactor.redact("1234.1.1.1")).isEqualTo("1234.1.1.1");
+        assertThat(redactor.redact("12345678901")).isEqualTo("12345678901");
+    }
+
+    @Test
+    void textWithoutDigitsOrAtIsReturnedAsIs() {
+        String text = "没有数字的文本";
+        assertThat(redactor.redact(text)).isSameAs(text);
+    }
+
+    @Test
+    void everyTwoWaySplitMatchesWholeText() {
+        for (String text : CORPUS) {
+            String expected = redactor.redact(text);
+            for (int i = 0; i <= text.length(); i++) {
+                assertThat(stream(text.substring(0, i), text.substring(i)))
+                        .as("切分位置 %d: %s", i, text)
+                        .isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    void everyThreeWaySplitMatchesWholeText() {
+        for (String text : CORPUS) {
+            String expected = redactor.redact(text);
+            for (int i = 0; i <= text.length(); i++) {
+                for (int j = i; j <= text.length(); j++) {
+                    assertThat(stream(text.substring(0, i), text.substring(i, j), text.substring(j)))
+                            .as("切分位置 %d,%d: %s", i, j, text)
+                            .isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    void characterByCharacterStreamMatchesWholeText() {
+        for (String text : CORPUS) {
+            List<String> chars = new ArrayList<>();
+            text.codePoints().forEach(cp -> chars.add(new String(Character.toChars(cp))));
+            assertThat(stream(chars.toArray(new String[0]))).isEqualTo(redactor.redact(text));
+        }
+    }
+
+    @Test
+    void sessionReportsPendingCandidate() {
+        PiiRedactor.Session session = redactor.newSession();
+
+        assertThat(session.push("电话1380013")).isEqualTo("电话");
+        assertThat(session.hasPending()).isTrue();
+        assertThat(session.push("8000。")).isEqualTo(PiiRedactor.PHONE_MASK + "。");
+        assertThat(session.hasPending()).isFalse();
+    }
+
+    private String stream(String... chunks) {
+        return String.join("", redactor.redact(Flux.just(chunks)).collectList().block());
+    }
+}
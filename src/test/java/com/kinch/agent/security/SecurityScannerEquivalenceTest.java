@@ -0,0 +1,161 @@
+package com.kinch.agent.security;
+
+import com.kinch.agent.security.SecurityScanner.Category;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SecurityScanner与替换前的正则规则在同一语料上的判定对比
+ * <p>
+ * 旧规则照原样保留在本测试中：CustomSecurityHook的SQL/命令注入模式用 '.*(...).*' + matches()，
+ * 敏感词用 toLowerCase().contains()。旧模式的'.'不匹配换行，多行输入永远不命中，
+ * 扫描器有意检查全文，因此多行语料与加DOTALL的旧模式对比，并单独断言差异只出现在多行输入上
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class SecurityScannerEquivalenceTest {
+
+    private static final Pattern LEGACY_SQL_INJECTION = Pattern.compile(
+            ".*(union|select|insert|update|delete|drop|exec|script|<script).*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LEGACY_COMMAND_INJECTION = Pattern.compile(
+            ".*[;&|`$].*", Pattern.CASE_INSENSITIVE);
+    private static final List<String> LEGACY_SENSITIVE_WORDS = Arrays.asList(
+            "密码", "password", "token", "秘钥", "secret", "apikey");
+
+    private static final Pattern LEGACY_SQL_INJECTION_DOTALL = Pattern.compile(
+            LEGACY_SQL_INJECTION.pattern(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern LEGACY_COMMAND_INJECTION_DOTALL = Pattern.compile(
+            LEGACY_COMMAND_INJECTION.pattern(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * 生成随机语料用的片段：关键字及其残缺/变形、元字符、中文、大小写混合
+     */
+    private static final String[] FRAGMENTS = {
+            "union", "UNION", "Uni", "on", "sel", "ect", "SeLeCt", "insert", "ins", "update", "upd", "ate",
+            "delete", "del", "drop", "DROP", "dro", "exec", "EXE", "c", "script", "<script>", "scr", "ipt",
+            ";", "&", "&&", "|", "||", "`", "$", "${", "password", "PassWord", "pass", "word", "token", "tok",
+            "en", "TOKEN", "secret", "SECRET", "sec", "ret", "apikey", "ApiKey", "api", "key", "密码", "密", "码",
+            "秘钥", "秘", "钥", "你好", "天气", "查询", " ", " ", " ", "a", "x", "1", ",", ".", "-", "_", "'", "\"",
+            "(", ")", "=", "*", "%", "#", "\t", "é", "ß", "😀"
+    };
+
+    private static final List<String> HANDPICKED = List.of(
+            "",
+            "今天北京天气怎么样",
+            "SELECT * FROM users",
+            "please select a plan",
+            "Union Station",
+            "selec t",
+            "drop",
+            "DrOp TaBlE",
+            "<SCRIPT>alert(1)</SCRIPT>",
+            "describe the execution",
+            "ls; rm -rf /",
+            "a && b",
+            "cost is $5",
+            "echo `id`",
+            "no metacharacters here",
+            "我的密码是123",
+            "秘钥泄露",
+            "MY PASSWORD",
+            "tokenizer",
+            "api key",
+            "apikey=abc",
+            "SeCrEt",
+            "中文混合select和密码",
+            "😀 emoji update 😀");
+
+    private final SecurityScanner scanner = new SecurityScanner();
+
+    @Test
+    void handpickedSingleLineInputsGetTheSameVerdicts() {
+        for (String input : HANDPICKED) {
+            assertSameVerdicts(input, LEGACY_SQL_INJECTION, LEGACY_COMMAND_INJECTION);
+        }
+    }
+
+    @Test
+    void randomSingleLineCorpusGetsTheSameVerdicts() {
+        for (String input : randomCorpus(20_000, false)) {
+            assertSameVerdicts(input, LEGACY_SQL_INJECTION, LEGACY_COMMAND_INJECTION);
+        }
+    }
+
+    @Test
+    void randomMultiLineCorpusMatchesLegacyRulesAppliedAcrossLines() {
+        for (String input : randomCorpus(20_000, true)) {
+            assertSameVerdicts(input, LEGACY_SQL_INJECTION_DOTALL, LEGACY_COMMAND_INJECTION_DOTALL);
+        }
+    }
+
+    @Test
+    void onlyDifferenceFromLegacyRulesIsMultiLineInput() {
+        int differences = 0;
+        for (String input : randomCorpus(20_000, true)) {
+            long hits = scanner.scan(input);
+            boolean legacySql = LEGACY_SQL_INJECTION.matcher(input).matches();
+            boolean legacyCommand = LEGACY_COMMAND_INJECTION.matcher(input).matches();
+            boolean sqlDiffers = scanner.matches(hits, Category.SQL_INJECTION) != legacySql;
+            boolean commandDiffers = scanner.matches(hits, Category.COMMAND_INJECTION) != legacyCommand;
+            if (sqlDiffers || commandDiffers) {
+                differences++;
+                // 差异只能是旧规则因换行漏判：输入含换行，且旧规则判定为放行
+                assertThat(input).as("差异输入: %s", input).containsAnyOf("\n", "\r");
+                assertThat(sqlDiffers && legacySql).as("扫描器漏判SQL注入: %s", input).isFalse();
+                assertThat(commandDiffers && legacyCommand).as("扫描器漏判命令注入: %s", input).isFalse();
+            }
+        }
+        assertThat(differences).isPositive();
+    }
+
+    private void assertSameVerdicts(String input, Pattern sqlInjection, Pattern commandInjection) {
+        long hits = scanner.scan(input);
+        assertThat(scanner.matches(hits, Category.SQL_INJECTION))
+                .as("SQL注入判定: %s", input)
+                .isEqualTo(sqlInjection.matcher(input).matches());
+        assertThat(scanner.matches(hits, Category.COMMAND_INJECTION))
+                .as("命令注入判定: %s", input)
+                .isEqualTo(commandInjection.matcher(input).matches());
+        assertThat(scanner.keywords(hits, Category.SENSITIVE_WORD))
+                .as("敏感词: %s", input)
+                .containsExactlyInAnyOrderElementsOf(legacySensitiveWords(input));
+        // 提前返回的扫描与全量扫描对拦截类规则的判定一致
+        long stopMask = scanner.mask(Category.SQL_INJECTION) | scanner.mask(Category.COMMAND_INJECTION);
+        assertThat((scanner.scan(input, stopMask) & stopMask) != 0).isEqualTo((hits & stopMask) != 0);
+    }
+
+    private static List<String> legacySensitiveWords(String input) {
+        List<String> found = new ArrayList<>();
+        for (String word : LEGACY_SENSITIVE_WORDS) {
+            if (input.toLowerCase().contains(word.toLowerCase())) {
+                found.add(word);
+            }
+        }
+        return found;
+    }
+
+    private static List<String> randomCorpus(int size, boolean multiLine) {
+        Random random = new Random(multiLine ? 7 : 42);
+        List<String> corpus = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            StringBuilder text = new StringBuilder();
+            int parts = random.nextInt(8);
+            for (int p = 0; p < parts; p++) {
+                text.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+                if (multiLine && random.nextInt(4) == 0) {
+                    text.append(random.nextBoolean() ? "\n" : "\r\n");
+                }
+            }
+            corpus.add(text.toString());
+        }
+        return corpus;
+    }
+}
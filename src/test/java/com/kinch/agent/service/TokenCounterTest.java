@@ -0,0 +1,104 @@
+package com.kinch.agent.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * TokenCounter：分词模式选择与回退、按消息缓存Token数
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class TokenCounterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void fallsBackToApproximateWithoutVocabulary() {
+        TokenCounter counter = counter("bpe", "");
+
+        assertThat(counter.getTokenizerName()).isEqualTo("approximate");
+        assertThat(counter.countTokens("北京天气")).isEqualTo(counter.estimate("北京天气")).isEqualTo(4);
+    }
+
+    @Test
+    void fallsBackToApproximateWhenVocabularyCannotBeLoaded() throws Exception {
+        Path broken = Files.writeString(dir.resolve("broken.tiktoken"), "不是词表\n");
+
+        assertThat(counter("auto", "file:" + broken).getTokenizerName()).isEqualTo("approximate");
+        assertThat(counter("auto", "file:" + dir.resolve("missing.tiktoken")).getTokenizerName())
+                .isEqualTo("approximate");
+    }
+
+    @Test
+    void usesBpeWhenVocabularyIsConfigured() throws Exception {
+        TokenCounter counter = counter("auto", "file:" + byteVocabulary());
+
+        assertThat(counter.getTokenizerName()).isEqualTo("bpe");
+        // 只有单字节词条：每个UTF-8字节1个Token
+        assertThat(counter.countTokens("天气")).isEqualTo(6);
+        // estimate始终走近似分词
+        assertThat(counter.estimate("天气")).isEqualTo(2);
+        assertThat(counter("approximate", "file:" + byteVocabulary()).getTokenizerName()).isEqualTo("approximate");
+    }
+
+    @Test
+    void cachesCountInMessageMetadata() {
+        TokenCounter counter = counter("auto", "");
+        UserMessage message = new UserMessage("北京天气");
+
+        int tokens = counter.count(message);
+
+        assertThat(tokens).isEqualTo(4 + 4);
+        assertThat(message.getMetadata()).containsEntry(TokenCounter.TOKEN_COUNT_KEY, tokens);
+        // 已缓存的值直接返回，不再重新计算
+        message.getMetadata().put(TokenCounter.TOKEN_COUNT_KEY, 99);
+        assertThat(counter.count(message)).isEqualTo(99);
+        assertThat(counter.count(List.of(message, message))).isEqualTo(198);
+    }
+
+    @Test
+    void countsToolCallArguments() {
+        TokenCounter counter = counter("auto", "");
+        AssistantMessage plain = new AssistantMessage("");
+        AssistantMessage withToolCall = AssistantMessage.builder()
+                .content("")
+                .properties(Map.of())
+                .toolCalls(List.of(new AssistantMessage.ToolCall("call-1", "function", "weather", "{\"city\":\"北京\"}")))
+                .build();
+
+        assertThat(counter.count(withToolCall)).isGreaterThan(counter.count(plain));
+        assertThat(counter.count((UserMessage) null)).isZero();
+        assertThat(counter.count((List<UserMessage>) null)).isZero();
+    }
+
+    private Path byteVocabulary() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int b = 0; b < 256; b++) {
+            sb.append(Base64.getEncoder().encodeToString(new byte[]{(byte) b})).append(' ').append(b).append('\n');
+        }
+        return Files.writeString(dir.resolve("bytes.tiktoken"), sb, StandardCharsets.UTF_8);
+    }
+
+    private static TokenCounter counter(String mode, String vocabPath) {
+        TokenCounter counter = new TokenCounter(new DefaultResourceLoader());
+        setField(counter, "mode", mode);
+        setField(counter, "vocabPath", vocabPath);
+        counter.init();
+        return counter;
+    }
+}
@@ -0,0 +1,112 @@
+package com.kinch.agent.service;
+
+import com.kinch.agent.entity.TokenUsageLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * TokenUsageLogWriter：关闭后的提交、关闭时排空、失败重试
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class TokenUsageLogWriterTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private TokenUsageLogWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        writer = new TokenUsageLogWriter(jdbcTemplate, mock(TokenUsageRollupService.class));
+        ReflectionTestUtils.setField(writer, "queueCapacity", 100);
+        ReflectionTestUtils.setField(writer, "batchSize", 10);
+        ReflectionTestUtils.setField(writer, "flushIntervalMs", 60_000L);
+        ReflectionTestUtils.setField(writer, "overflowPolicy", TokenUsageLogWriter.OverflowPolicy.DROP_NEWEST);
+        ReflectionTestUtils.setField(writer, "shutdownTimeoutMs", 5_000L);
+        ReflectionTestUtils.setField(writer, "retryBackoffMs", 1L);
+        ReflectionTestUtils.setField(writer, "retryMaxBackoffMs", 4L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.shutdown();
+    }
+
+    @Test
+    void shutdownFlushesQueuedRecords() {
+        writer.start();
+        for (int i = 0; i < 3; i++) {
+            writer.submit(usage());
+        }
+
+        writer.shutdown();
+
+        assertThat(writer.getQueueSize()).isZero();
+        assertThat(writer.getStatistics().get("written")).isEqualTo(3L);
+    }
+
+    @Test
+    void recordsSubmittedAfterShutdownAreWrittenSynchronously() {
+        writer.start();
+        writer.shutdown();
+
+        writer.submit(usage());
+
+        assertThat(writer.getQueueSize()).isZero();
+        assertThat(writer.getStatistics().get("written")).isEqualTo(1L);
+        assertThat(writer.getStatistics().get("lateWrites")).isEqualTo(1L);
+    }
+
+    @Test
+    void retriesWithBackoffUntilSuccess() {
+        when(jdbcTemplate.update(anyString(), any(Object[].class)))
+                .thenThrow(new DataAccessResourceFailureException("down"))
+                .thenThrow(new DataAccessResourceFailureException("down"))
+                .thenReturn(1);
+        writer.start();
+        writer.shutdown();
+
+        writer.submit(usage());
+
+        verify(jdbcTemplate, times(3)).update(anyString(), any(Object[].class));
+        assertThat(writer.getStatistics().get("retries")).isEqualTo(2L);
+        assertThat(writer.getStatistics().get("written")).isEqualTo(1L);
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() {
+        when(jdbcTemplate.update(anyString(), any(Object[].class)))
+                .thenThrow(new DataAccessResourceFailureException("down"));
+        writer.start();
+        writer.shutdown();
+
+        writer.submit(usage());
+
+        // 首次 + 3次重试
+        verify(jdbcTemplate, times(4)).update(anyString(), any(Object[].class));
+        assertThat(writer.getStatistics().get("failed")).isEqualTo(1L);
+    }
+
+    private static TokenUsageLog usage() {
+        TokenUsageLog usage = new TokenUsageLog();
+        usage.setUserId(1L);
+        usage.setOperationType("chat");
+        usage.setInputTokens(10);
+        usage.setOutputTokens(5);
+        usage.setTotalTokens(15);
+        return usage;
+    }
+}
@@ -0,0 +1,207 @@
+package com.kinch.agent.service;
+
+import com.kinch.agent.service.TokenUsageRollupService.Granularity;
+import com.kinch.agent.service.TokenUsageRollupService.Segment;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * TokenUsageRollupService：区间拆分的边界，以及分钟/小时表被清理后首尾段改查更粗粒度
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class TokenUsageRollupServiceTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2026, 1, 16, 12, 0);
+
+    private JdbcTemplate jdbcTemplate;
+    private TokenUsageRollupService service;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        service = new TokenUsageRollupService(jdbcTemplate);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "minuteRetentionDays", 7);
+        ReflectionTestUtils.setField(service, "hourRetentionDays", 90);
+    }
+
+    @Test
+    void emptyOrReversedRangeHasNoSegments() {
+        LocalDateTime time = NOW.minusHours(1);
+
+        assertThat(service.split(time, time, NOW)).isEmpty();
+        assertThat(service.split(time, time.minusMinutes(5), NOW)).isEmpty();
+        // 同一分钟内，向下取整后为空
+        assertThat(service.split(time.plusSeconds(10), time.plusSeconds(50), NOW)).isEmpty();
+    }
+
+    @Test
+    void rangeInsideOneHourIsASingleMinuteSegment() {
+        LocalDateTime from = at(1, 10, 5);
+        LocalDateTime to = at(1, 10, 50);
+
+        assertThat(service.split(from, to, NOW)).containsExactly(new Segment(Granularity.MINUTE, from, to));
+    }
+
+    @Test
+    void rangeInsideOneDaySplitsIntoMinuteEdgesAndHours() {
+        LocalDateTime from = at(1, 9, 30);
+        LocalDateTime to = at(1, 11, 15);
+
+        assertThat(service.split(from, to, NOW)).containsExactlyInAnyOrder(
+                new Segment(Granularity.MINUTE, from, at(1, 10, 0)),
+                new Segment(Granularity.MINUTE, at(1, 11, 0), to),
+                new Segment(Granularity.HOUR, at(1, 10, 0), at(1, 11, 0)));
+    }
+
+    @Test
+    void alignedRangeHasNoEdgeSegments() {
+        LocalDateTime from = at(3, 0, 0);
+        LocalDateTime to = at(1, 0, 0);
+
+        assertThat(service.split(from, to, NOW)).containsExactly(new Segment(Granularity.DAY, from, to));
+    }
+
+    @Test
+    void multiDayRangeUsesAllThreeGranularities() {
+        LocalDateTime from = at(3, 22, 45);
+        LocalDateTime to = at(1, 2, 10);
+
+        assertThat(service.split(from, to, NOW)).containsExactlyInAnyOrder(
+                new Segment(Granularity.MINUTE, from, at(3, 23, 0)),
+                new Segment(Granularity.MINUTE, at(1, 2, 0), to),
+                new Segment(Granularity.HOUR, at(3, 23, 0), at(2, 0, 0)),
+                new Segment(Granularity.HOUR, at(1, 0, 0), at(1, 2, 0)),
+                new Segment(Granularity.DAY, at(2, 0, 0), at(1, 0, 0)));
+    }
+
+    @Test
+    void segmentsCoverTheRangeWithoutGapsOrOverlap() {
+        LocalDateTime from = at(5, 7, 13);
+        LocalDateTime to = at(2, 19, 41);
+
+        List<Segment> segments = service.split(from, to, NOW).stream()
+                .sorted((a, b) -> a.from().compareTo(b.from()))
+                .toList();
+
+        assertThat(segments.get(0).from()).isEqualTo(from);
+        assertThat(segments.get(segments.size() - 1).to()).isEqualTo(to);
+        for (int i = 1; i < segments.size(); i++) {
+            assertThat(segments.get(i).from()).isEqualTo(segments.get(i - 1).to());
+        }
+    }
+
+    @Test
+    void startOlderThanMinuteRetentionWidensToTheHour() {
+        LocalDateTime from = at(10, 9, 30);
+        LocalDateTime to = at(1, 11, 15);
+
+        List<Segment> segments = service.split(from, to, NOW);
+
+        assertThat(segments).contains(new Segment(Granularity.HOUR, at(10, 9, 0), at(9, 0, 0)));
+        assertThat(segments).noneMatch(s -> s.granularity() == Granularity.MINUTE && s.from().isBefore(at(7, 0, 0)));
+        // 尾段仍在保留期内，保持分钟精度
+        assertThat(segments).contains(new Segment(Granularity.MINUTE, at(1, 11, 0), to));
+    }
+
+    @Test
+    void endOlderThanMinuteRetentionWidensToTheHour() {
+        LocalDateTime from = at(12, 9, 30);
+        LocalDateTime to = at(10, 11, 15);
+
+        assertThat(service.split(from, to, NOW))
+                .noneMatch(s -> s.granularity() == Granularity.MINUTE)
+                .contains(new Segment(Granularity.HOUR, at(10, 0, 0), at(10, 12, 0)));
+    }
+
+    @Test
+    void rangeInsideOneExpiredHourReadsTheHourBucket() {
+        LocalDateTime from = at(10, 9, 5);
+        LocalDateTime to = at(10, 9, 50);
+
+        assertThat(service.split(from, to, NOW))
+                .containsExactly(new Segment(Granularity.HOUR, at(10, 9, 0), at(10, 10, 0)));
+    }
+
+    @Test
+    void edgesStraddlingTheMinuteCutoffKeepMinutesOnlyWhereRetained() {
+        // 分钟截止时间为 7天前 12:00，首段 12:30 仍保留，同一小时内的尾段也只从start开始读
+        LocalDateTime from = at(7, 12, 30);
+        LocalDateTime to = at(7, 12, 50);
+
+        assertThat(service.split(from, to, NOW)).containsExactly(new Segment(Granularity.MINUTE, from, to));
+    }
+
+    @Test
+    void rangeOlderThanHourRetentionReadsOnlyDays() {
+        LocalDateTime from = at(120, 9, 30);
+        LocalDateTime to = at(100, 11, 15);
+
+        assertThat(service.split(from, to, NOW))
+                .containsExactly(new Segment(Granularity.DAY, at(120, 0, 0), at(99, 0, 0)));
+    }
+
+    @Test
+    void rangeCrossingBothCutoffsDegradesOnlyTheOldEdge() {
+        LocalDateTime from = at(95, 9, 30);
+        LocalDateTime to = at(1, 11, 15);
+
+        List<Segment> segments = service.split(from, to, NOW);
+
+        assertThat(segments).contains(new Segment(Granularity.DAY, at(95, 0, 0), at(1, 0, 0)));
+        assertThat(segments).contains(new Segment(Granularity.MINUTE, at(1, 11, 0), to));
+        assertThat(segments).contains(new Segment(Granularity.HOUR, at(1, 0, 0), at(1, 11, 0)));
+        assertThat(segments).hasSize(3);
+    }
+
+    @Test
+    void disabledRetentionKeepsMinutePrecisionForOldRanges() {
+        ReflectionTestUtils.setField(service, "minuteRetentionDays", 0);
+        ReflectionTestUtils.setField(service, "hourRetentionDays", 0);
+        LocalDateTime from = at(200, 9, 30);
+        LocalDateTime to = at(200, 9, 45);
+
+        assertThat(service.split(from, to, NOW)).containsExactly(new Segment(Granularity.MINUTE, from, to));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void summarizeOfExpiredRangeDoesNotQueryPurgedTables() {
+        LocalDateTime now = LocalDateTime.now();
+        service.summarize(now.minusDays(120), now.minusDays(100), 1L, null, null, null);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate, atLeastOnce()).query(sql.capture(), any(RowMapper.class), any(Object[].class));
+        assertThat(sql.getAllValues()).allMatch(query -> query.contains("t_token_usage_rollup_day"));
+    }
+
+    @Test
+    void deleteExpiredChunkNeverPurgesDays() {
+        assertThat(service.deleteExpiredChunk(Granularity.DAY, 100)).isZero();
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+    }
+
+    /**
+     * NOW往前days天的 hour:minute
+     */
+    private static LocalDateTime at(int days, int hour, int minute) {
+        return NOW.minusDays(days).withHour(hour).withMinute(minute);
+    }
+}
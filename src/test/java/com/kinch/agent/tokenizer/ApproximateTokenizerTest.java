@@ -0,0 +1,54 @@
+package com.kinch.agent.tokenizer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ApproximateTokenizer：按片段字符构成估算
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class ApproximateTokenizerTest {
+
+    private final ApproximateTokenizer tokenizer = ApproximateTokenizer.INSTANCE;
+
+    @Test
+    void handlesEmptyAndWhitespaceInput() {
+        assertThat(tokenizer.countTokens(null)).isZero();
+        assertThat(tokenizer.countTokens("")).isZero();
+        assertThat(tokenizer.countTokens(" ")).isEqualTo(1);
+        assertThat(tokenizer.countTokens("\n\n\n")).isEqualTo(1);
+    }
+
+    @Test
+    void estimatesByCharacterClass() {
+        // 英文约5字符1个Token
+        assertThat(tokenizer.countTokens("hello")).isEqualTo(1);
+        assertThat(tokenizer.countTokens("international")).isEqualTo(3);
+        // 中文1字1个
+        assertThat(tokenizer.countTokens("北京天气")).isEqualTo(4);
+        // 数字每组（最多3位）1个
+        assertThat(tokenizer.countTokens("1234567")).isEqualTo(3);
+        // 标点约2个1个
+        assertThat(tokenizer.countTokens("!!!!")).isEqualTo(2);
+    }
+
+    @Test
+    void countsEmojiAsOneCodePoint() {
+        assertThat(tokenizer.countTokens("😀")).isEqualTo(1);
+        assertThat(tokenizer.countTokens("😀😀")).isEqualTo(1);
+        assertThat(tokenizer.countTokens("\uD83D")).isEqualTo(1);
+    }
+
+    @Test
+    void neverReturnsZeroForNonEmptyPiece() {
+        String text = "你好，world! 12 😀\n";
+        int pieces = 0;
+        for (int start = 0; start < text.length(); start = PreTokenizer.nextPieceEnd(text, start)) {
+            pieces++;
+        }
+        assertThat(tokenizer.countTokens(text)).isGreaterThanOrEqualTo(pieces);
+    }
+}
@@ -0,0 +1,176 @@
+package com.kinch.agent.tokenizer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * BpeTokenizer：按rank顺序合并、UTF-8编码（中文、emoji、代理对）、空输入，
+ * 并与逐步合并的参考实现对拍
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class BpeTokenizerTest {
+
+    private Map<String, Integer> vocab;
+    private BpeTokenizer tokenizer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        vocab = new LinkedHashMap<>();
+        for (int b = 0; b < 256; b++) {
+            vocab.put(new String(new byte[]{(byte) b}, StandardCharsets.ISO_8859_1), vocab.size());
+        }
+        for (String token : List.of("ll", "he", "hell", " w", " wor", "or", "ld", " world",
+                "bc", "ab", "bcd", "  ")) {
+            add(token.getBytes(StandardCharsets.UTF_8));
+        }
+        // "你"需要经过 e4bd -> e4bda0 两步合并；"你好"作为整体词条
+        add(new byte[]{(byte) 0xE4, (byte) 0xBD});
+        add("你".getBytes(StandardCharsets.UTF_8));
+        add("你好".getBytes(StandardCharsets.UTF_8));
+        add("😀".getBytes(StandardCharsets.UTF_8));
+        tokenizer = load(vocab);
+    }
+
+    @Test
+    void mergesByRankNotByPosition() {
+        // h e l l o -> he ll o -> hell o
+        assertThat(tokenizer.countTokens("hello")).isEqualTo(2);
+        // bc的rank低于ab：a bc d -> a bcd；若从左到右先合并ab会得到 ab c d
+        assertThat(tokenizer.countTokens("abcd")).isEqualTo(2);
+        // " world"在词表中整体命中
+        assertThat(tokenizer.countTokens("hello world")).isEqualTo(3);
+    }
+
+    @Test
+    void piecesNeverMergeAcrossPreTokenizerBoundaries() {
+        // "hel"与"lo"中间被数字隔开，分别合并
+        assertThat(tokenizer.countTokens("hel1lo")).isEqualTo(2 + 1 + 2);
+    }
+
+    @Test
+    void encodesCjkAsUtf8Bytes() {
+        assertThat(tokenizer.countTokens("你好")).isEqualTo(1);
+        // 你 -> 1个；们(e4 bb ac)没有合并 -> 3个
+        assertThat(tokenizer.countTokens("你们")).isEqualTo(4);
+        assertThat(tokenizer.countTokens("好")).isEqualTo(3);
+    }
+
+    @Test
+    void encodesSurrogatePairAsOneFourByteCodePoint() {
+        assertThat(tokenizer.countTokens("😀")).isEqualTo(1);
+        // 词表中没有的emoji按4个字节计，而不是两个代理各3字节
+        assertThat(tokenizer.countTokens("🚀")).isEqualTo(4);
+        // 孤立的代理按3字节编码，不抛异常
+        assertThat(tokenizer.countTokens("\uD83D")).isEqualTo(3);
+        assertThat(tokenizer.countTokens("a\uDE00b")).isEqualTo(5);
+    }
+
+    @Test
+    void handlesEmptyAndWhitespaceInput() {
+        assertThat(tokenizer.countTokens(null)).isZero();
+        assertThat(tokenizer.countTokens("")).isZero();
+        assertThat(tokenizer.countTokens(" ")).isEqualTo(1);
+        assertThat(tokenizer.countTokens("  ")).isEqualTo(1);
+        assertThat(tokenizer.countTokens("\n\n")).isEqualTo(2);
+        // 末尾以外的多个空格，最后一个空格留给后面的单词：" " + " world"
+        assertThat(tokenizer.countTokens("  world")).isEqualTo(2);
+    }
+
+    @Test
+    void matchesReferenceBpeOnRandomText() {
+        Random random = new Random(42);
+        String alphabet = "abcdhelowr lld你好们😀,.!\n1";
+        for (int round = 0; round < 500; round++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                int cp = alphabet.codePointAt(alphabet.offsetByCodePoints(0,
+                        random.nextInt(alphabet.codePointCount(0, alphabet.length()))));
+                sb.appendCodePoint(cp);
+            }
+            String text = sb.toString();
+            assertThat(tokenizer.countTokens(text)).as("文本: [%s]", text).isEqualTo(referenceCount(text));
+        }
+    }
+
+    @Test
+    void rejectsMalformedVocabulary() {
+        assertThatThrownBy(() -> BpeTokenizer.load(stream("")))
+                .isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> BpeTokenizer.load(stream("aGVsbG8=\n")))
+                .isInstanceOf(IOException.class);
+        assertThat(tokenizer.getVocabSize()).isEqualTo(vocab.size());
+    }
+
+    /**
+     * 参考实现：对每个预分词片段反复合并rank最小的相邻对（tiktoken的合并顺序）
+     */
+    private int referenceCount(String text) {
+        int total = 0;
+        int start = 0;
+        while (start < text.length()) {
+            int end = PreTokenizer.nextPieceEnd(text, start);
+            byte[] piece = text.substring(start, end).getBytes(StandardCharsets.UTF_8);
+            start = end;
+            // 与tiktoken一致：整个片段就是词条时直接计1个
+            if (vocab.containsKey(new String(piece, StandardCharsets.ISO_8859_1))) {
+                total++;
+                continue;
+            }
+            List<String> parts = new ArrayList<>();
+            for (byte b : piece) {
+                parts.add(new String(new byte[]{b}, StandardCharsets.ISO_8859_1));
+            }
+            while (parts.size() > 1) {
+                int best = -1;
+                int bestRank = Integer.MAX_VALUE;
+                for (int i = 0; i + 1 < parts.size(); i++) {
+                    Integer rank = vocab.get(parts.get(i) + parts.get(i + 1));
+                    if (rank != null && rank < bestRank) {
+                        bestRank = rank;
+                        best = i;
+                    }
+                }
+                if (best < 0) {
+                    break;
+                }
+                parts.set(best, parts.get(best) + parts.remove(best + 1));
+            }
+            total += parts.size();
+        }
+        return total;
+    }
+
+    private void add(byte[] token) {
+        vocab.putIfAbsent(new String(token, StandardCharsets.ISO_8859_1), vocab.size());
+    }
+
+    private static BpeTokenizer load(Map<String, Integer> vocab) throws IOException {
+        StringBuilder sb = new StringBuilder("# 测试词表\n");
+        Base64.Encoder encoder = Base64.getEncoder();
+        // 打乱行序，加载不依赖词表文件中的顺序
+        new HashMap<>(vocab).forEach((token, rank) -> sb.append(encoder.encodeToString(token.getBytes(StandardCharsets.ISO_8859_1)))
+                .append(' ').append(rank).append('\n'));
+        return BpeTokenizer.load(stream(sb.toString()));
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,70 @@
+package com.kinch.agent.tokenizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * PreTokenizer：片段切分与tiktoken正则的规则一致（缩写、字母前缀、三位数字、标点吸收换行、空白）
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class PreTokenizerTest {
+
+    @Test
+    void splitsWordsWithLeadingSpaceAndContractions() {
+        assertThat(pieces("it's we're I'll")).containsExactly("it", "'s", " we", "'re", " I", "'ll");
+    }
+
+    @Test
+    void groupsDigitsByThree() {
+        assertThat(pieces("2026年12345")).containsExactly("202", "6", "年", "123", "45");
+    }
+
+    @Test
+    void keepsCjkRunsTogetherAndAttachesOnePunctuationPrefix() {
+        assertThat(pieces("你好，世界")).containsExactly("你好", "，世界");
+    }
+
+    @Test
+    void punctuationAbsorbsTrailingNewlines() {
+        assertThat(pieces("ok!!\n\nnext")).containsExactly("ok", "!!\n\n", "next");
+    }
+
+    @Test
+    void leavesLastSpaceForFollowingWord() {
+        assertThat(pieces("a   b")).containsExactly("a", "  ", " b");
+        assertThat(pieces("a  ")).containsExactly("a", "  ");
+        assertThat(pieces("a \n b")).containsExactly("a", " \n", " b");
+    }
+
+    @Test
+    void treatsSurrogatePairAsOneCodePoint() {
+        assertThat(pieces("😀😀 ok")).containsExactly("😀😀", " ok");
+        assertThat(pieces("😀ok")).containsExactly("😀ok");
+        assertThat(PreTokenizer.codePointAt("😀", 0)).isEqualTo(0x1F600);
+        assertThat(PreTokenizer.codePointAt("\uD83D", 0)).isEqualTo(0xD83D);
+    }
+
+    @Test
+    void piecesCoverTheWholeText() {
+        String text = "Hello, 世界! It's 2026\r\n\t  SELECT * FROM t_user;😀\uD83D";
+        assertThat(String.join("", pieces(text))).isEqualTo(text);
+    }
+
+    private static List<String> pieces(String text) {
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = PreTokenizer.nextPieceEnd(text, start);
+            assertThat(end).isGreaterThan(start);
+            pieces.add(text.substring(start, end));
+            start = end;
+        }
+        return pieces;
+    }
+}
@@ -0,0 +1,112 @@
+package com.kinch.agent.tracing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tracer：后台任务的关联追踪，以及wrap()在任务异常、区间未关闭时不把区间留在池化线程上
+ *
+ * @author kinch
+ * @date 2026-01-16
+ */
+class TracerTest {
+
+    private TraceStore store;
+    private Tracer tracer;
+    private ExecutorService pool;
+
+    @BeforeEach
+    void setUp() {
+        store = new TraceStore();
+        store.init();
+        tracer = new Tracer(store);
+        pool = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void backgroundWorkAfterRequestEndsGetsItsOwnLinkedTrace() throws Exception {
+        Span request = tracer.startTrace("POST /api/agent/chat");
+        String requestTraceId = tracer.currentTraceId();
+        Runnable task = linkedTask(requestTraceId);
+        request.close();
+
+        pool.submit(task).get(5, TimeUnit.SECONDS);
+
+        Trace requestTrace = store.find(requestTraceId);
+        assertThat(requestTrace.toSummary().get("breakdown")).isEqualTo(Map.of());
+        Trace background = store.slowest(10, 0).stream()
+                .filter(trace -> !trace.getTraceId().equals(requestTraceId))
+                .findFirst().orElseThrow();
+        assertThat(background.toDetail())
+                .containsEntry("name", "summary.update")
+                .containsEntry("attributes", Map.of("linkedTraceId", requestTraceId));
+        assertThat(((Map<?, ?>) background.toSummary().get("breakdown")).keySet()).isEqualTo(Set.of("summary.fold"));
+    }
+
+    @Test
+    void linkedTraceWithoutOriginIsAPlainTrace() throws Exception {
+        pool.submit(linkedTask(null)).get(5, TimeUnit.SECONDS);
+
+        Trace background = store.slowest(10, 0).get(0);
+        assertThat(background.toDetail()).containsEntry("attributes", Map.of());
+    }
+
+    @Test
+    void spanLeftOpenByFailingTaskDoesNotLeakOntoPooledThread() throws Exception {
+        Span request = tracer.startTrace("request");
+        Runnable failing = tracer.wrap(() -> {
+            tracer.startSpan("never.closed");
+            throw new IllegalStateException("boom");
+        });
+        request.close();
+
+        assertThatThrownBy(() -> pool.submit(failing).get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(IllegalStateException.class);
+
+        assertThat(pool.submit(() -> tracer.currentTrace()).get(5, TimeUnit.SECONDS)).isNull();
+    }
+
+    @Test
+    void taskSubmittedWithoutCurrentSpanIsAlsoCleanedUp() throws Exception {
+        pool.submit(tracer.wrap(() -> tracer.startTrace("never.closed"))).get(5, TimeUnit.SECONDS);
+
+        assertThat(pool.submit(() -> tracer.currentTrace()).get(5, TimeUnit.SECONDS)).isNull();
+    }
+
+    @Test
+    void callerRunningTheTaskGetsItsOpenSpanBack() {
+        Span outer = tracer.startTrace("outer");
+        Runnable task = tracer.wrap(() -> tracer.startSpan("inner"));
+
+        task.run();
+
+        assertThat(tracer.currentTrace()).isSameAs(outer.getTrace());
+        outer.close();
+        assertThat(tracer.currentTrace()).isNull();
+    }
+
+    private Runnable linkedTask(String linkedTraceId) {
+        return tracer.wrap(() -> {
+            try (Span span = tracer.startLinkedTrace("summary.update", linkedTraceId)) {
+                try (Span fold = tracer.startSpan("summary.fold")) {
+                    fold.tag("messages", 10);
+                }
+            }
+        });
+    }
+}